@@ -83,7 +83,9 @@ import io.onedev.commons.launcher.loader.AbstractPluginModule;
 import io.onedev.commons.launcher.loader.ImplementationProvider;
 import io.onedev.commons.utils.ExceptionUtils;
 import io.onedev.commons.utils.StringUtils;
+import io.onedev.server.buildspec.job.DefaultJobCacheManager;
 import io.onedev.server.buildspec.job.DefaultJobManager;
+import io.onedev.server.buildspec.job.JobCacheManager;
 import io.onedev.server.buildspec.job.JobManager;
 import io.onedev.server.buildspec.job.log.DefaultLogManager;
 import io.onedev.server.buildspec.job.log.LogManager;
@@ -159,11 +161,17 @@ import io.onedev.server.git.GitFilter;
 import io.onedev.server.git.GitPostReceiveCallback;
 import io.onedev.server.git.GitPreReceiveCallback;
 import io.onedev.server.git.config.GitConfig;
+import io.onedev.server.infomanager.BlameInfoManager;
 import io.onedev.server.infomanager.CodeCommentRelationInfoManager;
 import io.onedev.server.infomanager.CommitInfoManager;
+import io.onedev.server.infomanager.DefaultBlameInfoManager;
 import io.onedev.server.infomanager.DefaultCodeCommentRelationInfoManager;
 import io.onedev.server.infomanager.DefaultCommitInfoManager;
+import io.onedev.server.infomanager.DefaultEnvironmentPool;
+import io.onedev.server.infomanager.DefaultLastCommitsInfoManager;
 import io.onedev.server.infomanager.DefaultUserInfoManager;
+import io.onedev.server.infomanager.EnvironmentPool;
+import io.onedev.server.infomanager.LastCommitsInfoManager;
 import io.onedev.server.infomanager.UserInfoManager;
 import io.onedev.server.maintenance.ApplyDatabaseConstraints;
 import io.onedev.server.maintenance.BackupDatabase;
@@ -210,8 +218,10 @@ import io.onedev.server.rest.jersey.DefaultServletContainer;
 import io.onedev.server.rest.jersey.JerseyConfigurator;
 import io.onedev.server.rest.jersey.ResourceConfigProvider;
 import io.onedev.server.search.code.DefaultIndexManager;
+import io.onedev.server.search.code.DefaultIndexSearcherManager;
 import io.onedev.server.search.code.DefaultSearchManager;
 import io.onedev.server.search.code.IndexManager;
+import io.onedev.server.search.code.IndexSearcherManager;
 import io.onedev.server.search.code.SearchManager;
 import io.onedev.server.security.BasicAuthenticationFilter;
 import io.onedev.server.security.CodePullAuthorizationSource;
@@ -344,6 +354,7 @@ public class CoreModule extends AbstractPluginModule {
 		bind(BuildManager.class).to(DefaultBuildManager.class);
 		bind(BuildDependenceManager.class).to(DefaultBuildDependenceManager.class);
 		bind(JobManager.class).to(DefaultJobManager.class);
+		bind(JobCacheManager.class).to(DefaultJobCacheManager.class);
 		bind(LogManager.class).to(DefaultLogManager.class);
 		bind(PullRequestBuildManager.class).to(DefaultPullRequestBuildManager.class);
 		bind(MailManager.class).to(DefaultMailManager.class);
@@ -354,8 +365,11 @@ public class CoreModule extends AbstractPluginModule {
 		bind(GroupAuthorizationManager.class).to(DefaultGroupAuthorizationManager.class);
 		bind(PullRequestWatchManager.class).to(DefaultPullRequestWatchManager.class);
 		bind(RoleManager.class).to(DefaultRoleManager.class);
+		bind(EnvironmentPool.class).to(DefaultEnvironmentPool.class);
 		bind(CommitInfoManager.class).to(DefaultCommitInfoManager.class);
 		bind(UserInfoManager.class).to(DefaultUserInfoManager.class);
+		bind(LastCommitsInfoManager.class).to(DefaultLastCommitsInfoManager.class);
+		bind(BlameInfoManager.class).to(DefaultBlameInfoManager.class);
 		bind(BatchWorkManager.class).to(DefaultBatchWorkManager.class);
 		bind(GroupManager.class).to(DefaultGroupManager.class);
 		bind(MembershipManager.class).to(DefaultMembershipManager.class);
@@ -431,6 +445,7 @@ public class CoreModule extends AbstractPluginModule {
         
 		bind(IndexManager.class).to(DefaultIndexManager.class);
 		bind(SearchManager.class).to(DefaultSearchManager.class);
+		bind(IndexSearcherManager.class).to(DefaultIndexSearcherManager.class);
 		
 		bind(EntityValidator.class).to(DefaultEntityValidator.class);
 		
@@ -0,0 +1,266 @@
+package io.onedev.server.buildspec.job;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.annotation.Nullable;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import org.apache.commons.lang3.SerializationUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.onedev.commons.launcher.bootstrap.Bootstrap;
+import io.onedev.commons.utils.FileUtils;
+import io.onedev.k8shelper.CacheInstance;
+
+/**
+ * Cache instances live on job executor hosts, and their last used time is maintained there.
+ * This manager tracks which job is using which cache instance, so that a cache instance is
+ * never used by multiple jobs concurrently. A cache instance is claimed by putting it into
+ * a concurrent map, so that allocations of different jobs do not block each other.
+ * <p>
+ * Sizes of cache instances reported by job executor hosts are kept in an index file, so that
+ * size quota can be enforced and saved bytes can be calculated across server restarts
+ *
+ * @author robin
+ *
+ */
+@Singleton
+public class DefaultJobCacheManager implements JobCacheManager {
+
+	private static final Logger logger = LoggerFactory.getLogger(DefaultJobCacheManager.class);
+
+	private static final String INDEX_FILE_NAME = "job-caches.index";
+
+	// Index entries not seen on any job executor host for this period are removed
+	private static final long INDEX_ENTRY_EXPIRE = 30L * 24L * 3600L * 1000L;
+
+	private final File indexFile;
+
+	/*
+	 * Map of cache instance name to token of job using it
+	 */
+	private final Map<String, String> claims = new ConcurrentHashMap<>();
+
+	/*
+	 * Map of cache instance name to its index entry
+	 */
+	private final Map<String, IndexEntry> index = new ConcurrentHashMap<>();
+
+	private final Map<String, JobCacheStatistics> statistics = new ConcurrentHashMap<>();
+
+	@Inject
+	public DefaultJobCacheManager() {
+		this(new File(Bootstrap.getSiteDir(), INDEX_FILE_NAME));
+	}
+
+	DefaultJobCacheManager(File indexFile) {
+		this.indexFile = indexFile;
+		if (indexFile.exists()) {
+			try {
+				@SuppressWarnings("unchecked")
+				Map<String, IndexEntry> entries = (Map<String, IndexEntry>) SerializationUtils.deserialize(
+						FileUtils.readFileToByteArray(indexFile));
+				index.putAll(entries);
+			} catch (Exception e) {
+				// Index only holds sizes of cache instances which will be reported again
+				logger.error("Error loading job cache index, ignoring", e);
+			}
+		}
+	}
+
+	private synchronized void saveIndex() {
+		long now = System.currentTimeMillis();
+		index.values().removeIf(it -> now - it.lastSeen > INDEX_ENTRY_EXPIRE);
+
+		File tempFile = new File(indexFile.getAbsolutePath() + ".tmp");
+		try {
+			try (FileOutputStream os = new FileOutputStream(tempFile)) {
+				os.write(SerializationUtils.serialize(new HashMap<>(index)));
+				os.getFD().sync();
+			}
+			Files.move(tempFile.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			logger.error("Error saving job cache index", e);
+		}
+	}
+
+	private boolean claim(String jobToken, JobContext jobContext, CacheInstance instance) {
+		if (claims.putIfAbsent(instance.getName(), jobToken) == null) {
+			jobContext.getAllocatedCaches().add(instance.getName());
+			return true;
+		} else {
+			return false;
+		}
+	}
+
+	private JobCacheStatistics getStatistics(String cacheKey) {
+		return statistics.computeIfAbsent(cacheKey, key -> new JobCacheStatistics());
+	}
+
+	private long getSize(CacheInstance instance) {
+		IndexEntry entry = index.get(instance.getName());
+		return entry != null? entry.size: 0;
+	}
+
+	@Override
+	public Map<CacheInstance, String> allocate(String jobToken, JobContext jobContext, Date currentTime,
+			Map<CacheInstance, Date> cacheInstances) {
+		long now = System.currentTimeMillis();
+		Map<String, List<CacheInstance>> instancesByKey = new HashMap<>();
+		for (CacheInstance instance: cacheInstances.keySet()) {
+			instancesByKey.computeIfAbsent(instance.getCacheKey(), key -> new ArrayList<>()).add(instance);
+			IndexEntry entry = index.get(instance.getName());
+			if (entry != null)
+				entry.lastSeen = now;
+		}
+
+		Comparator<CacheInstance> recentlyUsedFirst = new Comparator<CacheInstance>() {
+
+			@Override
+			public int compare(CacheInstance o1, CacheInstance o2) {
+				return cacheInstances.get(o2).compareTo(cacheInstances.get(o1));
+			}
+
+		};
+		for (List<CacheInstance> instances: instancesByKey.values())
+			instances.sort(recentlyUsedFirst);
+
+		Map<CacheInstance, String> allocations = new HashMap<>();
+		for (CacheSpec cacheSpec: jobContext.getCacheSpecs()) {
+			CacheInstance allocation = null;
+			for (CacheInstance instance: instancesByKey.getOrDefault(cacheSpec.getKey(), new ArrayList<>())) {
+				if (claim(jobToken, jobContext, instance)) {
+					allocation = instance;
+					break;
+				}
+			}
+			if (allocation != null) {
+				getStatistics(cacheSpec.getKey()).hit(getSize(allocation));
+			} else {
+				allocation = new CacheInstance(UUID.randomUUID().toString(), cacheSpec.getKey());
+				claim(jobToken, jobContext, allocation);
+				getStatistics(cacheSpec.getKey()).miss();
+			}
+			allocations.put(allocation, cacheSpec.getPath());
+		}
+
+		/*
+		 * Mark cache instances for deletion if they are inactive for longer than TTL, or if
+		 * they are least recently used ones exceeding count or size quota of their cache key.
+		 * Instances in use always count against the quota but are never deleted
+		 */
+		long ttl = jobContext.getCacheTTL() * 24L * 3600L * 1000L;
+		Integer maxCaches = jobContext.getMaxCachesPerKey();
+		Long maxCacheSize = null;
+		if (jobContext.getMaxCacheSizePerKey() != null)
+			maxCacheSize = jobContext.getMaxCacheSizePerKey() * 1024L * 1024L;
+		boolean indexChanged = false;
+		for (Map.Entry<String, List<CacheInstance>> entry: instancesByKey.entrySet()) {
+			int kept = 0;
+			long keptSize = 0;
+			for (CacheInstance instance: entry.getValue()) {
+				if (claims.containsKey(instance.getName())) {
+					kept++;
+					keptSize += getSize(instance);
+				} else if (currentTime.getTime() - cacheInstances.get(instance).getTime() > ttl
+						|| maxCaches != null && kept >= maxCaches
+						|| maxCacheSize != null && keptSize >= maxCacheSize) {
+					if (claim(jobToken, jobContext, instance)) {
+						allocations.put(instance, null);
+						getStatistics(entry.getKey()).evict();
+						if (index.remove(instance.getName()) != null)
+							indexChanged = true;
+					}
+				} else {
+					kept++;
+					keptSize += getSize(instance);
+				}
+			}
+		}
+		if (indexChanged)
+			saveIndex();
+
+		updateCacheCounts(jobContext, cacheInstances.keySet(), null);
+
+		return allocations;
+	}
+
+	/*
+	 * Count cache instances available for subsequent jobs, that is, instances not being used by
+	 * other jobs, and also not being used by current job unless current job token is specified
+	 */
+	private void updateCacheCounts(JobContext jobContext, Collection<CacheInstance> cacheInstances,
+			@Nullable String jobToken) {
+		for (CacheInstance cacheInstance: cacheInstances) {
+			String claimedBy = claims.get(cacheInstance.getName());
+			if (claimedBy == null || claimedBy.equals(jobToken)) {
+				String cacheKey = cacheInstance.getCacheKey();
+				Integer cacheCount = jobContext.getCacheCounts().get(cacheKey);
+				if (cacheCount == null)
+					cacheCount = 0;
+				cacheCount++;
+				jobContext.getCacheCounts().put(cacheKey, cacheCount);
+			}
+		}
+	}
+
+	@Override
+	public void report(String jobToken, JobContext jobContext, Map<CacheInstance, Long> cacheInstances) {
+		long now = System.currentTimeMillis();
+		boolean indexChanged = false;
+		for (Map.Entry<CacheInstance, Long> entry: cacheInstances.entrySet()) {
+			Long size = entry.getValue();
+			if (size != null) {
+				index.put(entry.getKey().getName(), new IndexEntry(size, now));
+				indexChanged = true;
+			}
+		}
+		if (indexChanged)
+			saveIndex();
+		updateCacheCounts(jobContext, cacheInstances.keySet(), jobToken);
+	}
+
+	@Override
+	public void release(String jobToken, JobContext jobContext) {
+		for (String instanceName: jobContext.getAllocatedCaches())
+			claims.remove(instanceName, jobToken);
+	}
+
+	@Override
+	public Map<String, JobCacheStatistics> getStatistics() {
+		return new HashMap<>(statistics);
+	}
+
+	private static class IndexEntry implements Serializable {
+
+		private static final long serialVersionUID = 1L;
+
+		final long size;
+
+		volatile long lastSeen;
+
+		IndexEntry(long size, long lastSeen) {
+			this.size = size;
+			this.lastSeen = lastSeen;
+		}
+
+	}
+
+}
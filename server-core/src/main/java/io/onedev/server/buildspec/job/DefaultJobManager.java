@@ -3,33 +3,35 @@ package io.onedev.server.buildspec.job;
 import java.io.File;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Comparator;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Iterator;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Optional;
 import java.util.Set;
+import java.util.TreeSet;
 import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.Callable;
 import java.util.concurrent.CancellationException;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.concurrent.locks.Lock;
-import java.util.function.Consumer;
 
 import javax.annotation.Nullable;
 import javax.inject.Inject;
 import javax.inject.Singleton;
 import javax.servlet.http.HttpServletRequest;
 
+import org.apache.commons.codec.digest.DigestUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.shiro.authc.credential.PasswordService;
 import org.apache.shiro.subject.Subject;
@@ -71,6 +73,7 @@ import io.onedev.server.event.build.BuildRetrying;
 import io.onedev.server.event.build.BuildRunning;
 import io.onedev.server.event.build.BuildSubmitted;
 import io.onedev.server.event.entity.EntityPersisted;
+import io.onedev.server.event.entity.EntityRemoved;
 import io.onedev.server.event.system.SystemStarted;
 import io.onedev.server.event.system.SystemStopping;
 import io.onedev.server.model.Build;
@@ -80,6 +83,7 @@ import io.onedev.server.model.Project;
 import io.onedev.server.model.Setting;
 import io.onedev.server.model.Setting.Key;
 import io.onedev.server.model.User;
+import io.onedev.server.model.support.JobSecret;
 import io.onedev.server.model.support.administration.jobexecutor.JobExecutor;
 import io.onedev.server.persistence.SessionManager;
 import io.onedev.server.persistence.TransactionManager;
@@ -103,12 +107,21 @@ public class DefaultJobManager implements JobManager, Runnable, CodePullAuthoriz
 
 	private static final int CHECK_INTERVAL = 1000; // check internal in milli-seconds
 	
+	private static final int RECONCILE_INTERVAL = 60000; // reconcile internal in milli-seconds
+	
 	private static final Logger logger = LoggerFactory.getLogger(DefaultJobManager.class);
 	
 	private final Map<String, JobContext> jobContexts = new ConcurrentHashMap<>();
 	
 	private final Map<Long, JobExecution> jobExecutions = new ConcurrentHashMap<>();
 	
+	private final BlockingQueue<Long> buildsToCheck = new LinkedBlockingQueue<>();
+	
+	/*
+	 * Map of unfinished build id to ids of waiting builds depending on it
+	 */
+	private final Map<Long, Collection<Long>> waitingDependents = new ConcurrentHashMap<>();
+	
 	private final ProjectManager projectManager;
 	
 	private final BuildManager buildManager;
@@ -131,6 +144,8 @@ public class DefaultJobManager implements JobManager, Runnable, CodePullAuthoriz
 	
 	private final PasswordService passwordService;
 	
+	private final JobCacheManager jobCacheManager;
+	
 	private volatile List<JobExecutor> jobExecutors;
 	
 	private volatile Thread thread;
@@ -139,7 +154,7 @@ public class DefaultJobManager implements JobManager, Runnable, CodePullAuthoriz
 	public DefaultJobManager(BuildManager buildManager, UserManager userManager, ListenerRegistry listenerRegistry, 
 			SettingManager settingManager, TransactionManager transactionManager, LogManager logManager, 
 			ExecutorService executorService, SessionManager sessionManager, BuildParamManager buildParamManager, 
-			ProjectManager projectManager, PasswordService passwordService) {
+			ProjectManager projectManager, PasswordService passwordService, JobCacheManager jobCacheManager) {
 		this.settingManager = settingManager;
 		this.buildManager = buildManager;
 		this.userManager = userManager;
@@ -151,6 +166,7 @@ public class DefaultJobManager implements JobManager, Runnable, CodePullAuthoriz
 		this.buildParamManager = buildParamManager;
 		this.projectManager = projectManager;
 		this.passwordService = passwordService;
+		this.jobCacheManager = jobCacheManager;
 	}
 
 	@Transactional
@@ -332,7 +348,7 @@ public class DefaultJobManager implements JobManager, Runnable, CodePullAuthoriz
 				File projectGitDir = build.getProject().getGitDir();
 				
 				AtomicReference<JobExecution> executionRef = new AtomicReference<>(null);
-				executionRef.set(new JobExecution(executorService.submit(new Runnable() {
+				FutureTask<Void> future = new FutureTask<Void>(new Runnable() {
 
 					@Override
 					public void run() {
@@ -346,6 +362,7 @@ public class DefaultJobManager implements JobManager, Runnable, CodePullAuthoriz
 							AtomicInteger retryDelay = new AtomicInteger(0);
 							List<CacheSpec> caches = new ArrayList<>();
 							List<JobService> services = new ArrayList<>();
+							AtomicReference<String> trustLevel = new AtomicReference<>(null);
 							
 							sessionManager.run(new Runnable() {
 
@@ -388,6 +405,14 @@ public class DefaultJobManager implements JobManager, Runnable, CodePullAuthoriz
 											services.add(build.interpolateProperties(service));
 										maxRetries.set(job.getMaxRetries());
 										retryDelay.set(job.getRetryDelay());
+										
+										// Jobs able to access the same set of job secrets are of the same trust level
+										Set<String> authorizedSecrets = new TreeSet<>();
+										for (JobSecret secret: build.getProject().getBuildSetting().getHierarchySecrets(build.getProject())) {
+											if (secret.isAuthorized(build.getProject(), build.getCommitId()))
+												authorizedSecrets.add(secret.getName());
+										}
+										trustLevel.set(DigestUtils.md5Hex(StringUtils.join(authorizedSecrets, "\n")));
 									} finally {
 										Build.pop();
 									}
@@ -408,7 +433,8 @@ public class DefaultJobManager implements JobManager, Runnable, CodePullAuthoriz
 													serverWorkspace, job.getCommands(), job.isRetrieveSource(), job.getCloneDepth(), 
 													submoduleCredentials, job.getCpuRequirement(), job.getMemoryRequirement(), 
 													commitId, caches, new PatternSet(includeFiles, excludeFiles), 
-													executor.getCacheTTL(), retried.get(), services, jobLogger) {
+													executor.getCacheTTL(), executor.getMaxCachesPerKey(), executor.getMaxCacheSizePerKey(), retried.get(), 
+													trustLevel.get(), services, jobLogger) {
 												
 												@Override
 												public void notifyJobRunning() {
@@ -501,6 +527,7 @@ public class DefaultJobManager implements JobManager, Runnable, CodePullAuthoriz
 									}
 								} finally {
 									jobContexts.remove(jobToken);
+									jobCacheManager.release(jobToken, jobContext);
 								}
 							}
 						} catch (Throwable e) {
@@ -536,7 +563,16 @@ public class DefaultJobManager implements JobManager, Runnable, CodePullAuthoriz
 						}
 					}
 					
-				}), job.getTimeout() * 1000L));
+				}, null) {
+
+					@Override
+					protected void done() {
+						buildsToCheck.add(buildId);
+					}
+					
+				};
+				executionRef.set(new JobExecution(future, job.getTimeout() * 1000L));
+				executorService.execute(future);
 				
 				return executionRef.get();
 			} else {
@@ -701,12 +737,31 @@ public class DefaultJobManager implements JobManager, Runnable, CodePullAuthoriz
 	}
 	
 	@SuppressWarnings("unchecked")
+	@Sessional
 	@Listen
 	public void on(EntityPersisted event) {
 		if (event.getEntity() instanceof Setting) {
 			Setting setting = (Setting) event.getEntity();
 			if (setting.getKey() == Key.JOB_EXECUTORS)
 				jobExecutors = (List<JobExecutor>) setting.getValue();
+		} else if (event.getEntity() instanceof Build) {
+			Build build = (Build) event.getEntity();
+			if (!build.isFinished())
+				requestCheck(build.getId());
+		}
+	}
+	
+	@Sessional
+	@Listen
+	public void on(EntityRemoved event) {
+		if (event.getEntity() instanceof Build) {
+			Long buildId = event.getEntity().getId();
+			requestCheck(buildId);
+			Collection<Long> dependents = waitingDependents.remove(buildId);
+			if (dependents != null) {
+				for (Long dependent: dependents)
+					requestCheck(dependent);
+			}
 		}
 	}
 	
@@ -729,102 +784,176 @@ public class DefaultJobManager implements JobManager, Runnable, CodePullAuthoriz
 		}
 	}
 
+	private void requestCheck(Long buildId) {
+		transactionManager.runAfterCommit(new Runnable() {
+
+			@Override
+			public void run() {
+				buildsToCheck.add(buildId);
+			}
+			
+		});
+	}
+	
+	private void check(Build build) {
+		JobExecution execution = jobExecutions.get(build.getId());
+		if (execution != null) {
+			if (build.isFinished()) {
+				jobExecutions.remove(build.getId());
+				execution.cancel(null);
+			} else if (execution.isDone()) {
+				jobExecutions.remove(build.getId());
+				try {
+					execution.check();
+					build.setStatus(Build.Status.SUCCESSFUL);
+				} catch (TimeoutException e) {
+					build.setStatus(Build.Status.TIMED_OUT);
+				} catch (CancellationException e) {
+					if (e instanceof CancellerAwareCancellationException) {
+						Long cancellerId = ((CancellerAwareCancellationException) e).getCancellerId();
+						if (cancellerId != null)
+							build.setCanceller(userManager.load(cancellerId));
+					}
+					build.setStatus(Build.Status.CANCELLED);
+				} catch (ExecutionException e) {
+					if (e.getCause() instanceof OneException)
+						build.setStatus(Build.Status.FAILED, e.getCause().getMessage());
+					else
+						build.setStatus(Build.Status.FAILED, e.getMessage());
+				} catch (InterruptedException e) {
+				} finally {
+					build.setFinishDate(new Date());
+					listenerRegistry.post(new BuildFinished(build));
+				}
+			} else if (execution.isTimedout()) {
+				execution.cancel(null);
+			}
+		} else if (thread != null) {
+			if (build.getStatus() == Build.Status.RUNNING || build.getStatus() == Build.Status.PENDING) {
+				try {
+					jobExecutions.put(build.getId(), execute(build));
+				} catch (Throwable t) {
+					if (t instanceof OneException)
+						markBuildError(build, t.getMessage());
+					else
+						markBuildError(build, Throwables.getStackTraceAsString(t));
+				}
+			} else if (build.getStatus() == Build.Status.WAITING) {
+				if (build.getRetryDate() != null) {
+					build.setStatus(Build.Status.PENDING);
+					build.setPendingDate(new Date());
+					listenerRegistry.post(new BuildPending(build));
+					requestCheck(build.getId());
+				} else if (build.getDependencies().stream().anyMatch(it -> it.isRequireSuccessful() 
+						&& it.getDependency().isFinished() 
+						&& it.getDependency().getStatus() != Build.Status.SUCCESSFUL)) {
+					markBuildError(build, "Some dependencies are required to be successful but failed");
+				} else if (build.getDependencies().stream().allMatch(it->it.getDependency().isFinished())) {
+					build.setStatus(Build.Status.PENDING);
+					build.setPendingDate(new Date());
+					listenerRegistry.post(new BuildPending(build));
+					requestCheck(build.getId());
+				} else {
+					for (BuildDependence dependence: build.getDependencies()) {
+						if (!dependence.getDependency().isFinished()) {
+							waitingDependents.computeIfAbsent(dependence.getDependency().getId(), 
+									k -> ConcurrentHashMap.newKeySet()).add(build.getId());
+						}
+					}
+				}
+			}
+		}
+	}
+	
+	/*
+	 * Builds are checked when relevant events are fired instead of polling database. Unfinished 
+	 * builds are still reconciled periodically in case some events are missed, for instance a 
+	 * dependency finishes while its dependents are being checked
+	 */
 	@Override
-	public synchronized void run() {
+	public void run() {
+		long lastReconcileTime = 0;
 		while (!jobExecutions.isEmpty() || thread != null) {
 			try {
-				transactionManager.run(new Runnable() {
-	
-					@Override
-					public void run() {
-						for (Build build: buildManager.queryUnfinished()) {
-							if (build.getStatus() == Build.Status.RUNNING || build.getStatus() == Build.Status.PENDING) {
-								JobExecution execution = jobExecutions.get(build.getId());
-								if (execution != null) {
-									if (execution.isTimedout())
-										execution.cancel(null);
-								} else if (thread != null) {
-									try {
-										jobExecutions.put(build.getId(), execute(build));
-									} catch (Throwable t) {
-										if (t instanceof OneException)
-											markBuildError(build, t.getMessage());
-										else
-											markBuildError(build, Throwables.getStackTraceAsString(t));
-									}
-								}
-							} else if (build.getStatus() == Build.Status.WAITING) {
-								if (build.getRetryDate() != null) {
-									JobExecution execution = jobExecutions.get(build.getId());
-									if (execution == null && thread != null) {
-										build.setStatus(Build.Status.PENDING);
-										build.setPendingDate(new Date());
-										listenerRegistry.post(new BuildPending(build));
-									}
-								} else if (build.getDependencies().stream().anyMatch(it -> it.isRequireSuccessful() 
-										&& it.getDependency().isFinished() 
-										&& it.getDependency().getStatus() != Build.Status.SUCCESSFUL)) {
-									markBuildError(build, "Some dependencies are required to be successful but failed");
-								} else if (build.getDependencies().stream().allMatch(it->it.getDependency().isFinished())) {
-									build.setStatus(Build.Status.PENDING);
-									build.setPendingDate(new Date());
-									listenerRegistry.post(new BuildPending(build));
-								}
-							} 
-						}
-						for (Iterator<Map.Entry<Long, JobExecution>> it = jobExecutions.entrySet().iterator(); it.hasNext();) {
-							Map.Entry<Long, JobExecution> entry = it.next();
-							Build build = buildManager.get(entry.getKey());
-							JobExecution execution = entry.getValue();
-							if (build == null || build.isFinished()) {
-								it.remove();
-								execution.cancel(null);
-							} else if (execution.isDone()) {
-								it.remove();
-								try {
-									execution.check();
-									build.setStatus(Build.Status.SUCCESSFUL);
-								} catch (TimeoutException e) {
-									build.setStatus(Build.Status.TIMED_OUT);
-								} catch (CancellationException e) {
-									if (e instanceof CancellerAwareCancellationException) {
-										Long cancellerId = ((CancellerAwareCancellationException) e).getCancellerId();
-										if (cancellerId != null)
-											build.setCanceller(userManager.load(cancellerId));
+				for (Map.Entry<Long, JobExecution> entry: jobExecutions.entrySet()) {
+					JobExecution execution = entry.getValue();
+					if (execution.isDone())
+						buildsToCheck.add(entry.getKey());
+					else if (execution.isTimedout())
+						execution.cancel(null);
+				}
+
+				Collection<Long> buildIds = new HashSet<>();
+				Long firstBuildId = buildsToCheck.poll(CHECK_INTERVAL, TimeUnit.MILLISECONDS);
+				if (firstBuildId != null) {
+					buildIds.add(firstBuildId);
+					buildsToCheck.drainTo(buildIds);
+				}
+				
+				boolean reconcile = System.currentTimeMillis() - lastReconcileTime > RECONCILE_INTERVAL;
+				if (reconcile)
+					lastReconcileTime = System.currentTimeMillis();
+				
+				if (reconcile || !buildIds.isEmpty()) {
+					transactionManager.run(new Runnable() {
+		
+						@Override
+						public void run() {
+							Map<Long, Build> builds = new HashMap<>();
+							if (reconcile) {
+								for (Build build: buildManager.queryUnfinished())
+									builds.put(build.getId(), build);
+								buildIds.addAll(jobExecutions.keySet());
+							}
+							for (Long buildId: buildIds) {
+								if (!builds.containsKey(buildId)) {
+									Build build = buildManager.get(buildId);
+									if (build != null) {
+										builds.put(buildId, build);
+									} else {
+										JobExecution execution = jobExecutions.remove(buildId);
+										if (execution != null)
+											execution.cancel(null);
 									}
-									build.setStatus(Build.Status.CANCELLED);
-								} catch (ExecutionException e) {
-									if (e.getCause() instanceof OneException)
-										build.setStatus(Build.Status.FAILED, e.getCause().getMessage());
-									else
-										build.setStatus(Build.Status.FAILED, e.getMessage());
-								} catch (InterruptedException e) {
-								} finally {
-									build.setFinishDate(new Date());
-									listenerRegistry.post(new BuildFinished(build));
 								}
 							}
+							for (Build build: builds.values()) 
+								check(build);
 						}
-					}
-					
-				});
-				Thread.sleep(CHECK_INTERVAL);
+						
+					});
+				}
 			} catch (Throwable e) {
 				logger.error("Error checking unfinished builds", e);
 			} 
 		}	
 	}
 	
+	@Sessional
+	@Listen
+	public void on(BuildPending event) {
+		requestCheck(event.getBuild().getId());
+	}
+	
+	@Sessional
 	@Listen
 	public void on(BuildSubmitted event) {
 		Build build = event.getBuild();
 		FileUtils.deleteDir(build.getPublishDir());
+		requestCheck(build.getId());
 	}
 
 	@Transactional
 	@Listen
 	public void on(BuildFinished event) {
 		Build build = event.getBuild();
+		requestCheck(build.getId());
+		Collection<Long> dependents = waitingDependents.remove(build.getId());
+		if (dependents != null) {
+			for (Long dependent: dependents)
+				requestCheck(dependent);
+		}
+		
 		for (BuildParam param: build.getParams()) {
 			if (param.getType().equals(ParamSpec.SECRET)) 
 				param.setValue(null);
@@ -876,89 +1005,12 @@ public class DefaultJobManager implements JobManager, Runnable, CodePullAuthoriz
 	@Override
 	public Map<CacheInstance, String> allocateJobCaches(String jobToken, Date currentTime, 
 			Map<CacheInstance, Date> cacheInstances) {
-		synchronized (jobContexts) {
-			JobContext jobContext = getJobContext(jobToken, true);
-			
-			List<CacheInstance> sortedInstances = new ArrayList<>(cacheInstances.keySet());
-			sortedInstances.sort(new Comparator<CacheInstance>() {
-	
-				@Override
-				public int compare(CacheInstance o1, CacheInstance o2) {
-					return cacheInstances.get(o2).compareTo(cacheInstances.get(o1));
-				}
-				
-			});
-		
-			Collection<String> allAllocated = new HashSet<>();
-			for (JobContext each: jobContexts.values())
-				allAllocated.addAll(each.getAllocatedCaches());
-			Map<CacheInstance, String> allocations = new HashMap<>();
-			for (CacheSpec cacheSpec: jobContext.getCacheSpecs()) {
-				Optional<CacheInstance> result = sortedInstances
-						.stream()
-						.filter(it->it.getCacheKey().equals(cacheSpec.getKey()))
-						.filter(it->!allAllocated.contains(it.getName()))
-						.findFirst();
-				CacheInstance allocation;
-				if (result.isPresent()) 
-					allocation = result.get();
-				else
-					allocation = new CacheInstance(UUID.randomUUID().toString(), cacheSpec.getKey());
-				allocations.put(allocation, cacheSpec.getPath());
-				jobContext.getAllocatedCaches().add(allocation.getName());
-				allAllocated.add(allocation.getName());
-			}
-			
-			Consumer<CacheInstance> deletionMarker = new Consumer<CacheInstance>() {
-	
-				@Override
-				public void accept(CacheInstance instance) {
-					long ellapsed = currentTime.getTime() - cacheInstances.get(instance).getTime();
-					if (ellapsed > jobContext.getCacheTTL() * 24L * 3600L * 1000L) {
-						allocations.put(instance, null);
-						jobContext.getAllocatedCaches().add(instance.getName());
-						allAllocated.add(instance.getName());
-					}
-				}
-				
-			};
-			
-			cacheInstances.keySet()
-					.stream()
-					.filter(it->!allAllocated.contains(it.getName()))
-					.forEach(deletionMarker);
-			
-			updateCacheCounts(jobContext, cacheInstances.keySet(), allAllocated);
-			
-			return allocations;
-		}
+		return jobCacheManager.allocate(jobToken, getJobContext(jobToken, true), currentTime, cacheInstances);
 	}
 	
-	private void updateCacheCounts(JobContext jobContext, Collection<CacheInstance> cacheInstances, 
-			Collection<String> allAllocated) {
-		for (CacheInstance cacheInstance: cacheInstances) {
-			if (!allAllocated.contains(cacheInstance.getName())) {
-				String cacheKey = cacheInstance.getCacheKey();
-				Integer cacheCount = jobContext.getCacheCounts().get(cacheKey);
-				if (cacheCount == null)
-					cacheCount = 0;
-				cacheCount++;
-				jobContext.getCacheCounts().put(cacheKey, cacheCount);
-			}
-		}
-	}
-
 	@Override
-	public void reportJobCaches(String jobToken, Collection<CacheInstance> cacheInstances) {
-		synchronized (jobContexts) {
-			JobContext jobContext = getJobContext(jobToken, true);
-			Collection<String> allAllocated = new HashSet<>();
-			for (JobContext each: jobContexts.values()) {
-				if (each != jobContext)
-					allAllocated.addAll(each.getAllocatedCaches());
-			}
-			updateCacheCounts(jobContext, cacheInstances, allAllocated);
-		}
+	public void reportJobCaches(String jobToken, Map<CacheInstance, Long> cacheInstances) {
+		jobCacheManager.report(jobToken, getJobContext(jobToken, true), cacheInstances);
 	}
 
 }
\ No newline at end of file
@@ -0,0 +1,54 @@
+package io.onedev.server.buildspec.job;
+
+import java.util.Date;
+import java.util.Map;
+
+import io.onedev.k8shelper.CacheInstance;
+
+public interface JobCacheManager {
+
+	/**
+	 * Allocate caches for specified job out of cache instances found on job executor host
+	 * 
+	 * @param jobToken
+	 * 			token of job to allocate caches for
+	 * @param jobContext
+	 * 			context of job to allocate caches for
+	 * @param currentTime
+	 * 			current time of job executor host
+	 * @param cacheInstances
+	 * 			cache instances found on job executor host, mapping to their last used time
+	 * @return
+	 * 			map of allocated cache instance to cache path. Cache path will be <tt>null</tt> 
+	 * 			if the cache instance should be deleted
+	 */
+	Map<CacheInstance, String> allocate(String jobToken, JobContext jobContext, Date currentTime, 
+			Map<CacheInstance, Date> cacheInstances);
+	
+	/**
+	 * Report cache instances found on job executor host after job finishes
+	 * 
+	 * @param jobToken
+	 * 			token of job reporting caches
+	 * @param jobContext
+	 * 			context of job reporting caches
+	 * @param cacheInstances
+	 * 			cache instances found on job executor host, mapping to their size in bytes. Size 
+	 * 			will be <tt>null</tt> if it is not known to the host
+	 */
+	void report(String jobToken, JobContext jobContext, Map<CacheInstance, Long> cacheInstances);
+	
+	/**
+	 * Release caches allocated for specified job so that they can be allocated to other jobs
+	 */
+	void release(String jobToken, JobContext jobContext);
+	
+	/**
+	 * Get statistics of job caches since server start
+	 * 
+	 * @return
+	 * 			map of cache key to statistics of the key
+	 */
+	Map<String, JobCacheStatistics> getStatistics();
+	
+}
@@ -0,0 +1,70 @@
+package io.onedev.server.buildspec.job;
+
+import java.io.Serializable;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class JobCacheStatistics implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	private final AtomicLong hits = new AtomicLong(0);
+	
+	private final AtomicLong misses = new AtomicLong(0);
+	
+	private final AtomicLong evictions = new AtomicLong(0);
+	
+	private final AtomicLong bytesSaved = new AtomicLong(0);
+	
+	/**
+	 * @return
+	 * 			number of allocations reusing an existing cache instance
+	 */
+	public long getHits() {
+		return hits.get();
+	}
+
+	/**
+	 * @return
+	 * 			number of allocations creating a new cache instance
+	 */
+	public long getMisses() {
+		return misses.get();
+	}
+
+	/**
+	 * @return
+	 * 			number of cache instances deleted due to TTL or quota
+	 */
+	public long getEvictions() {
+		return evictions.get();
+	}
+	
+	/**
+	 * @return
+	 * 			total size in bytes of existing cache instances reused by allocations. Size of a 
+	 * 			cache instance is known only after it is reported by job executor host
+	 */
+	public long getBytesSaved() {
+		return bytesSaved.get();
+	}
+	
+	public double getHitRate() {
+		long hits = getHits();
+		long total = hits + getMisses();
+		return total != 0? (double)hits/total: 0;
+	}
+	
+	void hit(long size) {
+		hits.incrementAndGet();
+		bytesSaved.addAndGet(size);
+	}
+	
+	void miss() {
+		misses.incrementAndGet();
+	}
+	
+	void evict() {
+		evictions.incrementAndGet();
+	}
+	
+}
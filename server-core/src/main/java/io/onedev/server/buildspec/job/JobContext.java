@@ -2,11 +2,12 @@ package io.onedev.server.buildspec.job;
 
 import java.io.File;
 import java.util.Collection;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 
+import javax.annotation.Nullable;
+
 import org.eclipse.jgit.lib.ObjectId;
 
 import io.onedev.server.util.JobLogger;
@@ -46,11 +47,17 @@ public abstract class JobContext {
 	
 	private final int cacheTTL;
 	
+	private final Integer maxCachesPerKey;
+	
+	private final Integer maxCacheSizePerKey;
+	
 	private final int retried;
 	
+	private final String trustLevel;
+	
 	private final JobLogger logger;	
 	
-	private final Collection<String> allocatedCaches = new HashSet<>();
+	private final Collection<String> allocatedCaches = ConcurrentHashMap.newKeySet();
 	
 	private final Map<String, Integer> cacheCounts = new ConcurrentHashMap<>();
 	
@@ -58,8 +65,9 @@ public abstract class JobContext {
 			File workspace, List<String> commands, boolean retrieveSource, Integer cloneDepth,
 			List<SubmoduleCredential> submoduleCredentials, String cpuRequirement, String 
 			memoryRequirement, ObjectId commitId, Collection<CacheSpec> caches, 
-			PatternSet collectFiles, int cacheTTL, int retried, List<JobService> services, 
-			JobLogger logger) {
+			PatternSet collectFiles, int cacheTTL, @Nullable Integer maxCachesPerKey, 
+			@Nullable Integer maxCacheSizePerKey, int retried, 
+			String trustLevel, List<JobService> services, JobLogger logger) {
 		this.projectName = projectName;
 		this.buildNumber = buildNumber;
 		this.projectGitDir = projectGitDir;
@@ -75,7 +83,10 @@ public abstract class JobContext {
 		this.cacheSpecs = caches;
 		this.collectFiles = collectFiles;
 		this.cacheTTL = cacheTTL;
+		this.maxCachesPerKey = maxCachesPerKey;
+		this.maxCacheSizePerKey = maxCacheSizePerKey;
 		this.retried = retried;
+		this.trustLevel = trustLevel;
 		this.services = services;
 		this.logger = logger;
 	}
@@ -144,10 +155,34 @@ public abstract class JobContext {
 		return cacheTTL;
 	}
 
+	@Nullable
+	public Integer getMaxCachesPerKey() {
+		return maxCachesPerKey;
+	}
+
+	/**
+	 * @return
+	 * 			max total size of caches of each cache key in megabytes, or <tt>null</tt> if 
+	 * 			not limited
+	 */
+	@Nullable
+	public Integer getMaxCacheSizePerKey() {
+		return maxCacheSizePerKey;
+	}
+
 	public int getRetried() {
 		return retried;
 	}
 
+	/**
+	 * @return
+	 * 			trust level of the job. Jobs of the same project with the same trust level have 
+	 * 			access to the same job secrets, and may share resources left by each other
+	 */
+	public String getTrustLevel() {
+		return trustLevel;
+	}
+
 	public Collection<String> getAllocatedCaches() {
 		return allocatedCaches;
 	}
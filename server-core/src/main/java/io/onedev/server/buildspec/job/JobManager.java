@@ -1,6 +1,5 @@
 package io.onedev.server.buildspec.job;
 
-import java.util.Collection;
 import java.util.Date;
 import java.util.List;
 import java.util.Map;
@@ -26,6 +25,11 @@ public interface JobManager {
 	Map<CacheInstance, String> allocateJobCaches(String jobToken, Date currentTime, 
 			Map<CacheInstance, Date> cacheInstances);
 	
-	void reportJobCaches(String jobToken, Collection<CacheInstance> cacheInstances);
+	/**
+	 * @param cacheInstances
+	 * 			cache instances found on job executor host, mapping to their size in bytes. Size 
+	 * 			will be <tt>null</tt> if it is not known to the host
+	 */
+	void reportJobCaches(String jobToken, Map<CacheInstance, Long> cacheInstances);
 	
 }
@@ -1,32 +1,38 @@
 package io.onedev.server.buildspec.job.log;
 
-import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
-import java.io.EOFException;
-import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.LockSupport;
 import java.util.regex.Pattern;
 
+import javax.annotation.Nullable;
 import javax.inject.Inject;
 import javax.inject.Singleton;
 
 import org.antlr.v4.runtime.tree.TerminalNode;
 import org.apache.commons.io.IOUtils;
-import org.apache.commons.lang3.StringUtils;
 import org.joda.time.DateTime;
 import org.joda.time.format.DateTimeFormat;
 import org.joda.time.format.DateTimeFormatter;
@@ -34,6 +40,8 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.google.common.base.Splitter;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 
 import io.onedev.commons.launcher.loader.Listen;
 import io.onedev.commons.utils.ExceptionUtils;
@@ -44,15 +52,18 @@ import io.onedev.server.buildspec.job.log.instruction.LogInstructionParser.Instr
 import io.onedev.server.buildspec.job.log.instruction.LogInstructionParser.ParamContext;
 import io.onedev.server.entitymanager.BuildManager;
 import io.onedev.server.event.build.BuildFinished;
+import io.onedev.server.event.build.BuildSubmitted;
+import io.onedev.server.event.entity.EntityRemoved;
+import io.onedev.server.event.system.SystemStarted;
+import io.onedev.server.event.system.SystemStopping;
 import io.onedev.server.model.Build;
 import io.onedev.server.persistence.annotation.Sessional;
 import io.onedev.server.storage.StorageManager;
 import io.onedev.server.util.JobLogger;
-import io.onedev.server.util.inputspec.SecretInput;
 import io.onedev.server.web.websocket.WebSocketManager;
 
 @Singleton
-public class DefaultLogManager implements LogManager {
+public class DefaultLogManager implements LogManager, Runnable {
 
 	private static final Logger logger = LoggerFactory.getLogger(DefaultLogManager.class);
 	
@@ -60,7 +71,15 @@ public class DefaultLogManager implements LogManager {
 
 	private static final int MAX_CACHE_ENTRIES = 10000;
 	
-	private static final String LOG_FILE = "build.log";
+	private static final int MIN_MATCH_CHUNK_ENTRIES = 50000;
+	
+	private static final int MAX_PENDING_ENTRIES = 50000;
+	
+	private static final long FLUSH_INTERVAL = 250;
+	
+	private static final int MAX_MATCH_CACHE_BUILDS = 1000;
+	
+	private static final long MATCH_CACHE_EXPIRE_MINUTES = 60;
 	
 	private static final DateTimeFormatter DATE_FORMATTER = DateTimeFormat.forPattern("HH:mm:ss");	
 	
@@ -72,64 +91,77 @@ public class DefaultLogManager implements LogManager {
 	
 	private final BuildManager buildManager;
 	
+	private final ExecutorService executorService;
+	
 	private final Map<Long, LogSnippet> recentSnippets = new ConcurrentHashMap<>();
 	
+	private final Cache<Long, Map<String, LogMatch>> logMatches = CacheBuilder.newBuilder()
+			.maximumSize(MAX_MATCH_CACHE_BUILDS)
+			.expireAfterAccess(MATCH_CACHE_EXPIRE_MINUTES, TimeUnit.MINUTES)
+			.build();
+	
+	private final Collection<PendingLog> pendingLogs = ConcurrentHashMap.newKeySet();
+	
+	// Set when entries are offered to pending logs, flusher parks while this is not set
+	private final AtomicBoolean hasPendingEntries = new AtomicBoolean(false);
+	
+	private volatile Thread thread;
+	
 	@Inject
 	public DefaultLogManager(StorageManager storageManager, WebSocketManager webSocketManager, 
-			BuildManager buildManager) {
+			BuildManager buildManager, ExecutorService executorService) {
 		this.storageManager = storageManager;
 		this.webSocketManager = webSocketManager;
 		this.buildManager = buildManager;
+		this.executorService = executorService;
 	}
 	
-	private File getLogFile(Long projectId, Long buildNumber) {
-		File buildDir = storageManager.getBuildDir(projectId, buildNumber);
-		return new File(buildDir, LOG_FILE);
+	private LogFile getLogFile(Long projectId, Long buildNumber) {
+		return new LogFile(storageManager.getBuildDir(projectId, buildNumber));
+	}
+	
+	/*
+	 * Get log file of specified build, migrating it from legacy format if necessary. Should not be 
+	 * called while holding read lock of the build log, as migration requires the write lock
+	 */
+	private LogFile getLogFile(Build build) {
+		LogFile logFile = getLogFile(build.getProject().getId(), build.getNumber());
+		if (logFile.isLegacy()) {
+			Lock lock = LockUtils.getReadWriteLock(getLockKey(build.getId())).writeLock();
+			lock.lock();
+			try {
+				logFile.migrate();
+			} finally {
+				lock.unlock();
+			}
+		}
+		return logFile;
 	}
 	
 	@Override
 	public JobLogger getLogger(Build build, Collection<String> jobSecretsToMask) {
-		Long projectId = build.getProject().getId();
-		Long buildId = build.getId();
-		Long buildNumber = build.getNumber();
 		Collection<String> secretValuesToMask = build.getSecretValuesToMask();
 		secretValuesToMask.addAll(jobSecretsToMask);
+		PendingLog pendingLog = new PendingLog(build.getProject().getId(), build.getId(), 
+				build.getNumber(), new SecretMasker(secretValuesToMask));
+		pendingLogs.add(pendingLog);
+		
+		Long buildId = build.getId();
 		return new JobLogger() {
 			
 			private void doLog(String message) {
-				for (String maskSecret: secretValuesToMask)
-					message = StringUtils.replace(message, maskSecret, SecretInput.MASK);
-				
-				Lock lock = LockUtils.getReadWriteLock(getLockKey(buildId)).writeLock();
-				lock.lock();
-				try {
-					LogSnippet snippet = recentSnippets.get(buildId);
-					if (snippet == null) {
-						File logFile = getLogFile(projectId, buildNumber);
-						if (!logFile.exists())	{
-							snippet = new LogSnippet();
-							recentSnippets.put(buildId, snippet);
-						}
+				if (!pendingLog.closed) {
+					if (!pendingLog.capacity.tryAcquire()) {
+						// Flusher is falling behind, flush in current thread to apply back pressure
+						flush(pendingLog);
+						pendingLog.capacity.acquireUninterruptibly();
 					}
-					if (snippet != null) {
-						snippet.entries.add(new JobLogEntry(new Date(), message));
-						if (snippet.entries.size() > MAX_CACHE_ENTRIES) {
-							File logFile = getLogFile(projectId, buildNumber);
-							try (ObjectOutputStream oos = newOutputStream(logFile)) {
-								while (snippet.entries.size() > MIN_CACHE_ENTRIES) {
-									JobLogEntry entry = snippet.entries.remove(0);
-									oos.writeObject(entry);
-									snippet.offset++;
-								}
-							} catch (IOException e) {
-								throw new RuntimeException(e);
-							}
-						}
-						
-						webSocketManager.notifyObservableChange(Build.getLogWebSocketObservable(buildId), null);
+					pendingLog.entries.offer(new JobLogEntry(new Date(), message));
+					if (!hasPendingEntries.get() && hasPendingEntries.compareAndSet(false, true)) {
+						Thread flusher = thread;
+						if (flusher != null)
+							LockSupport.unpark(flusher);
 					}
-				} finally {
-					lock.unlock();
 				}
 			}
 			
@@ -179,6 +211,108 @@ public class DefaultLogManager implements LogManager {
 		};
 	}
 	
+	/*
+	 * Write pending entries of specified log into recent snippet of the build, masking secrets 
+	 * on the way. 
+	 * 
+	 * @return
+	 * 			whether or not any entries are written
+	 */
+	private boolean flush(PendingLog pendingLog) {
+		synchronized (pendingLog) {
+			List<JobLogEntry> entries = new ArrayList<>();
+			JobLogEntry entry;
+			while ((entry = pendingLog.entries.poll()) != null) 
+				entries.add(new JobLogEntry(entry.getDate(), pendingLog.secretMasker.mask(entry.getMessage())));
+			if (entries.isEmpty())
+				return false;
+			pendingLog.capacity.release(entries.size());
+			
+			Lock lock = LockUtils.getReadWriteLock(getLockKey(pendingLog.buildId)).writeLock();
+			lock.lock();
+			try {
+				LogSnippet snippet = recentSnippets.get(pendingLog.buildId);
+				if (snippet == null) {
+					LogFile logFile = getLogFile(pendingLog.projectId, pendingLog.buildNumber);
+					if (!logFile.exists())	{
+						snippet = new LogSnippet();
+						recentSnippets.put(pendingLog.buildId, snippet);
+					}
+				}
+				if (snippet != null) {
+					snippet.entries.addAll(entries);
+					if (snippet.entries.size() > MAX_CACHE_ENTRIES) {
+						List<JobLogEntry> entriesToFlush = new ArrayList<>();
+						while (snippet.entries.size() > MIN_CACHE_ENTRIES) 
+							entriesToFlush.add(snippet.entries.remove(0));
+						getLogFile(pendingLog.projectId, pendingLog.buildNumber).append(entriesToFlush);
+						snippet.offset += entriesToFlush.size();
+					}
+					return true;
+				} else {
+					return false;
+				}
+			} finally {
+				lock.unlock();
+			}
+		}
+	}
+	
+	private void flush(Long buildId) {
+		for (PendingLog pendingLog: pendingLogs) {
+			if (pendingLog.buildId.equals(buildId)) 
+				flush(pendingLog);
+		}
+	}
+	
+	@Override
+	public void run() {
+		while (thread != null) {
+			// Clear before flushing, so that entries offered during flushing wake up next round
+			hasPendingEntries.set(false);
+			try {
+				Collection<Long> changedBuildIds = new HashSet<>();
+				for (PendingLog pendingLog: pendingLogs) {
+					if (flush(pendingLog))
+						changedBuildIds.add(pendingLog.buildId);
+				}
+				
+				// Notify at most once per build per flush interval no matter how many lines are logged
+				for (Long buildId: changedBuildIds)
+					webSocketManager.notifyObservableChange(Build.getLogWebSocketObservable(buildId), null);
+			} catch (Exception e) {
+				logger.error("Error flushing build logs", e);
+			}
+			try {
+				Thread.sleep(FLUSH_INTERVAL);
+			} catch (InterruptedException e) {
+			}
+			while (thread != null && !hasPendingEntries.get())
+				LockSupport.park(this);
+		}
+	}
+	
+	@Listen
+	public void on(SystemStarted event) {
+		thread = new Thread(this, "Build Log Flusher");
+		thread.start();
+	}
+	
+	@Listen
+	public void on(SystemStopping event) {
+		Thread copy = thread;
+		thread = null;
+		if (copy != null) {
+			copy.interrupt();
+			try {
+				copy.join();
+			} catch (InterruptedException e) {
+			}
+		}
+		for (PendingLog pendingLog: pendingLogs)
+			flush(pendingLog);
+	}
+	
 	@Sessional
 	protected void doInSession(LogInstruction instruction, Long buildId, Map<String, List<String>> params) {
 		instruction.execute(buildManager.load(buildId), params);
@@ -188,83 +322,114 @@ public class DefaultLogManager implements LogManager {
 		return "build-log: " + buildId;
 	}
 
+	private boolean matches(JobLogEntry entry, Pattern pattern, @Nullable Date retryDate) {
+		return (retryDate == null || !entry.getDate().before(retryDate)) 
+				&& pattern.matcher(entry.getMessage()).find();
+	}
+	
+	private boolean matches(LogFile logFile, long fromOffset, long toOffset, Pattern pattern, 
+			@Nullable Date retryDate) {
+		try (LogFile.Reader reader = logFile.openReader(fromOffset, toOffset)) {
+			JobLogEntry entry;
+			while ((entry = reader.next()) != null) {
+				if (Thread.currentThread().isInterrupted())
+					return false;
+				if (matches(entry, pattern, retryDate))
+					return true;
+			}
+			return false;
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+	
+	/*
+	 * Scan specified range of the log file. Large range will be split at indexed offsets to be 
+	 * scanned in parallel 
+	 */
+	private boolean matchesInParallel(LogFile logFile, long fromOffset, long toOffset, Pattern pattern, 
+			@Nullable Date retryDate) {
+		List<Long> indexedOffsets = logFile.getIndexedOffsets(fromOffset, toOffset);
+		int intervalsPerChunk = Math.max(MIN_MATCH_CHUNK_ENTRIES / LogFile.INDEX_INTERVAL, 
+				indexedOffsets.size() / Runtime.getRuntime().availableProcessors() + 1);
+		if (indexedOffsets.size() <= intervalsPerChunk) 
+			return matches(logFile, fromOffset, toOffset, pattern, retryDate);
+		
+		List<Long> boundaries = new ArrayList<>();
+		boundaries.add(fromOffset);
+		for (int i=intervalsPerChunk; i<indexedOffsets.size(); i+=intervalsPerChunk)
+			boundaries.add(indexedOffsets.get(i));
+		boundaries.add(toOffset);
+
+		CompletionService<Boolean> completionService = new ExecutorCompletionService<>(executorService);
+		List<Future<Boolean>> futures = new ArrayList<>();
+		for (int i=0; i<boundaries.size()-1; i++) {
+			long chunkFromOffset = boundaries.get(i);
+			long chunkToOffset = boundaries.get(i+1);
+			futures.add(completionService.submit(new Callable<Boolean>() {
+
+				@Override
+				public Boolean call() throws Exception {
+					return matches(logFile, chunkFromOffset, chunkToOffset, pattern, retryDate);
+				}
+				
+			}));
+		}
+		try {
+			for (int i=0; i<futures.size(); i++) {
+				if (completionService.take().get())
+					return true;
+			}
+			return false;
+		} catch (InterruptedException | ExecutionException e) {
+			throw ExceptionUtils.unchecked(e);
+		} finally {
+			for (Future<Boolean> future: futures)
+				future.cancel(true);
+		}
+	}
+	
 	@Override
 	public boolean matches(Build build, Pattern pattern) {
+		flush(build.getId());
+		LogFile logFile = getLogFile(build);
+		Date retryDate = build.getRetryDate();
 		Lock lock = LockUtils.getReadWriteLock(getLockKey(build.getId())).readLock();
 		lock.lock();
 		try {
 			LogSnippet snippet = recentSnippets.get(build.getId());
 			if (snippet != null) {
 				for (JobLogEntry entry: snippet.entries) {
-					if ((build.getRetryDate() == null || !entry.getDate().before(build.getRetryDate())) 
-							&& pattern.matcher(entry.getMessage()).find()) {
+					if (matches(entry, pattern, retryDate))
 						return true;
-					}
 				}
 			}
 			
-			File logFile = getLogFile(build.getProject().getId(), build.getNumber());
-			
 			if (logFile.exists()) {
-				try (ObjectInputStream ois = new ObjectInputStream(new BufferedInputStream(new FileInputStream(logFile)))) {
-					while (true) {
-						JobLogEntry entry  = (JobLogEntry) ois.readObject();
-						if ((build.getRetryDate() == null || !entry.getDate().before(build.getRetryDate())) 
-								&& pattern.matcher(entry.getMessage()).find()) {
-							return true;
-						}
+				String matchKey = pattern.pattern() + ":" + pattern.flags() + ":" 
+						+ (retryDate!=null?retryDate.getTime():"");
+				LogMatch match = logMatches.asMap().computeIfAbsent(build.getId(), k -> new ConcurrentHashMap<>())
+						.computeIfAbsent(matchKey, k -> new LogMatch());
+				synchronized (match) {
+					long length = logFile.getLength();
+					if (length < match.scannedLength) {
+						match.scannedLength = 0;
+						match.matched = false;
 					}
-				} catch (EOFException e) {
-				} catch (IOException|ClassNotFoundException e) {
-					throw new RuntimeException(e);
+					if (!match.matched && match.scannedLength < length) {
+						match.matched = matchesInParallel(logFile, match.scannedLength, length, pattern, retryDate);
+						match.scannedLength = length;
+					}
+					return match.matched;
 				}
+			} else {
+				return false;
 			}
-			return false;
 		} finally {
 			lock.unlock();
 		}
 	}
 	
-	private List<JobLogEntry> readLogEntries(File logFile, int from, int count) {
-		List<JobLogEntry> entries = new ArrayList<>();
-		if (logFile.exists()) {
-			try (ObjectInputStream ois = new ObjectInputStream(new BufferedInputStream(new FileInputStream(logFile)))) {
-				int numOfReadEntries = 0;
-				while (numOfReadEntries < from) {
-					ois.readObject();
-					numOfReadEntries++;
-				}
-				while (count == 0 || numOfReadEntries - from < count) {
-					entries.add((JobLogEntry) ois.readObject());
-					numOfReadEntries++;
-				}
-			} catch (EOFException e) {
-			} catch (IOException | ClassNotFoundException e) {
-				throw new RuntimeException(e);
-			}
-		}
-		return entries;
-	}
-	
-	private LogSnippet readLogSnippetReversely(File logFile, int count) {
-		LogSnippet snippet = new LogSnippet();
-		if (logFile.exists()) {
-			try (ObjectInputStream ois = new ObjectInputStream(new BufferedInputStream(new FileInputStream(logFile)))) {
-				while (true) {
-					snippet.entries.add((JobLogEntry) ois.readObject());
-					if (snippet.entries.size() > count) {
-						snippet.entries.remove(0);
-						snippet.offset ++;
-					}
-				}
-			} catch (EOFException e) {
-			} catch (IOException | ClassNotFoundException e) {
-				throw new RuntimeException(e);
-			}
-		}
-		return snippet;
-	}
-	
 	private List<JobLogEntry> readLogEntries(List<JobLogEntry> cachedEntries, int from, int count) {
 		if (from < cachedEntries.size()) {
 			int to = from + count;
@@ -279,17 +444,18 @@ public class DefaultLogManager implements LogManager {
 	@Sessional
 	@Override
 	public List<JobLogEntry> readLogEntries(Build build, int from, int count) {
+		flush(build.getId());
+		LogFile logFile = getLogFile(build);
 		Lock lock = LockUtils.getReadWriteLock(getLockKey(build.getId())).readLock();
 		lock.lock();
 		try {
-			File logFile = getLogFile(build.getProject().getId(), build.getNumber());
 			LogSnippet snippet = recentSnippets.get(build.getId());
 			if (snippet != null) {
 				if (from >= snippet.offset) {
 					return readLogEntries(snippet.entries, from - snippet.offset, count);
 				} else {
 					List<JobLogEntry> entries = new ArrayList<>();
-					entries.addAll(readLogEntries(logFile, from, count));
+					entries.addAll(logFile.read(from, count));
 					if (count == 0)
 						entries.addAll(snippet.entries);
 					else if (entries.size() < count) 
@@ -297,7 +463,7 @@ public class DefaultLogManager implements LogManager {
 					return entries;
 				}
 			} else {
-				return readLogEntries(logFile, from, count);
+				return logFile.read(from, count);
 			}
 		} finally {
 			lock.unlock();
@@ -307,10 +473,11 @@ public class DefaultLogManager implements LogManager {
 	@Sessional
 	@Override
 	public LogSnippet readLogSnippetReversely(Build build, int count) {
+		flush(build.getId());
+		LogFile logFile = getLogFile(build);
 		Lock lock = LockUtils.getReadWriteLock(getLockKey(build.getId())).readLock();
 		lock.lock();
 		try {
-			File logFile = getLogFile(build.getProject().getId(), build.getNumber());
 			LogSnippet recentSnippet = recentSnippets.get(build.getId());
 			if (recentSnippet != null) {
 				LogSnippet snippet = new LogSnippet();
@@ -318,68 +485,103 @@ public class DefaultLogManager implements LogManager {
 					snippet.entries.addAll(recentSnippet.entries.subList(
 							recentSnippet.entries.size()-count, recentSnippet.entries.size()));
 				} else {
-					snippet.entries.addAll(readLogSnippetReversely(logFile, count - recentSnippet.entries.size()).entries);
+					snippet.entries.addAll(logFile.readReversely(count - recentSnippet.entries.size()).entries);
 					snippet.entries.addAll(recentSnippet.entries);
 				}
 				snippet.offset = recentSnippet.entries.size() + recentSnippet.offset - snippet.entries.size();
 				return snippet;
 			} else {
-				return readLogSnippetReversely(logFile, count);
+				return logFile.readReversely(count);
 			}
 		} finally {
 			lock.unlock();
 		}
 	}
 	
-	private ObjectOutputStream newOutputStream(File logFile) {
-		try {
-			if (logFile.exists()) {
-				return new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(logFile, true))) {
-
-					@Override
-					protected void writeStreamHeader() throws IOException {
-						reset();
-					}
-					
-				};
-			} else {
-				return new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(logFile)));
-			}
-		} catch (IOException e) {
-			throw new RuntimeException(e);
-		}
-	}
-	
 	@Sessional
 	@Listen
 	public void on(BuildFinished event) {
 		Build build = event.getBuild();
+		for (Iterator<PendingLog> it = pendingLogs.iterator(); it.hasNext();) {
+			PendingLog pendingLog = it.next();
+			if (pendingLog.buildId.equals(build.getId())) {
+				pendingLog.closed = true;
+				if (flush(pendingLog))
+					webSocketManager.notifyObservableChange(Build.getLogWebSocketObservable(build.getId()), null);
+				it.remove();
+			}
+		}
+		
 		Lock lock = LockUtils.getReadWriteLock(getLockKey(build.getId())).writeLock();
 		lock.lock();
 		try {
 			LogSnippet snippet = recentSnippets.remove(build.getId());
 			if (snippet != null) {
-				File logFile = getLogFile(build.getProject().getId(), build.getNumber());
-				try (ObjectOutputStream oos = newOutputStream(logFile)) {
-					for (JobLogEntry entry: snippet.entries)
-						oos.writeObject(entry);
-				} catch (IOException e) {
-					throw new RuntimeException(e);
-				} 
+				getLogFile(build.getProject().getId(), build.getNumber()).append(snippet.entries);
 			}
 		} finally {
 			lock.unlock();
 		}
 	}
 
+	@Listen
+	public void on(BuildSubmitted event) {
+		logMatches.invalidate(event.getBuild().getId());
+	}
+	
+	@Listen
+	public void on(EntityRemoved event) {
+		if (event.getEntity() instanceof Build) 
+			logMatches.invalidate(event.getEntity().getId());
+	}
+	
 	@Override
 	public InputStream openLogStream(Build build) {
 		return new LogStream(build);
 	}
 
+	/*
+	 * Result of matching a pattern against the log file, up to scanned length of the file
+	 */
+	private static class LogMatch {
+		
+		long scannedLength;
+		
+		boolean matched;
+		
+	}
+	
+	/*
+	 * Entries logged via a job logger but not yet written into the build log
+	 */
+	private static class PendingLog {
+		
+		final Long projectId;
+		
+		final Long buildId;
+		
+		final Long buildNumber;
+		
+		final SecretMasker secretMasker;
+		
+		final Queue<JobLogEntry> entries = new ConcurrentLinkedQueue<>();
+		
+		final Semaphore capacity = new Semaphore(MAX_PENDING_ENTRIES);
+		
+		volatile boolean closed;
+		
+		PendingLog(Long projectId, Long buildId, Long buildNumber, SecretMasker secretMasker) {
+			this.projectId = projectId;
+			this.buildId = buildId;
+			this.buildNumber = buildNumber;
+			this.secretMasker = secretMasker;
+		}
+		
+	}
+	
 	class LogStream extends InputStream {
 
-		private ObjectInputStream ois;
+		private LogFile.Reader reader;
 		
 		private final Lock lock;
 
@@ -390,13 +592,13 @@ public class DefaultLogManager implements LogManager {
 		private int pos = 0;
 		
 		public LogStream(Build build) {
+			flush(build.getId());
+			LogFile logFile = getLogFile(build);
 			lock = LockUtils.getReadWriteLock(getLockKey(build.getId())).readLock();
 			lock.lock();
 			try {
-				File logFile = getLogFile(build.getProject().getId(), build.getNumber());
-				
 				if (logFile.exists())
-					ois = new ObjectInputStream(new BufferedInputStream(new FileInputStream(logFile)));
+					reader = logFile.openReader(0);
 				
 				LogSnippet snippet = recentSnippets.get(build.getId());
 				if (snippet != null) {
@@ -430,20 +632,19 @@ public class DefaultLogManager implements LogManager {
 		@Override
 		public int read() throws IOException {
 			if (pos == buffer.length) {
-				if (ois != null) {
-					try {
-						buffer = (renderAsText((JobLogEntry) ois.readObject()) + "\n").getBytes(StandardCharsets.UTF_8);
-					} catch (EOFException e) {
-						IOUtils.closeQuietly(ois);
-						ois = null;
+				if (reader != null) {
+					JobLogEntry entry = reader.next();
+					if (entry != null) {
+						buffer = (renderAsText(entry) + "\n").getBytes(StandardCharsets.UTF_8);
+					} else {
+						IOUtils.closeQuietly(reader);
+						reader = null;
 						if (recentBuffer != null) {
 							buffer = recentBuffer;
 							recentBuffer = null;
 						} else {
 							return -1;
 						}
-					} catch (ClassNotFoundException e) {
-						throw new RuntimeException(e);
 					}
 				} else if (recentBuffer != null) {
 					buffer = recentBuffer;
@@ -460,7 +661,7 @@ public class DefaultLogManager implements LogManager {
 		
 		@Override
 		public void close() throws IOException {
-			IOUtils.closeQuietly(ois);
+			IOUtils.closeQuietly(reader);
 			lock.unlock();
 		}
 				
@@ -0,0 +1,407 @@
+package io.onedev.server.buildspec.job.log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Build log storage. Log entries are stored as length-prefixed binary records in the data file:
+ * <tt>int</tt> message length, <tt>long</tt> timestamp, followed by UTF-8 bytes of the message.
+ * The index file contains data file offset of every {@link #INDEX_INTERVAL}th entry, so that
+ * reading entries at arbitrary position only needs to skip at most {@link #INDEX_INTERVAL}
+ * records.
+ *
+ * Access to this class should be guarded by the build log lock.
+ */
+class LogFile {
+
+	static final String LEGACY_FILE = "build.log";
+
+	static final String DATA_FILE = "build-log.data";
+
+	static final String INDEX_FILE = "build-log.index";
+
+	static final int INDEX_INTERVAL = 128;
+
+	private static final int RECORD_HEADER_SIZE = Integer.BYTES + Long.BYTES;
+
+	private static final int MIGRATION_BATCH_SIZE = 10000;
+
+	private final File legacyFile;
+
+	private final File dataFile;
+
+	private final File indexFile;
+
+	LogFile(File buildDir) {
+		legacyFile = new File(buildDir, LEGACY_FILE);
+		dataFile = new File(buildDir, DATA_FILE);
+		indexFile = new File(buildDir, INDEX_FILE);
+	}
+
+	File getDataFile() {
+		return dataFile;
+	}
+
+	/**
+	 * @return
+	 * 			length of the data file. When the build log lock is held, this is always at a record 
+	 * 			boundary
+	 */
+	long getLength() {
+		return dataFile.length();
+	}
+
+	boolean exists() {
+		return dataFile.exists() || legacyFile.exists();
+	}
+
+	boolean isLegacy() {
+		return legacyFile.exists();
+	}
+
+	/**
+	 * Convert log file written with Java serialization into current format. Caller should
+	 * hold write lock of the build log
+	 */
+	void migrate() {
+		if (legacyFile.exists()) {
+			dataFile.delete();
+			indexFile.delete();
+			try (ObjectInputStream ois = new ObjectInputStream(new BufferedInputStream(new FileInputStream(legacyFile)))) {
+				List<JobLogEntry> batch = new ArrayList<>();
+				while (true) {
+					try {
+						batch.add((JobLogEntry) ois.readObject());
+					} catch (EOFException e) {
+						break;
+					}
+					if (batch.size() == MIGRATION_BATCH_SIZE) {
+						append(batch);
+						batch.clear();
+					}
+				}
+				append(batch);
+			} catch (IOException | ClassNotFoundException e) {
+				throw new RuntimeException(e);
+			}
+			if (!dataFile.exists())
+				append(new ArrayList<>());
+			legacyFile.delete();
+		}
+	}
+
+	private long getIndexSize() {
+		return indexFile.length() / Long.BYTES;
+	}
+
+	private long readIndex(RandomAccessFile indexRaf, long indexPos) throws IOException {
+		indexRaf.seek(indexPos * Long.BYTES);
+		return indexRaf.readLong();
+	}
+
+	/**
+	 * @return
+	 * 			number of entries in this log file
+	 */
+	int count() {
+		if (!dataFile.exists())
+			return 0;
+		try {
+			long indexSize = getIndexSize();
+			long offset;
+			long count;
+			if (indexSize != 0) {
+				try (RandomAccessFile indexRaf = new RandomAccessFile(indexFile, "r")) {
+					offset = readIndex(indexRaf, indexSize-1);
+				}
+				count = (indexSize-1) * INDEX_INTERVAL;
+			} else {
+				offset = 0;
+				count = 0;
+			}
+			try (Reader reader = new Reader(offset)) {
+				while (reader.skip())
+					count++;
+			}
+			return (int) count;
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Truncate data file to end of last complete record. A crash in the middle of appending may 
+	 * leave a torn record at end of the data file, and records appended after it would not be 
+	 * readable. Index entries pointing past end of data file are dropped as well
+	 */
+	private void repair() throws IOException {
+		long dataLength = dataFile.length();
+		long offset = 0;
+		if (indexFile.exists()) {
+			long indexSize = getIndexSize();
+			try (RandomAccessFile indexRaf = new RandomAccessFile(indexFile, "rw")) {
+				while (indexSize != 0) {
+					offset = readIndex(indexRaf, indexSize-1);
+					if (offset <= dataLength) 
+						break;
+					offset = 0;
+					indexSize--;
+				}
+				if (indexRaf.length() != indexSize * Long.BYTES)
+					indexRaf.setLength(indexSize * Long.BYTES);
+			}
+		}
+		
+		long end = offset;
+		try (Reader reader = new Reader(offset)) {
+			while (reader.skip())
+				end = reader.position;
+		}
+		if (end < dataLength) {
+			try (RandomAccessFile dataRaf = new RandomAccessFile(dataFile, "rw")) {
+				dataRaf.setLength(end);
+			}
+		}
+	}
+	
+	void append(List<JobLogEntry> entries) {
+		if (dataFile.exists()) {
+			try {
+				repair();
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+		}
+		int count = count();
+		long indexSize = getIndexSize();
+		long offset = dataFile.length();
+		List<Long> indexOffsets = new ArrayList<>();
+		try (DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(dataFile, true)))) {
+			for (JobLogEntry entry: entries) {
+				if (count % INDEX_INTERVAL == 0 && count / INDEX_INTERVAL == indexSize + indexOffsets.size())
+					indexOffsets.add(offset);
+				byte[] messageBytes = entry.getMessage().getBytes(StandardCharsets.UTF_8);
+				dos.writeInt(messageBytes.length);
+				dos.writeLong(entry.getDate().getTime());
+				dos.write(messageBytes);
+				offset += RECORD_HEADER_SIZE + messageBytes.length;
+				count++;
+			}
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+		
+		// Write index after data so that an index entry never points past end of data
+		try (DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(indexFile, true)))) {
+			for (Long indexOffset: indexOffsets)
+				dos.writeLong(indexOffset);
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Get data file offsets of indexed entries within specified range
+	 * 
+	 * @param fromOffset
+	 * 			inclusive data file offset to start from
+	 * @param toOffset
+	 * 			exclusive data file offset to end at
+	 */
+	List<Long> getIndexedOffsets(long fromOffset, long toOffset) {
+		List<Long> offsets = new ArrayList<>();
+		if (indexFile.exists()) {
+			try (DataInputStream dis = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)))) {
+				long indexSize = getIndexSize();
+				for (long i=0; i<indexSize; i++) {
+					long offset = dis.readLong();
+					if (offset >= toOffset)
+						break;
+					else if (offset >= fromOffset)
+						offsets.add(offset);
+				}
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+		}
+		return offsets;
+	}
+
+	/**
+	 * Open a reader positioned at specified entry index
+	 */
+	Reader openReader(int from) {
+		try {
+			long offset = 0;
+			long index = 0;
+			long indexPos = Math.min(from / INDEX_INTERVAL, getIndexSize()-1);
+			if (indexPos > 0) {
+				try (RandomAccessFile indexRaf = new RandomAccessFile(indexFile, "r")) {
+					offset = readIndex(indexRaf, indexPos);
+				}
+				index = indexPos * INDEX_INTERVAL;
+			}
+			Reader reader = new Reader(offset);
+			try {
+				while (index++ < from && reader.skip());
+			} catch (Exception e) {
+				reader.close();
+				throw e;
+			}
+			return reader;
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Open a reader reading records between specified data file offsets. Both offsets should be
+	 * at record boundaries
+	 */
+	Reader openReader(long fromOffset, long toOffset) {
+		try {
+			return new Reader(fromOffset, toOffset);
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Read specified number of entries starting from specified index
+	 *
+	 * @param count
+	 * 			number of entries to read. Use <tt>0</tt> to read all entries since <tt>from</tt>
+	 */
+	List<JobLogEntry> read(int from, int count) {
+		List<JobLogEntry> entries = new ArrayList<>();
+		if (dataFile.exists()) {
+			try (Reader reader = openReader(from)) {
+				JobLogEntry entry;
+				while ((count == 0 || entries.size() < count) && (entry = reader.next()) != null)
+					entries.add(entry);
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+		}
+		return entries;
+	}
+
+	LogSnippet readReversely(int count) {
+		LogSnippet snippet = new LogSnippet();
+		int total = count();
+		snippet.offset = Math.max(0, total - count);
+		if (total > snippet.offset)
+			snippet.entries.addAll(read(snippet.offset, total - snippet.offset));
+		return snippet;
+	}
+
+	class Reader implements Closeable {
+
+		private final DataInputStream dis;
+
+		private final long length;
+
+		private long position;
+
+		Reader(long offset) throws IOException {
+			this(offset, dataFile.length());
+		}
+
+		/**
+		 * Construct a reader reading records between specified data file offsets
+		 * 
+		 * @param offset
+		 * 			data file offset of the first record to read. Must be at a record boundary
+		 * @param endOffset
+		 * 			data file offset to stop reading at
+		 */
+		Reader(long offset, long endOffset) throws IOException {
+			length = endOffset;
+			position = offset;
+			FileInputStream fis = new FileInputStream(dataFile);
+			try {
+				fis.getChannel().position(offset);
+			} catch (IOException e) {
+				fis.close();
+				throw e;
+			}
+			dis = new DataInputStream(new BufferedInputStream(fis));
+		}
+
+		/**
+		 * @return
+		 * 			length of message of next record, or <tt>-1</tt> if there are no more complete
+		 * 			records. Record of a crashed write at end of the file is ignored
+		 */
+		private int readMessageLength() throws IOException {
+			if (position + RECORD_HEADER_SIZE > length)
+				return -1;
+			int messageLength = dis.readInt();
+			if (messageLength < 0 || position + RECORD_HEADER_SIZE + messageLength > length) {
+				position = length;
+				return -1;
+			} else {
+				return messageLength;
+			}
+		}
+
+		/**
+		 * @return
+		 * 			next log entry, or <tt>null</tt> if end of log is reached
+		 */
+		JobLogEntry next() throws IOException {
+			int messageLength = readMessageLength();
+			if (messageLength != -1) {
+				long time = dis.readLong();
+				byte[] messageBytes = new byte[messageLength];
+				dis.readFully(messageBytes);
+				position += RECORD_HEADER_SIZE + messageLength;
+				return new JobLogEntry(new Date(time), new String(messageBytes, StandardCharsets.UTF_8));
+			} else {
+				return null;
+			}
+		}
+
+		/**
+		 * @return
+		 * 			<tt>false</tt> if end of log is reached
+		 */
+		boolean skip() throws IOException {
+			int messageLength = readMessageLength();
+			if (messageLength != -1) {
+				int remaining = Long.BYTES + messageLength;
+				while (remaining > 0) {
+					int skipped = dis.skipBytes(remaining);
+					if (skipped <= 0)
+						throw new EOFException();
+					remaining -= skipped;
+				}
+				position += RECORD_HEADER_SIZE + messageLength;
+				return true;
+			} else {
+				return false;
+			}
+		}
+
+		@Override
+		public void close() throws IOException {
+			dis.close();
+		}
+
+	}
+
+}
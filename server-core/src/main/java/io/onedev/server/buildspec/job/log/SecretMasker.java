@@ -0,0 +1,121 @@
+package io.onedev.server.buildspec.job.log;
+
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+
+import io.onedev.server.util.inputspec.SecretInput;
+
+/**
+ * Mask multiple secret values in a single pass over the text, using an Aho-Corasick automaton
+ * built from secret values. Overlapping or nested occurrences of secrets are masked as a whole,
+ * so that no part of any secret is left in the result.
+ */
+public class SecretMasker {
+
+	private final Node root = new Node();
+
+	private final boolean empty;
+
+	public SecretMasker(Collection<String> secrets) {
+		boolean empty = true;
+		for (String secret: secrets) {
+			if (secret.length() != 0) {
+				Node node = root;
+				for (int i=0; i<secret.length(); i++)
+					node = node.children.computeIfAbsent(secret.charAt(i), k -> new Node());
+				node.matchLength = secret.length();
+				empty = false;
+			}
+		}
+		this.empty = empty;
+
+		Queue<Node> queue = new ArrayDeque<>();
+		for (Node child: root.children.values()) {
+			child.fail = root;
+			queue.add(child);
+		}
+		while (!queue.isEmpty()) {
+			Node node = queue.remove();
+			for (Map.Entry<Character, Node> entry: node.children.entrySet()) {
+				Node child = entry.getValue();
+				Node fail = node.fail;
+				while (fail != root && !fail.children.containsKey(entry.getKey()))
+					fail = fail.fail;
+				child.fail = fail.children.getOrDefault(entry.getKey(), root);
+				child.matchLength = Math.max(child.matchLength, child.fail.matchLength);
+				queue.add(child);
+			}
+		}
+	}
+
+	public String mask(String text) {
+		if (empty)
+			return text;
+
+		// Start and end (exclusive) of ranges to be masked, ordered by start
+		int[] starts = null;
+		int[] ends = null;
+		int count = 0;
+
+		Node node = root;
+		for (int i=0; i<text.length(); i++) {
+			char ch = text.charAt(i);
+			Node next;
+			while ((next = node.children.get(ch)) == null && node != root)
+				node = node.fail;
+			node = next != null? next: root;
+			if (node.matchLength != 0) {
+				int start = i + 1 - node.matchLength;
+				int end = i + 1;
+				while (count != 0 && start < ends[count-1]) {
+					start = Math.min(start, starts[count-1]);
+					count--;
+				}
+				if (starts == null) {
+					starts = new int[4];
+					ends = new int[4];
+				} else if (count == starts.length) {
+					int[] newStarts = new int[count*2];
+					int[] newEnds = new int[count*2];
+					System.arraycopy(starts, 0, newStarts, 0, count);
+					System.arraycopy(ends, 0, newEnds, 0, count);
+					starts = newStarts;
+					ends = newEnds;
+				}
+				starts[count] = start;
+				ends[count] = end;
+				count++;
+			}
+		}
+
+		if (count != 0) {
+			StringBuilder builder = new StringBuilder();
+			int pos = 0;
+			for (int i=0; i<count; i++) {
+				builder.append(text, pos, starts[i]).append(SecretInput.MASK);
+				pos = ends[i];
+			}
+			builder.append(text, pos, text.length());
+			return builder.toString();
+		} else {
+			return text;
+		}
+	}
+
+	private static class Node {
+
+		final Map<Character, Node> children = new HashMap<>();
+
+		Node fail;
+
+		/*
+		 * Length of longest secret ending at this node, including those reachable via fail links
+		 */
+		int matchLength;
+
+	}
+
+}
@@ -29,6 +29,8 @@ import org.eclipse.jgit.errors.MissingObjectException;
 import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.revwalk.RevCommit;
 import org.eclipse.jgit.revwalk.RevWalk;
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
 import org.hibernate.Session;
 import org.hibernate.criterion.Criterion;
 import org.hibernate.criterion.MatchMode;
@@ -79,6 +81,7 @@ import io.onedev.server.storage.StorageManager;
 import io.onedev.server.util.ProjectScopedNumber;
 import io.onedev.server.util.SecurityUtils;
 import io.onedev.server.util.facade.BuildFacade;
+import io.onedev.server.util.facade.BuildFacadeIndex;
 import io.onedev.server.util.match.StringMatcher;
 import io.onedev.server.util.patternset.PatternSet;
 import io.onedev.server.util.query.BuildQueryConstants;
@@ -92,6 +95,8 @@ public class DefaultBuildManager extends AbstractEntityManager<Build> implements
 	
 	private static final int CLEANUP_BATCH = 5000;
 	
+	private static final int LOAD_FETCH_SIZE = 10000;
+	
 	private static final Logger logger = LoggerFactory.getLogger(DefaultBuildManager.class);
 	
 	private final BuildParamManager buildParamManager;
@@ -110,9 +115,7 @@ public class DefaultBuildManager extends AbstractEntityManager<Build> implements
 	
 	private final TransactionManager transactionManager;
 	
-	private final Map<Long, BuildFacade> builds = new HashMap<>();
-	
-	private final ReadWriteLock buildsLock = new ReentrantReadWriteLock();
+	private final BuildFacadeIndex builds = new BuildFacadeIndex();
 	
 	private final Map<Long, Collection<String>> jobNames = new HashMap<>();
 	
@@ -143,17 +146,12 @@ public class DefaultBuildManager extends AbstractEntityManager<Build> implements
     	super.delete(build);
     	
 		FileUtils.deleteDir(storageManager.getBuildDir(build.getProject().getId(), build.getNumber()));
-		Long buildId = build.getId();
+		BuildFacade facade = build.getFacade();
 		transactionManager.runAfterCommit(new Runnable() {
 
 			@Override
 			public void run() {
-				buildsLock.writeLock().lock();
-				try {
-					builds.remove(buildId);
-				} finally {
-					buildsLock.writeLock().unlock();
-				}
+				builds.remove(facade);
 			}
 		});
 	}
@@ -191,12 +189,7 @@ public class DefaultBuildManager extends AbstractEntityManager<Build> implements
 
 			@Override
 			public void run() {
-				buildsLock.writeLock().lock();
-				try {
-					builds.put(facade.getId(), facade);
-				} finally {
-					buildsLock.writeLock().unlock();
-				}
+				builds.add(facade);
 				jobNamesLock.writeLock().lock();
 				try {
 					populateJobNames(facade.getProjectId(), jobName);
@@ -217,16 +210,7 @@ public class DefaultBuildManager extends AbstractEntityManager<Build> implements
 
 				@Override
 				public void run() {
-					buildsLock.writeLock().lock();
-					try {
-						for (Iterator<Map.Entry<Long, BuildFacade>> it = builds.entrySet().iterator(); it.hasNext();) {
-							BuildFacade build = it.next().getValue();
-							if (build.getProjectId().equals(projectId))
-								it.remove();
-						}
-					} finally {
-						buildsLock.writeLock().unlock();
-					}
+					builds.removeProject(projectId);
 					jobNamesLock.writeLock().lock();
 					try {
 						for (Iterator<Map.Entry<Long, Collection<String>>> it = jobNames.entrySet().iterator(); it.hasNext();) {
@@ -614,17 +598,20 @@ public class DefaultBuildManager extends AbstractEntityManager<Build> implements
 		return CronScheduleBuilder.dailyAtHourAndMinute(0, 0);
 	}
 	
-	@SuppressWarnings("unchecked")
 	@Listen
 	public void on(SystemStarted event) {
 		logger.info("Caching build info...");
 		
 		Query<?> query = dao.getSession().createQuery("select id, project.id, commitHash, jobName from Build");
-		for (Object[] fields: (List<Object[]>)query.list()) {
-			Long buildId = (Long) fields[0];
-			Long projectId = (Long)fields[1];
-			builds.put(buildId, new BuildFacade(buildId, projectId, (String)fields[2]));
-			populateJobNames(projectId, (String)fields[3]);
+		query.setFetchSize(LOAD_FETCH_SIZE);
+		try (ScrollableResults results = query.scroll(ScrollMode.FORWARD_ONLY)) {
+			while (results.next()) {
+				Object[] fields = results.get();
+				Long buildId = (Long) fields[0];
+				Long projectId = (Long)fields[1];
+				builds.add(new BuildFacade(buildId, projectId, (String)fields[2]));
+				populateJobNames(projectId, (String)fields[3]);
+			}
 		}
 		taskId = taskScheduler.schedule(this);
 	}
@@ -713,34 +700,12 @@ public class DefaultBuildManager extends AbstractEntityManager<Build> implements
 	
 	@Override
 	public Collection<Long> getIdsByProject(Long projectId) {
-		buildsLock.readLock().lock();
-		try {
-			Collection<Long> buildIds = new HashSet<>();
-			for (BuildFacade build: builds.values()) {
-				if (build.getProjectId().equals(projectId))
-					buildIds.add(build.getId());
-			}
-			return buildIds;
-		} finally {
-			buildsLock.readLock().unlock();
-		}
+		return builds.getIds(projectId);
 	}
 
 	@Override
 	public Collection<Long> filterIds(Long projectId, Collection<String> commitHashes) {
-		buildsLock.readLock().lock();
-		try {
-			Collection<Long> buildIds = new HashSet<>();
-			for (BuildFacade build: builds.values()) {
-				if (build.getProjectId().equals(projectId) 
-						&& commitHashes.contains(build.getCommitHash())) {
-					buildIds.add(build.getId());
-				}
-			}
-			return buildIds;
-		} finally {
-			buildsLock.readLock().unlock();
-		}
+		return builds.getIds(projectId, commitHashes);
 	}
 	
 	private void populateJobNames(Long projectId, String jobName) {
@@ -1,63 +1,82 @@
 package io.onedev.server.git.command;
 
 import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Date;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.concurrent.atomic.AtomicInteger;
-import java.util.concurrent.atomic.AtomicReference;
+import java.util.PriorityQueue;
 
 import javax.annotation.Nullable;
 
-import org.apache.commons.collections4.map.AbstractReferenceMap.ReferenceStrength;
-import org.apache.commons.collections4.map.ReferenceMap;
-import org.apache.commons.lang3.StringUtils;
+import org.eclipse.jgit.diff.DiffAlgorithm;
+import org.eclipse.jgit.diff.DiffAlgorithm.SupportedAlgorithm;
+import org.eclipse.jgit.diff.DiffEntry;
+import org.eclipse.jgit.diff.Edit;
+import org.eclipse.jgit.diff.EditList;
+import org.eclipse.jgit.diff.RawText;
+import org.eclipse.jgit.diff.RawTextComparator;
+import org.eclipse.jgit.diff.RenameDetector;
+import org.eclipse.jgit.internal.storage.file.FileRepository;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.NullProgressMonitor;
 import org.eclipse.jgit.lib.ObjectId;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.treewalk.filter.TreeFilter;
 
 import com.google.common.base.Preconditions;
 
 import io.onedev.commons.utils.LinearRange;
-import io.onedev.commons.utils.command.Commandline;
-import io.onedev.commons.utils.command.ExecuteResult;
-import io.onedev.commons.utils.command.LineConsumer;
 import io.onedev.server.git.BlameBlock;
 import io.onedev.server.git.BlameCommit;
-import io.onedev.server.git.GitUtils;
+import io.onedev.server.git.exception.ObjectNotFoundException;
 
+/**
+ * Calculate blames of a file in process. Lines of the file are passed from a commit to its
+ * parents if they are not changed since the parent, and lines can not be passed to any parent
+ * are blamed to the commit itself. An optional cache can be specified to stop passing lines
+ * once a commit with cached blames of the file is reached.
+ */
 public class BlameCommand extends GitCommand<Collection<BlameBlock>> {
 
-	private static final Logger logger = LoggerFactory.getLogger(BlameCommand.class);
-	
-	private static final ReferenceMap<String, Collection<BlameBlock>> cache = 
-			new ReferenceMap<>(ReferenceStrength.HARD, ReferenceStrength.SOFT);
-	
-	private static final int CACHE_THRESHOLD = 1000;
-	
+	private final Repository repository;
+
 	private String commitHash;
-	
+
 	private String file;
-	
+
 	private LinearRange range;
-	
+
+	private Cache cache;
+
 	public BlameCommand(File gitDir) {
 		super(gitDir);
+		repository = null;
+	}
+
+	public BlameCommand(Repository repository) {
+		super(repository.getDirectory());
+		this.repository = repository;
 	}
 
 	public BlameCommand commitHash(String commitHash) {
 		this.commitHash = commitHash;
 		return this;
 	}
-	
+
 	public BlameCommand file(String file) {
 		this.file = file;
 		return this;
 	}
-	
+
 	/**
 	 * Calculate blames of specified range
 	 * @param range
@@ -68,149 +87,308 @@ public class BlameCommand extends GitCommand<Collection<BlameBlock>> {
 		this.range = range;
 		return this;
 	}
-	
-	private Commandline buildCmd() {
-		Commandline cmd = cmd().addArgs("blame", "--porcelain");
-		if (range != null)
-			cmd.addArgs("-L" + (range.getFrom()+1) + "," + (range.getTo()+1));
-		cmd.addArgs(commitHash, "--", file);
-		return cmd;
+
+	public BlameCommand cache(@Nullable Cache cache) {
+		this.cache = cache;
+		return this;
 	}
-	
+
 	@Override
 	public Collection<BlameBlock> call() {
 		Preconditions.checkArgument(commitHash!=null && ObjectId.isId(commitHash), "commit hash has to be specified.");
 		Preconditions.checkNotNull(file, "file parameter has to be specified.");
 
-		String cacheKey = commitHash + ":" + file + ":" + (range!=null?range.toString():"");
-		
-		Collection<BlameBlock> cached = cache.get(cacheKey);
-		if (cached != null)
-			return cached;
-		
-		Commandline cmd = buildCmd();
-		
-		Map<String, BlameBlock> blocks = new HashMap<>();
-		Map<String, BlameCommit> commitMap = new HashMap<>();
-		
-		AtomicReference<BlameCommit> commitRef = new AtomicReference<>(null);
-		CommitBuilder commitBuilder = new CommitBuilder();
-		
-		AtomicBoolean endOfFile = new AtomicBoolean(false);
-		
-		AtomicInteger beginLine;
-		AtomicInteger endLine;
-		
-		if (range != null) {
-			beginLine = new AtomicInteger(range.getFrom());
-			endLine = new AtomicInteger(range.getFrom());
-		} else {
-			beginLine = new AtomicInteger(0);
-			endLine = new AtomicInteger(0);
+		try {
+			if (repository != null) {
+				return blame(repository);
+			} else {
+				try (Repository fileRepository = new FileRepository(gitDir)) {
+					return blame(fileRepository);
+				}
+			}
+		} catch (IOException e) {
+			throw new RuntimeException(e);
 		}
-		
-		long time = System.currentTimeMillis();
-		
-		Logger effectiveLogger = logger!=null?logger:BlameCommand.logger;
-		ExecuteResult result = cmd.execute(new LineConsumer() {
-
-			@Override
-			public void consume(String line) {
-				if (line.startsWith("\t")) {
-					if (commitRef.get() == null)
-						commitRef.set(commitMap.get(commitBuilder.hash));
-					endLine.getAndIncrement();
-					commitBuilder.hash = null;
-				} else if (commitBuilder.hash == null) {
-					commitBuilder.hash = StringUtils.substringBefore(line, " ");
-					BlameCommit commit = commitRef.get();
-					if (commit != null && !commitBuilder.hash.equals(commit.getHash())) {
-						BlameBlock block = blocks.get(commit.getHash());
-						if (block == null) {
-							block = new BlameBlock(commit, new ArrayList<>());
-							blocks.put(commit.getHash(), block);
-						}
-						block.getRanges().add(new LinearRange(beginLine.get(), endLine.get()-1));
-						commitRef.set(null);
-						beginLine.set(endLine.get());
-					}
-				} else if (line.startsWith("author ")) {
-					commitBuilder.author = line.substring("author ".length());
-				} else if (line.startsWith("author-mail ")) {
-					line = StringUtils.substringAfter(line, "<");
-					commitBuilder.authorEmail = StringUtils.substringBeforeLast(line, ">");
-				} else if (line.startsWith("author-time ")) {
-					commitBuilder.authorDate = new Date(1000L * Long.parseLong(line.substring("author-time ".length())));
-				} else if (line.startsWith("committer ")) {
-					commitBuilder.committer = line.substring("committer ".length());
-				} else if (line.startsWith("committer-mail ")) {
-					line = StringUtils.substringAfter(line, "<");
-					commitBuilder.committerEmail = StringUtils.substringBeforeLast(line, ">");
-				} else if (line.startsWith("committer-time ")) {
-					commitBuilder.committerDate = new Date(1000L * Long.parseLong(line.substring("committer-time ".length())));
-				} else if (line.startsWith("summary ")) {
-					commitBuilder.summary = line.substring("summary ".length());
-					commitMap.put(commitBuilder.hash, commitBuilder.build());
-				} 
+	}
+
+	private Collection<BlameBlock> blame(Repository repository) throws IOException {
+		try (RevWalk revWalk = new RevWalk(repository)) {
+			ObjectReader reader = revWalk.getObjectReader();
+			RevCommit commit = revWalk.parseCommit(ObjectId.fromString(commitHash));
+			ObjectId blobId = getBlobId(reader, commit, file);
+			if (blobId == null)
+				throw new ObjectNotFoundException("Unable to find file '" + file + "' in commit '" + commitHash + "'");
+
+			Candidate start = new Candidate(commit, file, blobId);
+			start.text = new RawText(reader.open(blobId, Constants.OBJ_BLOB).getCachedBytes());
+
+			int from, to;
+			if (range != null) {
+				from = range.getFrom();
+				to = Math.min(range.getTo(), start.text.size()-1);
+			} else {
+				from = 0;
+				to = start.text.size()-1;
 			}
-			
-		}, new LineConsumer() {
-			
-			@Override
-			public void consume(String line) {
-				if (line.startsWith("fatal: file ") && line.contains("has only ")) {
-					endOfFile.set(true);
-					effectiveLogger.trace(line.substring("fatal: ".length()));
-				} else {
-					effectiveLogger.error(line);
+			if (from > to)
+				return new ArrayList<>();
+
+			ObjectId[] lineCommits = new ObjectId[to-from+1];
+			start.regions.add(new Region(0, from, lineCommits.length));
+
+			// Newer commits are processed first so that lines of a commit passed from all its children
+			// can be processed together
+			PriorityQueue<Candidate> queue = new PriorityQueue<>(new Comparator<Candidate>() {
+
+				@Override
+				public int compare(Candidate o1, Candidate o2) {
+					return o2.commit.getCommitTime() - o1.commit.getCommitTime();
+				}
+
+			});
+			Map<String, Candidate> pendings = new HashMap<>();
+			queue.add(start);
+			pendings.put(start.getKey(), start);
+
+			while (!queue.isEmpty()) {
+				Candidate candidate = queue.poll();
+				pendings.remove(candidate.getKey());
+
+				if (applyCache(candidate, lineCommits))
+					continue;
+
+				List<Region> regions = candidate.regions;
+				RevCommit[] parents = candidate.commit.getParents();
+				for (int i=0; i<parents.length && !regions.isEmpty(); i++) {
+					RevCommit parent = parents[i];
+					revWalk.parseHeaders(parent);
+
+					String parentPath = candidate.path;
+					ObjectId parentBlobId = getBlobId(reader, parent, parentPath);
+					if (parentBlobId == null) {
+						// Only follow renames along first parent as rename detection is expensive
+						if (i == 0)
+							parentPath = getRenameSource(repository, reader, parent, candidate.commit, candidate.path);
+						else
+							parentPath = null;
+						if (parentPath != null)
+							parentBlobId = getBlobId(reader, parent, parentPath);
+						if (parentBlobId == null)
+							continue;
+					}
+
+					Candidate parentCandidate = pendings.get(Candidate.getKey(parent, parentPath));
+					if (parentCandidate == null) {
+						parentCandidate = new Candidate(parent, parentPath, parentBlobId);
+						queue.add(parentCandidate);
+						pendings.put(parentCandidate.getKey(), parentCandidate);
+					}
+
+					if (parentBlobId.equals(candidate.blobId)) {
+						if (parentCandidate.text == null)
+							parentCandidate.text = candidate.text;
+						parentCandidate.regions.addAll(regions);
+						regions = new ArrayList<>();
+					} else {
+						RawText text = candidate.getText(reader);
+						RawText parentText = parentCandidate.getText(reader);
+						EditList edits = DiffAlgorithm.getAlgorithm(SupportedAlgorithm.HISTOGRAM)
+								.diff(RawTextComparator.DEFAULT, parentText, text);
+						regions = passToParent(regions, edits, text.size(), parentCandidate);
+					}
+
+					if (parentCandidate.regions.isEmpty()) {
+						queue.remove(parentCandidate);
+						pendings.remove(parentCandidate.getKey());
+					}
 				}
+
+				ObjectId commitId = candidate.commit.copy();
+				for (Region region: regions) {
+					for (int i=0; i<region.length; i++)
+						lineCommits[region.resultStart+i] = commitId;
+				}
+				candidate.text = null;
 			}
-			
-		});
-		
-		if (!endOfFile.get())
-			result.checkReturnCode();
-		
-		if (endLine.get() > beginLine.get()) {
-			BlameCommit commit = commitRef.get();
-			BlameBlock block = blocks.get(commit.getHash());
-			if (block == null) {
-				block = new BlameBlock(commit, new ArrayList<LinearRange>());
-				blocks.put(commit.getHash(), block);
+
+			return getBlocks(revWalk, lineCommits, from);
+		}
+	}
+
+	private boolean applyCache(Candidate candidate, ObjectId[] lineCommits) {
+		if (cache == null)
+			return false;
+		ObjectId[] cachedLineCommits = cache.getLineCommits(candidate.commit, candidate.path);
+		if (cachedLineCommits == null)
+			return false;
+		for (Region region: candidate.regions) {
+			if (region.sourceStart + region.length > cachedLineCommits.length)
+				return false;
+		}
+		for (Region region: candidate.regions) {
+			System.arraycopy(cachedLineCommits, region.sourceStart,
+					lineCommits, region.resultStart, region.length);
+		}
+		return true;
+	}
+
+	/*
+	 * Pass lines of specified regions not changed since parent to parent candidate, and return
+	 * regions of changed lines
+	 */
+	private List<Region> passToParent(List<Region> regions, EditList edits, int lineCount,
+			Candidate parentCandidate) {
+		// Unchanged segments of the file, represented as [start, end, offset in parent]
+		List<int[]> segments = new ArrayList<>();
+		int parentPos = 0, pos = 0;
+		for (Edit edit: edits) {
+			if (edit.getBeginB() > pos)
+				segments.add(new int[] {pos, edit.getBeginB(), parentPos-pos});
+			parentPos = edit.getEndA();
+			pos = edit.getEndB();
+		}
+		if (lineCount > pos)
+			segments.add(new int[] {pos, lineCount, parentPos-pos});
+
+		List<Region> changedRegions = new ArrayList<>();
+		for (Region region: regions) {
+			int start = region.sourceStart;
+			int end = region.sourceStart + region.length;
+			pos = start;
+			for (int[] segment: segments) {
+				if (segment[1] <= pos)
+					continue;
+				if (segment[0] >= end)
+					break;
+				int passStart = Math.max(segment[0], pos);
+				int passEnd = Math.min(segment[1], end);
+				if (passStart > pos)
+					changedRegions.add(new Region(region.resultStart+pos-start, pos, passStart-pos));
+				parentCandidate.regions.add(new Region(region.resultStart+passStart-start,
+						passStart+segment[2], passEnd-passStart));
+				pos = passEnd;
+			}
+			if (end > pos)
+				changedRegions.add(new Region(region.resultStart+pos-start, pos, end-pos));
+		}
+		return changedRegions;
+	}
+
+	private Collection<BlameBlock> getBlocks(RevWalk revWalk, ObjectId[] lineCommits, int from) throws IOException {
+		Map<ObjectId, BlameBlock> blocks = new LinkedHashMap<>();
+		int beginLine = 0;
+		for (int i=1; i<=lineCommits.length; i++) {
+			if (i == lineCommits.length || !lineCommits[i].equals(lineCommits[beginLine])) {
+				BlameBlock block = blocks.get(lineCommits[beginLine]);
+				if (block == null) {
+					RevCommit commit = revWalk.parseCommit(lineCommits[beginLine]);
+					BlameCommit blameCommit = new BlameCommit(commit.name(), commit.getCommitterIdent(),
+							commit.getAuthorIdent(), commit.getShortMessage().trim());
+					block = new BlameBlock(blameCommit, new ArrayList<>());
+					blocks.put(lineCommits[beginLine], block);
+				}
+				block.getRanges().add(new LinearRange(from+beginLine, from+i-1));
+				beginLine = i;
 			}
-			block.getRanges().add(new LinearRange(beginLine.get(), endLine.get()-1));
 		}
-		
-		if (System.currentTimeMillis()-time > CACHE_THRESHOLD)
-			cache.put(cacheKey, blocks.values());
-		
 		return blocks.values();
 	}
 
-    private static class CommitBuilder {
-        
-    	private Date committerDate;
-    	
-        private Date authorDate;
-        
-        private String author;
-        
-        private String committer;
-        
-        private String authorEmail;
-        
-        private String committerEmail;
-        
-        private String hash;
-        
-        private String summary;
-        
-    	private BlameCommit build() {
-    		return new BlameCommit(
-    				hash, 
-    				GitUtils.newPersonIdent(committer, committerEmail, committerDate), 
-    				GitUtils.newPersonIdent(author, authorEmail, authorDate), 
-    				summary.trim());
-    	}
-    }
+	@Nullable
+	private ObjectId getBlobId(ObjectReader reader, RevCommit commit, String path) throws IOException {
+		try (TreeWalk treeWalk = TreeWalk.forPath(reader, path, commit.getTree())) {
+			if (treeWalk != null && treeWalk.getFileMode(0).getObjectType() == Constants.OBJ_BLOB)
+				return treeWalk.getObjectId(0);
+			else
+				return null;
+		}
+	}
+
+	@Nullable
+	private String getRenameSource(Repository repository, ObjectReader reader, RevCommit parent,
+			RevCommit commit, String path) throws IOException {
+		try (TreeWalk treeWalk = new TreeWalk(reader)) {
+			treeWalk.setRecursive(true);
+			treeWalk.addTree(parent.getTree());
+			treeWalk.addTree(commit.getTree());
+			treeWalk.setFilter(TreeFilter.ANY_DIFF);
+			RenameDetector detector = new RenameDetector(repository);
+			detector.addAll(DiffEntry.scan(treeWalk));
+			for (DiffEntry entry: detector.compute(reader, NullProgressMonitor.INSTANCE)) {
+				if ((entry.getChangeType() == DiffEntry.ChangeType.RENAME
+						|| entry.getChangeType() == DiffEntry.ChangeType.COPY)
+						&& entry.getNewPath().equals(path)) {
+					return entry.getOldPath();
+				}
+			}
+			return null;
+		}
+	}
+
+	/**
+	 * Lines of a file in a commit, mapped to lines of the file being blamed
+	 */
+	private static class Region {
+
+		final int resultStart;
+
+		final int sourceStart;
+
+		final int length;
+
+		Region(int resultStart, int sourceStart, int length) {
+			this.resultStart = resultStart;
+			this.sourceStart = sourceStart;
+			this.length = length;
+		}
+
+	}
+
+	private static class Candidate {
+
+		final RevCommit commit;
+
+		final String path;
+
+		final ObjectId blobId;
+
+		final List<Region> regions = new ArrayList<>();
+
+		RawText text;
+
+		Candidate(RevCommit commit, String path, ObjectId blobId) {
+			this.commit = commit;
+			this.path = path;
+			this.blobId = blobId;
+		}
+
+		RawText getText(ObjectReader reader) throws IOException {
+			if (text == null)
+				text = new RawText(reader.open(blobId, Constants.OBJ_BLOB).getCachedBytes());
+			return text;
+		}
+
+		String getKey() {
+			return getKey(commit, path);
+		}
+
+		static String getKey(ObjectId commitId, String path) {
+			return commitId.name() + ":" + path;
+		}
+
+	}
+
+	public static interface Cache {
+
+		/**
+		 * Get cached blames of specified file
+		 *
+		 * @return
+		 * 			commits of all lines of the file, or <tt>null</tt> if not cached
+		 */
+		@Nullable
+		ObjectId[] getLineCommits(ObjectId commitId, String path);
+
+	}
+
 }
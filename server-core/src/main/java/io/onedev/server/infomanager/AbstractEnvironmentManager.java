@@ -1,5 +1,7 @@
 package io.onedev.server.infomanager;
 
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
 import java.io.File;
 import java.io.IOException;
 import java.nio.ByteBuffer;
@@ -8,18 +10,19 @@ import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashSet;
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
+import java.util.function.Supplier;
 
 import javax.annotation.Nullable;
 
+import org.apache.commons.lang3.SerializationUtils;
 import org.eclipse.jgit.lib.ObjectId;
 
-import io.onedev.commons.launcher.loader.Listen;
 import io.onedev.commons.utils.FileUtils;
-import io.onedev.server.event.system.SystemStopping;
 import jetbrains.exodus.ArrayByteIterable;
 import jetbrains.exodus.ByteIterable;
+import jetbrains.exodus.env.Cursor;
 import jetbrains.exodus.env.Environment;
 import jetbrains.exodus.env.EnvironmentConfig;
 import jetbrains.exodus.env.Environments;
@@ -27,6 +30,7 @@ import jetbrains.exodus.env.Store;
 import jetbrains.exodus.env.StoreConfig;
 import jetbrains.exodus.env.Transaction;
 import jetbrains.exodus.env.TransactionalComputable;
+import jetbrains.exodus.env.TransactionalExecutable;
 
 public abstract class AbstractEnvironmentManager {
 	
@@ -36,7 +40,19 @@ public abstract class AbstractEnvironmentManager {
 	
 	private static final int MEMORY_USAGE_PERCENT = 25;
 	
-	private final Map<String, Environment> envs = new ConcurrentHashMap<>();
+	private static final String EVICTION_SEQUENCE_STORE_SUFFIX = "Sequence";
+	
+	private static final String EVICTION_STATS_STORE_SUFFIX = "Stats";
+	
+	private static final ByteIterable NEXT_SEQUENCE_KEY = new StringByteIterable("nextSequence");
+	
+	private static final ByteIterable TOTAL_SIZE_KEY = new StringByteIterable("totalSize");
+	
+	private final EnvironmentPool environmentPool;
+	
+	public AbstractEnvironmentManager(EnvironmentPool environmentPool) {
+		this.environmentPool = environmentPool;
+	}
 	
 	protected void checkVersion(String envKey) {
 		File versionFile = new File(getEnvDir(envKey), VERSION_FILE);
@@ -69,21 +85,50 @@ public abstract class AbstractEnvironmentManager {
 		return DEFAULT_LOG_FILE_SIZE;
 	}
 	
-	protected Environment getEnv(String envKey) {
-		Environment env = envs.get(envKey);
-		if (env == null) synchronized (envs) {
-			env = envs.get(envKey);
-			if (env == null) {
+	private String getPoolKey(String envKey) {
+		return getClass().getName() + ":" + envKey;
+	}
+	
+	private Supplier<Environment> getEnvOpener(String envKey) {
+		return new Supplier<Environment>() {
+
+			@Override
+			public Environment get() {
 				checkVersion(envKey);
 				EnvironmentConfig config = new EnvironmentConfig();
-				config.setEnvCloseForcedly(true);
+				
+				/*
+				 * Share log cache among all environments so that memory usage is bounded by 
+				 * specified percentage no matter how many environments are opened
+				 */
+				config.setLogCacheShared(true);
 				config.setMemoryUsagePercentage(MEMORY_USAGE_PERCENT);
 				config.setLogFileSize(getLogFileSize());
-				env = Environments.newInstance(getEnvDir(envKey), config);
-				envs.put(envKey, env);
+				return Environments.newInstance(getEnvDir(envKey), config);
 			}
-		}
-		return env;
+			
+		};
+	}
+	
+	/**
+	 * Get environment of specified key. Environments are pooled and may be closed after being idle 
+	 * for a while, so do not hold the returned environment across long running operations. Use 
+	 * {@link #acquireEnv(String)} instead in that case
+	 */
+	protected Environment getEnv(String envKey) {
+		return environmentPool.getEnv(getPoolKey(envKey), getEnvOpener(envKey));
+	}
+	
+	/**
+	 * Get environment of specified key and pin it until {@link #releaseEnv(String, Environment)} 
+	 * is called, so that it can be used across long running operations
+	 */
+	protected Environment acquireEnv(String envKey) {
+		return environmentPool.acquireEnv(getPoolKey(envKey), getEnvOpener(envKey));
+	}
+	
+	protected void releaseEnv(String envKey, Environment env) {
+		environmentPool.releaseEnv(getPoolKey(envKey), env);
 	}
 	
 	protected Store getStore(Environment env, String storeName) {
@@ -96,43 +141,51 @@ public abstract class AbstractEnvironmentManager {
 	}
 
 	protected void removeEnv(String envKey) {
-		synchronized (envs) {
-			Environment env = envs.remove(envKey);
-			if (env != null)
-				env.close();
-		}
+		environmentPool.closeEnv(getPoolKey(envKey));
 	}
 
-	@Listen
-	public void on(SystemStopping event) {
-		synchronized (envs) {
-			for (Environment env: envs.values())
-				env.close();
-			envs.clear();
-		}
+	/**
+	 * Read value of specified key as a view of stored bytes without copying them. The view 
+	 * is only valid inside specified transaction, and should not be kept after the 
+	 * transaction ends
+	 * 
+	 * @return
+	 * 			view of the value, or <tt>null</tt> if specified key does not exist
+	 */
+	@Nullable
+	protected ValueView readView(Store store, Transaction txn, ByteIterable key) {
+		ByteIterable value = store.get(txn, key);
+		if (value != null)
+			return new ValueView(value);
+		else
+			return null;
 	}
-
+	
+	/**
+	 * Read a copy of value bytes of specified key. Use {@link #readView(Store, Transaction, ByteIterable)} 
+	 * instead if the value is only decoded inside the transaction
+	 */
 	@Nullable 
 	protected byte[] readBytes(Store store, Transaction txn, ByteIterable key) {
-		ByteIterable value = store.get(txn, key);
-		if (value != null) 
-			return Arrays.copyOf(value.getBytesUnsafe(), value.getLength());
+		ValueView view = readView(store, txn, key);
+		if (view != null) 
+			return view.toBytes();
 		else
 			return null;
 	}
 	
 	protected int readInt(Store store, Transaction txn, ByteIterable key, int defaultValue) {
-		byte[] bytes = readBytes(store, txn, key);
-		if (bytes != null)
-			return ByteBuffer.wrap(bytes).getInt();
+		ValueView view = readView(store, txn, key);
+		if (view != null)
+			return view.getInt(0);
 		else
 			return defaultValue;
 	}
 	
 	protected boolean readBoolean(Store store, Transaction txn, ByteIterable key, boolean defaultValue) {
-		byte[] bytes = readBytes(store, txn, key);
-		if (bytes != null)
-			return bytes[0] == 1;
+		ValueView view = readView(store, txn, key);
+		if (view != null)
+			return view.getByte(0) == 1;
 		else
 			return defaultValue;
 	}
@@ -143,30 +196,28 @@ public abstract class AbstractEnvironmentManager {
 	}
 	
 	protected long readLong(Store store, Transaction txn, ByteIterable key, long defaultValue) {
-		byte[] bytes = readBytes(store, txn, key);
-		if (bytes != null)
-			return ByteBuffer.wrap(bytes).getLong();
+		ValueView view = readView(store, txn, key);
+		if (view != null)
+			return view.getLong(0);
 		else
 			return defaultValue;
 	}
 	
 	protected Collection<Long> readLongs(Store store, Transaction txn, ByteIterable key) {
 		Collection<Long> collection = new HashSet<>();
-		byte[] bytes = readBytes(store, txn, key);
-		if (bytes != null) {
-			for (int i=0; i<bytes.length/Long.BYTES; i++) 
-				collection.add(ByteBuffer.wrap(bytes, i*Long.BYTES, Long.BYTES).getLong());
+		ValueView view = readView(store, txn, key);
+		if (view != null) {
+			for (long value: view.getLongs(0))
+				collection.add(value);
 		} 
 		return collection;
 	}
 
 	protected Collection<ObjectId> readCommits(Store store, Transaction txn, ByteIterable key) {
 		Collection<ObjectId> commits = new HashSet<>();
-		byte[] bytes = readBytes(store, txn, key);
-		if (bytes != null) {
-			for (int i=0; i<bytes.length/20; i++)
-				commits.add(ObjectId.fromRaw(bytes, i*20));
-		} 
+		ValueView view = readView(store, txn, key);
+		if (view != null) 
+			view.visitCommits(0, commits::add);
 		return commits;
 	}
 	
@@ -194,6 +245,144 @@ public abstract class AbstractEnvironmentManager {
 		store.put(txn, key, new ArrayByteIterable(bytes));
 	}
 
+	/**
+	 * Write value of specified key into an evictable store if the key does not exist yet. Values 
+	 * of the store are evicted in insertion order once their total size exceeds specified size. 
+	 * Stores suffixed with <tt>Sequence</tt> and <tt>Stats</tt> are also used to track insertion 
+	 * order and total size of values
+	 */
+	protected void writeEvictable(Environment env, String storeName, ByteIterable key, byte[] value, long maxSize) {
+		Store store = getStore(env, storeName);
+		Store sequenceStore = getStore(env, storeName + EVICTION_SEQUENCE_STORE_SUFFIX);
+		Store statsStore = getStore(env, storeName + EVICTION_STATS_STORE_SUFFIX);
+		env.executeInTransaction(new TransactionalExecutable() {
+
+			@Override
+			public void execute(Transaction txn) {
+				if (store.get(txn, key) != null)
+					return;
+
+				long sequence = readLong(statsStore, txn, NEXT_SEQUENCE_KEY, 0);
+				long totalSize = readLong(statsStore, txn, TOTAL_SIZE_KEY, 0);
+
+				store.put(txn, key, new ArrayByteIterable(value));
+				sequenceStore.put(txn, new LongByteIterable(sequence), key);
+				totalSize += value.length;
+
+				// Sequences are non-negative and encoded in big endian, so cursor visits oldest value first
+				try (Cursor cursor = sequenceStore.openCursor(txn)) {
+					while (totalSize > maxSize && cursor.getNext()) {
+						ByteIterable evictKey = cursor.getValue();
+						ByteIterable evictValue = store.get(txn, evictKey);
+						if (evictValue != null) {
+							totalSize -= evictValue.getLength();
+							store.delete(txn, evictKey);
+						}
+						cursor.deleteCurrent();
+					}
+				}
+
+				writeLong(statsStore, txn, NEXT_SEQUENCE_KEY, sequence+1);
+				writeLong(statsStore, txn, TOTAL_SIZE_KEY, totalSize);
+			}
+
+		});
+	}
+
+	/**
+	 * View of stored value bytes. Values are decoded from underlying bytes on demand without 
+	 * copying, hence the view is only valid inside the transaction it is read from. Numbers are 
+	 * decoded in big endian to be consistent with {@link ByteBuffer}
+	 */
+	static class ValueView {
+		
+		private final byte[] bytes;
+		
+		private final int length;
+		
+		ValueView(ByteIterable value) {
+			bytes = value.getBytesUnsafe();
+			length = value.getLength();
+		}
+		
+		int getLength() {
+			return length;
+		}
+		
+		byte getByte(int offset) {
+			return bytes[offset];
+		}
+		
+		int getInt(int offset) {
+			return ((bytes[offset] & 0xff) << 24) 
+					| ((bytes[offset+1] & 0xff) << 16) 
+					| ((bytes[offset+2] & 0xff) << 8) 
+					| (bytes[offset+3] & 0xff);
+		}
+		
+		long getLong(int offset) {
+			return ((long)getInt(offset) << 32) | (getInt(offset+Integer.BYTES) & 0xffffffffL);
+		}
+		
+		ObjectId getCommit(int offset) {
+			return ObjectId.fromRaw(bytes, offset);
+		}
+		
+		String getString() {
+			return new String(bytes, 0, length, StandardCharsets.UTF_8);
+		}
+		
+		/**
+		 * Decode all integers starting from specified offset
+		 */
+		int[] getInts(int offset) {
+			int[] values = new int[(length-offset)/Integer.BYTES];
+			for (int i=0; i<values.length; i++) 
+				values[i] = getInt(offset + i*Integer.BYTES);
+			return values;
+		}
+		
+		/**
+		 * Decode all longs starting from specified offset
+		 */
+		long[] getLongs(int offset) {
+			long[] values = new long[(length-offset)/Long.BYTES];
+			for (int i=0; i<values.length; i++) 
+				values[i] = getLong(offset + i*Long.BYTES);
+			return values;
+		}
+		
+		void visitInts(int offset, IntConsumer visitor) {
+			for (int pos=offset; pos+Integer.BYTES<=length; pos+=Integer.BYTES)
+				visitor.accept(getInt(pos));
+		}
+		
+		void visitCommits(int offset, Consumer<ObjectId> visitor) {
+			for (int pos=offset; pos+20<=length; pos+=20)
+				visitor.accept(getCommit(pos));
+		}
+		
+		void copyTo(byte[] dest, int destPos) {
+			System.arraycopy(bytes, 0, dest, destPos, length);
+		}
+		
+		/**
+		 * Get a stream to read the value sequentially
+		 */
+		DataInputStream getInput() {
+			return new DataInputStream(new ByteArrayInputStream(bytes, 0, length));
+		}
+		
+		Object deserialize() {
+			return SerializationUtils.deserialize(new ByteArrayInputStream(bytes, 0, length));
+		}
+		
+		byte[] toBytes() {
+			return Arrays.copyOf(bytes, length);
+		}
+		
+	}
+	
 	static class CommitByteIterable extends ArrayByteIterable {
 		CommitByteIterable(ObjectId commit) {
 			super(getBytes(commit));
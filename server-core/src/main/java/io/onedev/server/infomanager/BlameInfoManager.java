@@ -0,0 +1,32 @@
+package io.onedev.server.infomanager;
+
+import java.util.Collection;
+
+import javax.annotation.Nullable;
+
+import org.eclipse.jgit.lib.ObjectId;
+
+import io.onedev.commons.utils.LinearRange;
+import io.onedev.server.git.BlameBlock;
+import io.onedev.server.model.Project;
+
+public interface BlameInfoManager {
+
+	/**
+	 * Get blames of specified file. Blames of the whole file are persisted, and are used to 
+	 * serve blames of any range of the file, as well as to speed up blame calculation of 
+	 * descendant commits
+	 * 
+	 * @param project
+	 * 			project to get blames of
+	 * @param commitId
+	 * 			commit to get blames of
+	 * @param path
+	 * 			path of the file to get blames of
+	 * @param range
+	 * 			0-indexed and inclusive range of lines to get blames of, <tt>null</tt> to get 
+	 * 			blames of all lines
+	 */
+	Collection<BlameBlock> getBlameBlocks(Project project, ObjectId commitId, String path, @Nullable LinearRange range);
+	
+}
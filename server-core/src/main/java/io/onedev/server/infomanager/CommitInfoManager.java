@@ -6,6 +6,8 @@ import java.util.Map;
 
 import org.eclipse.jgit.lib.ObjectId;
 
+import com.google.common.cache.CacheStats;
+
 import io.onedev.server.git.Contribution;
 import io.onedev.server.git.Contributor;
 import io.onedev.server.git.NameAndEmail;
@@ -36,6 +38,24 @@ public interface CommitInfoManager {
 	 */
 	Collection<ObjectId> getDescendants(Project project, Collection<ObjectId> ancestors);
 	
+	/**
+	 * Filter specified commits to get those being descendant of specified ancestor commit. This 
+	 * is much faster than {@link #getDescendants(Project, Collection)} when only a few commits 
+	 * (for instance heads of branches) need to be checked, as the walk is pruned by generation 
+	 * numbers of commits. The result might be incomplete if some commits have not be cached yet
+	 * 
+	 * @param project
+	 * 			project to filter commits
+	 * @param ancestor
+	 * 			ancestor commit
+	 * @param commits
+	 * 			commits to filter
+	 * @return
+	 * 			commits being descendant of specified ancestor, including the ancestor itself if 
+	 * 			it is contained in specified commits
+	 */
+	Collection<ObjectId> filterDescendants(Project project, ObjectId ancestor, Collection<ObjectId> commits);
+	
 	void cloneInfo(Project from, Project to);
 	
 	Collection<String> getHistoryPaths(Project project, String path);
@@ -80,4 +100,12 @@ public interface CommitInfoManager {
 
 	Collection<ObjectId> getFixCommits(Project project, Long issueNumber);
 	
+	/**
+	 * Get statistics of in-memory caches of commit information
+	 * 
+	 * @return
+	 * 			map of cache name to cache statistics
+	 */
+	Map<String, CacheStats> getCacheStats();
+	
 }
\ No newline at end of file
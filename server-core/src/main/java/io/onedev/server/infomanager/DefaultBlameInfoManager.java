@@ -0,0 +1,199 @@
+package io.onedev.server.infomanager;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import javax.annotation.Nullable;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import org.eclipse.jgit.lib.ObjectId;
+
+import io.onedev.commons.launcher.loader.Listen;
+import io.onedev.commons.utils.FileUtils;
+import io.onedev.commons.utils.LinearRange;
+import io.onedev.server.event.entity.EntityRemoved;
+import io.onedev.server.git.BlameBlock;
+import io.onedev.server.git.command.BlameCommand;
+import io.onedev.server.model.Project;
+import io.onedev.server.storage.StorageManager;
+import jetbrains.exodus.ArrayByteIterable;
+import jetbrains.exodus.ByteIterable;
+import jetbrains.exodus.env.Environment;
+import jetbrains.exodus.env.Store;
+import jetbrains.exodus.env.Transaction;
+import jetbrains.exodus.env.TransactionalComputable;
+
+/**
+ * Persists blames of files keyed by commit and path. Blames are stored as runs of lines 
+ * blamed to the same commit, and are evicted in insertion order when total size of a 
+ * project exceeds {@link #MAX_SIZE}
+ * 
+ * @author robin
+ *
+ */
+@Singleton
+public class DefaultBlameInfoManager extends AbstractEnvironmentManager implements BlameInfoManager {
+
+	private static final int INFO_VERSION = 1;
+	
+	private static final String INFO_DIR = "blame";
+	
+	private static final String BLAME_STORE = "blame";
+	
+	private static final long MAX_SIZE = 64*1024*1024L;
+	
+	private final StorageManager storageManager;
+	
+	@Inject
+	public DefaultBlameInfoManager(StorageManager storageManager, EnvironmentPool environmentPool) {
+		super(environmentPool);
+		this.storageManager = storageManager;
+	}
+
+	@Override
+	public Collection<BlameBlock> getBlameBlocks(Project project, ObjectId commitId, String path, 
+			@Nullable LinearRange range) {
+		String envKey = project.getId().toString();
+		Environment env = acquireEnv(envKey);
+		try {
+			return getBlameBlocks(project, env, commitId, path, range);
+		} finally {
+			releaseEnv(envKey, env);
+		}
+	}
+	
+	private Collection<BlameBlock> getBlameBlocks(Project project, Environment env, ObjectId commitId, 
+			String path, @Nullable LinearRange range) {
+		Store store = getStore(env, BLAME_STORE);
+		
+		BlameCommand.Cache cache = new BlameCommand.Cache() {
+
+			@Override
+			public ObjectId[] getLineCommits(ObjectId commitId, String path) {
+				return env.computeInReadonlyTransaction(new TransactionalComputable<ObjectId[]>() {
+
+					@Override
+					public ObjectId[] compute(Transaction txn) {
+						ValueView view = readView(store, txn, getKey(commitId, path));
+						if (view != null)
+							return deserializeLineCommits(view);
+						else
+							return null;
+					}
+					
+				});
+			}
+			
+		};
+		
+		boolean cached = env.computeInReadonlyTransaction(new TransactionalComputable<Boolean>() {
+
+			@Override
+			public Boolean compute(Transaction txn) {
+				return store.get(txn, getKey(commitId, path)) != null;
+			}
+			
+		});
+		
+		Collection<BlameBlock> blocks = new BlameCommand(project.getRepository())
+				.commitHash(commitId.name())
+				.file(path)
+				.range(range)
+				.cache(cache)
+				.call();
+		
+		if (range == null && !cached)
+			writeEvictable(env, BLAME_STORE, getKey(commitId, path), serializeLineCommits(blocks), MAX_SIZE);
+		
+		return blocks;
+	}
+	
+	private ByteIterable getKey(ObjectId commitId, String path) {
+		byte[] pathBytes = path.getBytes(StandardCharsets.UTF_8);
+		byte[] keyBytes = new byte[20 + pathBytes.length];
+		commitId.copyRawTo(keyBytes, 0);
+		System.arraycopy(pathBytes, 0, keyBytes, 20, pathBytes.length);
+		return new ArrayByteIterable(keyBytes);
+	}
+	
+	private byte[] serializeLineCommits(Collection<BlameBlock> blocks) {
+		int lineCount = 0;
+		for (BlameBlock block: blocks) {
+			for (LinearRange range: block.getRanges()) 
+				lineCount = Math.max(lineCount, range.getTo()+1);
+		}
+		ObjectId[] lineCommits = new ObjectId[lineCount];
+		for (BlameBlock block: blocks) {
+			ObjectId commitId = ObjectId.fromString(block.getCommit().getHash());
+			for (LinearRange range: block.getRanges()) {
+				for (int i=range.getFrom(); i<=range.getTo(); i++)
+					lineCommits[i] = commitId;
+			}
+		}
+		
+		List<Integer> runLengths = new ArrayList<>();
+		List<ObjectId> runCommits = new ArrayList<>();
+		for (int i=0; i<lineCount; i++) {
+			int lastRun = runCommits.size()-1;
+			if (lastRun != -1 && runCommits.get(lastRun).equals(lineCommits[i])) {
+				runLengths.set(lastRun, runLengths.get(lastRun)+1);
+			} else {
+				runCommits.add(lineCommits[i]);
+				runLengths.add(1);
+			}
+		}
+		
+		ByteBuffer buffer = ByteBuffer.allocate(Integer.BYTES + runCommits.size()*(20+Integer.BYTES));
+		buffer.putInt(runCommits.size());
+		byte[] commitBytes = new byte[20];
+		for (int i=0; i<runCommits.size(); i++) {
+			runCommits.get(i).copyRawTo(commitBytes, 0);
+			buffer.put(commitBytes);
+			buffer.putInt(runLengths.get(i));
+		}
+		return buffer.array();
+	}
+	
+	private ObjectId[] deserializeLineCommits(ValueView view) {
+		int runCount = view.getInt(0);
+		int lineCount = 0;
+		for (int i=0; i<runCount; i++) 
+			lineCount += view.getInt(Integer.BYTES + i*(20+Integer.BYTES) + 20);
+		
+		ObjectId[] lineCommits = new ObjectId[lineCount];
+		int line = 0;
+		for (int i=0; i<runCount; i++) {
+			int offset = Integer.BYTES + i*(20+Integer.BYTES);
+			ObjectId commitId = view.getCommit(offset);
+			int runLength = view.getInt(offset+20);
+			for (int j=0; j<runLength; j++)
+				lineCommits[line++] = commitId;
+		}
+		return lineCommits;
+	}
+	
+	@Listen
+	public void on(EntityRemoved event) {
+		if (event.getEntity() instanceof Project)
+			removeEnv(event.getEntity().getId().toString());
+	}
+	
+	@Override
+	protected File getEnvDir(String envKey) {
+		File infoDir = new File(storageManager.getProjectInfoDir(Long.valueOf(envKey)), INFO_DIR);
+		if (!infoDir.exists()) 
+			FileUtils.createDir(infoDir);
+		return infoDir;
+	}
+
+	@Override
+	protected int getEnvVersion() {
+		return INFO_VERSION;
+	}
+
+}
@@ -96,7 +96,9 @@ public class DefaultCodeCommentRelationInfoManager extends AbstractEnvironmentMa
 	public DefaultCodeCommentRelationInfoManager(TransactionManager transactionManager, ProjectManager projectManager, 
 			StorageManager storageManager, PullRequestUpdateManager pullRequestUpdateManager, 
 			CodeCommentManager codeCommentManager, BatchWorkManager batchWorkManager, SessionManager sessionManager, 
-			PullRequestManager pullRequestManager, CodeCommentRelationManager codeCommentRelationManager) {
+			PullRequestManager pullRequestManager, CodeCommentRelationManager codeCommentRelationManager, 
+			EnvironmentPool environmentPool) {
+		super(environmentPool);
 		this.projectManager = projectManager;
 		this.storageManager = storageManager;
 		this.pullRequestUpdateManager = pullRequestUpdateManager;
@@ -109,7 +111,7 @@ public class DefaultCodeCommentRelationInfoManager extends AbstractEnvironmentMa
 	}
 	
 	private BatchWorker getBatchWorker(Long projectId) {
-		return new BatchWorker("project-" + projectId + "-collectCodeCommentRelationInfo") {
+		return new BatchWorker("project-" + projectId + "-collectCodeCommentRelationInfo", "project-" + projectId) {
 
 			@Override
 			public void doWorks(Collection<Prioritized> works) {
@@ -140,9 +142,18 @@ public class DefaultCodeCommentRelationInfoManager extends AbstractEnvironmentMa
 	}
 	
 	private boolean collect(Project project) {
+		String envKey = project.getId().toString();
+		Environment env = acquireEnv(envKey);
+		try {
+			return collect(project, env);
+		} finally {
+			releaseEnv(envKey, env);
+		}
+	}
+	
+	private boolean collect(Project project, Environment env) {
 		logger.debug("Collecting code comment relation info (project: {})...", project);
 		
-		Environment env = getEnv(project.getId().toString());
 		Store defaultStore = getStore(env, DEFAULT_STORE);
 		Store codeCommentStore = getStore(env, CODE_COMMENT_STORE);
 		Store pullRequestStore = getStore(env, PULL_REQUEST_STORE);
@@ -287,9 +298,9 @@ public class DefaultCodeCommentRelationInfoManager extends AbstractEnvironmentMa
 	
 	@SuppressWarnings("unchecked")
 	private Map<Long, ComparingInfo> getCodeCommentComparingInfos(Store store, Transaction txn, ByteIterable commitKey) {
-		byte[] valueBytes = readBytes(store, txn, commitKey);
-		if (valueBytes != null) {
-			return (Map<Long, ComparingInfo>) SerializationUtils.deserialize(valueBytes);
+		ValueView view = readView(store, txn, commitKey);
+		if (view != null) {
+			return (Map<Long, ComparingInfo>) view.deserialize();
 		} else {
 			return new HashMap<>();
 		}
@@ -4,7 +4,6 @@ import java.io.File;
 import java.io.IOException;
 import java.io.Serializable;
 import java.nio.ByteBuffer;
-import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
@@ -13,21 +12,29 @@ import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Queue;
 import java.util.Set;
 import java.util.Stack;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Consumer;
 
+import javax.annotation.Nullable;
 import javax.inject.Inject;
 import javax.inject.Singleton;
 
 import org.apache.commons.lang3.SerializationUtils;
 import org.eclipse.jgit.lib.Constants;
 import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectIdSubclassMap;
 import org.eclipse.jgit.lib.PersonIdent;
 import org.eclipse.jgit.lib.Ref;
 import org.eclipse.jgit.lib.Repository;
@@ -39,8 +46,17 @@ import org.slf4j.LoggerFactory;
 
 import com.google.common.base.Preconditions;
 import com.google.common.base.Splitter;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.RemovalCause;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.cache.Weigher;
+import com.google.common.util.concurrent.UncheckedExecutionException;
 
 import io.onedev.commons.launcher.loader.Listen;
+import io.onedev.commons.utils.ExceptionUtils;
 import io.onedev.commons.utils.FileUtils;
 import io.onedev.commons.utils.PathUtils;
 import io.onedev.commons.utils.StringUtils;
@@ -65,6 +81,7 @@ import io.onedev.server.persistence.annotation.Sessional;
 import io.onedev.server.storage.StorageManager;
 import io.onedev.server.util.Day;
 import io.onedev.server.util.ElementPumper;
+import io.onedev.server.util.FrontCodedStringList;
 import io.onedev.server.util.IssueUtils;
 import io.onedev.server.util.Pair;
 import io.onedev.server.util.concurrent.Prioritized;
@@ -86,22 +103,32 @@ public class DefaultCommitInfoManager extends AbstractEnvironmentManager impleme
 
 	private static final Logger logger = LoggerFactory.getLogger(DefaultCommitInfoManager.class);
 	
-	private static final int INFO_VERSION = 8;
+	private static final int INFO_VERSION = 9;
 	
 	private static final long LOG_FILE_SIZE = 256*1024;
 	
 	private static final int COLLECT_BATCH_SIZE = 10000;
 	
+	private static final int MAX_PARSING_AHEAD = Math.min(4, Math.max(1, Runtime.getRuntime().availableProcessors()/2));
+	
 	private static final int MAX_COLLECTING_FILES = 50000;
 	
 	private static final int MAX_HISTORY_PATHS = 100;
 	
+	private static final long MAX_FILES_CACHE_WEIGHT = 64L*1024*1024;
+	
+	private static final long MAX_USERS_CACHE_WEIGHT = 16L*1024*1024;
+	
+	private static final int MAX_COMMIT_COUNT_CACHE_SIZE = 10000;
+	
 	private static final String INFO_DIR = "commit";
 	
 	private static final String DEFAULT_STORE = "default";
 	
 	private static final String COMMITS_STORE = "commits";
 	
+	private static final String COMMIT_GRAPH_STORE = "commitGraph";
+	
 	private static final String FIX_COMMITS_STORE = "fixCommits";
 	
 	private static final String COMMIT_COUNTS_STORE = "commitCounts";
@@ -278,35 +305,196 @@ public class DefaultCommitInfoManager extends AbstractEnvironmentManager impleme
 	
 	private final SessionManager sessionManager;
 	
-	private final Map<Long, List<String>> filesCache = new ConcurrentHashMap<>();
+	private final ExecutorService executorService;
 	
-	private final Map<Long, Integer> totalCommitCountCache = new ConcurrentHashMap<>();
+	private final Cache<Long, FrontCodedStringList> filesCache = CacheBuilder.newBuilder()
+			.maximumWeight(MAX_FILES_CACHE_WEIGHT)
+			.weigher(new Weigher<Long, FrontCodedStringList>() {
+
+				@Override
+				public int weigh(Long key, FrontCodedStringList value) {
+					return value.getWeight();
+				}
+				
+			})
+			.removalListener(newEvictionLogger("files"))
+			.recordStats()
+			.build();
 	
-	private final Map<Long, List<NameAndEmail>> usersCache = new ConcurrentHashMap<>();
+	private final Cache<Long, Integer> totalCommitCountCache = CacheBuilder.newBuilder()
+			.maximumSize(MAX_COMMIT_COUNT_CACHE_SIZE)
+			.recordStats()
+			.build();
+	
+	private final Cache<Long, List<NameAndEmail>> usersCache = CacheBuilder.newBuilder()
+			.maximumWeight(MAX_USERS_CACHE_WEIGHT)
+			.weigher(new Weigher<Long, List<NameAndEmail>>() {
+
+				@Override
+				public int weigh(Long key, List<NameAndEmail> value) {
+					int weight = 64;
+					for (NameAndEmail user: value) {
+						weight += 64 + user.getName().length()*2;
+						if (user.getEmailAddress() != null)
+							weight += user.getEmailAddress().length()*2;
+					}
+					return weight;
+				}
+				
+			})
+			.removalListener(newEvictionLogger("users"))
+			.recordStats()
+			.build();
 	
 	@Inject
 	public DefaultCommitInfoManager(ProjectManager projectManager, StorageManager storageManager, 
-			BatchWorkManager batchWorkManager, SessionManager sessionManager) {
+			BatchWorkManager batchWorkManager, SessionManager sessionManager, 
+			ExecutorService executorService, EnvironmentPool environmentPool) {
+		super(environmentPool);
 		this.projectManager = projectManager;
 		this.storageManager = storageManager;
 		this.batchWorkManager = batchWorkManager;
 		this.sessionManager = sessionManager;
+		this.executorService = executorService;
 	}
 	
-	private boolean isCommitCollected(byte[] commitBytes) {
+	private static RemovalListener<Long, Object> newEvictionLogger(String cacheName) {
+		return new RemovalListener<Long, Object>() {
+
+			@Override
+			public void onRemoval(RemovalNotification<Long, Object> notification) {
+				if (notification.getCause() == RemovalCause.SIZE) {
+					logger.debug("Evicted commit info {} cache of project (project id: {})", 
+							cacheName, notification.getKey());
+				}
+			}
+			
+		};
+	}
+	
+	private boolean isCommitCollected(@Nullable ValueView commitView) {
 		/*
 		 * Collected commits stores an additional byte to differentiate from those not collected but with parent 
 		 * information stored 
 		 */
-		return commitBytes != null && commitBytes.length % 20 != 0;
+		return commitView != null && commitView.getLength() % 20 != 0;
+	}
+	
+	/*
+	 * Commit graph stores generation number of each collected commit followed by raw ids of its 
+	 * parents. Generation number of a commit is one plus the max generation number of its parents, 
+	 * so that generation number of a commit is always larger than its ancestors. This property is 
+	 * used to prune the walk when checking ancestry of commits. 
+	 * 
+	 * Parents of commits being collected are either collected in the same batch, or collected 
+	 * previously, so generation numbers can be calculated incrementally
+	 */
+	private void writeCommitGraph(Store commitGraphStore, Transaction txn, 
+			Map<ObjectId, List<ObjectId>> parentsOfCollected) {
+		Map<ObjectId, Integer> generations = new HashMap<>();
+		
+		// Use stack instead of recursion to avoid StackOverflowException
+		Stack<ObjectId> stack = new Stack<>();
+		for (ObjectId commitId: parentsOfCollected.keySet()) {
+			stack.push(commitId);
+			while (!stack.isEmpty()) {
+				ObjectId current = stack.peek();
+				if (generations.containsKey(current)) {
+					stack.pop();
+					continue;
+				}
+				int generation = 1;
+				boolean resolved = true;
+				for (ObjectId parent: parentsOfCollected.get(current)) {
+					if (parentsOfCollected.containsKey(parent)) {
+						Integer parentGeneration = generations.get(parent);
+						if (parentGeneration != null) {
+							generation = Math.max(generation, parentGeneration+1);
+						} else {
+							stack.push(parent);
+							resolved = false;
+						}
+					} else {
+						int parentGeneration = readInt(commitGraphStore, txn, new CommitByteIterable(parent), 0);
+						generation = Math.max(generation, parentGeneration+1);
+					}
+				}
+				if (resolved) {
+					generations.put(current, generation);
+					stack.pop();
+				}
+			}
+		}
+		
+		for (Map.Entry<ObjectId, Integer> entry: generations.entrySet()) {
+			List<ObjectId> parents = parentsOfCollected.get(entry.getKey());
+			ByteBuffer buffer = ByteBuffer.allocate(Integer.BYTES + parents.size()*20);
+			buffer.putInt(entry.getValue());
+			byte[] parentBytes = new byte[20];
+			for (ObjectId parent: parents) {
+				parent.copyRawTo(parentBytes, 0);
+				buffer.put(parentBytes);
+			}
+			commitGraphStore.put(txn, new CommitByteIterable(entry.getKey()), 
+					new ArrayByteIterable(buffer.array()));
+		}
+	}
+	
+	private Future<List<GitCommit>> parseCommits(File gitDir, ObjectId untilCommitId, 
+			@Nullable ObjectId sinceCommitId) {
+		return executorService.submit(new Callable<List<GitCommit>>() {
+
+			@Override
+			public List<GitCommit> call() throws Exception {
+				List<String> revisions = new ArrayList<>();
+				revisions.add(untilCommitId.name());
+				if (sinceCommitId != null)
+					revisions.add("^" + sinceCommitId.name());
+
+				List<GitCommit> commits = new ArrayList<>();
+				EnumSet<LogCommand.Field> fields = EnumSet.allOf(LogCommand.Field.class);
+				fields.remove(LogCommand.Field.LINE_CHANGES);
+				new LogCommand(gitDir) {
+
+					@Override
+					protected void consume(GitCommit commit) {
+						commits.add(commit);
+					}
+					
+				}.revisions(revisions).fields(fields).call();
+				return commits;
+			}
+			
+		});
+	}
+	
+	private List<GitCommit> getParsedCommits(Future<List<GitCommit>> parsing) {
+		try {
+			return parsing.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(e);
+		} catch (ExecutionException e) {
+			throw ExceptionUtils.unchecked(e.getCause());
+		}
 	}
 	
 	private void doCollect(Project project, ObjectId commitId, String refName) {
+		String envKey = project.getId().toString();
+		Environment env = acquireEnv(envKey);
+		try {
+			doCollect(project, env, commitId, refName);
+		} finally {
+			releaseEnv(envKey, env);
+		}
+	}
+	
+	private void doCollect(Project project, Environment env, ObjectId commitId, String refName) {
 		logger.debug("Collecting commit information (project: {}, ref: {})...", refName, project.getName());
 		
-		Environment env = getEnv(project.getId().toString());
 		Store defaultStore = getStore(env, DEFAULT_STORE);
 		Store commitsStore = getStore(env, COMMITS_STORE);
+		Store commitGraphStore = getStore(env, COMMIT_GRAPH_STORE);
 		Store commitCountsStore = getStore(env, COMMIT_COUNTS_STORE); 
 		Store historyPathsStore = getStore(env, HISTORY_PATHS_STORE);
 		Store pathToIndexStore = getStore(env, PATH_TO_INDEX_STORE);
@@ -318,28 +506,28 @@ public class DefaultCommitInfoManager extends AbstractEnvironmentManager impleme
 		
 		Repository repository = project.getRepository();
 
-		Pair<byte[], ObjectId> result = env.computeInTransaction(new TransactionalComputable<Pair<byte[], ObjectId>>() {
+		Pair<Boolean, ObjectId> result = env.computeInTransaction(new TransactionalComputable<Pair<Boolean, ObjectId>>() {
 			
 			@Override
-			public Pair<byte[], ObjectId> compute(Transaction txn) {
+			public Pair<Boolean, ObjectId> compute(Transaction txn) {
 				ByteIterable commitKey = new CommitByteIterable(commitId);
-				byte[] commitBytes = readBytes(commitsStore, txn, commitKey);
+				boolean commitCollected = isCommitCollected(readView(commitsStore, txn, commitKey));
 				
 				ObjectId lastCommitId;
-				byte[] lastCommitBytes = readBytes(defaultStore, txn, LAST_COMMIT_KEY);
-				if (lastCommitBytes != null) {
-					lastCommitId = ObjectId.fromRaw(lastCommitBytes);
+				ValueView lastCommitView = readView(defaultStore, txn, LAST_COMMIT_KEY);
+				if (lastCommitView != null) {
+					lastCommitId = lastCommitView.getCommit(0);
 					if (!repository.hasObject(lastCommitId))
 						lastCommitId = null;
 				} else {
 					lastCommitId = null;
 				}
 				
-				return new Pair<>(commitBytes, lastCommitId);
+				return new Pair<>(commitCollected, lastCommitId);
 			}
 		});
 		
-		if (!isCommitCollected(result.getFirst())) {
+		if (!result.getFirst()) {
 			AtomicReference<ObjectId> lastCommitIdRef = new AtomicReference<>(result.getSecond());
 			RevListCommand revList = new RevListCommand(project.getGitDir());
 			List<String> revisions = new ArrayList<>();
@@ -386,88 +574,94 @@ public class DefaultCommitInfoManager extends AbstractEnvironmentManager impleme
 			Collections.reverse(intermediateCommitIds);
 			intermediateCommitIds.add(commitId);
 			
-			for(ObjectId intermediateCommitId: intermediateCommitIds) {
-				env.executeInTransaction(new TransactionalExecutable() {
+			/*
+			 * Commits of subsequent ranges are parsed in parallel while information of current 
+			 * range is being merged. Information of ranges is merged in order, and last commit 
+			 * is saved in the same transaction as checkpoint of the collection, so that it can 
+			 * be resumed from the last merged range if interrupted
+			 */
+			File gitDir = project.getGitDir();
+			Queue<Future<List<GitCommit>>> parsings = new LinkedList<>();
+			try {
+				int nextParsing = 0;
+				for (int i=0; i<intermediateCommitIds.size(); i++) {
+					while (nextParsing < intermediateCommitIds.size() && nextParsing <= i+MAX_PARSING_AHEAD) {
+						ObjectId sinceCommitId;
+						if (nextParsing != 0)
+							sinceCommitId = intermediateCommitIds.get(nextParsing-1);
+						else
+							sinceCommitId = lastCommitIdRef.get();
+						parsings.add(parseCommits(gitDir, intermediateCommitIds.get(nextParsing), sinceCommitId));
+						nextParsing++;
+					}
 					
-					@SuppressWarnings("unchecked")
-					@Override
-					public void execute(Transaction txn) {
-						AtomicInteger totalCommitCount = new AtomicInteger(readInt(defaultStore, txn, COMMIT_COUNT_KEY, 0));
-						
-						NextIndex nextIndex = new NextIndex();
-						nextIndex.user = readInt(defaultStore, txn, NEXT_USER_INDEX_KEY, 0);
-						nextIndex.path = readInt(defaultStore, txn, NEXT_PATH_INDEX_KEY, 0);
-						
-						Map<Long, Integer> commitCountCache = new HashMap<>();
+					ObjectId intermediateCommitId = intermediateCommitIds.get(i);
+					List<GitCommit> parsedCommits = getParsedCommits(parsings.remove());
+					
+					env.executeInTransaction(new TransactionalExecutable() {
 						
-						Set<NameAndEmail> users;
-						byte[] userBytes = readBytes(defaultStore, txn, USERS_KEY);
-						if (userBytes != null)
-							users = (Set<NameAndEmail>) SerializationUtils.deserialize(userBytes);
-						else
-							users = new HashSet<>();
-
-						Map<String, Long> files;
-						byte[] fileBytes = readBytes(defaultStore, txn, FILES_KEY);
-						if (fileBytes != null)
-							files = (Map<String, Long>) SerializationUtils.deserialize(fileBytes);
-						else
-							files = new HashMap<>();
-
-						new ElementPumper<GitCommit>() {
-
-							@Override
-							public void generate(Consumer<GitCommit> consumer) {
-								List<String> revisions = new ArrayList<>();
-								revisions.add(intermediateCommitId.name());
-
-								if (lastCommitIdRef.get() != null)
-									revisions.add("^" + lastCommitIdRef.get().name());
-
-								EnumSet<LogCommand.Field> fields = EnumSet.allOf(LogCommand.Field.class);
-								fields.remove(LogCommand.Field.LINE_CHANGES);
-								new LogCommand(project.getGitDir()) {
-
-									@Override
-									protected void consume(GitCommit commit) {
-										consumer.accept(commit);
-									}
-									
-								}.revisions(revisions).fields(fields).call();
-							}
-
-							@Override
-							public void process(GitCommit currentCommit) {
+						@SuppressWarnings("unchecked")
+						@Override
+						public void execute(Transaction txn) {
+							AtomicInteger totalCommitCount = new AtomicInteger(readInt(defaultStore, txn, COMMIT_COUNT_KEY, 0));
+							
+							NextIndex nextIndex = new NextIndex();
+							nextIndex.user = readInt(defaultStore, txn, NEXT_USER_INDEX_KEY, 0);
+							nextIndex.path = readInt(defaultStore, txn, NEXT_PATH_INDEX_KEY, 0);
+							
+							Map<Long, Integer> commitCountCache = new HashMap<>();
+							
+							Map<ObjectId, List<ObjectId>> parentsOfCollected = new HashMap<>();
+							
+							Set<NameAndEmail> users;
+							ValueView usersView = readView(defaultStore, txn, USERS_KEY);
+							if (usersView != null)
+								users = (Set<NameAndEmail>) usersView.deserialize();
+							else
+								users = new HashSet<>();
+
+							Map<String, Long> files;
+							ValueView filesView = readView(defaultStore, txn, FILES_KEY);
+							if (filesView != null)
+								files = (Map<String, Long>) filesView.deserialize();
+							else
+								files = new HashMap<>();
+
+							for (GitCommit currentCommit: parsedCommits) {
 								ObjectId currentCommitId = ObjectId.fromString(currentCommit.getHash());
 								ByteIterable currentCommitKey = new CommitByteIterable(currentCommitId);
-								byte[] currentCommitBytes = readBytes(commitsStore, txn, currentCommitKey);
+								ValueView currentCommitView = readView(commitsStore, txn, currentCommitKey);
 								
-								if (!isCommitCollected(currentCommitBytes)) {
+								if (!isCommitCollected(currentCommitView)) {
 									totalCommitCount.incrementAndGet();
 									
 									byte[] newCurrentCommitBytes;
-									if (currentCommitBytes == null) {
+									if (currentCommitView == null) {
 										newCurrentCommitBytes = new byte[1];
 									} else {
-										newCurrentCommitBytes = new byte[1+currentCommitBytes.length];
-										System.arraycopy(currentCommitBytes, 0, newCurrentCommitBytes, 1, currentCommitBytes.length);
+										newCurrentCommitBytes = new byte[1+currentCommitView.getLength()];
+										currentCommitView.copyTo(newCurrentCommitBytes, 1);
 									}
 									
 									commitsStore.put(txn, currentCommitKey, new ArrayByteIterable(newCurrentCommitBytes));
 									
+									List<ObjectId> parentCommitIds = new ArrayList<>();
 									for (String parentCommitHash: currentCommit.getParentHashes()) {
-										ByteIterable parentCommitKey = new CommitByteIterable(ObjectId.fromString(parentCommitHash));
-										byte[] parentCommitBytes = readBytes(commitsStore, txn, parentCommitKey);
+										ObjectId parentCommitId = ObjectId.fromString(parentCommitHash);
+										parentCommitIds.add(parentCommitId);
+										ByteIterable parentCommitKey = new CommitByteIterable(parentCommitId);
+										ValueView parentCommitView = readView(commitsStore, txn, parentCommitKey);
 										byte[] newParentCommitBytes;
-										if (parentCommitBytes != null) {
-											newParentCommitBytes = new byte[parentCommitBytes.length+20];
-											System.arraycopy(parentCommitBytes, 0, newParentCommitBytes, 0, parentCommitBytes.length);
+										if (parentCommitView != null) {
+											newParentCommitBytes = new byte[parentCommitView.getLength()+20];
+											parentCommitView.copyTo(newParentCommitBytes, 0);
 										} else {
 											newParentCommitBytes = new byte[20];
 										}
 										currentCommitId.copyRawTo(newParentCommitBytes, newParentCommitBytes.length-20);
 										commitsStore.put(txn, parentCommitKey, new ArrayByteIterable(newParentCommitBytes));
 									}
+									parentsOfCollected.put(currentCommitId, parentCommitIds);
 									
 									String commitMessage = currentCommit.getSubject();
 									if (currentCommit.getBody() != null)
@@ -542,16 +736,13 @@ public class DefaultCommitInfoManager extends AbstractEnvironmentManager impleme
 													nextIndex, change.getNewPath());
 											ByteIterable pathKey = new IntByteIterable(pathIndex);
 											Set<Integer> historyPathIndexes = new HashSet<>();
-											byte[] bytesOfHistoryPaths = readBytes(historyPathsStore, txn, pathKey);
-											if (bytesOfHistoryPaths == null) {
-												bytesOfHistoryPaths = new byte[0];
-												int pos = 0;
-												for (int i=0; i<bytesOfHistoryPaths.length/Integer.SIZE; i++) {
-													historyPathIndexes.add(ByteBuffer.wrap(bytesOfHistoryPaths, pos, Integer.SIZE).getInt());
-													pos += Integer.SIZE;
-												}
+											ValueView historyPathsView = readView(historyPathsStore, txn, pathKey);
+											int lengthOfHistoryPaths;
+											if (historyPathsView != null) {
+												historyPathsView.visitInts(0, historyPathIndexes::add);
+												lengthOfHistoryPaths = historyPathsView.getLength();
 											} else {
-												historyPathIndexes = new HashSet<>();
+												lengthOfHistoryPaths = 0;
 											}
 											if (historyPathIndexes.size() < MAX_HISTORY_PATHS) {
 												int oldPathIndex = getPathIndex(pathToIndexStore, indexToPathStore, txn, 
@@ -559,11 +750,11 @@ public class DefaultCommitInfoManager extends AbstractEnvironmentManager impleme
 												if (!historyPathIndexes.contains(oldPathIndex)) {
 													historyPathIndexes.add(oldPathIndex);
 													byte[] newBytesOfHistoryPaths = 
-															new byte[bytesOfHistoryPaths.length+Integer.SIZE];
-													System.arraycopy(bytesOfHistoryPaths, 0, 
-															newBytesOfHistoryPaths, 0, bytesOfHistoryPaths.length);
+															new byte[lengthOfHistoryPaths+Integer.BYTES];
+													if (historyPathsView != null)
+														historyPathsView.copyTo(newBytesOfHistoryPaths, 0);
 													ByteBuffer buffer = ByteBuffer.wrap(newBytesOfHistoryPaths, 
-															bytesOfHistoryPaths.length, Integer.BYTES);
+															lengthOfHistoryPaths, Integer.BYTES);
 													buffer.putInt(oldPathIndex);
 													historyPathsStore.put(txn, pathKey, 
 															new ArrayByteIterable(newBytesOfHistoryPaths));
@@ -573,37 +764,44 @@ public class DefaultCommitInfoManager extends AbstractEnvironmentManager impleme
 									}											
 								}
 							}
+							
+							writeCommitGraph(commitGraphStore, txn, parentsOfCollected);
 
-						}.pump();
-
-						writeInt(defaultStore, txn, COMMIT_COUNT_KEY, totalCommitCount.get());
-						totalCommitCountCache.remove(project.getId());
-						
-						writeInt(defaultStore, txn, NEXT_USER_INDEX_KEY, nextIndex.user);
-						writeInt(defaultStore, txn, NEXT_PATH_INDEX_KEY, nextIndex.path);
-						
-						userBytes = SerializationUtils.serialize((Serializable) users);
-						defaultStore.put(txn, USERS_KEY, new ArrayByteIterable(userBytes));
-						usersCache.remove(project.getId());
-						
-						if (files.size() > MAX_COLLECTING_FILES) {
-							List<String> fileList = new ArrayList<>(files.keySet());
-							fileList.sort((file1, file2)->files.get(file1).compareTo(files.get(file2)));
-							for (int i=0; i<fileList.size() - MAX_COLLECTING_FILES; i++)
-								files.remove(fileList.get(i));
+							writeInt(defaultStore, txn, COMMIT_COUNT_KEY, totalCommitCount.get());
+							totalCommitCountCache.invalidate(project.getId());
+							
+							writeInt(defaultStore, txn, NEXT_USER_INDEX_KEY, nextIndex.user);
+							writeInt(defaultStore, txn, NEXT_PATH_INDEX_KEY, nextIndex.path);
+							
+							byte[] userBytes = SerializationUtils.serialize((Serializable) users);
+							defaultStore.put(txn, USERS_KEY, new ArrayByteIterable(userBytes));
+							usersCache.invalidate(project.getId());
+							
+							if (files.size() > MAX_COLLECTING_FILES) {
+								List<String> fileList = new ArrayList<>(files.keySet());
+								fileList.sort((file1, file2)->files.get(file1).compareTo(files.get(file2)));
+								for (int i=0; i<fileList.size() - MAX_COLLECTING_FILES; i++)
+									files.remove(fileList.get(i));
+							}
+							byte[] fileBytes = SerializationUtils.serialize((Serializable) files);
+							defaultStore.put(txn, FILES_KEY, new ArrayByteIterable(fileBytes));
+							filesCache.invalidate(project.getId());
+							
+							for (Map.Entry<Long, Integer> entry: commitCountCache.entrySet()) 
+								writeInt(commitCountsStore, txn, new LongByteIterable(entry.getKey()), entry.getValue());
+							
+							lastCommitIdRef.set(intermediateCommitId);
+							defaultStore.put(txn, LAST_COMMIT_KEY, new CommitByteIterable(lastCommitIdRef.get()));
 						}
-						fileBytes = SerializationUtils.serialize((Serializable) files);
-						defaultStore.put(txn, FILES_KEY, new ArrayByteIterable(fileBytes));
-						filesCache.remove(project.getId());
-						
-						for (Map.Entry<Long, Integer> entry: commitCountCache.entrySet()) 
-							writeInt(commitCountsStore, txn, new LongByteIterable(entry.getKey()), entry.getValue());
-						
-						lastCommitIdRef.set(intermediateCommitId);
-						defaultStore.put(txn, LAST_COMMIT_KEY, new CommitByteIterable(lastCommitIdRef.get()));
-					}
-				});
-			}		
+					});
+					
+					logger.debug("Merged commit information (project: {}, ref: {}, range: {}/{})", 
+							project.getName(), refName, i+1, intermediateCommitIds.size());
+				}
+			} finally {
+				for (Future<List<GitCommit>> parsing: parsings)
+					parsing.cancel(true);
+			}
 		}
 		
 		if (GitUtils.branch2ref(project.getDefaultBranch()).equals(refName)) {
@@ -611,9 +809,9 @@ public class DefaultCommitInfoManager extends AbstractEnvironmentManager impleme
 				
 				@Override
 				public ObjectId compute(Transaction txn) {
-					byte[] lastCommitBytes = readBytes(defaultStore, txn, LAST_COMMIT_OF_DEFAULT_BRANCH_KEY);
-					if (lastCommitBytes != null) {
-						ObjectId lastCommitId = ObjectId.fromRaw(lastCommitBytes);
+					ValueView lastCommitView = readView(defaultStore, txn, LAST_COMMIT_OF_DEFAULT_BRANCH_KEY);
+					if (lastCommitView != null) {
+						ObjectId lastCommitId = lastCommitView.getCommit(0);
 						if (repository.hasObject(lastCommitId) 
 								&& GitUtils.isMergedInto(repository, null, lastCommitId, commitId)) {
 							return lastCommitId;
@@ -670,7 +868,7 @@ public class DefaultCommitInfoManager extends AbstractEnvironmentManager impleme
 							
 						}.pump();
 						
-						for (int dayValue: deserializeContributions(readBytes(defaultStore, txn, OVERALL_CONTRIBUTIONS_KEY)).keySet()) 
+						for (int dayValue: deserializeContributions(readView(defaultStore, txn, OVERALL_CONTRIBUTIONS_KEY)).keySet()) 
 							dailyContributionsStore.delete(txn, new IntByteIterable(dayValue));
 						for (Map.Entry<Integer, Map<Integer, Contribution>> entry: dailyContributionsCache.entrySet()) {
 							byte[] bytesOfContributionsOnDay = serializeContributions(entry.getValue());
@@ -694,10 +892,9 @@ public class DefaultCommitInfoManager extends AbstractEnvironmentManager impleme
 					@Override
 					public void execute(Transaction txn) {
 						Map<Integer, Map<String, Integer>> lineStats;
-						byte[] bytesOfLineStats = readBytes(defaultStore, txn, LINE_STATS_KEY);
-						if (bytesOfLineStats != null) {
-							lineStats = (Map<Integer, Map<String, Integer>>) SerializationUtils.deserialize(
-									bytesOfLineStats);
+						ValueView lineStatsView = readView(defaultStore, txn, LINE_STATS_KEY);
+						if (lineStatsView != null) {
+							lineStats = (Map<Integer, Map<String, Integer>>) lineStatsView.deserialize();
 						} else {
 							lineStats = new HashMap<>();
 						}
@@ -710,9 +907,9 @@ public class DefaultCommitInfoManager extends AbstractEnvironmentManager impleme
 						
 						int dayValue = new Day(revCommit.getCommitterIdent().getWhen()).getValue();
 						Map<Integer, Contribution> contributionsOnDay = deserializeContributions(
-								readBytes(dailyContributionsStore, txn, new IntByteIterable(dayValue)));	
+								readView(dailyContributionsStore, txn, new IntByteIterable(dayValue)));	
 						Map<Integer, Contribution> overallContributions = 
-								deserializeContributions(readBytes(defaultStore, txn, OVERALL_CONTRIBUTIONS_KEY));
+								deserializeContributions(readView(defaultStore, txn, OVERALL_CONTRIBUTIONS_KEY));
 						
 						updateOverallContributionsAndLineStats(txn, emailToIndexStore, gitCommit, lineStats, overallContributions);
 						updateContribution(txn, emailToIndexStore, gitCommit, contributionsOnDay);
@@ -723,7 +920,7 @@ public class DefaultCommitInfoManager extends AbstractEnvironmentManager impleme
 						defaultStore.put(txn, OVERALL_CONTRIBUTIONS_KEY, 
 								new ArrayByteIterable(serializeContributions(overallContributions)));
 						
-						bytesOfLineStats = SerializationUtils.serialize((Serializable) lineStats);
+						byte[] bytesOfLineStats = SerializationUtils.serialize((Serializable) lineStats);
 						defaultStore.put(txn, LINE_STATS_KEY, new ArrayByteIterable(bytesOfLineStats));
 						
 						defaultStore.put(txn, LAST_COMMIT_OF_DEFAULT_BRANCH_KEY, new CommitByteIterable(commitId));
@@ -810,73 +1007,91 @@ public class DefaultCommitInfoManager extends AbstractEnvironmentManager impleme
 		commitCountCache.put(commitCountKey, commitCountOfPathByUser);
 	}
 	
+	/*
+	 * Load through the cache so that load count and load penalty of cache statistics are recorded
+	 */
+	private <V> V load(Cache<Long, V> cache, Long projectId, Callable<V> loader) {
+		try {
+			return cache.get(projectId, loader);
+		} catch (ExecutionException | UncheckedExecutionException e) {
+			throw ExceptionUtils.unchecked(e.getCause());
+		}
+	}
+	
 	@Override
 	public List<NameAndEmail> getUsers(Project project) {
-		List<NameAndEmail> users = usersCache.get(project.getId());
-		if (users == null) {
-			Environment env = getEnv(project.getId().toString());
-			Store store = getStore(env, DEFAULT_STORE);
+		return load(usersCache, project.getId(), new Callable<List<NameAndEmail>>() {
 
-			users = env.computeInReadonlyTransaction(new TransactionalComputable<List<NameAndEmail>>() {
+			@Override
+			public List<NameAndEmail> call() {
+				Environment env = getEnv(project.getId().toString());
+				Store store = getStore(env, DEFAULT_STORE);
 
-				@SuppressWarnings("unchecked")
-				@Override
-				public List<NameAndEmail> compute(Transaction txn) {
-					byte[] bytes = readBytes(store, txn, USERS_KEY);
-					if (bytes != null) { 
-						List<NameAndEmail> users = 
-								new ArrayList<>((Set<NameAndEmail>) SerializationUtils.deserialize(bytes));
-						Collections.sort(users);
-						return users;
-					} else { 
-						return new ArrayList<>();
+				return env.computeInReadonlyTransaction(new TransactionalComputable<List<NameAndEmail>>() {
+
+					@SuppressWarnings("unchecked")
+					@Override
+					public List<NameAndEmail> compute(Transaction txn) {
+						ValueView view = readView(store, txn, USERS_KEY);
+						if (view != null) { 
+							List<NameAndEmail> users = new ArrayList<>((Set<NameAndEmail>) view.deserialize());
+							Collections.sort(users);
+							return users;
+						} else { 
+							return new ArrayList<>();
+						}
 					}
-				}
-				
-			});
-			usersCache.put(project.getId(), users);
-		}
-		return users;	
+					
+				});
+			}
+			
+		});
 	}
 
 	@Override
 	public List<String> getFiles(Project project) {
-		List<String> files = filesCache.get(project.getId());
-		if (files == null) {
-			Environment env = getEnv(project.getId().toString());
-			final Store store = getStore(env, DEFAULT_STORE);
+		return load(filesCache, project.getId(), new Callable<FrontCodedStringList>() {
 
-			files = env.computeInReadonlyTransaction(new TransactionalComputable<List<String>>() {
+			@Override
+			public FrontCodedStringList call() {
+				Environment env = getEnv(project.getId().toString());
+				final Store store = getStore(env, DEFAULT_STORE);
 
-				@SuppressWarnings("unchecked")
-				@Override
-				public List<String> compute(Transaction txn) {
-					byte[] bytes = readBytes(store, txn, FILES_KEY);
-					if (bytes != null) {
-						List<String> files = new ArrayList<>(
-								((Map<String, Long>)SerializationUtils.deserialize(bytes)).keySet());
-						Map<String, List<String>> segmentsMap = new HashMap<>();
-						Splitter splitter = Splitter.on("/");
-						for (String file: files) {
-							segmentsMap.put(file, splitter.splitToList(file));
-						}
-						files.sort(new Comparator<String>() {
+				return env.computeInReadonlyTransaction(new TransactionalComputable<FrontCodedStringList>() {
 
-							@Override
-							public int compare(String o1, String o2) {
-								return PathUtils.compare(segmentsMap.get(o1), segmentsMap.get(o2));
+					@SuppressWarnings("unchecked")
+					@Override
+					public FrontCodedStringList compute(Transaction txn) {
+						ValueView view = readView(store, txn, FILES_KEY);
+						if (view != null) {
+							List<String> files = new ArrayList<>(((Map<String, Long>)view.deserialize()).keySet());
+							Map<String, List<String>> segmentsMap = new HashMap<>();
+							Splitter splitter = Splitter.on("/");
+							for (String file: files) {
+								segmentsMap.put(file, splitter.splitToList(file));
 							}
+							files.sort(new Comparator<String>() {
+
+								@Override
+								public int compare(String o1, String o2) {
+									return PathUtils.compare(segmentsMap.get(o1), segmentsMap.get(o2));
+								}
+								
+							});
 							
-						});
-						return files;
-					} else {
-						return new ArrayList<>();
+							/* 
+							 * Sorted paths share long prefixes with adjacent paths, and front coding 
+							 * them saves a lot of memory for large repositories 
+							 */
+							return new FrontCodedStringList(files);
+						} else {
+							return new FrontCodedStringList(new ArrayList<>());
+						}
 					}
-				}
-			});
-			filesCache.put(project.getId(), files);
-		}
-		return files;
+				});
+			}
+			
+		});
 	}
 
 	@Override
@@ -889,11 +1104,11 @@ public class DefaultCommitInfoManager extends AbstractEnvironmentManager impleme
 			@Override
 			public Map<Day, Map<String, Integer>> compute(Transaction txn) {
 				Map<Day, Map<String, Integer>> lineIncrements = new HashMap<>();
-				byte[] bytes = readBytes(store, txn, LINE_STATS_KEY);
-				if (bytes != null) {
+				ValueView view = readView(store, txn, LINE_STATS_KEY);
+				if (view != null) {
 					@SuppressWarnings("unchecked")
 					Map<Integer, Map<String, Integer>> storedMap = 
-							(Map<Integer, Map<String, Integer>>) SerializationUtils.deserialize(bytes);
+							(Map<Integer, Map<String, Integer>>) view.deserialize();
 					for (Map.Entry<Integer, Map<String, Integer>> entry: storedMap.entrySet())
 						lineIncrements.put(new Day(entry.getKey()), entry.getValue());
 				} 
@@ -960,28 +1175,80 @@ public class DefaultCommitInfoManager extends AbstractEnvironmentManager impleme
 				stack.addAll(ancestors);
 				while (!stack.isEmpty()) {
 					ObjectId current = stack.pop();
-					byte[] valueBytes = readBytes(store, txn, new CommitByteIterable(current));
-					if (valueBytes != null) {
-						if (valueBytes.length % 20 == 0) {
-							for (int i=0; i<valueBytes.length/20; i++) {
-								ObjectId child = ObjectId.fromRaw(valueBytes, i*20);
-								if (!descendants.contains(child)) {
-									descendants.add(child);
+					ValueView view = readView(store, txn, new CommitByteIterable(current));
+					if (view != null) {
+						// Skip the marker byte of collected commit
+						view.visitCommits(view.getLength() % 20, new Consumer<ObjectId>() {
+
+							@Override
+							public void accept(ObjectId child) {
+								if (descendants.add(child))
 									stack.push(child);
-								}
 							}
-						} else { 
-							for (int i=0; i<(valueBytes.length-1)/20; i++) {
-								ObjectId child = ObjectId.fromRaw(valueBytes, i*20+1);
-								if (!descendants.contains(child)) {
-									descendants.add(child);
-									stack.push(child);
+							
+						});
+					}
+				}
+				
+				return descendants;
+			}
+			
+		});
+	}
+
+	@Override
+	public Collection<ObjectId> filterDescendants(Project project, ObjectId ancestor, Collection<ObjectId> commits) {
+		Environment env = getEnv(project.getId().toString());
+		Store store = getStore(env, COMMIT_GRAPH_STORE);
+		
+		return env.computeInReadonlyTransaction(new TransactionalComputable<Collection<ObjectId>>() {
+
+			@Override
+			public Collection<ObjectId> compute(Transaction txn) {
+				Collection<ObjectId> descendants = new HashSet<>();
+				int ancestorGeneration = readInt(store, txn, new CommitByteIterable(ancestor), 0);
+				
+				/*
+				 * Commits visited by failed walks can not reach the ancestor, and are remembered 
+				 * to avoid walking them again for other commits 
+				 */
+				ObjectIdSubclassMap<ObjectId> unreachables = new ObjectIdSubclassMap<>();
+				for (ObjectId commit: commits) {
+					if (commit.equals(ancestor)) {
+						descendants.add(commit);
+					} else if (ancestorGeneration != 0 && !unreachables.contains(commit)) {
+						ObjectIdSubclassMap<ObjectId> visited = new ObjectIdSubclassMap<>();
+						
+						// Use stack instead of recursion to avoid StackOverflowException
+						Stack<ObjectId> stack = new Stack<>();
+						stack.push(commit.copy());
+						visited.add(stack.peek());
+						boolean found = false;
+						while (!stack.isEmpty()) {
+							ObjectId current = stack.pop();
+							if (current.equals(ancestor)) {
+								found = true;
+								break;
+							} 
+							ValueView view = readView(store, txn, new CommitByteIterable(current));
+							if (view != null && view.getInt(0) > ancestorGeneration) {
+								for (int pos=Integer.BYTES; pos<view.getLength(); pos+=20) {
+									ObjectId parent = view.getCommit(pos);
+									if (!visited.contains(parent) && !unreachables.contains(parent)) {
+										visited.add(parent);
+										stack.push(parent);
+									}
 								}
 							}
 						}
+						if (found) {
+							descendants.add(commit);
+						} else {
+							for (ObjectId each: visited)
+								unreachables.addIfAbsent(each);
+						}
 					}
 				}
-				
 				return descendants;
 			}
 			
@@ -993,14 +1260,14 @@ public class DefaultCommitInfoManager extends AbstractEnvironmentManager impleme
 		if (event.getEntity() instanceof Project) {
 			Long projectId = event.getEntity().getId();
 			removeEnv(projectId.toString());
-			filesCache.remove(projectId);
-			totalCommitCountCache.remove(projectId);
-			usersCache.remove(projectId);
+			filesCache.invalidate(projectId);
+			totalCommitCountCache.invalidate(projectId);
+			usersCache.invalidate(projectId);
 		}
 	}
 	
 	private BatchWorker getBatchWorker(Long projectId) {
-		return new BatchWorker("project-" + projectId + "-collectCommitInfo") {
+		return new BatchWorker("project-" + projectId + "-collectCommitInfo", "project-" + projectId) {
 
 			@Override
 			public void doWorks(Collection<Prioritized> works) {
@@ -1074,21 +1341,23 @@ public class DefaultCommitInfoManager extends AbstractEnvironmentManager impleme
 	@Sessional
 	@Override
 	public int getCommitCount(Project project) {
-		Integer commitCount = totalCommitCountCache.get(project.getId());
-		if (commitCount == null) {
-			Environment env = getEnv(project.getId().toString());
-			Store store = getStore(env, DEFAULT_STORE);
+		return load(totalCommitCountCache, project.getId(), new Callable<Integer>() {
 
-			commitCount = env.computeInReadonlyTransaction(new TransactionalComputable<Integer>() {
+			@Override
+			public Integer call() {
+				Environment env = getEnv(project.getId().toString());
+				Store store = getStore(env, DEFAULT_STORE);
 
-				@Override
-				public Integer compute(Transaction txn) {
-					return readInt(store, txn, COMMIT_COUNT_KEY, 0);
-				}
-			});
-			totalCommitCountCache.put(project.getId(), commitCount);
-		}
-		return commitCount;
+				return env.computeInReadonlyTransaction(new TransactionalComputable<Integer>() {
+
+					@Override
+					public Integer compute(Transaction txn) {
+						return readInt(store, txn, COMMIT_COUNT_KEY, 0);
+					}
+				});
+			}
+			
+		});
 	}
 
 	static class CollectingWork extends Prioritized {
@@ -1163,9 +1432,9 @@ public class DefaultCommitInfoManager extends AbstractEnvironmentManager impleme
 			private Collection<String> getPaths(Transaction txn, Set<Integer> pathIndexes) {
 				Set<String> paths = new HashSet<>();
 				for (int pathIndex: pathIndexes) {
-					byte[] pathBytes = readBytes(indexToPathStore, txn, new IntByteIterable(pathIndex));
-					if (pathBytes != null)
-						paths.add(new String(pathBytes, StandardCharsets.UTF_8));
+					ValueView view = readView(indexToPathStore, txn, new IntByteIterable(pathIndex));
+					if (view != null)
+						paths.add(view.getString());
 				}
 				return paths;
 			}
@@ -1179,15 +1448,12 @@ public class DefaultCommitInfoManager extends AbstractEnvironmentManager impleme
 					while (true) {
 						Set<Integer> newPathIndexes = new HashSet<>(pathIndexes);
 						for (int eachPathIndex: pathIndexes) {
-							byte[] bytesOfHistoryPaths = 
-									readBytes(historyPathsStore, txn, new IntByteIterable(eachPathIndex));
-							if (bytesOfHistoryPaths != null) {
-								int pos = 0;
-								for (int i=0; i<bytesOfHistoryPaths.length/Integer.BYTES; i++) {
-									newPathIndexes.add(ByteBuffer.wrap(bytesOfHistoryPaths, pos, Integer.BYTES).getInt());
+							ValueView view = readView(historyPathsStore, txn, new IntByteIterable(eachPathIndex));
+							if (view != null) {
+								for (int historyPathIndex: view.getInts(0)) {
+									newPathIndexes.add(historyPathIndex);
 									if (newPathIndexes.size() == MAX_HISTORY_PATHS)
 										return getPaths(txn, newPathIndexes);
-									pos += Integer.BYTES;
 								}
 							}
 						}
@@ -1216,7 +1482,7 @@ public class DefaultCommitInfoManager extends AbstractEnvironmentManager impleme
 			public Map<Day, Contribution> compute(Transaction txn) {
 				Map<Day, Contribution> overallContributions = new HashMap<>();
 				for (Map.Entry<Integer, Contribution> entry: 
-							deserializeContributions(readBytes(store, txn, OVERALL_CONTRIBUTIONS_KEY)).entrySet()) {
+							deserializeContributions(readView(store, txn, OVERALL_CONTRIBUTIONS_KEY)).entrySet()) {
 					overallContributions.put(new Day(entry.getKey()), entry.getValue());
 				}
 				return overallContributions;
@@ -1239,13 +1505,13 @@ public class DefaultCommitInfoManager extends AbstractEnvironmentManager impleme
 			@Override
 			public List<Contributor> compute(Transaction txn) {
 				Map<Integer, Contribution> overallContributions = 
-						deserializeContributions(readBytes(defaultStore, txn, OVERALL_CONTRIBUTIONS_KEY));
+						deserializeContributions(readView(defaultStore, txn, OVERALL_CONTRIBUTIONS_KEY));
 				Map<Integer, Contribution> totalContributions = new HashMap<>();
 				for (int dayValue: overallContributions.keySet()) {
 					if (dayValue >= fromDay.getValue() && dayValue <= toDay.getValue()) {
 						ByteIterable dayKey = new IntByteIterable(dayValue);
 						Map<Integer, Contribution> contributionsOnDay = 
-								deserializeContributions(readBytes(dailyContributionsStore, txn, dayKey));
+								deserializeContributions(readView(dailyContributionsStore, txn, dayKey));
 						for (Map.Entry<Integer, Contribution> entry: contributionsOnDay.entrySet()) {
 							Integer userIndex = entry.getKey();
 							Contribution totalContribution = totalContributions.get(userIndex);
@@ -1288,7 +1554,7 @@ public class DefaultCommitInfoManager extends AbstractEnvironmentManager impleme
 					if (dayValue >= fromDay.getValue() && dayValue <= toDay.getValue()) {
 						ByteIterable dayKey = new IntByteIterable(dayValue);
 						Map<Integer, Contribution> contributionsOnDay = 
-								deserializeContributions(readBytes(dailyContributionsStore, txn, dayKey));
+								deserializeContributions(readView(dailyContributionsStore, txn, dayKey));
 						Day day = new Day(dayValue);
 						for (Map.Entry<Integer, Contribution> entry: contributionsOnDay.entrySet()) {
 							Integer userIndex = entry.getKey();
@@ -1312,10 +1578,10 @@ public class DefaultCommitInfoManager extends AbstractEnvironmentManager impleme
 				List<Contributor> contributors = new ArrayList<>();
 				
 				for (int userIndex: topUserIndexes) {
-					byte[] userBytes = readBytes(indexToUserStore, txn, new IntByteIterable(userIndex));
+					ValueView userView = readView(indexToUserStore, txn, new IntByteIterable(userIndex));
 					Map<Day, Integer> contributionsByUser = userContributions.get(userIndex);
-					if (userBytes != null && contributionsByUser != null) {
-						PersonIdent user = ((NameAndEmail)SerializationUtils.deserialize(userBytes)).asPersonIdent();
+					if (userView != null && contributionsByUser != null) {
+						PersonIdent user = ((NameAndEmail)userView.deserialize()).asPersonIdent();
 						contributors.add(new Contributor(user, totalContributions.get(userIndex), contributionsByUser));
 					}
 				}
@@ -1326,21 +1592,12 @@ public class DefaultCommitInfoManager extends AbstractEnvironmentManager impleme
 		});
 	}
 
-	private Map<Integer, Contribution> deserializeContributions(byte[] bytes) {
-		if (bytes != null) {
+	private Map<Integer, Contribution> deserializeContributions(@Nullable ValueView view) {
+		if (view != null) {
 			Map<Integer, Contribution> contributions = new HashMap<>();
-			int pos = 0;
-			for (int i=0; i<bytes.length/4/Integer.BYTES; i++) {
-				int key = ByteBuffer.wrap(bytes, pos, Integer.BYTES).getInt();
-				pos += Integer.BYTES;
-				int commits = ByteBuffer.wrap(bytes, pos, Integer.BYTES).getInt(); 
-				pos += Integer.BYTES;
-				int additions = ByteBuffer.wrap(bytes, pos, Integer.BYTES).getInt();
-				pos += Integer.BYTES;
-				int deletions = ByteBuffer.wrap(bytes, pos, Integer.BYTES).getInt(); 
-				pos += Integer.BYTES;
-				contributions.put(key, new Contribution(commits, additions, deletions));
-			}
+			int[] values = view.getInts(0);
+			for (int i=0; i+4<=values.length; i+=4) 
+				contributions.put(values[i], new Contribution(values[i+1], values[i+2], values[i+3]));
 			return contributions;
 		} else {
 			return new HashMap<>();
@@ -1348,23 +1605,23 @@ public class DefaultCommitInfoManager extends AbstractEnvironmentManager impleme
 	}
 	
 	private byte[] serializeContributions(Map<Integer, Contribution> contributions) {
-		byte[] bytes = new byte[contributions.size()*Integer.BYTES*4];
-		int pos = 0;
+		ByteBuffer buffer = ByteBuffer.allocate(contributions.size()*Integer.BYTES*4);
 		for (Map.Entry<Integer, Contribution> entry: contributions.entrySet()) {
-			byte[] keyBytes = ByteBuffer.allocate(Integer.BYTES).putInt(entry.getKey()).array(); 
-			System.arraycopy(keyBytes, 0, bytes, pos, Integer.BYTES);
-			pos += Integer.BYTES;
-			byte[] commitsBytes = ByteBuffer.allocate(Integer.BYTES).putInt(entry.getValue().getCommits()).array();
-			System.arraycopy(commitsBytes, 0, bytes, pos, Integer.BYTES);
-			pos += Integer.BYTES;
-			byte[] additionsBytes = ByteBuffer.allocate(Integer.BYTES).putInt(entry.getValue().getAdditions()).array();
-			System.arraycopy(additionsBytes, 0, bytes, pos, Integer.BYTES);
-			pos += Integer.BYTES;
-			byte[] deletionsBytes = ByteBuffer.allocate(Integer.BYTES).putInt(entry.getValue().getDeletions()).array();
-			System.arraycopy(deletionsBytes, 0, bytes, pos, Integer.BYTES);
-			pos += Integer.BYTES;
+			buffer.putInt(entry.getKey());
+			buffer.putInt(entry.getValue().getCommits());
+			buffer.putInt(entry.getValue().getAdditions());
+			buffer.putInt(entry.getValue().getDeletions());
 		}
-		return bytes;
+		return buffer.array();
+	}
+	
+	@Override
+	public Map<String, CacheStats> getCacheStats() {
+		Map<String, CacheStats> cacheStats = new LinkedHashMap<>();
+		cacheStats.put("files", filesCache.stats());
+		cacheStats.put("users", usersCache.stats());
+		cacheStats.put("commitCount", totalCommitCountCache.stats());
+		return cacheStats;
 	}
 	
 	@Override
@@ -0,0 +1,303 @@
+package io.onedev.server.infomanager;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import javax.annotation.Nullable;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import org.quartz.ScheduleBuilder;
+import org.quartz.SimpleScheduleBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.onedev.commons.launcher.loader.Listen;
+import io.onedev.commons.utils.ExceptionUtils;
+import io.onedev.server.event.system.SystemStarted;
+import io.onedev.server.event.system.SystemStopping;
+import io.onedev.server.util.schedule.SchedulableTask;
+import io.onedev.server.util.schedule.TaskScheduler;
+import jetbrains.exodus.ExodusException;
+import jetbrains.exodus.env.Environment;
+import jetbrains.exodus.env.EnvironmentStatistics;
+
+@Singleton
+public class DefaultEnvironmentPool implements EnvironmentPool, SchedulableTask {
+
+	private static final Logger logger = LoggerFactory.getLogger(DefaultEnvironmentPool.class);
+
+	private static final int MAX_OPEN_ENVS = 500;
+
+	private static final long IDLE_TIMEOUT = 10*60*1000L;
+
+	// Environments used within this time will not be closed even if open limit is exceeded
+	private static final long MIN_IDLE_TIME = 60*1000L;
+
+	private final TaskScheduler taskScheduler;
+
+	/*
+	 * Environments are looked up without any global lock, and are opened outside of any global
+	 * lock, so that opening one environment does not block accessing other environments.
+	 * Concurrent requests of the same environment wait for the same future. Only closing of
+	 * least recently used and idle environments is serialized via this object
+	 */
+	private final Map<String, Future<PooledEnv>> envs = new ConcurrentHashMap<>();
+
+	private final AtomicLong idleClosedEnvCount = new AtomicLong(0);
+
+	private String taskId;
+
+	@Inject
+	public DefaultEnvironmentPool(TaskScheduler taskScheduler) {
+		this.taskScheduler = taskScheduler;
+	}
+
+	private PooledEnv getPooledEnv(String key, Supplier<Environment> opener, boolean pin) {
+		while (true) {
+			Future<PooledEnv> future = envs.get(key);
+			boolean opened = false;
+			if (future == null) {
+				FutureTask<PooledEnv> task = new FutureTask<>(new Callable<PooledEnv>() {
+
+					@Override
+					public PooledEnv call() throws Exception {
+						return new PooledEnv(opener.get());
+					}
+
+				});
+				future = envs.putIfAbsent(key, task);
+				if (future == null) {
+					future = task;
+					task.run();
+					opened = true;
+				}
+			}
+
+			PooledEnv pooled;
+			try {
+				pooled = future.get();
+			} catch (ExecutionException e) {
+				envs.remove(key, future);
+				throw ExceptionUtils.unchecked(e.getCause());
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new RuntimeException(e);
+			}
+
+			synchronized (pooled) {
+				if (!pooled.closed) {
+					pooled.lastAccess = System.currentTimeMillis();
+					if (pin)
+						pooled.pins++;
+				} else {
+					// Closed after we get it, just open again
+					envs.remove(key, future);
+					continue;
+				}
+			}
+			if (opened && envs.size() > MAX_OPEN_ENVS)
+				closeLeastRecentlyUsed();
+			return pooled;
+		}
+	}
+
+	@Override
+	public Environment getEnv(String key, Supplier<Environment> opener) {
+		return getPooledEnv(key, opener, false).env;
+	}
+
+	@Override
+	public Environment acquireEnv(String key, Supplier<Environment> opener) {
+		return getPooledEnv(key, opener, true).env;
+	}
+
+	@Override
+	public void releaseEnv(String key, Environment env) {
+		PooledEnv pooled = getOpened(envs.get(key));
+		if (pooled != null && pooled.env == env) {
+			synchronized (pooled) {
+				pooled.pins--;
+				pooled.lastAccess = System.currentTimeMillis();
+			}
+		}
+	}
+
+	@Override
+	public void closeEnv(String key) {
+		Future<PooledEnv> future = envs.remove(key);
+		if (future != null) {
+			PooledEnv pooled;
+			try {
+				pooled = future.get();
+			} catch (ExecutionException e) {
+				return;
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new RuntimeException(e);
+			}
+			synchronized (pooled) {
+				if (!pooled.closed) {
+					pooled.closed = true;
+					closeForcedly(pooled.env);
+				}
+			}
+		}
+	}
+
+	@Nullable
+	private PooledEnv getOpened(@Nullable Future<PooledEnv> future) {
+		if (future != null && future.isDone()) {
+			try {
+				return future.get();
+			} catch (InterruptedException | ExecutionException e) {
+				return null;
+			}
+		} else {
+			return null;
+		}
+	}
+
+	/*
+	 * Environment is discarded, so abort transactions still running against it
+	 */
+	private void closeForcedly(Environment env) {
+		env.getEnvironmentConfig().setEnvCloseForcedly(true);
+		env.close();
+	}
+
+	private synchronized void closeLeastRecentlyUsed() {
+		if (envs.size() <= MAX_OPEN_ENVS)
+			return;
+
+		long accessedBefore = System.currentTimeMillis() - MIN_IDLE_TIME;
+		List<Map.Entry<String, PooledEnv>> entries = new ArrayList<>();
+		for (Map.Entry<String, Future<PooledEnv>> entry: envs.entrySet()) {
+			PooledEnv pooled = getOpened(entry.getValue());
+			if (pooled != null && pooled.lastAccess < accessedBefore)
+				entries.add(new AbstractMap.SimpleEntry<>(entry.getKey(), pooled));
+		}
+		entries.sort(Comparator.comparingLong(it->it.getValue().lastAccess));
+		for (Map.Entry<String, PooledEnv> entry: entries) {
+			if (tryClose(entry.getKey(), entry.getValue(), accessedBefore))
+				return;
+		}
+		logger.warn("Unable to close idle environments, open limit exceeded (open environments: {})", envs.size());
+	}
+
+	/*
+	 * Environments are opened without forced close, so closing fails instead of aborting
+	 * transactions started after checking active transactions
+	 */
+	private boolean tryClose(String key, PooledEnv pooled, long accessedBefore) {
+		synchronized (pooled) {
+			if (!pooled.closed && pooled.pins == 0 && pooled.lastAccess < accessedBefore
+					&& getActiveTransactions(pooled.env) == 0) {
+				try {
+					pooled.env.close();
+					pooled.closed = true;
+					idleClosedEnvCount.incrementAndGet();
+					logger.debug("Closed idle environment (key: {})", key);
+				} catch (ExodusException e) {
+					logger.debug("Environment is still in use, will try closing later (key: {})", key);
+				}
+			}
+		}
+		if (pooled.closed) {
+			Future<PooledEnv> future = envs.get(key);
+			if (getOpened(future) == pooled)
+				envs.remove(key, future);
+			return true;
+		} else {
+			return false;
+		}
+	}
+
+	private long getActiveTransactions(Environment env) {
+		return env.getStatistics().getStatisticsItem(EnvironmentStatistics.Type.ACTIVE_TRANSACTIONS).getTotal();
+	}
+
+	private static long getTransactions(Environment env) {
+		return env.getStatistics().getStatisticsItem(EnvironmentStatistics.Type.TRANSACTIONS).getTotal();
+	}
+
+	@Override
+	public synchronized void execute() {
+		long now = System.currentTimeMillis();
+		for (Map.Entry<String, Future<PooledEnv>> entry: envs.entrySet()) {
+			PooledEnv pooled = getOpened(entry.getValue());
+			if (pooled != null) {
+				/*
+				 * Environment might be retrieved once and used for a long time without being pinned,
+				 * so we also treat new transactions as access
+				 */
+				synchronized (pooled) {
+					if (!pooled.closed) {
+						long transactions = getTransactions(pooled.env);
+						if (transactions != pooled.transactions) {
+							pooled.transactions = transactions;
+							pooled.lastAccess = now;
+						}
+					}
+				}
+				tryClose(entry.getKey(), pooled, now - IDLE_TIMEOUT);
+			}
+		}
+	}
+
+	@Override
+	public ScheduleBuilder<?> getScheduleBuilder() {
+		return SimpleScheduleBuilder.repeatMinutelyForever();
+	}
+
+	@Override
+	public EnvironmentPoolStatus getStatus() {
+		return new EnvironmentPoolStatus(envs.size(), idleClosedEnvCount.get());
+	}
+
+	@Listen
+	public void on(SystemStarted event) {
+		taskId = taskScheduler.schedule(this);
+	}
+
+	@Listen
+	public synchronized void on(SystemStopping event) {
+		if (taskId != null)
+			taskScheduler.unschedule(taskId);
+		for (String key: new ArrayList<>(envs.keySet()))
+			closeEnv(key);
+	}
+
+	private static class PooledEnv {
+
+		// Fields other than env are guarded by this object
+
+		final Environment env;
+
+		volatile long lastAccess = System.currentTimeMillis();
+
+		// Number of acquirers not released yet
+		int pins;
+
+		long transactions;
+
+		boolean closed;
+
+		PooledEnv(Environment env) {
+			this.env = env;
+			transactions = getTransactions(env);
+		}
+
+	}
+
+}
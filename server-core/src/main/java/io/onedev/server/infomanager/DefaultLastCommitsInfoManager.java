@@ -0,0 +1,382 @@
+package io.onedev.server.infomanager;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.Nullable;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.LastCommitsOfChildren;
+import org.eclipse.jgit.revwalk.LastCommitsOfChildren.Cache;
+import org.eclipse.jgit.revwalk.LastCommitsOfChildren.Value;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.treewalk.TreeWalk;
+
+import io.onedev.commons.launcher.loader.Listen;
+import io.onedev.commons.utils.FileUtils;
+import io.onedev.server.entitymanager.ProjectManager;
+import io.onedev.server.event.RefUpdated;
+import io.onedev.server.event.entity.EntityRemoved;
+import io.onedev.server.event.system.SystemStarted;
+import io.onedev.server.git.GitUtils;
+import io.onedev.server.model.Project;
+import io.onedev.server.persistence.SessionManager;
+import io.onedev.server.persistence.annotation.Sessional;
+import io.onedev.server.storage.StorageManager;
+import io.onedev.server.util.concurrent.Prioritized;
+import io.onedev.server.util.work.BatchWorkManager;
+import io.onedev.server.util.work.BatchWorker;
+import jetbrains.exodus.ArrayByteIterable;
+import jetbrains.exodus.ByteIterable;
+import jetbrains.exodus.env.Cursor;
+import jetbrains.exodus.env.Environment;
+import jetbrains.exodus.env.Store;
+import jetbrains.exodus.env.Transaction;
+import jetbrains.exodus.env.TransactionalComputable;
+
+/**
+ * Persists last commits of children of project directories. Entries are keyed by path and
+ * commit, and are calculated incrementally from persisted entry of nearest ancestor commit of
+ * the same path. Entries are evicted in insertion order when total size of a project exceeds
+ * {@link #MAX_SIZE}
+ *
+ * @author robin
+ *
+ */
+@Singleton
+public class DefaultLastCommitsInfoManager extends AbstractEnvironmentManager implements LastCommitsInfoManager {
+
+	private static final int INFO_VERSION = 2;
+
+	private static final String INFO_DIR = "lastCommits";
+
+	// Directory used to store last commits as serialized files before
+	private static final String LEGACY_INFO_DIR = "last_commits";
+
+	private static final String LAST_COMMITS_STORE = "lastCommits";
+
+	private static final long MAX_SIZE = 32*1024*1024L;
+
+	// Persist calculated result only if calculation takes longer than this time in milliseconds
+	private static final long PERSIST_THRESHOLD = 1000;
+
+	private static final int MAX_PRECALCULATED_DIRS = 50;
+
+	private static final int PRIORITY = 200;
+
+	private final ProjectManager projectManager;
+
+	private final StorageManager storageManager;
+
+	private final BatchWorkManager batchWorkManager;
+
+	private final SessionManager sessionManager;
+
+	@Inject
+	public DefaultLastCommitsInfoManager(ProjectManager projectManager, StorageManager storageManager,
+			BatchWorkManager batchWorkManager, SessionManager sessionManager, EnvironmentPool environmentPool) {
+		super(environmentPool);
+		this.projectManager = projectManager;
+		this.storageManager = storageManager;
+		this.batchWorkManager = batchWorkManager;
+		this.sessionManager = sessionManager;
+	}
+
+	@Override
+	public LastCommitsOfChildren getLastCommitsOfChildren(Project project, ObjectId commitId, @Nullable String path) {
+		return calculate(project, commitId, path, PERSIST_THRESHOLD);
+	}
+
+	private LastCommitsOfChildren calculate(Project project, ObjectId commitId, @Nullable String path,
+			long persistThreshold) {
+		String envKey = project.getId().toString();
+		Environment env = acquireEnv(envKey);
+		try {
+			return calculate(project, env, commitId, path, persistThreshold);
+		} finally {
+			releaseEnv(envKey, env);
+		}
+	}
+	
+	private LastCommitsOfChildren calculate(Project project, Environment env, ObjectId commitId, 
+			@Nullable String path, long persistThreshold) {
+		String normalizedPath = GitUtils.normalizePath(path);
+		if (normalizedPath == null)
+			normalizedPath = "";
+		String treePath = normalizedPath;
+
+		Store store = getStore(env, LAST_COMMITS_STORE);
+
+		/*
+		 * Cache is queried for each visited commit, so load commits having persisted entries of
+		 * this path once to avoid a transaction per visited commit
+		 */
+		Set<ObjectId> cachedCommitIds = readCachedCommitIds(env, store, treePath);
+
+		Cache cache = new Cache() {
+
+			@Override
+			public Map<String, Value> getLastCommitsOfChildren(ObjectId commitId) {
+				if (!cachedCommitIds.contains(commitId))
+					return null;
+				return env.computeInReadonlyTransaction(new TransactionalComputable<Map<String, Value>>() {
+
+					@Override
+					public Map<String, Value> compute(Transaction txn) {
+						ValueView view = readView(store, txn, getKey(commitId, treePath));
+						if (view != null)
+							return deserializeLastCommits(view);
+						else
+							return null;
+					}
+
+				});
+			}
+
+		};
+
+		long time = System.currentTimeMillis();
+		LastCommitsOfChildren lastCommits = new LastCommitsOfChildren(project.getRepository(), commitId, treePath, cache);
+		if (System.currentTimeMillis() - time >= persistThreshold)
+			writeEvictable(env, LAST_COMMITS_STORE, getKey(commitId, treePath), serializeLastCommits(lastCommits), MAX_SIZE);
+		return lastCommits;
+	}
+
+	private Set<ObjectId> readCachedCommitIds(Environment env, Store store, String path) {
+		byte[] prefix = getKeyPrefix(path);
+		return env.computeInReadonlyTransaction(new TransactionalComputable<Set<ObjectId>>() {
+
+			@Override
+			public Set<ObjectId> compute(Transaction txn) {
+				Set<ObjectId> commitIds = new HashSet<>();
+				try (Cursor cursor = store.openCursor(txn)) {
+					// Only keys are visited, values are read on demand
+					if (cursor.getSearchKeyRange(new ArrayByteIterable(prefix)) != null) {
+						do {
+							ByteIterable key = cursor.getKey();
+							byte[] keyBytes = key.getBytesUnsafe();
+							if (key.getLength() != prefix.length + 20 || !hasPrefix(keyBytes, prefix))
+								break;
+							commitIds.add(ObjectId.fromRaw(keyBytes, prefix.length));
+						} while (cursor.getNext());
+					}
+				}
+				return commitIds;
+			}
+
+		});
+	}
+
+	private boolean hasPrefix(byte[] bytes, byte[] prefix) {
+		for (int i=0; i<prefix.length; i++) {
+			if (bytes[i] != prefix[i])
+				return false;
+		}
+		return true;
+	}
+
+	/*
+	 * Path is terminated with a zero byte which can not appear in git paths, so that entries
+	 * of the same path are stored contiguously, and are not mixed with entries of other paths
+	 * starting with it
+	 */
+	private byte[] getKeyPrefix(String path) {
+		byte[] pathBytes = path.getBytes(StandardCharsets.UTF_8);
+		byte[] prefix = new byte[pathBytes.length + 1];
+		System.arraycopy(pathBytes, 0, prefix, 0, pathBytes.length);
+		return prefix;
+	}
+
+	private ByteIterable getKey(ObjectId commitId, String path) {
+		byte[] prefix = getKeyPrefix(path);
+		byte[] keyBytes = new byte[prefix.length + 20];
+		System.arraycopy(prefix, 0, keyBytes, 0, prefix.length);
+		commitId.copyRawTo(keyBytes, prefix.length);
+		return new ArrayByteIterable(keyBytes);
+	}
+
+	/*
+	 * Children often share the same last commit, so each distinct commit is written only
+	 * once, and children refer to it by index
+	 */
+	static byte[] serializeLastCommits(Map<String, Value> lastCommits) {
+		Map<ObjectId, Integer> commitIndexes = new HashMap<>();
+		List<Value> commits = new ArrayList<>();
+		for (Value value: lastCommits.values()) {
+			if (!commitIndexes.containsKey(value.getId())) {
+				commitIndexes.put(value.getId(), commits.size());
+				commits.add(value);
+			}
+		}
+
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		try (DataOutputStream out = new DataOutputStream(baos)) {
+			out.writeInt(commits.size());
+			byte[] idBytes = new byte[20];
+			for (Value commit: commits) {
+				commit.getId().copyRawTo(idBytes, 0);
+				out.write(idBytes);
+				writeString(out, commit.getAuthor().getName());
+				writeString(out, commit.getAuthor().getEmailAddress());
+				out.writeLong(commit.getAuthor().getWhen().getTime());
+				out.writeInt(commit.getAuthor().getTimeZoneOffset());
+				out.writeLong(commit.getCommitDate().getTime());
+				writeString(out, commit.getSummary());
+			}
+			out.writeInt(lastCommits.size());
+			for (Map.Entry<String, Value> entry: lastCommits.entrySet()) {
+				writeString(out, entry.getKey());
+				out.writeInt(commitIndexes.get(entry.getValue().getId()));
+			}
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+		return baos.toByteArray();
+	}
+
+	static Map<String, Value> deserializeLastCommits(ValueView view) {
+		try (DataInputStream in = view.getInput()) {
+			Value[] commits = new Value[in.readInt()];
+			byte[] idBytes = new byte[20];
+			for (int i=0; i<commits.length; i++) {
+				in.readFully(idBytes);
+				ObjectId id = ObjectId.fromRaw(idBytes);
+				String authorName = readString(in);
+				String authorEmail = readString(in);
+				long authorWhen = in.readLong();
+				int authorTimeZone = in.readInt();
+				PersonIdent author = new PersonIdent(authorName, authorEmail, authorWhen, authorTimeZone);
+				Date commitDate = new Date(in.readLong());
+				commits[i] = new Value(id, author, commitDate, readString(in));
+			}
+			int childCount = in.readInt();
+			Map<String, Value> lastCommits = new HashMap<>();
+			for (int i=0; i<childCount; i++) {
+				String child = readString(in);
+				lastCommits.put(child, commits[in.readInt()]);
+			}
+			return lastCommits;
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	private static void writeString(DataOutputStream out, String string) throws IOException {
+		byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	private static String readString(DataInputStream in) throws IOException {
+		byte[] bytes = new byte[in.readInt()];
+		in.readFully(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/*
+	 * Calculate last commits of root and top level directories of default branch, so that
+	 * they are available when browsed, and serve as base of incremental calculation when
+	 * default branch advances
+	 */
+	private void precalculate(Project project) {
+		String defaultBranch = project.getDefaultBranch();
+		if (defaultBranch == null)
+			return;
+		ObjectId commitId = project.getObjectId(defaultBranch, false);
+		if (commitId == null)
+			return;
+
+		List<String> paths = new ArrayList<>();
+		paths.add("");
+		Repository repository = project.getRepository();
+		try (RevWalk revWalk = new RevWalk(repository); TreeWalk treeWalk = new TreeWalk(repository)) {
+			treeWalk.addTree(revWalk.parseCommit(commitId).getTree());
+			while (treeWalk.next() && paths.size() <= MAX_PRECALCULATED_DIRS) {
+				if (FileMode.TREE.equals(treeWalk.getFileMode(0)))
+					paths.add(treeWalk.getPathString());
+			}
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+
+		for (String path: paths)
+			calculate(project, commitId, path, 0);
+	}
+
+	private BatchWorker getBatchWorker(Long projectId) {
+		return new BatchWorker("project-" + projectId + "-precalculateLastCommits", "project-" + projectId) {
+
+			@Override
+			public void doWorks(Collection<Prioritized> works) {
+				// Always calculate against latest default branch head, so queued works can be merged
+				sessionManager.run(new Runnable() {
+
+					@Override
+					public void run() {
+						precalculate(projectManager.load(projectId));
+					}
+
+				});
+			}
+
+		};
+	}
+
+	@Sessional
+	@Listen
+	public void on(RefUpdated event) {
+		Project project = event.getProject();
+		if (!event.getNewCommitId().equals(ObjectId.zeroId())
+				&& project.getDefaultBranch() != null
+				&& event.getRefName().equals(GitUtils.branch2ref(project.getDefaultBranch()))) {
+			batchWorkManager.submit(getBatchWorker(project.getId()), new Prioritized(PRIORITY));
+		}
+	}
+
+	@Sessional
+	@Listen
+	public void on(SystemStarted event) {
+		for (Project project: projectManager.query()) {
+			File legacyDir = new File(storageManager.getProjectInfoDir(project.getId()), LEGACY_INFO_DIR);
+			if (legacyDir.exists())
+				FileUtils.deleteDir(legacyDir);
+		}
+	}
+
+	@Listen
+	public void on(EntityRemoved event) {
+		if (event.getEntity() instanceof Project)
+			removeEnv(event.getEntity().getId().toString());
+	}
+
+	@Override
+	protected File getEnvDir(String envKey) {
+		File infoDir = new File(storageManager.getProjectInfoDir(Long.valueOf(envKey)), INFO_DIR);
+		if (!infoDir.exists())
+			FileUtils.createDir(infoDir);
+		return infoDir;
+	}
+
+	@Override
+	protected int getEnvVersion() {
+		return INFO_VERSION;
+	}
+
+}
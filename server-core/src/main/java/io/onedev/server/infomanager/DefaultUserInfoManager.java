@@ -55,7 +55,8 @@ public class DefaultUserInfoManager extends AbstractEnvironmentManager implement
 	private final StorageManager storageManager;
 	
 	@Inject
-	public DefaultUserInfoManager(StorageManager storageManager) {
+	public DefaultUserInfoManager(StorageManager storageManager, EnvironmentPool environmentPool) {
+		super(environmentPool);
 		this.storageManager = storageManager;
 	}
 	
@@ -0,0 +1,57 @@
+package io.onedev.server.infomanager;
+
+import java.util.function.Supplier;
+
+import jetbrains.exodus.env.Environment;
+
+/**
+ * Pool of Xodus environments shared by all info managers. Environments not used for a while
+ * are closed to release file handles and memory, and are reopened lazily when accessed again
+ */
+public interface EnvironmentPool {
+
+	/**
+	 * Get environment of specified key
+	 *
+	 * @param key
+	 * 			key of the environment, should be unique across all info managers
+	 * @param opener
+	 * 			opener to open the environment if it is not opened yet, or closed due to idle
+	 * @return
+	 * 			opened environment
+	 */
+	Environment getEnv(String key, Supplier<Environment> opener);
+
+	/**
+	 * Get environment of specified key and pin it, so that it will not be closed due to idle 
+	 * until released via {@link #releaseEnv(String, Environment)}. Use this instead of 
+	 * {@link #getEnv(String, Supplier)} if the environment or its stores are held across 
+	 * long running operations
+	 *
+	 * @param key
+	 * 			key of the environment, should be unique across all info managers
+	 * @param opener
+	 * 			opener to open the environment if it is not opened yet, or closed due to idle
+	 * @return
+	 * 			opened environment
+	 */
+	Environment acquireEnv(String key, Supplier<Environment> opener);
+
+	/**
+	 * Release environment acquired via {@link #acquireEnv(String, Supplier)}
+	 * 
+	 * @param key
+	 * 			key of the environment
+	 * @param env
+	 * 			environment returned by {@link #acquireEnv(String, Supplier)}
+	 */
+	void releaseEnv(String key, Environment env);
+
+	/**
+	 * Close environment of specified key if it is opened
+	 */
+	void closeEnv(String key);
+
+	EnvironmentPoolStatus getStatus();
+
+}
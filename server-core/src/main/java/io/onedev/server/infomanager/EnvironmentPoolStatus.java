@@ -0,0 +1,34 @@
+package io.onedev.server.infomanager;
+
+import java.io.Serializable;
+
+public class EnvironmentPoolStatus implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	private final int openEnvs;
+
+	private final long idleClosedEnvs;
+
+	public EnvironmentPoolStatus(int openEnvs, long idleClosedEnvs) {
+		this.openEnvs = openEnvs;
+		this.idleClosedEnvs = idleClosedEnvs;
+	}
+
+	/**
+	 * @return
+	 * 			number of currently opened environments
+	 */
+	public int getOpenEnvs() {
+		return openEnvs;
+	}
+
+	/**
+	 * @return
+	 * 			number of environments closed due to idle or exceeding open limit since system start
+	 */
+	public long getIdleClosedEnvs() {
+		return idleClosedEnvs;
+	}
+
+}
@@ -0,0 +1,27 @@
+package io.onedev.server.infomanager;
+
+import javax.annotation.Nullable;
+
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.revwalk.LastCommitsOfChildren;
+
+import io.onedev.server.model.Project;
+
+public interface LastCommitsInfoManager {
+
+	/**
+	 * Get last commits of children under specified path. Calculated result of any ancestor
+	 * commit of the same path will be used to speed up the calculation, and result will be
+	 * persisted if calculation takes long
+	 *
+	 * @param project
+	 * 			project to get last commits of children
+	 * @param commitId
+	 * 			get last commits no newer than this commit
+	 * @param path
+	 * 			parent directory to get last commits of children, use <tt>null</tt> or empty
+	 * 			string for repository root
+	 */
+	LastCommitsOfChildren getLastCommitsOfChildren(Project project, ObjectId commitId, @Nullable String path);
+
+}
@@ -0,0 +1,153 @@
+package io.onedev.server.maintenance;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import javax.annotation.Nullable;
+
+import io.onedev.commons.utils.FileUtils;
+import io.onedev.commons.utils.ZipUtils;
+import io.onedev.server.OneException;
+
+/**
+ * Manifest stored in database backup file. A full backup contains all data files, while an
+ * incremental backup only contains data files changed since its base full backup. The manifest
+ * records digests of all data files of the backed up database, so that subsequent incremental
+ * backups can find changed data files, and restore can find data files removed since base
+ * backup. Backup files created without manifest are full backups
+ *
+ * @author robin
+ *
+ */
+public class BackupManifest {
+
+	public static final String FILE_NAME = "BackupManifest.properties";
+
+	private static final String BASE = "base";
+
+	private static final String DIGEST_PREFIX = "digest.";
+
+	private final String base;
+
+	private final Map<String, String> digests;
+
+	/**
+	 * @param base
+	 * 			file name of base full backup for an incremental backup, or <tt>null</tt> for a
+	 * 			full backup
+	 * @param digests
+	 * 			map of data file name to digest of its content
+	 */
+	public BackupManifest(@Nullable String base, Map<String, String> digests) {
+		this.base = base;
+		this.digests = digests;
+	}
+
+	@Nullable
+	public String getBase() {
+		return base;
+	}
+
+	public Map<String, String> getDigests() {
+		return digests;
+	}
+
+	public boolean isIncremental() {
+		return base != null;
+	}
+
+	public void writeTo(ZipOutputStream zip) throws IOException {
+		Properties props = new Properties();
+		if (base != null)
+			props.setProperty(BASE, base);
+		for (Map.Entry<String, String> entry: digests.entrySet())
+			props.setProperty(DIGEST_PREFIX + entry.getKey(), entry.getValue());
+		zip.putNextEntry(new ZipEntry(FILE_NAME));
+		props.store(zip, null);
+		zip.closeEntry();
+	}
+
+	private static BackupManifest fromProperties(Properties props) {
+		Map<String, String> digests = new HashMap<>();
+		for (String name: props.stringPropertyNames()) {
+			if (name.startsWith(DIGEST_PREFIX))
+				digests.put(name.substring(DIGEST_PREFIX.length()), props.getProperty(name));
+		}
+		return new BackupManifest(props.getProperty(BASE), digests);
+	}
+
+	/**
+	 * Read manifest of specified backup file
+	 *
+	 * @return
+	 * 			manifest of the backup file, or <tt>null</tt> if backup file does not contain
+	 * 			a manifest
+	 */
+	@Nullable
+	public static BackupManifest readFrom(File backupFile) {
+		try (ZipFile zipFile = new ZipFile(backupFile)) {
+			ZipEntry entry = zipFile.getEntry(FILE_NAME);
+			if (entry != null) {
+				Properties props = new Properties();
+				try (InputStream is = zipFile.getInputStream(entry)) {
+					props.load(is);
+				}
+				return fromProperties(props);
+			} else {
+				return null;
+			}
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Extract data files of specified backup file into specified directory. If the backup is
+	 * incremental, its base full backup is expected to reside in the same directory as the
+	 * backup file, and will be extracted first
+	 *
+	 * @param backupFile
+	 * 			backup file to extract
+	 * @param dataDir
+	 * 			directory to extract data files into
+	 */
+	public static void extract(File backupFile, File dataDir) {
+		BackupManifest manifest = readFrom(backupFile);
+		if (manifest != null && manifest.isIncremental()) {
+			File baseFile = new File(backupFile.getParentFile(), manifest.getBase());
+			if (!baseFile.exists()) {
+				throw new OneException("Unable to find base backup file '" + baseFile.getAbsolutePath()
+						+ "' of incremental backup '" + backupFile.getAbsolutePath() + "'");
+			}
+			ZipUtils.unzip(baseFile, dataDir);
+
+			File changesDir = FileUtils.createTempDir("backup-changes");
+			try {
+				ZipUtils.unzip(backupFile, changesDir);
+				for (File file: changesDir.listFiles())
+					FileUtils.copyFile(file, new File(dataDir, file.getName()));
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			} finally {
+				FileUtils.deleteDir(changesDir);
+			}
+
+			// Remove data files no longer exist when incremental backup is taken
+			for (File file: dataDir.listFiles()) {
+				if (!manifest.getDigests().containsKey(file.getName()))
+					FileUtils.deleteFile(file);
+			}
+		} else {
+			ZipUtils.unzip(backupFile, dataDir);
+			FileUtils.deleteFile(new File(dataDir, FILE_NAME));
+		}
+	}
+
+}
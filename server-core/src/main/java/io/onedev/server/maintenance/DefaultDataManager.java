@@ -1,14 +1,20 @@
 package io.onedev.server.maintenance;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.ObjectStreamException;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.zip.ZipOutputStream;
 
+import javax.annotation.Nullable;
 import javax.inject.Inject;
 import javax.inject.Singleton;
 import javax.validation.Validator;
@@ -28,7 +34,7 @@ import io.onedev.commons.launcher.loader.Listen;
 import io.onedev.commons.launcher.loader.ManagedSerializedForm;
 import io.onedev.commons.utils.ExceptionUtils;
 import io.onedev.commons.utils.FileUtils;
-import io.onedev.commons.utils.ZipUtils;
+import io.onedev.commons.utils.StringUtils;
 import io.onedev.server.OneDev;
 import io.onedev.server.entitymanager.RoleManager;
 import io.onedev.server.entitymanager.SettingManager;
@@ -253,19 +259,38 @@ public class DefaultDataManager implements DataManager, Serializable {
 
 				@Override
 				public void execute() {
-					File tempDir = FileUtils.createTempDir("backup");
+					File backupDir = new File(Bootstrap.getSiteDir(), Upgrade.DB_BACKUP_DIR);
+					FileUtils.createDir(backupDir);
+					DateTime now = new DateTime();
+					String backupFileName = DateTimeFormat.forPattern(Upgrade.BACKUP_DATETIME_FORMAT).print(now) + ".zip";
+					
+					String baseFileName = null;
+					BackupManifest baseManifest = null;
+					if (backupSetting.getFullBackupInterval() != null) {
+						baseFileName = findLastFullBackup(backupDir);
+						if (baseFileName != null) {
+							DateTime baseTime = DateTimeFormat.forPattern(Upgrade.BACKUP_DATETIME_FORMAT)
+									.parseDateTime(StringUtils.substringBeforeLast(baseFileName, "."));
+							if (baseTime.plusDays(backupSetting.getFullBackupInterval()).isAfter(now)) 
+								baseManifest = BackupManifest.readFrom(new File(backupDir, baseFileName));
+							else
+								baseFileName = null;
+						}
+					}
+					
+					// Write into a temp file first so that an incomplete backup never appears in backup dir
+					File tempFile = new File(backupDir, backupFileName + ".tmp");
 					try {
-						File backupDir = new File(Bootstrap.getSiteDir(), Upgrade.DB_BACKUP_DIR);
-						FileUtils.createDir(backupDir);
-						persistManager.exportData(tempDir);
-						File backupFile = new File(backupDir, 
-								DateTimeFormat.forPattern(Upgrade.BACKUP_DATETIME_FORMAT).print(new DateTime()) + ".zip");
-						ZipUtils.zip(tempDir, backupFile);
+						try (ZipOutputStream zip = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)))) {
+							Map<String, String> digests = persistManager.exportData(zip, 
+									baseManifest!=null?baseManifest.getDigests():null);
+							new BackupManifest(baseFileName, digests).writeTo(zip);
+						}
+						FileUtils.moveFile(tempFile, new File(backupDir, backupFileName));
 					} catch (Exception e) {
+						FileUtils.deleteFile(tempFile);
 						notifyBackupError(e);
 						throw ExceptionUtils.unchecked(e);
-					} finally {
-						FileUtils.deleteDir(tempDir);
 					}
 				}
 
@@ -278,6 +303,35 @@ public class DefaultDataManager implements DataManager, Serializable {
 		}
 	}
 	
+	/*
+	 * Backup file names are formatted timestamps, so that sorting them by name sorts them by time. 
+	 * Search stops at a backup without manifest, as it is a full backup which can not be used as 
+	 * base of incremental backups
+	 */
+	@Nullable
+	private String findLastFullBackup(File backupDir) {
+		List<String> backupFileNames = new ArrayList<>();
+		for (File file: backupDir.listFiles()) {
+			if (file.isFile() && file.getName().endsWith(".zip"))
+				backupFileNames.add(file.getName());
+		}
+		Collections.sort(backupFileNames, Collections.reverseOrder());
+		for (String backupFileName: backupFileNames) {
+			try {
+				DateTimeFormat.forPattern(Upgrade.BACKUP_DATETIME_FORMAT)
+						.parseDateTime(StringUtils.substringBeforeLast(backupFileName, "."));
+			} catch (IllegalArgumentException e) {
+				continue;
+			}
+			BackupManifest manifest = BackupManifest.readFrom(new File(backupDir, backupFileName));
+			if (manifest == null) 
+				return null;
+			else if (!manifest.isIncremental())
+				return backupFileName;
+		}
+		return null;
+	}
+	
 	@Listen
 	public void on(SystemStarting event) {
 		scheduleBackup(settingManager.getBackupSetting());
@@ -390,16 +390,25 @@ public final class VersionedDocument implements Document, Externalizable {
 		OutputStream os = null;
 		try {
 			os = new FileOutputStream(file);
+			writeToStream(os, pretty);
+		} catch (Exception e) {
+			throw ExceptionUtils.unchecked(e);
+		} finally {
+			IOUtils.closeQuietly(os);
+		}
+	}
+	
+	public void writeToStream(OutputStream os, boolean pretty) {
+		try {
 			OutputFormat format = new OutputFormat();
 			format.setIndent(pretty);
 			format.setNewlines(pretty);
 			format.setEncoding(StandardCharsets.UTF_8.name());
 			XMLWriter writer = new XMLWriter(os, format);
 			writer.write(this);
+			writer.flush();
 		} catch (Exception e) {
 			throw ExceptionUtils.unchecked(e);
-		} finally {
-			IOUtils.closeQuietly(os);
 		}
 	}
 	
@@ -426,6 +435,10 @@ public final class VersionedDocument implements Document, Externalizable {
 		return wrapped;
 	}
 	
+	/**
+	 * Convert specified bean to document. Elements of hash based sets and maps are written in 
+	 * their natural order if possible, so that equal beans always produce same document
+	 */
 	public static VersionedDocument fromBean(@Nullable Object bean) {
 		Document dom = DocumentHelper.createDocument();
 		AppLoader.getInstance(XStream.class).marshal(bean, new Dom4JWriter(dom));
@@ -759,12 +759,15 @@ public class Build extends AbstractEntity implements Referenceable {
 	
 	public Collection<String> getOnBranches() {
 		CommitInfoManager commitInfoManager = OneDev.getInstance(CommitInfoManager.class);
-		Collection<ObjectId> descendants = commitInfoManager.getDescendants(
-				getProject(), Sets.newHashSet(getCommitId()));
-		descendants.add(getCommitId());
+		List<RefInfo> refs = getProject().getBranchRefInfos();
+		Collection<ObjectId> branchCommits = new ArrayList<>();
+		for (RefInfo ref: refs)
+			branchCommits.add(ref.getPeeledObj());
+		Collection<ObjectId> descendants = commitInfoManager.filterDescendants(
+				getProject(), getCommitId(), branchCommits);
 	
 		Collection<String> branches = new ArrayList<>();
-		for (RefInfo ref: getProject().getBranchRefInfos()) {
+		for (RefInfo ref: refs) {
 			String branchName = Preconditions.checkNotNull(GitUtils.ref2branch(ref.getRef().getName()));
 			if (descendants.contains(ref.getPeeledObj()))
 				branches.add(branchName);
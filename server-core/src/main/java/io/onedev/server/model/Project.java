@@ -16,7 +16,6 @@ import java.util.Map;
 import java.util.Set;
 import java.util.Stack;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.locks.ReadWriteLock;
 import java.util.stream.Collectors;
 
 import javax.annotation.Nullable;
@@ -31,13 +30,11 @@ import javax.persistence.ManyToOne;
 import javax.persistence.OneToMany;
 import javax.persistence.Table;
 
-import org.apache.commons.lang3.SerializationUtils;
 import org.dom4j.Element;
 import org.eclipse.jgit.api.CreateBranchCommand;
 import org.eclipse.jgit.api.Git;
 import org.eclipse.jgit.api.TagCommand;
 import org.eclipse.jgit.api.errors.GitAPIException;
-import org.eclipse.jgit.lib.AnyObjectId;
 import org.eclipse.jgit.lib.Constants;
 import org.eclipse.jgit.lib.FileMode;
 import org.eclipse.jgit.lib.ObjectId;
@@ -47,7 +44,6 @@ import org.eclipse.jgit.lib.Ref;
 import org.eclipse.jgit.lib.RefUpdate;
 import org.eclipse.jgit.lib.Repository;
 import org.eclipse.jgit.revwalk.LastCommitsOfChildren;
-import org.eclipse.jgit.revwalk.LastCommitsOfChildren.Value;
 import org.eclipse.jgit.revwalk.RevCommit;
 import org.eclipse.jgit.revwalk.RevTree;
 import org.eclipse.jgit.revwalk.RevWalk;
@@ -63,9 +59,7 @@ import com.google.common.base.Preconditions;
 import com.google.common.collect.Sets;
 
 import io.onedev.commons.launcher.loader.ListenerRegistry;
-import io.onedev.commons.utils.FileUtils;
 import io.onedev.commons.utils.LinearRange;
-import io.onedev.commons.utils.LockUtils;
 import io.onedev.commons.utils.StringUtils;
 import io.onedev.server.OneDev;
 import io.onedev.server.buildspec.BuildSpec;
@@ -86,11 +80,12 @@ import io.onedev.server.git.BlobIdentFilter;
 import io.onedev.server.git.GitUtils;
 import io.onedev.server.git.RefInfo;
 import io.onedev.server.git.Submodule;
-import io.onedev.server.git.command.BlameCommand;
 import io.onedev.server.git.command.ListChangedFilesCommand;
 import io.onedev.server.git.exception.NotFileException;
 import io.onedev.server.git.exception.ObjectNotFoundException;
+import io.onedev.server.infomanager.BlameInfoManager;
 import io.onedev.server.infomanager.CommitInfoManager;
+import io.onedev.server.infomanager.LastCommitsInfoManager;
 import io.onedev.server.migration.VersionedDocument;
 import io.onedev.server.model.Build.Status;
 import io.onedev.server.model.support.BranchProtection;
@@ -129,7 +124,6 @@ public class Project extends AbstractEntity {
 
 	private static final long serialVersionUID = 1L;
 	
-	private static final int LAST_COMMITS_CACHE_THRESHOLD = 1000;
 	
 	public static final int MAX_UPLOAD_SIZE = 10; // In mega bytes
 	
@@ -693,79 +687,8 @@ public class Project extends AbstractEntity {
 	}
 	
 	public LastCommitsOfChildren getLastCommitsOfChildren(String revision, @Nullable String path) {
-		if (path == null)
-			path = "";
-		
-		final File cacheDir = new File(
-				OneDev.getInstance(StorageManager.class).getProjectInfoDir(getId()), 
-				"last_commits/" + path + "/onedev_last_commits");
-		
-		final ReadWriteLock lock;
-		try {
-			lock = LockUtils.getReadWriteLock(cacheDir.getCanonicalPath());
-		} catch (IOException e) {
-			throw new RuntimeException(e);
-		}
-		
-		final Set<ObjectId> commitIds = new HashSet<>(); 
-		
-		lock.readLock().lock();
-		try {
-			if (cacheDir.exists()) {
-				for (String each: cacheDir.list()) 
-					commitIds.add(ObjectId.fromString(each));
-			} 	
-		} finally {
-			lock.readLock().unlock();
-		}
-		
-		org.eclipse.jgit.revwalk.LastCommitsOfChildren.Cache cache;
-		if (!commitIds.isEmpty()) {
-			cache = new org.eclipse.jgit.revwalk.LastCommitsOfChildren.Cache() {
-	
-				@SuppressWarnings("unchecked")
-				@Override
-				public Map<String, Value> getLastCommitsOfChildren(ObjectId commitId) {
-					if (commitIds.contains(commitId)) {
-						lock.readLock().lock();
-						try {
-							byte[] bytes = FileUtils.readFileToByteArray(new File(cacheDir, commitId.name()));
-							return (Map<String, Value>) SerializationUtils.deserialize(bytes);
-						} catch (IOException e) {
-							throw new RuntimeException(e);
-						} finally {
-							lock.readLock().unlock();
-						}
-					} else {
-						return null;
-					}
-				}
-				
-			};
-		} else {
-			cache = null;
-		}
-
-		final AnyObjectId commitId = getObjectId(revision, true);
-		
-		long time = System.currentTimeMillis();
-		LastCommitsOfChildren lastCommits = new LastCommitsOfChildren(getRepository(), commitId, path, cache);
-		long elapsed = System.currentTimeMillis()-time;
-		if (elapsed > LAST_COMMITS_CACHE_THRESHOLD) {
-			lock.writeLock().lock();
-			try {
-				if (!cacheDir.exists())
-					FileUtils.createDir(cacheDir);
-				FileUtils.writeByteArrayToFile(
-						new File(cacheDir, commitId.name()), 
-						SerializationUtils.serialize(lastCommits));
-			} catch (IOException e) {
-				throw new RuntimeException(e);
-			} finally {
-				lock.writeLock().unlock();
-			}
-		}
-		return lastCommits;
+		return OneDev.getInstance(LastCommitsInfoManager.class).getLastCommitsOfChildren(
+				this, getObjectId(revision, true), path);
 	}
 
 	@Nullable
@@ -1217,14 +1140,10 @@ public class Project extends AbstractEntity {
 	}
 
 	public List<User> getAuthors(String filePath, ObjectId commitId, @Nullable LinearRange range) {
-		BlameCommand cmd = new BlameCommand(getGitDir());
-		cmd.commitHash(commitId.name());
-		cmd.file(filePath);
-		cmd.range(range);
-
 		List<User> authors = new ArrayList<>();
 		UserManager userManager = OneDev.getInstance(UserManager.class);
-		for (BlameBlock block: cmd.call()) {
+		BlameInfoManager blameInfoManager = OneDev.getInstance(BlameInfoManager.class);
+		for (BlameBlock block: blameInfoManager.getBlameBlocks(this, commitId, filePath, range)) {
 			User author = userManager.find(block.getCommit().getAuthor());
 			if (author != null && !authors.contains(author))
 				authors.add(author);
@@ -1339,16 +1258,14 @@ public class Project extends AbstractEntity {
 		Matcher matcher = new PathMatcher();
 		if (commitId != null) {
 			CommitInfoManager commitInfoManager = OneDev.getInstance(CommitInfoManager.class);
-			Collection<ObjectId> descendants = commitInfoManager.getDescendants(this, Sets.newHashSet(commitId));
-			descendants.add(commitId);
-		
 			PatternSet branchPatterns = PatternSet.parse(branches);
+			Collection<ObjectId> branchCommits = new ArrayList<>();
 			for (RefInfo ref: getBranchRefInfos()) {
 				String branchName = Preconditions.checkNotNull(GitUtils.ref2branch(ref.getRef().getName()));
-				if (descendants.contains(ref.getPeeledObj()) && branchPatterns.matches(matcher, branchName))
-					return true;
+				if (branchPatterns.matches(matcher, branchName))
+					branchCommits.add(ref.getPeeledObj());
 			}
-			return false;
+			return !commitInfoManager.filterDescendants(this, commitId, branchCommits).isEmpty();
 		} else {
 			return PatternSet.parse(branches).matches(matcher, "master");
 		}
@@ -237,17 +237,26 @@ public class Role extends AbstractEntity implements Permission {
 
 	@Override
 	public boolean implies(Permission p) {
-		for (Permission each: getPermissions()) {
+		for (Permission each: getPermissions(SecurityUtils.getUser() != null)) {
 			if (each.implies(p))
 				return true;
 		}
 		return false;
 	}
 	
-	private Collection<Permission> getPermissions() {
+	/**
+	 * Get permissions granted by this role
+	 * 
+	 * @param authenticated
+	 * 			whether or not permissions are granted to an authenticated user. Anonymous 
+	 * 			users only get read permissions even if the role grants more
+	 * @return
+	 * 			permissions granted by this role
+	 */
+	public Collection<Permission> getPermissions(boolean authenticated) {
 		Collection<Permission> permissions = Lists.newArrayList(new AccessProject());
 		
-		if (SecurityUtils.getUser() != null) {
+		if (authenticated) {
 			if (manageProject) 
 				permissions.add(new ManageProject());
 			if (manageCodeComments)
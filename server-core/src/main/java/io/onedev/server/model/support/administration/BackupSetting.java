@@ -11,6 +11,7 @@ import org.quartz.CronExpression;
 import io.onedev.server.util.validation.Validatable;
 import io.onedev.server.util.validation.annotation.ClassValidating;
 import io.onedev.server.web.editable.annotation.Editable;
+import io.onedev.server.web.editable.annotation.NameOfEmptyValue;
 
 @Editable
 @ClassValidating
@@ -20,6 +21,8 @@ public class BackupSetting implements Serializable, Validatable {
 	
 	private String schedule;
 	
+	private Integer fullBackupInterval;
+	
 	@Editable(order=100, name="Backup Schedule", description=
 		"Optionally specify a cron expression to schedule database auto-backup. The cron expression format is " +
 		"<em>&lt;seconds&gt; &lt;minutes&gt; &lt;hours&gt; &lt;day-of-month&gt; &lt;month&gt; &lt;day-of-week&gt;</em>." +
@@ -37,6 +40,19 @@ public class BackupSetting implements Serializable, Validatable {
 		this.schedule = schedule;
 	}
 
+	@Editable(order=200, name="Full Backup Interval", description="Optionally specify interval in days to take "
+			+ "full backups. Backups taken in between will be incremental, containing only data changed since "
+			+ "last full backup. Restoring an incremental backup requires its base full backup to be present "
+			+ "in the same folder. Leave empty to always take full backups")
+	@NameOfEmptyValue("Always take full backups")
+	public Integer getFullBackupInterval() {
+		return fullBackupInterval;
+	}
+
+	public void setFullBackupInterval(Integer fullBackupInterval) {
+		this.fullBackupInterval = fullBackupInterval;
+	}
+
 	@Override
 	public boolean isValid(ConstraintValidatorContext context) {
 		boolean hasErrors = false;
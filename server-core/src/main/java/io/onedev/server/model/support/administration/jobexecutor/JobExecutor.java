@@ -4,6 +4,8 @@ import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.List;
 
+import javax.validation.constraints.Min;
+
 import org.hibernate.validator.constraints.NotEmpty;
 
 import edu.emory.mathcs.backport.java.util.Collections;
@@ -17,6 +19,7 @@ import io.onedev.server.util.Usage;
 import io.onedev.server.util.validation.annotation.DnsName;
 import io.onedev.server.web.editable.annotation.Editable;
 import io.onedev.server.web.editable.annotation.JobMatch;
+import io.onedev.server.web.editable.annotation.NameOfEmptyValue;
 import io.onedev.server.web.util.SuggestionUtils;
 
 @ExtensionPoint
@@ -33,6 +36,10 @@ public abstract class JobExecutor implements Serializable {
 	
 	private int cacheTTL = 7;
 	
+	private Integer maxCachesPerKey;
+	
+	private Integer maxCacheSizePerKey;
+	
 	public boolean isEnabled() {
 		return enabled;
 	}
@@ -83,6 +90,35 @@ public abstract class JobExecutor implements Serializable {
 		this.cacheTTL = cacheTTL;
 	}
 	
+	@Editable(order=50010, group="More Settings", name="Max Caches per Key", description="Optionally specify max "
+			+ "number of job caches to keep for each cache key on a job executor host. Least recently used caches "
+			+ "exceeding this limit will be removed even if they are still within TTL. Caches being used by running "
+			+ "jobs are never removed")
+	@NameOfEmptyValue("No limit")
+	@Min(value=1, message="This value should not be less than 1")
+	public Integer getMaxCachesPerKey() {
+		return maxCachesPerKey;
+	}
+
+	public void setMaxCachesPerKey(Integer maxCachesPerKey) {
+		this.maxCachesPerKey = maxCachesPerKey;
+	}
+	
+	@Editable(order=50020, group="More Settings", name="Max Cache Size per Key (MB)", description="Optionally "
+			+ "specify max total size of job caches to keep for each cache key on a job executor host. Least "
+			+ "recently used caches will be removed once total size of more recently used caches of the same key "
+			+ "reaches this limit. Caches being used by running jobs are never removed. Size of a cache is known "
+			+ "after it is reported by the job executor")
+	@NameOfEmptyValue("No limit")
+	@Min(value=1, message="This value should not be less than 1")
+	public Integer getMaxCacheSizePerKey() {
+		return maxCacheSizePerKey;
+	}
+
+	public void setMaxCacheSizePerKey(Integer maxCacheSizePerKey) {
+		this.maxCacheSizePerKey = maxCacheSizePerKey;
+	}
+	
 	public abstract void execute(String jobToken, JobContext context);
 
 	public final boolean isApplicable(Build build) {
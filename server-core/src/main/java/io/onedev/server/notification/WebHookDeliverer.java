@@ -0,0 +1,425 @@
+package io.onedev.server.notification;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nullable;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MediaType;
+
+import org.apache.commons.lang3.SerializationUtils;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.util.EntityUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.onedev.commons.utils.FileUtils;
+import io.onedev.commons.utils.StringUtils;
+
+/**
+ * Delivers web hook payloads to their endpoints. Each endpoint has a bounded queue drained by
+ * at most one task at a time, which sends queued payloads in batches over pooled keep-alive
+ * connections. Failed deliveries are retried with exponential backoff, and queued payloads
+ * are persisted in a directory so that they survive restarts. Persisting is also done on the
+ * executor, so that accepting a delivery does not wait for disk sync.
+ */
+public class WebHookDeliverer {
+
+	private static final Logger logger = LoggerFactory.getLogger(WebHookDeliverer.class);
+
+	private static final String SIGNATURE_HEAD = "X-OneDev-Signature";
+
+	private static final String DELIVERY_FILE_SUFFIX = ".delivery";
+
+	private static final int MAX_QUEUED_DELIVERIES = 1000;
+
+	private static final int MAX_BATCH_SIZE = 50;
+
+	private static final int MAX_ATTEMPTS = 10;
+
+	private static final long DEFAULT_RETRY_DELAY = 10000;
+
+	private static final long MAX_RETRY_DELAY = 3600000;
+
+	private static final int MAX_CONNECTIONS = 100;
+
+	private static final int MAX_CONNECTIONS_PER_ENDPOINT = 2;
+
+	private static final int TIMEOUT = 30000;
+
+	private final File storeDir;
+
+	private final ExecutorService executor;
+
+	private final long retryDelay;
+
+	private final CloseableHttpClient client;
+
+	private final Map<String, Endpoint> endpoints = new ConcurrentHashMap<>();
+
+	private final AtomicLong sequence = new AtomicLong(0);
+
+	// Deliveries accepted but not persisted and queued yet
+	private final Queue<Delivery> pendingDeliveries = new ConcurrentLinkedQueue<>();
+
+	private final AtomicBoolean persisting = new AtomicBoolean(false);
+
+	private volatile boolean started;
+
+	public WebHookDeliverer(File storeDir, ExecutorService executor) {
+		this(storeDir, executor, DEFAULT_RETRY_DELAY);
+	}
+
+	/**
+	 * @param retryDelay
+	 * 			delay in milliseconds before first retry of a failed delivery. Delay is doubled
+	 * 			for each subsequent retry
+	 */
+	public WebHookDeliverer(File storeDir, ExecutorService executor, long retryDelay) {
+		this.storeDir = storeDir;
+		this.executor = executor;
+		this.retryDelay = retryDelay;
+
+		PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager(60, TimeUnit.SECONDS);
+		connectionManager.setMaxTotal(MAX_CONNECTIONS);
+		connectionManager.setDefaultMaxPerRoute(MAX_CONNECTIONS_PER_ENDPOINT);
+		connectionManager.setValidateAfterInactivity(TIMEOUT);
+		RequestConfig requestConfig = RequestConfig.custom()
+				.setConnectTimeout(TIMEOUT)
+				.setConnectionRequestTimeout(TIMEOUT)
+				.setSocketTimeout(TIMEOUT)
+				.build();
+		client = HttpClients.custom()
+				.setConnectionManager(connectionManager)
+				.setDefaultRequestConfig(requestConfig)
+				.evictIdleConnections(60, TimeUnit.SECONDS)
+				.build();
+
+		if (!storeDir.exists())
+			FileUtils.createDir(storeDir);
+
+		File[] files = storeDir.listFiles();
+		if (files != null) {
+			Arrays.sort(files);
+			for (File file: files) {
+				String fileName = file.getName();
+				String fileSequence = StringUtils.substringBefore(fileName, ".");
+				if (fileName.endsWith(DELIVERY_FILE_SUFFIX) && StringUtils.isNumeric(fileSequence)) {
+					// Make sure new deliveries never overwrite persisted ones
+					sequence.set(Long.parseLong(fileSequence) + 1);
+					/*
+					 * Queue persisted deliveries before any new delivery is accepted to keep 
+					 * delivery order. They will be sent once this deliverer is started
+					 */
+					try {
+						Delivery delivery = SerializationUtils.deserialize(FileUtils.readFileToByteArray(file));
+						delivery.file = file;
+						enqueue(delivery);
+					} catch (Exception e) {
+						logger.error("Error loading web hook delivery '" + file.getAbsolutePath() + "'", e);
+						FileUtils.deleteFile(file);
+					}
+				} else {
+					// Partially written deliveries
+					FileUtils.deleteFile(file);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Start sending queued deliveries, including those persisted before construction of this 
+	 * deliverer. Deliveries accepted before start are queued and persisted, but not sent
+	 */
+	public void start() {
+		started = true;
+		retryDue();
+	}
+
+	public void stop() {
+		// Make sure accepted deliveries survive restart
+		persistPending();
+		try {
+			client.close();
+		} catch (IOException e) {
+			logger.error("Error closing web hook http client", e);
+		}
+	}
+
+	public void deliver(String postUrl, @Nullable String secret, String payload) {
+		pendingDeliveries.add(new Delivery(postUrl, secret, payload));
+		if (persisting.compareAndSet(false, true)) {
+			executor.submit(new Runnable() {
+
+				@Override
+				public void run() {
+					try {
+						persistPending();
+					} finally {
+						persisting.set(false);
+					}
+					// Deliveries added after draining but before resetting the flag
+					if (!pendingDeliveries.isEmpty() && persisting.compareAndSet(false, true))
+						executor.submit(this);
+				}
+
+			});
+		}
+	}
+
+	/**
+	 * Start draining endpoints whose first queued delivery is due for retry. This should be
+	 * called periodically
+	 */
+	public void retryDue() {
+		for (Endpoint endpoint: endpoints.values())
+			endpoint.drainIfDue();
+	}
+
+	public Collection<WebHookDeliveryStatus> getStatuses() {
+		Collection<WebHookDeliveryStatus> statuses = new ArrayList<>();
+		for (Endpoint endpoint: endpoints.values())
+			statuses.add(endpoint.getStatus());
+		return statuses;
+	}
+
+	/*
+	 * Persist and queue pending deliveries in accepting order. Pending deliveries are polled
+	 * while holding the lock, so that concurrent persisting from stop() does not reorder them
+	 */
+	private void persistPending() {
+		synchronized (pendingDeliveries) {
+			Delivery delivery;
+			while ((delivery = pendingDeliveries.poll()) != null) {
+				try {
+					persist(delivery);
+				} catch (Exception e) {
+					logger.error("Error persisting web hook delivery (post url: " + delivery.postUrl + ")", e);
+					continue;
+				}
+				enqueue(delivery);
+			}
+		}
+	}
+
+	private void persist(Delivery delivery) {
+		String fileName = String.format("%020d", sequence.getAndIncrement());
+		File tempFile = new File(storeDir, fileName + ".tmp");
+		File file = new File(storeDir, fileName + DELIVERY_FILE_SUFFIX);
+		try {
+			try (FileOutputStream os = new FileOutputStream(tempFile)) {
+				os.write(SerializationUtils.serialize(delivery));
+				// Make sure content is on disk before the rename makes it visible as a delivery 
+				os.getFD().sync();
+			}
+			if (!tempFile.renameTo(file))
+				throw new IOException("Unable to rename '" + tempFile.getAbsolutePath() + "'");
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+		delivery.file = file;
+	}
+
+	private void enqueue(Delivery delivery) {
+		Endpoint endpoint = endpoints.computeIfAbsent(delivery.postUrl, Endpoint::new);
+		endpoint.enqueue(delivery);
+	}
+
+	@Nullable
+	private String send(Delivery delivery) {
+		HttpPost httpPost = new HttpPost(delivery.postUrl);
+		httpPost.setEntity(new StringEntity(delivery.payload, StandardCharsets.UTF_8));
+		httpPost.setHeader(HttpHeaders.ACCEPT, MediaType.APPLICATION_JSON);
+		httpPost.setHeader(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON);
+		if (delivery.secret != null)
+			httpPost.setHeader(SIGNATURE_HEAD, delivery.secret);
+		try (CloseableHttpResponse response = client.execute(httpPost)) {
+			// Always consume response so that connection can be reused
+			String responseText = response.getEntity()!=null?EntityUtils.toString(response.getEntity()):"";
+			int statusCode = response.getStatusLine().getStatusCode();
+			if (statusCode/100 != 2)
+				return "Http status: " + statusCode + ", response: " + StringUtils.abbreviate(responseText, 1000);
+			else
+				return null;
+		} catch (Exception e) {
+			return e.getClass().getName() + ": " + e.getMessage();
+		}
+	}
+
+	private class Endpoint {
+
+		private final String postUrl;
+
+		private final Deque<Delivery> queue = new ArrayDeque<>();
+
+		private boolean draining;
+
+		private long succeededDeliveries;
+
+		private long failedDeliveries;
+
+		private long droppedDeliveries;
+
+		private long retries;
+
+		private long totalLatency;
+
+		private long maxLatency;
+
+		private String lastError;
+
+		private Date lastErrorDate;
+
+		Endpoint(String postUrl) {
+			this.postUrl = postUrl;
+		}
+
+		synchronized void enqueue(Delivery delivery) {
+			if (queue.size() >= MAX_QUEUED_DELIVERIES) {
+				Delivery dropped = queue.pollFirst();
+				FileUtils.deleteFile(dropped.file);
+				droppedDeliveries++;
+				logger.warn("Too many queued web hook deliveries, dropping oldest one (post url: {})", postUrl);
+			}
+			queue.addLast(delivery);
+			drainIfDue();
+		}
+
+		synchronized void drainIfDue() {
+			Delivery first = queue.peekFirst();
+			if (started && !draining && first != null && first.nextAttemptTime <= System.currentTimeMillis()) {
+				draining = true;
+				executor.submit(new Runnable() {
+
+					@Override
+					public void run() {
+						try {
+							drain();
+						} catch (Exception e) {
+							logger.error("Error delivering web hooks", e);
+							synchronized (Endpoint.this) {
+								draining = false;
+							}
+						}
+					}
+
+				});
+			}
+		}
+
+		private void drain() {
+			while (true) {
+				List<Delivery> batch = new ArrayList<>();
+				synchronized (this) {
+					Delivery first = queue.peekFirst();
+					if (first == null || first.nextAttemptTime > System.currentTimeMillis()) {
+						draining = false;
+						return;
+					}
+					while (!queue.isEmpty() && batch.size() < MAX_BATCH_SIZE)
+						batch.add(queue.pollFirst());
+				}
+				for (int i=0; i<batch.size(); i++) {
+					Delivery delivery = batch.get(i);
+					String error = send(delivery);
+					long now = System.currentTimeMillis();
+					if (error == null) {
+						FileUtils.deleteFile(delivery.file);
+						synchronized (this) {
+							succeededDeliveries++;
+							long latency = now - delivery.createTime;
+							totalLatency += latency;
+							maxLatency = Math.max(maxLatency, latency);
+						}
+					} else {
+						delivery.attempts++;
+						synchronized (this) {
+							lastError = error;
+							lastErrorDate = new Date(now);
+						}
+						if (delivery.attempts >= MAX_ATTEMPTS) {
+							logger.error("Giving up web hook delivery after {} attempts (post url: {}, last error: {})",
+									delivery.attempts, postUrl, error);
+							FileUtils.deleteFile(delivery.file);
+							synchronized (this) {
+								failedDeliveries++;
+							}
+						} else {
+							/*
+							 * Put back undelivered ones to keep delivery order, and stop draining
+							 * until the failed one is due for retry
+							 */
+							delivery.nextAttemptTime = now + Math.min(
+									retryDelay << (delivery.attempts-1), MAX_RETRY_DELAY);
+							synchronized (this) {
+								retries++;
+								for (int j=batch.size()-1; j>=i; j--)
+									queue.addFirst(batch.get(j));
+								draining = false;
+							}
+							return;
+						}
+					}
+				}
+			}
+		}
+
+		synchronized WebHookDeliveryStatus getStatus() {
+			return new WebHookDeliveryStatus(postUrl, queue.size(), succeededDeliveries, failedDeliveries,
+					droppedDeliveries, retries, succeededDeliveries!=0?totalLatency/succeededDeliveries:0,
+					maxLatency, lastError, lastErrorDate);
+		}
+
+	}
+
+	private static class Delivery implements Serializable {
+
+		private static final long serialVersionUID = 1L;
+
+		final String postUrl;
+
+		final String secret;
+
+		final String payload;
+
+		final long createTime = System.currentTimeMillis();
+
+		transient File file;
+
+		transient int attempts;
+
+		transient long nextAttemptTime;
+
+		Delivery(String postUrl, @Nullable String secret, String payload) {
+			this.postUrl = postUrl;
+			this.secret = secret;
+			this.payload = payload;
+		}
+
+	}
+
+}
@@ -0,0 +1,108 @@
+package io.onedev.server.notification;
+
+import java.io.Serializable;
+import java.util.Date;
+
+import javax.annotation.Nullable;
+
+/**
+ * Snapshot of web hook delivery metrics of an endpoint
+ */
+public class WebHookDeliveryStatus implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	private final String postUrl;
+
+	private final int queuedDeliveries;
+
+	private final long succeededDeliveries;
+
+	private final long failedDeliveries;
+
+	private final long droppedDeliveries;
+
+	private final long retries;
+
+	private final long averageLatency;
+
+	private final long maxLatency;
+
+	private final String lastError;
+
+	private final Date lastErrorDate;
+
+	public WebHookDeliveryStatus(String postUrl, int queuedDeliveries, long succeededDeliveries,
+			long failedDeliveries, long droppedDeliveries, long retries, long averageLatency,
+			long maxLatency, @Nullable String lastError, @Nullable Date lastErrorDate) {
+		this.postUrl = postUrl;
+		this.queuedDeliveries = queuedDeliveries;
+		this.succeededDeliveries = succeededDeliveries;
+		this.failedDeliveries = failedDeliveries;
+		this.droppedDeliveries = droppedDeliveries;
+		this.retries = retries;
+		this.averageLatency = averageLatency;
+		this.maxLatency = maxLatency;
+		this.lastError = lastError;
+		this.lastErrorDate = lastErrorDate;
+	}
+
+	public String getPostUrl() {
+		return postUrl;
+	}
+
+	/**
+	 * @return
+	 * 			number of deliveries waiting to be sent or retried
+	 */
+	public int getQueuedDeliveries() {
+		return queuedDeliveries;
+	}
+
+	public long getSucceededDeliveries() {
+		return succeededDeliveries;
+	}
+
+	/**
+	 * @return
+	 * 			number of deliveries given up after all retries failed
+	 */
+	public long getFailedDeliveries() {
+		return failedDeliveries;
+	}
+
+	/**
+	 * @return
+	 * 			number of deliveries dropped due to full queue
+	 */
+	public long getDroppedDeliveries() {
+		return droppedDeliveries;
+	}
+
+	public long getRetries() {
+		return retries;
+	}
+
+	/**
+	 * @return
+	 * 			average time in milliseconds from a delivery being queued until it succeeds
+	 */
+	public long getAverageLatency() {
+		return averageLatency;
+	}
+
+	public long getMaxLatency() {
+		return maxLatency;
+	}
+
+	@Nullable
+	public String getLastError() {
+		return lastError;
+	}
+
+	@Nullable
+	public Date getLastErrorDate() {
+		return lastErrorDate;
+	}
+
+}
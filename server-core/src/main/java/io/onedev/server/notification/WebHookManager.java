@@ -1,104 +1,96 @@
 package io.onedev.server.notification;
 
-import java.io.IOException;
+import java.io.File;
+import java.util.Collection;
 import java.util.concurrent.ExecutorService;
 
 import javax.inject.Inject;
 import javax.inject.Singleton;
-import javax.ws.rs.core.HttpHeaders;
-import javax.ws.rs.core.MediaType;
-
-import org.apache.commons.httpclient.HttpStatus;
-import org.apache.http.HttpEntity;
-import org.apache.http.client.methods.CloseableHttpResponse;
-import org.apache.http.client.methods.HttpPost;
-import org.apache.http.entity.StringEntity;
-import org.apache.http.impl.client.CloseableHttpClient;
-import org.apache.http.impl.client.HttpClients;
-import org.apache.http.util.EntityUtils;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
+
+import org.quartz.ScheduleBuilder;
+import org.quartz.SimpleScheduleBuilder;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
+import io.onedev.commons.launcher.bootstrap.Bootstrap;
 import io.onedev.commons.launcher.loader.Listen;
 import io.onedev.server.event.ProjectEvent;
+import io.onedev.server.event.system.SystemStarted;
+import io.onedev.server.event.system.SystemStopping;
 import io.onedev.server.model.support.WebHook;
 import io.onedev.server.persistence.annotation.Sessional;
 import io.onedev.server.util.jackson.RestView;
+import io.onedev.server.util.schedule.SchedulableTask;
+import io.onedev.server.util.schedule.TaskScheduler;
 
 @Singleton
-public class WebHookManager {
+public class WebHookManager implements SchedulableTask {
+
+	private static final int RETRY_CHECK_INTERVAL = 10;
 
-	private static final Logger logger = LoggerFactory.getLogger(WebHookManager.class);
-	
-	private static final String SIGNATURE_HEAD = "X-OneDev-Signature";
-	
 	private final ObjectMapper mapper;
-	
-	private final ExecutorService executor;
+
+	private final TaskScheduler taskScheduler;
+
+	private final WebHookDeliverer deliverer;
+
+	private String taskId;
 
 	@Inject
-	public WebHookManager(ObjectMapper mapper, ExecutorService executor) {
+	public WebHookManager(ObjectMapper mapper, ExecutorService executor, TaskScheduler taskScheduler) {
 		this.mapper = mapper.copy();
 		this.mapper.setConfig(this.mapper.getSerializationConfig().withView(RestView.class));
-		this.executor = executor;
+		this.taskScheduler = taskScheduler;
+		deliverer = new WebHookDeliverer(new File(Bootstrap.getSiteDir(), "webhooks"), executor);
 	}
-	
+
 	@Sessional
 	@Listen
 	public void on(ProjectEvent event) {
-		String jsonOfEvent;
-		try {
-			jsonOfEvent = mapper.writeValueAsString(event);
-		} catch (JsonProcessingException e) {
-			throw new RuntimeException(e);
-		}
+		String jsonOfEvent = null;
 		for (WebHook webHook: event.getProject().getHierarchyWebHooks()) {
 			for (WebHook.EventType eventType: webHook.getEventTypes()) {
 				if (eventType.includes(event)) {
-					executor.submit(new Runnable() {
-
-						@Override
-						public void run() {
-							CloseableHttpClient client = HttpClients.createDefault();
-							try {
-							    HttpPost httpPost = new HttpPost(webHook.getPostUrl());
-							 
-							    StringEntity entity = new StringEntity(jsonOfEvent);
-							    httpPost.setEntity(entity);
-							    httpPost.setHeader(HttpHeaders.ACCEPT, MediaType.APPLICATION_JSON);
-							    httpPost.setHeader(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON);
-							    httpPost.setHeader(SIGNATURE_HEAD, webHook.getSecret());
-							 
-							    CloseableHttpResponse response = client.execute(httpPost);
-							    try {
-							    	HttpEntity responseEntity = response.getEntity();
-							    	String responseText = EntityUtils.toString(responseEntity);
-							    	if (response.getStatusLine().getStatusCode() != HttpStatus.SC_OK)
-							    		logger.error("Error calling web hooks: " + responseText);
-							    } finally {
-							    	try {
-										response.close();
-									} catch (IOException e) {
-									}
-							    }
-							} catch (IOException e) {
-								logger.error("Error calling web hooks", e);
-							} finally {
-								try {
-									client.close();
-								} catch (IOException e) {
-								}
-							}
+					if (jsonOfEvent == null) {
+						try {
+							jsonOfEvent = mapper.writeValueAsString(event);
+						} catch (JsonProcessingException e) {
+							throw new RuntimeException(e);
 						}
-						
-					});
+					}
+					deliverer.deliver(webHook.getPostUrl(), webHook.getSecret(), jsonOfEvent);
 					break;
 				}
 			}
 		}
 	}
-	
+
+	public Collection<WebHookDeliveryStatus> getDeliveryStatuses() {
+		return deliverer.getStatuses();
+	}
+
+	@Override
+	public void execute() {
+		deliverer.retryDue();
+	}
+
+	@Override
+	public ScheduleBuilder<?> getScheduleBuilder() {
+		return SimpleScheduleBuilder.repeatSecondlyForever(RETRY_CHECK_INTERVAL);
+	}
+
+	@Listen
+	public void on(SystemStarted event) {
+		deliverer.start();
+		taskId = taskScheduler.schedule(this);
+	}
+
+	@Listen
+	public void on(SystemStopping event) {
+		if (taskId != null)
+			taskScheduler.unschedule(taskId);
+		deliverer.stop();
+	}
+
 }
@@ -1,5 +1,6 @@
 package io.onedev.server.persistence;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FilenameFilter;
 import java.io.IOException;
@@ -14,8 +15,20 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.EnumSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
 
+import javax.annotation.Nullable;
 import javax.persistence.EntityManagerFactory;
 import javax.persistence.ManyToOne;
 import javax.persistence.criteria.CriteriaBuilder;
@@ -27,6 +40,8 @@ import org.dom4j.DocumentHelper;
 import org.dom4j.Element;
 import org.hibernate.Interceptor;
 import org.hibernate.ReplicationMode;
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
 import org.hibernate.Session;
 import org.hibernate.SessionFactory;
 import org.hibernate.Transaction;
@@ -45,6 +60,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.google.common.base.Preconditions;
+import com.google.common.hash.Hashing;
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
 
@@ -66,6 +82,8 @@ public class DefaultPersistManager implements PersistManager {
 
 	private static final int BACKUP_BATCH_SIZE = 1000;
 	
+	private static final int MAX_EXPORT_THREADS = 4;
+	
 	private static final Logger logger = LoggerFactory.getLogger(DefaultPersistManager.class);
 	
 	protected final PhysicalNamingStrategy physicalNamingStrategy;
@@ -438,6 +456,100 @@ public class DefaultPersistManager implements PersistManager {
 		logger.info("Writing resulting XML to file '" + fileName + "...");
 		dom.writeToFile(new File(exportDir, fileName), true);
 	}
+	
+	@Override
+	public Map<String, String> exportData(ZipOutputStream zip, @Nullable Map<String, String> baseDigests) {
+		Map<String, String> digests = new ConcurrentHashMap<>();
+		int threads = Math.min(Runtime.getRuntime().availableProcessors(), MAX_EXPORT_THREADS);
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			List<Future<?>> futures = new ArrayList<>();
+			for (Class<?> entityType: getEntityTypes(sessionFactory)) {
+				futures.add(executor.submit(new Runnable() {
+
+					@Override
+					public void run() {
+						exportTable(entityType, zip, baseDigests, digests);
+					}
+					
+				}));
+			}
+			for (Future<?> future: futures)
+				future.get();
+		} catch (ExecutionException e) {
+			throw ExceptionUtils.unchecked(e.getCause());
+		} catch (InterruptedException e) {
+			throw new RuntimeException(e);
+		} finally {
+			executor.shutdownNow();
+		}
+		return new TreeMap<>(digests);
+	}
+	
+	/*
+	 * Content of data file should only depend on content of entities, so that digest of the 
+	 * data file does not change if its entities are not changed
+	 */
+	static byte[] toDataFile(List<?> entities) {
+		VersionedDocument dom = new VersionedDocument();
+		Element rootElement = dom.addElement("list");
+		for (Object entity: entities)
+			rootElement.appendContent(VersionedDocument.fromBean(entity));
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		dom.writeToStream(baos, true);
+		return baos.toByteArray();
+	}
+	
+	/*
+	 * Rows are partitioned into data files by fixed id ranges instead of row counts, so that 
+	 * inserting or deleting rows only affects data files covering those rows
+	 */
+	private void exportTable(Class<?> entityType, ZipOutputStream zip, @Nullable Map<String, String> baseDigests, 
+			Map<String, String> digests) {
+		String entityName = entityType.getSimpleName();
+		logger.info("Exporting table '" + entityName + "'...");
+		
+		Session session = sessionFactory.openSession();
+		try {
+			Set<Long> ranges = new TreeSet<>();
+			Query<?> idQuery = session.createQuery("select id from " + entityName);
+			try (ScrollableResults results = idQuery.scroll(ScrollMode.FORWARD_ONLY)) {
+				while (results.next()) 
+					ranges.add(Math.floorDiv(((Number) results.get(0)).longValue(), BACKUP_BATCH_SIZE));
+			}
+			
+			for (long range: ranges) {
+				Query<?> query = session.createQuery("from " + entityName 
+						+ " where id>=:fromId and id<:toId order by id");
+				query.setParameter("fromId", range*BACKUP_BATCH_SIZE);
+				query.setParameter("toId", (range+1)*BACKUP_BATCH_SIZE);
+				
+				byte[] bytes = toDataFile(query.list());
+				// clear session to free memory
+				session.clear();
+				
+				String fileName;
+				if (range == 0)
+					fileName = entityName + "s.xml";
+				else
+					fileName = entityName + "s.xml." + (range + 1);
+				
+				String digest = Hashing.sha256().hashBytes(bytes).toString();
+				digests.put(fileName, digest);
+				if (baseDigests == null || !digest.equals(baseDigests.get(fileName))) {
+					synchronized (zip) {
+						zip.putNextEntry(new ZipEntry(fileName));
+						zip.write(bytes);
+						zip.closeEntry();
+					}
+				}
+			}
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		} finally {
+			session.close();
+		}
+	}
 
 	/*
 	 * We do not use @Transactional annotation and will manage the session and transaction manually 
@@ -1,6 +1,10 @@
 package io.onedev.server.persistence;
 
 import java.io.File;
+import java.util.Map;
+import java.util.zip.ZipOutputStream;
+
+import javax.annotation.Nullable;
 
 import org.hibernate.SessionFactory;
 import org.hibernate.boot.Metadata;
@@ -17,6 +21,23 @@ public interface PersistManager {
 
 	void exportData(File dataDir);
 	
+	/**
+	 * Export data as data files into specified zip stream. Tables are exported concurrently, and 
+	 * rows of each table are partitioned into data files by fixed id ranges, so that a data file 
+	 * always covers the same range of ids across different exports
+	 * 
+	 * @param zip
+	 * 			zip stream to write data files into
+	 * @param baseDigests
+	 * 			map of data file name to digest of its content in a previous export. A data file will 
+	 * 			not be written if its digest is the same as specified here. Pass <tt>null</tt> to 
+	 * 			write all data files
+	 * @return
+	 * 			map of data file name to digest of its content for all exported data files, including 
+	 * 			those not written due to unchanged digest
+	 */
+	Map<String, String> exportData(ZipOutputStream zip, @Nullable Map<String, String> baseDigests);
+	
 	// This method should only be called by a bootstrap action. That is, when the 
 	// server is stopped. So it does not need an exclusive database lock.
 	void importData(Metadata metadata, File dataDir);
@@ -0,0 +1,101 @@
+package io.onedev.server.rest;
+
+import java.io.Serializable;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import javax.ws.rs.Consumes;
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.MediaType;
+
+import org.apache.shiro.authz.UnauthorizedException;
+
+import com.google.common.cache.CacheStats;
+
+import io.onedev.server.infomanager.CommitInfoManager;
+import io.onedev.server.util.SecurityUtils;
+
+@Path("/commit-info")
+@Consumes(MediaType.WILDCARD)
+@Produces(MediaType.APPLICATION_JSON)
+@Singleton
+public class CommitInfoResource {
+
+	private final CommitInfoManager commitInfoManager;
+
+	@Inject
+	public CommitInfoResource(CommitInfoManager commitInfoManager) {
+		this.commitInfoManager = commitInfoManager;
+	}
+
+	@Path("/cache-stats")
+	@GET
+	public Map<String, CacheStatus> getCacheStats() {
+    	if (!SecurityUtils.isAdministrator())
+    		throw new UnauthorizedException("Unauthorized access to commit info cache stats");
+    	Map<String, CacheStatus> cacheStatuses = new LinkedHashMap<>();
+    	for (Map.Entry<String, CacheStats> entry: commitInfoManager.getCacheStats().entrySet())
+    		cacheStatuses.put(entry.getKey(), new CacheStatus(entry.getValue()));
+    	return cacheStatuses;
+	}
+
+	public static class CacheStatus implements Serializable {
+
+		private static final long serialVersionUID = 1L;
+
+		private final long hitCount;
+
+		private final long missCount;
+
+		private final double hitRate;
+
+		private final long evictionCount;
+
+		private final long loadCount;
+
+		private final double averageLoadPenalty;
+
+		public CacheStatus(CacheStats stats) {
+			hitCount = stats.hitCount();
+			missCount = stats.missCount();
+			hitRate = stats.hitRate();
+			evictionCount = stats.evictionCount();
+			loadCount = stats.loadCount();
+			averageLoadPenalty = stats.averageLoadPenalty();
+		}
+
+		public long getHitCount() {
+			return hitCount;
+		}
+
+		public long getMissCount() {
+			return missCount;
+		}
+
+		public double getHitRate() {
+			return hitRate;
+		}
+
+		public long getEvictionCount() {
+			return evictionCount;
+		}
+
+		public long getLoadCount() {
+			return loadCount;
+		}
+
+		/**
+		 * @return
+		 * 			average time spent loading new values in nanoseconds
+		 */
+		public double getAverageLoadPenalty() {
+			return averageLoadPenalty;
+		}
+
+	}
+
+}
@@ -0,0 +1,37 @@
+package io.onedev.server.rest;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import javax.ws.rs.Consumes;
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.MediaType;
+
+import org.apache.shiro.authz.UnauthorizedException;
+
+import io.onedev.server.infomanager.EnvironmentPool;
+import io.onedev.server.infomanager.EnvironmentPoolStatus;
+import io.onedev.server.util.SecurityUtils;
+
+@Path("/environment-pool")
+@Consumes(MediaType.WILDCARD)
+@Produces(MediaType.APPLICATION_JSON)
+@Singleton
+public class EnvironmentPoolResource {
+
+	private final EnvironmentPool environmentPool;
+
+	@Inject
+	public EnvironmentPoolResource(EnvironmentPool environmentPool) {
+		this.environmentPool = environmentPool;
+	}
+
+	@GET
+	public EnvironmentPoolStatus getStatus() {
+    	if (!SecurityUtils.isAdministrator())
+    		throw new UnauthorizedException("Unauthorized access to environment pool status");
+    	return environmentPool.getStatus();
+	}
+
+}
@@ -0,0 +1,40 @@
+package io.onedev.server.rest;
+
+import java.util.Map;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import javax.ws.rs.Consumes;
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.MediaType;
+
+import org.apache.shiro.authz.UnauthorizedException;
+
+import io.onedev.server.buildspec.job.JobCacheManager;
+import io.onedev.server.buildspec.job.JobCacheStatistics;
+import io.onedev.server.util.SecurityUtils;
+
+@Path("/job-caches")
+@Consumes(MediaType.WILDCARD)
+@Produces(MediaType.APPLICATION_JSON)
+@Singleton
+public class JobCacheResource {
+
+	private final JobCacheManager jobCacheManager;
+
+	@Inject
+	public JobCacheResource(JobCacheManager jobCacheManager) {
+		this.jobCacheManager = jobCacheManager;
+	}
+
+	@Path("/statistics")
+	@GET
+	public Map<String, JobCacheStatistics> getStatistics() {
+    	if (!SecurityUtils.isAdministrator())
+    		throw new UnauthorizedException("Unauthorized access to job cache statistics");
+    	return jobCacheManager.getStatistics();
+	}
+
+}
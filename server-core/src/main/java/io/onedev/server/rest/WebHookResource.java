@@ -0,0 +1,40 @@
+package io.onedev.server.rest;
+
+import java.util.Collection;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import javax.ws.rs.Consumes;
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.MediaType;
+
+import org.apache.shiro.authz.UnauthorizedException;
+
+import io.onedev.server.notification.WebHookDeliveryStatus;
+import io.onedev.server.notification.WebHookManager;
+import io.onedev.server.util.SecurityUtils;
+
+@Path("/web-hooks")
+@Consumes(MediaType.WILDCARD)
+@Produces(MediaType.APPLICATION_JSON)
+@Singleton
+public class WebHookResource {
+
+	private final WebHookManager webHookManager;
+
+	@Inject
+	public WebHookResource(WebHookManager webHookManager) {
+		this.webHookManager = webHookManager;
+	}
+
+	@Path("/delivery-statuses")
+	@GET
+	public Collection<WebHookDeliveryStatus> getDeliveryStatuses() {
+    	if (!SecurityUtils.isAdministrator())
+    		throw new UnauthorizedException("Unauthorized access to web hook delivery statuses");
+    	return webHookManager.getDeliveryStatuses();
+	}
+
+}
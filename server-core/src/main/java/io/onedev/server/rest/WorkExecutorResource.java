@@ -0,0 +1,52 @@
+package io.onedev.server.rest;
+
+import java.util.Collection;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import javax.ws.rs.Consumes;
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.MediaType;
+
+import org.apache.shiro.authz.UnauthorizedException;
+
+import io.onedev.server.util.SecurityUtils;
+import io.onedev.server.util.work.BatchWorkManager;
+import io.onedev.server.util.work.BatchWorkStatus;
+import io.onedev.server.util.work.WorkExecutor;
+import io.onedev.server.util.work.WorkExecutorStatus;
+
+@Path("/work-executor")
+@Consumes(MediaType.WILDCARD)
+@Produces(MediaType.APPLICATION_JSON)
+@Singleton
+public class WorkExecutorResource {
+
+	private final WorkExecutor workExecutor;
+
+	private final BatchWorkManager batchWorkManager;
+
+	@Inject
+	public WorkExecutorResource(WorkExecutor workExecutor, BatchWorkManager batchWorkManager) {
+		this.workExecutor = workExecutor;
+		this.batchWorkManager = batchWorkManager;
+	}
+
+	@GET
+	public WorkExecutorStatus getStatus() {
+    	if (!SecurityUtils.isAdministrator())
+    		throw new UnauthorizedException("Unauthorized access to work executor status");
+    	return workExecutor.getStatus();
+	}
+
+	@Path("/batch-works")
+	@GET
+	public Collection<BatchWorkStatus> getBatchWorkStatuses() {
+    	if (!SecurityUtils.isAdministrator())
+    		throw new UnauthorizedException("Unauthorized access to batch work statuses");
+    	return batchWorkManager.getStatuses();
+	}
+
+}
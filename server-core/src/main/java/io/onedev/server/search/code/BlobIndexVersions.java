@@ -0,0 +1,207 @@
+package io.onedev.server.search.code;
+
+import static io.onedev.server.search.code.FieldConstants.BLOB_HASH;
+import static io.onedev.server.search.code.FieldConstants.BLOB_INDEX_VERSION;
+import static io.onedev.server.search.code.FieldConstants.BLOB_PATH;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Nullable;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.BinaryDocValues;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.PostingsEnum;
+import org.apache.lucene.index.SortedDocValues;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.BytesRef;
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+
+import com.google.common.collect.Sets;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+/**
+ * Index versions of all blobs in a code index, loaded with a single pass over terms and doc values
+ * of each segment instead of searching the index for each blob.
+ *
+ * Entries are kept in an off-heap open addressing hash table keyed by blob id and 64 bit hash of
+ * blob path. Each slot takes {@link #SLOT_SIZE} bytes: raw blob id, path hash and version ordinal
+ * plus one (zero marks an empty slot). Instances are not thread safe.
+ */
+class BlobIndexVersions {
+
+	private static final HashFunction PATH_HASH = Hashing.murmur3_128();
+
+	private static final int PATH_HASH_OFFSET = Constants.OBJECT_ID_LENGTH;
+
+	private static final int VERSION_OFFSET = PATH_HASH_OFFSET + Long.BYTES;
+
+	private static final int SLOT_SIZE = VERSION_OFFSET + Integer.BYTES;
+
+	private final List<String> versions = new ArrayList<>();
+
+	private final ByteBuffer slots;
+
+	private final int mask;
+
+	private final byte[] idBuffer = new byte[Constants.OBJECT_ID_LENGTH];
+
+	private int size;
+
+	private BlobIndexVersions(int expectedSize) {
+		int capacity = Integer.highestOneBit(Math.max(expectedSize, 1) * 2 - 1) << 1;
+		slots = ByteBuffer.allocateDirect(capacity * SLOT_SIZE);
+		mask = capacity - 1;
+	}
+
+	public static BlobIndexVersions load(IndexReader reader) throws IOException {
+		BlobIndexVersions blobIndexVersions = new BlobIndexVersions(reader.numDocs());
+		Map<String, Integer> versionOrdinals = new HashMap<>();
+		for (LeafReaderContext context: reader.leaves())
+			blobIndexVersions.load(context.reader(), versionOrdinals);
+		return blobIndexVersions;
+	}
+
+	private void load(LeafReader reader, Map<String, Integer> versionOrdinals) throws IOException {
+		Terms terms = reader.terms(BLOB_HASH.name());
+		if (terms == null)
+			return;
+
+		int maxDoc = reader.maxDoc();
+		Bits liveDocs = reader.getLiveDocs();
+		byte[] blobIds = new byte[maxDoc * Constants.OBJECT_ID_LENGTH];
+		BitSet blobDocs = new BitSet(maxDoc);
+
+		TermsEnum termsEnum = terms.iterator();
+		PostingsEnum postingsEnum = null;
+		BytesRef term;
+		while ((term = termsEnum.next()) != null) {
+			ObjectId blobId = ObjectId.fromString(term.utf8ToString());
+			postingsEnum = termsEnum.postings(postingsEnum, PostingsEnum.NONE);
+			int doc;
+			while ((doc = postingsEnum.nextDoc()) != DocIdSetIterator.NO_MORE_DOCS) {
+				if (liveDocs == null || liveDocs.get(doc)) {
+					blobId.copyRawTo(blobIds, doc * Constants.OBJECT_ID_LENGTH);
+					blobDocs.set(doc);
+				}
+			}
+		}
+
+		BinaryDocValues pathValues = reader.getBinaryDocValues(BLOB_PATH.name());
+		SortedDocValues versionValues = reader.getSortedDocValues(BLOB_INDEX_VERSION.name());
+		Map<Integer, Integer> segmentOrdinals = new HashMap<>();
+		for (int doc = blobDocs.nextSetBit(0); doc >= 0; doc = blobDocs.nextSetBit(doc+1)) {
+			if (pathValues == null || !pathValues.advanceExact(doc))
+				continue;
+			BytesRef path = pathValues.binaryValue();
+			long pathHash = PATH_HASH.hashBytes(path.bytes, path.offset, path.length).asLong();
+
+			Integer ordinal;
+			if (versionValues != null && versionValues.advanceExact(doc)) {
+				int segmentOrdinal = versionValues.ordValue();
+				ordinal = segmentOrdinals.get(segmentOrdinal);
+				if (ordinal == null) {
+					ordinal = getOrdinal(versionOrdinals, versionValues.lookupOrd(segmentOrdinal).utf8ToString());
+					segmentOrdinals.put(segmentOrdinal, ordinal);
+				}
+			} else {
+				// Documents indexed before version doc values is introduced
+				Document document = reader.document(doc, Sets.newHashSet(BLOB_INDEX_VERSION.name()));
+				String version = document.get(BLOB_INDEX_VERSION.name());
+				if (version == null)
+					continue;
+				ordinal = getOrdinal(versionOrdinals, version);
+			}
+			System.arraycopy(blobIds, doc * Constants.OBJECT_ID_LENGTH, idBuffer, 0, idBuffer.length);
+			put(idBuffer, pathHash, ordinal);
+		}
+	}
+
+	private int getOrdinal(Map<String, Integer> versionOrdinals, String version) {
+		Integer ordinal = versionOrdinals.get(version);
+		if (ordinal == null) {
+			ordinal = versions.size();
+			versions.add(version);
+			versionOrdinals.put(version, ordinal);
+		}
+		return ordinal;
+	}
+
+	private int hash(byte[] blobId, long pathHash) {
+		// object id is already uniformly distributed
+		int hash = (blobId[0] & 0xff) << 24 | (blobId[1] & 0xff) << 16 | (blobId[2] & 0xff) << 8 | (blobId[3] & 0xff);
+		return (int) (hash ^ pathHash ^ (pathHash >>> 32));
+	}
+
+	private boolean matches(int slot, byte[] blobId, long pathHash) {
+		int base = slot * SLOT_SIZE;
+		if (slots.getLong(base + PATH_HASH_OFFSET) != pathHash)
+			return false;
+		for (int i=0; i<blobId.length; i++) {
+			if (slots.get(base + i) != blobId[i])
+				return false;
+		}
+		return true;
+	}
+
+	private void put(byte[] blobId, long pathHash, int ordinal) {
+		int slot = hash(blobId, pathHash) & mask;
+		while (true) {
+			int base = slot * SLOT_SIZE;
+			if (slots.getInt(base + VERSION_OFFSET) == 0) {
+				for (int i=0; i<blobId.length; i++)
+					slots.put(base + i, blobId[i]);
+				slots.putLong(base + PATH_HASH_OFFSET, pathHash);
+				slots.putInt(base + VERSION_OFFSET, ordinal + 1);
+				size++;
+				return;
+			} else if (matches(slot, blobId, pathHash)) {
+				slots.putInt(base + VERSION_OFFSET, ordinal + 1);
+				return;
+			}
+			slot = (slot + 1) & mask;
+		}
+	}
+
+	/**
+	 * Get index version of specified blob
+	 *
+	 * @return
+	 * 			index version of specified blob, or <tt>null</tt> if blob is not indexed
+	 */
+	@Nullable
+	public String get(AnyObjectId blobId, String blobPath) {
+		blobId.copyRawTo(idBuffer, 0);
+		byte[] pathBytes = blobPath.getBytes(StandardCharsets.UTF_8);
+		long pathHash = PATH_HASH.hashBytes(pathBytes).asLong();
+		int slot = hash(idBuffer, pathHash) & mask;
+		while (true) {
+			int ordinal = slots.getInt(slot * SLOT_SIZE + VERSION_OFFSET);
+			if (ordinal == 0)
+				return null;
+			else if (matches(slot, idBuffer, pathHash))
+				return versions.get(ordinal - 1);
+			slot = (slot + 1) & mask;
+		}
+	}
+
+	public int size() {
+		return size;
+	}
+
+}
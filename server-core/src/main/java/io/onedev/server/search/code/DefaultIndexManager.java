@@ -2,6 +2,7 @@ package io.onedev.server.search.code;
 
 import static io.onedev.server.search.code.FieldConstants.BLOB_HASH;
 import static io.onedev.server.search.code.FieldConstants.BLOB_INDEX_VERSION;
+import static io.onedev.server.search.code.FieldConstants.BLOB_LINE_OFFSETS;
 import static io.onedev.server.search.code.FieldConstants.BLOB_NAME;
 import static io.onedev.server.search.code.FieldConstants.BLOB_PATH;
 import static io.onedev.server.search.code.FieldConstants.BLOB_PRIMARY_SYMBOLS;
@@ -21,10 +22,20 @@ import java.io.File;
 import java.io.IOException;
 import java.io.Serializable;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicReference;
 
+import javax.annotation.Nullable;
 import javax.inject.Inject;
 import javax.inject.Singleton;
 
@@ -33,6 +44,7 @@ import org.apache.commons.lang.SerializationUtils;
 import org.apache.lucene.document.BinaryDocValuesField;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.document.Field.Store;
+import org.apache.lucene.document.SortedDocValuesField;
 import org.apache.lucene.document.StoredField;
 import org.apache.lucene.document.StringField;
 import org.apache.lucene.document.TextField;
@@ -43,6 +55,7 @@ import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.index.IndexWriterConfig;
 import org.apache.lucene.index.IndexWriterConfig.OpenMode;
 import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.SegmentInfos;
 import org.apache.lucene.search.BooleanClause.Occur;
 import org.apache.lucene.search.BooleanQuery;
 import org.apache.lucene.search.IndexSearcher;
@@ -96,7 +109,14 @@ public class DefaultIndexManager implements IndexManager {
 	
 	private static final int BACKEND_INDEXING_PRIORITY = 50;
 	
-	private static final int DATA_VERSION = 5;
+	private static final int DATA_VERSION = 6;
+	
+	// Load versions of all indexed blobs in bulk when number of checked blobs exceeds this value
+	private static final int BULK_VERSION_CHECK_THRESHOLD = 1000;
+	
+	private static final int INDEXING_THREADS = Runtime.getRuntime().availableProcessors();
+	
+	private static final int INDEXING_QUEUE_SIZE = INDEXING_THREADS * 16;
 	
 	private final StorageManager storageManager;
 	
@@ -108,14 +128,21 @@ public class DefaultIndexManager implements IndexManager {
 	
 	private final ListenerRegistry listenerRegistry;
 	
+	private final ExecutorService executorService;
+	
+	private final IndexSearcherManager indexSearcherManager;
+	
 	@Inject
 	public DefaultIndexManager(ListenerRegistry listenerRegistry, StorageManager storageManager, 
-			BatchWorkManager batchWorkManager, SessionManager sessionManager, ProjectManager projectManager) {
+			BatchWorkManager batchWorkManager, SessionManager sessionManager, ProjectManager projectManager, 
+			ExecutorService executorService, IndexSearcherManager indexSearcherManager) {
 		this.listenerRegistry = listenerRegistry;
 		this.storageManager = storageManager;
 		this.batchWorkManager = batchWorkManager;
 		this.sessionManager = sessionManager;
 		this.projectManager = projectManager;
+		this.executorService = executorService;
+		this.indexSearcherManager = indexSearcherManager;
 	}
 
 	private String getCommitIndexVersion(final IndexSearcher searcher, AnyObjectId commitId) throws IOException {
@@ -146,6 +173,7 @@ public class DefaultIndexManager implements IndexManager {
 	
 	private IndexResult index(Repository repository, AnyObjectId commitId, 
 			IndexWriter writer, final IndexSearcher searcher) throws Exception {
+		IndexPipeline pipeline = new IndexPipeline(repository, writer);
 		try (	RevWalk revWalk = new RevWalk(repository); 
 				TreeWalk treeWalk = new TreeWalk(repository)) {
 			treeWalk.addTree(revWalk.parseCommit(commitId).getTree());
@@ -169,6 +197,7 @@ public class DefaultIndexManager implements IndexManager {
 	
 			int indexed = 0;
 			int checked = 0;
+			BlobIndexVersions blobIndexVersions = null;
 			while (treeWalk.next()) {
 				if ((treeWalk.getRawMode(0) & FileMode.TYPE_MASK) == FileMode.TYPE_FILE 
 						&& (treeWalk.getTreeCount() == 1 || !treeWalk.idEqual(0, 1))) {
@@ -183,26 +212,34 @@ public class DefaultIndexManager implements IndexManager {
 					
 					final AtomicReference<String> blobIndexVersionRef = new AtomicReference<>(null);
 					if (searcher != null) {
-						searcher.search(query, new SimpleCollector() {
-	
-							private LeafReaderContext context;
-	
-							@Override
-							public void collect(int doc) throws IOException {
-								blobIndexVersionRef.set(searcher.doc(context.docBase+doc).get(BLOB_INDEX_VERSION.name()));
-							}
-	
-							@Override
-							protected void doSetNextReader(LeafReaderContext context) throws IOException {
-								this.context = context;
-							}
-	
-							@Override
-							public boolean needsScores() {
-								return false;
-							}
-							
-						});
+						if (blobIndexVersions == null && checked >= BULK_VERSION_CHECK_THRESHOLD) {
+							blobIndexVersions = BlobIndexVersions.load(searcher.getIndexReader());
+							logger.debug("Loaded index versions of {} blobs", blobIndexVersions.size());
+						}
+						if (blobIndexVersions != null) {
+							blobIndexVersionRef.set(blobIndexVersions.get(blobId, blobPath));
+						} else {
+							searcher.search(query, new SimpleCollector() {
+		
+								private LeafReaderContext context;
+		
+								@Override
+								public void collect(int doc) throws IOException {
+									blobIndexVersionRef.set(searcher.doc(context.docBase+doc).get(BLOB_INDEX_VERSION.name()));
+								}
+		
+								@Override
+								protected void doSetNextReader(LeafReaderContext context) throws IOException {
+									this.context = context;
+								}
+		
+								@Override
+								public boolean needsScores() {
+									return false;
+								}
+								
+							});
+						}
 						checked++;
 					}
 	
@@ -212,15 +249,16 @@ public class DefaultIndexManager implements IndexManager {
 					if (blobIndexVersion != null) {
 						if (!blobIndexVersion.equals(currentBlobIndexVersion)) {
 							writer.deleteDocuments(query);
-							indexBlob(writer, repository, extractor, blobId, blobPath);
+							pipeline.submit(new BlobToIndex(extractor, blobId, blobPath));
 							indexed++;
 						}
 					} else {
-						indexBlob(writer, repository, extractor, blobId, blobPath);
+						pipeline.submit(new BlobToIndex(extractor, blobId, blobPath));
 						indexed++;
 					}
 				}
 			}
+			pipeline.finish();
 	
 			// record current commit so that we know which commit has been indexed
 			Document document = new Document();
@@ -236,6 +274,8 @@ public class DefaultIndexManager implements IndexManager {
 			writer.updateDocument(META.term(LAST_COMMIT.name()), document);
 			
 			return new IndexResult(checked, indexed);
+		} finally {
+			pipeline.abort();
 		}
 	}
 	
@@ -243,8 +283,10 @@ public class DefaultIndexManager implements IndexManager {
 			SymbolExtractor<Symbol> extractor, ObjectId blobId, String blobPath) throws IOException {
 		Document document = new Document();
 		
-		document.add(new StoredField(BLOB_INDEX_VERSION.name(), getIndexVersion(extractor)));
-		document.add(new StringField(BLOB_HASH.name(), blobId.name(), Store.NO));
+		String blobIndexVersion = getIndexVersion(extractor);
+		document.add(new StoredField(BLOB_INDEX_VERSION.name(), blobIndexVersion));
+		document.add(new SortedDocValuesField(BLOB_INDEX_VERSION.name(), new BytesRef(blobIndexVersion)));
+		document.add(new StringField(BLOB_HASH.name(), blobId.name(), Store.YES));
 		document.add(new StringField(BLOB_PATH.name(), blobPath, Store.NO));
 		document.add(new BinaryDocValuesField(BLOB_PATH.name(), new BytesRef(blobPath.getBytes(StandardCharsets.UTF_8))));
 		
@@ -260,6 +302,7 @@ public class DefaultIndexManager implements IndexManager {
 			String content = ContentDetector.convertToText(bytes, blobName);
 			if (content != null) {
 				document.add(new TextField(BLOB_TEXT.name(), content, Store.NO));
+				document.add(new StoredField(BLOB_LINE_OFFSETS.name(), LineOffsets.encode(content)));
 				
 				if (extractor != null) {
 					List<Symbol> symbols = null;
@@ -297,7 +340,7 @@ public class DefaultIndexManager implements IndexManager {
 	}
 	
 	private BatchWorker getBatchWorker(Long projectId) {
-		return new BatchWorker("project-" + projectId + "-indexBlob", 1) {
+		return new BatchWorker("project-" + projectId + "-indexBlob", "project-" + projectId, 1) {
 
 			@Override
 			public void doWorks(Collection<Prioritized> works) {
@@ -311,6 +354,8 @@ public class DefaultIndexManager implements IndexManager {
 						ObjectId commitId = ((IndexWork) works.iterator().next()).getCommitId();
 						doIndex(project, commitId);
 						
+						// Refresh searcher before notifying, so that listeners see the indexed commit
+						indexSearcherManager.refresh(projectId);
 						listenerRegistry.post(new CommitIndexed(project, commitId.copy()));
 					}
 					
@@ -339,6 +384,11 @@ public class DefaultIndexManager implements IndexManager {
 	}
 	
 	private IndexResult doIndex(Project project, ObjectId commit) {
+		if (isIndexed(project, commit))
+			return new IndexResult(0, 0);
+		
+		// Use a fresh reader instead of the shared searcher to check indexed blobs, as the shared 
+		// searcher is refreshed asynchronously and may not reflect last indexing yet
 		try (Directory directory = FSDirectory.open(storageManager.getProjectIndexDir(project.getId()).toPath())) {
 			if (DirectoryReader.indexExists(directory)) {
 				try (IndexReader reader = DirectoryReader.open(directory)) {
@@ -373,19 +423,7 @@ public class DefaultIndexManager implements IndexManager {
 
 	@Override
 	public boolean isIndexed(Project project, ObjectId commit) {
-		File indexDir = storageManager.getProjectIndexDir(project.getId());
-		try (Directory directory = FSDirectory.open(indexDir.toPath())) {
-			if (DirectoryReader.indexExists(directory)) {
-				try (IndexReader reader = DirectoryReader.open(directory)) {
-					IndexSearcher searcher = new IndexSearcher(reader);
-					return getIndexVersion().equals(getCommitIndexVersion(searcher, commit));
-				}
-			} else {
-				return false;
-			}
-		} catch (IOException e) {
-			throw new RuntimeException(e);
-		}
+		return getIndexVersion().equals(indexSearcherManager.getCommitIndexVersion(project.getId(), commit));
 	}
 
 	@Sessional
@@ -407,7 +445,10 @@ public class DefaultIndexManager implements IndexManager {
 			if (indexDir.exists()) {
 				try (Directory directory = FSDirectory.open(indexDir.toPath())) {
 					if (DirectoryReader.indexExists(directory)) {
-						try (IndexReader reader = DirectoryReader.open(directory)) {
+						// Only read segment infos to check index format, the index will be opened 
+						// on demand when searched
+						try {
+							SegmentInfos.readLatestCommit(directory);
 						} catch (IndexFormatTooOldException e) {
 							FileUtils.cleanDir(indexDir);
 						}
@@ -431,6 +472,76 @@ public class DefaultIndexManager implements IndexManager {
 		batchWorkManager.submit(getBatchWorker(project.getId()), work);
 	}
 	
+	private static class BlobToIndex {
+		
+		final SymbolExtractor<Symbol> extractor;
+		
+		final ObjectId blobId;
+		
+		final String blobPath;
+		
+		BlobToIndex(@Nullable SymbolExtractor<Symbol> extractor, ObjectId blobId, String blobPath) {
+			this.extractor = extractor;
+			this.blobId = blobId;
+			this.blobPath = blobPath;
+		}
+		
+	}
+	
+	/*
+	 * Index blobs fed by the tree walker with multiple threads. Blob loading, text conversion and 
+	 * symbol extraction dominate indexing time, and IndexWriter accepts concurrent additions 
+	 */
+	private class IndexPipeline {
+		
+		private final BlockingQueue<Optional<BlobToIndex>> queue = new ArrayBlockingQueue<>(INDEXING_QUEUE_SIZE);
+		
+		private final List<Future<?>> workers = new ArrayList<>();
+		
+		IndexPipeline(Repository repository, IndexWriter writer) {
+			for (int i=0; i<INDEXING_THREADS; i++) {
+				workers.add(executorService.submit(new Callable<Void>() {
+
+					@Override
+					public Void call() throws Exception {
+						Optional<BlobToIndex> blob;
+						while ((blob = queue.take()).isPresent()) 
+							indexBlob(writer, repository, blob.get().extractor, blob.get().blobId, blob.get().blobPath);
+						return null;
+					}
+					
+				}));
+			}
+		}
+		
+		private void offer(Optional<BlobToIndex> blob) throws InterruptedException, ExecutionException {
+			while (!queue.offer(blob, 1, TimeUnit.SECONDS)) {
+				// Make sure workers are still alive to consume the queue
+				for (Future<?> worker: workers) {
+					if (worker.isDone())
+						worker.get();
+				}
+			}
+		}
+		
+		void submit(BlobToIndex blob) throws InterruptedException, ExecutionException {
+			offer(Optional.of(blob));
+		}
+		
+		void finish() throws InterruptedException, ExecutionException {
+			for (int i=0; i<workers.size(); i++)
+				offer(Optional.empty());
+			for (Future<?> worker: workers)
+				worker.get();
+		}
+		
+		void abort() {
+			for (Future<?> worker: workers)
+				worker.cancel(true);
+		}
+		
+	}
+	
 	private static class IndexWork extends Prioritized {
 
 		private final ObjectId commitId;
@@ -0,0 +1,373 @@
+package io.onedev.server.search.code;
+
+import static io.onedev.server.search.code.FieldConstants.COMMIT_HASH;
+import static io.onedev.server.search.code.FieldConstants.COMMIT_INDEX_VERSION;
+
+import java.io.IOException;
+import java.nio.channels.ClosedByInterruptException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+import javax.annotation.Nullable;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.PostingsEnum;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.SearcherFactory;
+import org.apache.lucene.search.SearcherManager;
+import org.apache.lucene.store.AlreadyClosedException;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.MMapDirectory;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.BytesRef;
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.collect.Sets;
+
+import io.onedev.commons.launcher.loader.Listen;
+import io.onedev.commons.utils.ExceptionUtils;
+import io.onedev.server.event.entity.EntityRemoved;
+import io.onedev.server.event.system.SystemStopping;
+import io.onedev.server.model.Project;
+import io.onedev.server.storage.StorageManager;
+
+@Singleton
+public class DefaultIndexSearcherManager implements IndexSearcherManager {
+
+	private static final Logger logger = LoggerFactory.getLogger(DefaultIndexSearcherManager.class);
+
+	private static final int MAX_OPEN_SEARCHERS = 100;
+
+	private final StorageManager storageManager;
+
+	private final ExecutorService executorService;
+
+	/*
+	 * Searcher managers are opened and warmed outside of any global lock, so that opening index 
+	 * of one project does not block searches of other projects. Concurrent requests of the same 
+	 * project wait for the same future 
+	 */
+	private final Map<Long, Future<OpenedIndex>> searcherManagers = new ConcurrentHashMap<>();
+	
+	// Access ordered to close searchers of least recently used projects
+	private final Map<Long, OpenedIndex> openedSearcherManagers = new LinkedHashMap<Long, OpenedIndex>(16, 0.75f, true) {
+
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Long, OpenedIndex> eldest) {
+			if (size() > MAX_OPEN_SEARCHERS) {
+				searcherManagers.remove(eldest.getKey());
+				close(eldest.getValue());
+				return true;
+			} else {
+				return false;
+			}
+		}
+
+	};
+
+	@Inject
+	public DefaultIndexSearcherManager(StorageManager storageManager, ExecutorService executorService) {
+		this.storageManager = storageManager;
+		this.executorService = executorService;
+	}
+
+	@Nullable
+	private OpenedIndex openSearcherManager(Long projectId) throws IOException {
+		Directory directory = new MMapDirectory(storageManager.getProjectIndexDir(projectId).toPath());
+		boolean opened = false;
+		try {
+			if (DirectoryReader.indexExists(directory)) {
+				OpenedIndex openedIndex = new OpenedIndex(directory, 
+						new SearcherManager(directory, new WarmingSearcherFactory()));
+				opened = true;
+				return openedIndex;
+			} else {
+				return null;
+			}
+		} finally {
+			if (!opened)
+				directory.close();
+		}
+	}
+	
+	@Nullable
+	private SearcherManager getSearcherManager(Long projectId) throws InterruptedException {
+		while (true) {
+			Future<OpenedIndex> future = searcherManagers.get(projectId);
+			boolean opening = false;
+			if (future == null) {
+				FutureTask<OpenedIndex> task = new FutureTask<>(new Callable<OpenedIndex>() {
+
+					@Override
+					public OpenedIndex call() throws Exception {
+						return openSearcherManager(projectId);
+					}
+					
+				});
+				future = searcherManagers.putIfAbsent(projectId, task);
+				if (future == null) {
+					future = task;
+					opening = true;
+					task.run();
+				}
+			}
+			
+			OpenedIndex openedIndex;
+			try {
+				openedIndex = future.get();
+			} catch (ExecutionException e) {
+				searcherManagers.remove(projectId, future);
+				if (e.getCause() instanceof ClosedByInterruptException) {
+					// catch this exception and convert to normal InterruptedException as
+					// we do not want to throw the original exception to surprise the user
+					// when they searches by typing fast (and subsequent typing will cancel
+					// search of previous typing by interrupting previous search thread
+					// which may creating the searcher manager if it does not exist yet. 
+					// Threads waiting for the interrupted thread simply try again
+					if (opening)
+						throw new InterruptedException();
+					else
+						continue;
+				} else {
+					throw ExceptionUtils.unchecked(e.getCause());
+				}
+			}
+			
+			if (openedIndex != null) {
+				synchronized (openedSearcherManagers) {
+					if (searcherManagers.get(projectId) == future) {
+						openedSearcherManagers.put(projectId, openedIndex);
+						return openedIndex.searcherManager;
+					} 
+				}
+				// Project removed or searcher evicted while opening, discard and try again 
+				if (opening)
+					close(openedIndex);
+			} else {
+				// Index not created yet, do not remember so that it can be opened once created
+				searcherManagers.remove(projectId, future);
+				return null;
+			}
+		}
+	}
+
+	@Override
+	public IndexSearcher acquire(Long projectId) throws InterruptedException {
+		while (true) {
+			SearcherManager searcherManager = getSearcherManager(projectId);
+			if (searcherManager != null) {
+				try {
+					return searcherManager.acquire();
+				} catch (AlreadyClosedException e) {
+					// evicted by other projects after we get it, just open again
+				} catch (IOException e) {
+					throw ExceptionUtils.unchecked(e);
+				}
+			} else {
+				return null;
+			}
+		}
+	}
+
+	@Override
+	public void release(IndexSearcher searcher) {
+		// Searcher reference is held by its reader, so this works even if the searcher
+		// manager is closed after the searcher is acquired
+		try {
+			searcher.getIndexReader().decRef();
+		} catch (IOException e) {
+			throw ExceptionUtils.unchecked(e);
+		}
+	}
+
+	@Override
+	public String getCommitIndexVersion(Long projectId, AnyObjectId commitId) {
+		try {
+			IndexSearcher searcher = acquire(projectId);
+			if (searcher != null) {
+				try {
+					return ((WarmedSearcher) searcher).commitIndexVersions.get(commitId.name());
+				} finally {
+					release(searcher);
+				}
+			} else {
+				return null;
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(e);
+		}
+	}
+
+	@Override
+	public void refresh(Long projectId) {
+		if (searcherManagers.containsKey(projectId)) {
+			// Wait for searcher being opened, as it may be opened before index changes
+			try {
+				SearcherManager searcherManager = getSearcherManager(projectId);
+				if (searcherManager != null)
+					searcherManager.maybeRefreshBlocking();
+			} catch (AlreadyClosedException e) {
+				// evicted or project removed meanwhile, will be opened again on next acquire
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new RuntimeException(e);
+			} catch (IOException e) {
+				throw ExceptionUtils.unchecked(e);
+			}
+		} else {
+			refreshAsync(projectId);
+		}
+	}
+	
+	@Override
+	public void refreshAsync(Long projectId) {
+		executorService.execute(new Runnable() {
+
+			@Override
+			public void run() {
+				try {
+					OpenedIndex openedIndex;
+					synchronized (openedSearcherManagers) {
+						openedIndex = openedSearcherManagers.get(projectId);
+					}
+					if (openedIndex != null)
+						openedIndex.searcherManager.maybeRefreshBlocking();
+					else
+						getSearcherManager(projectId);
+				} catch (AlreadyClosedException e) {
+					// evicted or project removed meanwhile
+				} catch (Exception e) {
+					logger.error("Error refreshing index searcher (project id: " + projectId + ")", e);
+				}
+			}
+
+		});
+	}
+
+	private void close(OpenedIndex openedIndex) {
+		try {
+			try {
+				openedIndex.searcherManager.close();
+			} finally {
+				openedIndex.directory.close();
+			}
+		} catch (IOException e) {
+			throw ExceptionUtils.unchecked(e);
+		}
+	}
+
+	@Listen
+	public void on(EntityRemoved event) {
+		if (event.getEntity() instanceof Project) {
+			Long projectId = event.getEntity().getId();
+			searcherManagers.remove(projectId);
+			synchronized (openedSearcherManagers) {
+				OpenedIndex openedIndex = openedSearcherManagers.remove(projectId);
+				if (openedIndex != null)
+					close(openedIndex);
+			}
+		}
+	}
+
+	@Listen
+	public void on(SystemStopping event) {
+		searcherManagers.clear();
+		synchronized (openedSearcherManagers) {
+			Collection<OpenedIndex> values = new ArrayList<>(openedSearcherManagers.values());
+			openedSearcherManagers.clear();
+			for (OpenedIndex openedIndex: values)
+				close(openedIndex);
+		}
+	}
+
+	/*
+	 * Searcher manager does not close its directory, so keep them together to close both
+	 */
+	private static class OpenedIndex {
+		
+		final Directory directory;
+		
+		final SearcherManager searcherManager;
+		
+		OpenedIndex(Directory directory, SearcherManager searcherManager) {
+			this.directory = directory;
+			this.searcherManager = searcherManager;
+		}
+		
+	}
+
+	private static class WarmedSearcher extends IndexSearcher {
+
+		// Map of indexed commit hash to index version
+		private final Map<String, String> commitIndexVersions;
+
+		public WarmedSearcher(IndexReader reader) throws IOException {
+			super(reader);
+
+			Map<String, String> commitIndexVersions = new HashMap<>();
+			for (LeafReaderContext context: reader.leaves()) {
+				LeafReader leafReader = context.reader();
+				Terms terms = leafReader.terms(COMMIT_HASH.name());
+				if (terms != null) {
+					Bits liveDocs = leafReader.getLiveDocs();
+					TermsEnum termsEnum = terms.iterator();
+					PostingsEnum postingsEnum = null;
+					BytesRef term;
+					while ((term = termsEnum.next()) != null) {
+						postingsEnum = termsEnum.postings(postingsEnum, PostingsEnum.NONE);
+						int doc;
+						while ((doc = postingsEnum.nextDoc()) != DocIdSetIterator.NO_MORE_DOCS) {
+							if (liveDocs == null || liveDocs.get(doc)) {
+								Document document = leafReader.document(doc, Sets.newHashSet(COMMIT_INDEX_VERSION.name()));
+								String indexVersion = document.get(COMMIT_INDEX_VERSION.name());
+								if (indexVersion != null)
+									commitIndexVersions.put(term.utf8ToString(), indexVersion);
+							}
+						}
+					}
+				}
+			}
+			this.commitIndexVersions = Collections.unmodifiableMap(commitIndexVersions);
+		}
+
+	}
+
+	/**
+	 * Searchers are created when the index is opened or refreshed, before they are published
+	 * to readers. Indexed commits are loaded here so that checking whether a commit is indexed
+	 * does not need to search the index
+	 */
+	private static class WarmingSearcherFactory extends SearcherFactory {
+
+		@Override
+		public IndexSearcher newSearcher(IndexReader reader, IndexReader previousReader) throws IOException {
+			return new WarmedSearcher(reader);
+		}
+
+	}
+
+}
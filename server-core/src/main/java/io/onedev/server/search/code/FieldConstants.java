@@ -5,7 +5,7 @@ import org.apache.lucene.search.TermQuery;
 
 public enum FieldConstants {
 	BLOB_INDEX_VERSION, BLOB_HASH, BLOB_PATH, BLOB_NAME, BLOB_SYMBOL_LIST, 
-	BLOB_PRIMARY_SYMBOLS, BLOB_SECONDARY_SYMBOLS, BLOB_TEXT, COMMIT_INDEX_VERSION, COMMIT_HASH, 
+	BLOB_PRIMARY_SYMBOLS, BLOB_SECONDARY_SYMBOLS, BLOB_TEXT, BLOB_LINE_OFFSETS, COMMIT_INDEX_VERSION, COMMIT_HASH, 
 	META, LAST_COMMIT, LAST_COMMIT_HASH, LAST_COMMIT_INDEX_VERSION;
 	
 	public TermQuery query(String value) {
@@ -0,0 +1,48 @@
+package io.onedev.server.search.code;
+
+import javax.annotation.Nullable;
+
+import org.apache.lucene.search.IndexSearcher;
+import org.eclipse.jgit.lib.AnyObjectId;
+
+/**
+ * Manage searchers of project code indexes. Searchers are shared across requests and kept open
+ * for recently used projects.
+ */
+public interface IndexSearcherManager {
+
+	/**
+	 * Acquire searcher of code index of specified project. Acquired searcher should be released
+	 * with {@link #release(IndexSearcher)} after use
+	 *
+	 * @return
+	 * 			searcher of the project index, or <tt>null</tt> if project is not indexed yet
+	 * @throws InterruptedException
+	 * 			if current thread is interrupted while opening the index
+	 */
+	@Nullable
+	IndexSearcher acquire(Long projectId) throws InterruptedException;
+
+	void release(IndexSearcher searcher);
+
+	/**
+	 * @return
+	 * 			index version of specified commit, or <tt>null</tt> if the commit is not indexed
+	 */
+	@Nullable
+	String getCommitIndexVersion(Long projectId, AnyObjectId commitId);
+
+	/**
+	 * Refresh searcher of specified project to reflect index changes. Searcher being opened or 
+	 * already opened is refreshed before this method returns, so that subsequent searches and
+	 * index checks see the changes. Searcher not opened yet is opened in background
+	 */
+	void refresh(Long projectId);
+	
+	/**
+	 * Refresh searcher of specified project in background to reflect index changes, so that
+	 * subsequent searches do not need to wait for the index to be opened and warmed
+	 */
+	void refreshAsync(Long projectId);
+
+}
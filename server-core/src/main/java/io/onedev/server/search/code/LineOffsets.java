@@ -0,0 +1,83 @@
+package io.onedev.server.search.code;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+
+import org.apache.lucene.util.BytesRef;
+
+/**
+ * Start offsets of lines of indexed blob text, stored along with the blob document so that
+ * positions of n-grams can be mapped to line numbers without reading the blob. Offsets are
+ * measured in code points to be consistent with positions generated by the n-gram tokenizer,
+ * and are stored as variable length deltas.
+ */
+public class LineOffsets {
+
+	private final int[] offsets;
+
+	private LineOffsets(int[] offsets) {
+		this.offsets = offsets;
+	}
+
+	public static byte[] encode(String content) {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		int lineStart = 0;
+		int offset = 0;
+		for (int i=0; i<content.length(); ) {
+			int codePoint = content.codePointAt(i);
+			i += Character.charCount(codePoint);
+			offset++;
+			if (codePoint == '\n') {
+				writeVInt(baos, offset - lineStart);
+				lineStart = offset;
+			}
+		}
+		return baos.toByteArray();
+	}
+
+	public static LineOffsets decode(BytesRef bytes) {
+		int[] offsets = new int[16];
+		int count = 1;
+		int pos = bytes.offset;
+		int end = bytes.offset + bytes.length;
+		while (pos < end) {
+			int delta = 0;
+			int shift = 0;
+			byte b;
+			do {
+				b = bytes.bytes[pos++];
+				delta |= (b & 0x7f) << shift;
+				shift += 7;
+			} while (b < 0);
+			if (count == offsets.length)
+				offsets = Arrays.copyOf(offsets, count*2);
+			offsets[count] = offsets[count-1] + delta;
+			count++;
+		}
+		return new LineOffsets(Arrays.copyOf(offsets, count));
+	}
+
+	private static void writeVInt(ByteArrayOutputStream baos, int value) {
+		while ((value & ~0x7f) != 0) {
+			baos.write((value & 0x7f) | 0x80);
+			value >>>= 7;
+		}
+		baos.write(value);
+	}
+
+	/**
+	 * @return
+	 * 			number of the line containing specified code point offset, zero based
+	 */
+	public int getLineNo(int offset) {
+		int index = Arrays.binarySearch(offsets, offset);
+		if (index < 0)
+			index = -index - 2;
+		return index;
+	}
+
+	public int getLineCount() {
+		return offsets.length;
+	}
+
+}
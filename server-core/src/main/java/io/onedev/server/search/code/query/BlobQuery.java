@@ -6,6 +6,7 @@ import java.util.List;
 
 import javax.annotation.Nullable;
 
+import org.apache.lucene.index.LeafReaderContext;
 import org.apache.lucene.search.BooleanClause.Occur;
 import org.apache.lucene.search.BooleanQuery;
 import org.apache.lucene.search.IndexSearcher;
@@ -37,6 +38,24 @@ public abstract class BlobQuery {
 
 	public abstract void collect(IndexSearcher searcher, TreeWalk treeWalk, List<QueryHit> hits);
 
+	/**
+	 * Collect hits of specified matching document. Queries may override this to make use of 
+	 * information stored in the index document, instead of reading the whole blob
+	 * 
+	 * @param context
+	 * 			leaf reader context of the matching document
+	 * @param doc
+	 * 			id of the matching document inside the leaf reader
+	 * @param treeWalk
+	 * 			tree walk positioned at blob of the searching commit with path of the matching 
+	 * 			document. Note that blob of this tree walk might be different from the blob 
+	 * 			indexed by the document 
+	 */
+	public void collect(IndexSearcher searcher, LeafReaderContext context, int doc, TreeWalk treeWalk, 
+			List<QueryHit> hits) {
+		collect(searcher, treeWalk, hits);
+	}
+
 	/**
 	 * Get lucene query representation of this query
 	 * 
@@ -1,31 +1,48 @@
 package io.onedev.server.search.code.query;
 
+import static io.onedev.server.search.code.FieldConstants.BLOB_HASH;
+import static io.onedev.server.search.code.FieldConstants.BLOB_LINE_OFFSETS;
 import static io.onedev.server.search.code.FieldConstants.BLOB_NAME;
 import static io.onedev.server.search.code.FieldConstants.BLOB_TEXT;
 import static io.onedev.server.search.code.IndexConstants.NGRAM_SIZE;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
 import java.util.List;
+import java.util.SortedSet;
+import java.util.TreeSet;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import javax.annotation.Nullable;
 
 import org.apache.commons.lang3.CharUtils;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.PostingsEnum;
 import org.apache.lucene.index.Term;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
 import org.apache.lucene.search.BooleanClause.Occur;
 import org.apache.lucene.search.BooleanQuery;
 import org.apache.lucene.search.IndexSearcher;
 import org.apache.lucene.search.WildcardQuery;
+import org.apache.lucene.util.BytesRef;
+import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.lib.ObjectLoader;
 import org.eclipse.jgit.treewalk.TreeWalk;
 
 import com.google.common.base.Preconditions;
 import com.google.common.base.Splitter;
+import com.google.common.collect.Sets;
 
 import io.onedev.commons.utils.LinearRange;
 import io.onedev.commons.utils.PlanarRange;
 import io.onedev.server.search.code.IndexConstants;
+import io.onedev.server.search.code.LineOffsets;
 import io.onedev.server.search.code.hit.QueryHit;
 import io.onedev.server.search.code.hit.TextHit;
 import io.onedev.server.search.code.query.regex.RegexLiterals;
@@ -82,89 +99,194 @@ public class TextQuery extends BlobQuery {
 	
 	@Override
 	public void collect(IndexSearcher searcher, TreeWalk treeWalk, List<QueryHit> hits) {
-		ObjectLoader objectLoader;
+		String content = readContent(treeWalk);
+		if (content != null) {
+			String blobPath = treeWalk.getPathString();
+			int lineNo = 0;
+			for (String line: Splitter.on('\n').split(content)) {
+				collect(blobPath, line, lineNo++, hits);
+				if (hits.size() >= getCount())
+					break;
+			}
+		}
+	}
+	
+	@Override
+	public void collect(IndexSearcher searcher, LeafReaderContext context, int doc, TreeWalk treeWalk,
+			List<QueryHit> hits) {
+		SortedSet<Integer> lineNos;
 		try {
-			objectLoader = treeWalk.getObjectReader().open(treeWalk.getObjectId(0));
-			if (objectLoader.getSize() <= IndexConstants.MAX_INDEXABLE_SIZE) {
-				String blobPath = treeWalk.getPathString();
-				String content = ContentDetector.convertToText(objectLoader.getCachedBytes(), blobPath);
+			lineNos = getCandidateLineNos(context.reader(), doc, treeWalk.getObjectId(0));
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+		if (lineNos != null) {
+			if (!lineNos.isEmpty()) {
+				String content = readContent(treeWalk);
 				if (content != null) {
-					Pattern pattern = getPattern();
-					if (pattern != null) {
-						int lineNo = 0;
-						for (String line: Splitter.on('\n').split(content)) {
-							if (line.length() <= MAX_LINE_LEN) {
-								Matcher matcher = pattern.matcher(line);
-								while (matcher.find()) {
-									LinearRange range = new LinearRange(matcher.start(), matcher.end());
-									PlanarRange position = new PlanarRange(lineNo, range.getFrom(), lineNo, range.getTo());
-									hits.add(new TextHit(blobPath, line, position));
-									if (hits.size() >= getCount())
-										break;
-								}
-								if (hits.size() >= getCount())
-									break;
-							}
-							lineNo++;
+					String blobPath = treeWalk.getPathString();
+					Iterator<Integer> itLineNo = lineNos.iterator();
+					int nextLineNo = itLineNo.next();
+					int lineNo = 0;
+					for (String line: Splitter.on('\n').split(content)) {
+						if (lineNo == nextLineNo) {
+							collect(blobPath, line, lineNo, hits);
+							if (hits.size() >= getCount() || !itLineNo.hasNext())
+								break;
+							nextLineNo = itLineNo.next();
 						}
-					} else {
-						String normalizedTerm;
-						if (!caseSensitive)
-							normalizedTerm = term.toLowerCase();
+						lineNo++;
+					}
+				}
+			}
+		} else {
+			collect(searcher, treeWalk, hits);
+		}
+	}
+	
+	/**
+	 * Locate lines possibly containing the literal term with n-gram positions of specified 
+	 * document. Only grams covering the whole term are checked, and matched lines are verified 
+	 * later against blob content for case sensitivity and word boundary.
+	 * 
+	 * @return
+	 * 			numbers of candidate lines, or <tt>null</tt> if positions can not be used for 
+	 * 			this query or document
+	 */
+	@Nullable
+	private SortedSet<Integer> getCandidateLineNos(LeafReader reader, int doc, ObjectId blobId) 
+			throws IOException {
+		if (regex || term.length() < NGRAM_SIZE || term.indexOf('\n') != -1 
+				|| term.codePointCount(0, term.length()) != term.length()) {
+			return null;
+		}
+		
+		Document document = reader.document(doc, Sets.newHashSet(BLOB_HASH.name(), BLOB_LINE_OFFSETS.name()));
+		BytesRef lineOffsetsBytes = document.getBinaryValue(BLOB_LINE_OFFSETS.name());
+		
+		// Document may be indexed before line offsets are stored, or for another revision of the blob
+		if (lineOffsetsBytes == null || !blobId.name().equals(document.get(BLOB_HASH.name())))
+			return null;
+		
+		Terms terms = reader.terms(BLOB_TEXT.name());
+		if (terms == null)
+			return null;
+		
+		// Lower case each char the same way as the n-gram analyzer
+		char[] normalizedChars = new char[term.length()];
+		for (int i=0; i<normalizedChars.length; i++)
+			normalizedChars[i] = Character.toLowerCase(term.charAt(i));
+		String normalizedTerm = new String(normalizedChars);
+		
+		int gramCount = normalizedTerm.length() - NGRAM_SIZE + 1;
+		List<Integer> gramIndexes = new ArrayList<>();
+		for (int i=0; i<gramCount; i+=NGRAM_SIZE)
+			gramIndexes.add(i);
+		if (gramIndexes.get(gramIndexes.size()-1) != gramCount-1)
+			gramIndexes.add(gramCount-1);
+		
+		SortedSet<Integer> lineNos = new TreeSet<>();
+		
+		TermsEnum termsEnum = terms.iterator();
+		PostingsEnum postingsEnum = null;
+		int[][] gramPositions = new int[gramIndexes.size()][];
+		for (int i=0; i<gramIndexes.size(); i++) {
+			int gramIndex = gramIndexes.get(i);
+			if (!termsEnum.seekExact(new BytesRef(normalizedTerm.substring(gramIndex, gramIndex+NGRAM_SIZE))))
+				return lineNos;
+			postingsEnum = termsEnum.postings(postingsEnum, PostingsEnum.POSITIONS);
+			if (postingsEnum.advance(doc) != doc)
+				return lineNos;
+			int[] positions = new int[postingsEnum.freq()];
+			for (int j=0; j<positions.length; j++)
+				positions[j] = postingsEnum.nextPosition();
+			gramPositions[i] = positions;
+		}
+		
+		LineOffsets lineOffsets = LineOffsets.decode(lineOffsetsBytes);
+		for (int position: gramPositions[0]) {
+			boolean matches = true;
+			for (int i=1; i<gramPositions.length; i++) {
+				if (Arrays.binarySearch(gramPositions[i], position + gramIndexes.get(i)) < 0) {
+					matches = false;
+					break;
+				}
+			}
+			if (matches)
+				lineNos.add(lineOffsets.getLineNo(position));
+		}
+		return lineNos;
+	}
+	
+	@Nullable
+	private String readContent(TreeWalk treeWalk) {
+		try {
+			ObjectLoader objectLoader = treeWalk.getObjectReader().open(treeWalk.getObjectId(0));
+			if (objectLoader.getSize() <= IndexConstants.MAX_INDEXABLE_SIZE)
+				return ContentDetector.convertToText(objectLoader.getCachedBytes(), treeWalk.getPathString());
+			else
+				return null;
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+	
+	private void collect(String blobPath, String line, int lineNo, List<QueryHit> hits) {
+		if (line.length() <= MAX_LINE_LEN) {
+			Pattern pattern = getPattern();
+			if (pattern != null) {
+				Matcher matcher = pattern.matcher(line);
+				while (matcher.find()) {
+					LinearRange range = new LinearRange(matcher.start(), matcher.end());
+					PlanarRange position = new PlanarRange(lineNo, range.getFrom(), lineNo, range.getTo());
+					hits.add(new TextHit(blobPath, line, position));
+					if (hits.size() >= getCount())
+						break;
+				}
+			} else {
+				String normalizedTerm;
+				String normalizedLine;
+				if (!caseSensitive) {
+					normalizedTerm = term.toLowerCase();
+					normalizedLine = line.toLowerCase();
+				} else {
+					normalizedTerm = term;
+					normalizedLine = line;
+				}
+				
+				int start = normalizedLine.indexOf(normalizedTerm, 0);
+				while (start != -1) {
+					int end = start + normalizedTerm.length();
+					if (wholeWord) {
+						char beforeChar;
+						if (start == 0)
+							beforeChar = ' ';
+						else 
+							beforeChar = line.charAt(start-1);
+						
+						char afterChar;
+						if (end == line.length())
+							afterChar = ' ';
 						else
-							normalizedTerm = term;
+							afterChar = line.charAt(end);
 						
-						int lineNo = 0;
-						for (String line: Splitter.on('\n').split(content)) {
-							if (line.length() <= MAX_LINE_LEN) {
-								String normalizedLine;
-								if (!caseSensitive)
-									normalizedLine = line.toLowerCase();
-								else
-									normalizedLine = line;
-								
-								int start = normalizedLine.indexOf(normalizedTerm, 0);
-								while (start != -1) {
-									int end = start + normalizedTerm.length();
-									if (wholeWord) {
-										char beforeChar;
-										if (start == 0)
-											beforeChar = ' ';
-										else 
-											beforeChar = line.charAt(start-1);
-										
-										char afterChar;
-										if (end == line.length())
-											afterChar = ' ';
-										else
-											afterChar = line.charAt(end);
-										
-										if (!isWordChar(beforeChar) && !isWordChar(afterChar)) {
-											LinearRange range = new LinearRange(start, end);
-											PlanarRange position = new PlanarRange(lineNo, range.getFrom(), lineNo, range.getTo());
-											hits.add(new TextHit(blobPath, line, position));
-											if (hits.size() >= getCount())
-												break;
-										}
-									} else {
-										LinearRange range = new LinearRange(start, end);
-										PlanarRange position = new PlanarRange(lineNo, range.getFrom(), lineNo, range.getTo());
-										hits.add(new TextHit(blobPath, line, position));
-										if (hits.size() >= getCount())
-											break;
-									}
-									start = normalizedLine.indexOf(normalizedTerm, end);
-								}
-								if (hits.size() >= getCount())
-									break;
-							}
-							lineNo++;
+						if (!isWordChar(beforeChar) && !isWordChar(afterChar)) {
+							LinearRange range = new LinearRange(start, end);
+							PlanarRange position = new PlanarRange(lineNo, range.getFrom(), lineNo, range.getTo());
+							hits.add(new TextHit(blobPath, line, position));
+							if (hits.size() >= getCount())
+								break;
 						}
+					} else {
+						LinearRange range = new LinearRange(start, end);
+						PlanarRange position = new PlanarRange(lineNo, range.getFrom(), lineNo, range.getTo());
+						hits.add(new TextHit(blobPath, line, position));
+						if (hits.size() >= getCount())
+							break;
 					}
+					start = normalizedLine.indexOf(normalizedTerm, end);
 				}
 			}
-		} catch (IOException e) {
-			throw new RuntimeException(e);
 		}
 	}
 
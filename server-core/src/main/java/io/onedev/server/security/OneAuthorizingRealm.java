@@ -2,11 +2,12 @@ package io.onedev.server.security;
 
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.annotation.Nullable;
 import javax.inject.Inject;
@@ -22,14 +23,13 @@ import org.apache.shiro.authz.AuthorizationInfo;
 import org.apache.shiro.authz.Permission;
 import org.apache.shiro.realm.AuthorizingRealm;
 import org.apache.shiro.subject.PrincipalCollection;
-import org.apache.wicket.MetaDataKey;
-import org.apache.wicket.request.cycle.RequestCycle;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.google.common.collect.Sets;
 
 import io.onedev.commons.launcher.loader.AppLoader;
+import io.onedev.commons.launcher.loader.Listen;
 import io.onedev.commons.utils.ExceptionUtils;
 import io.onedev.commons.utils.StringUtils;
 import io.onedev.server.OneDev;
@@ -38,11 +38,16 @@ import io.onedev.server.entitymanager.MembershipManager;
 import io.onedev.server.entitymanager.ProjectManager;
 import io.onedev.server.entitymanager.SettingManager;
 import io.onedev.server.entitymanager.UserManager;
+import io.onedev.server.event.entity.EntityEvent;
+import io.onedev.server.event.entity.EntityPersisted;
+import io.onedev.server.event.entity.EntityRemoved;
 import io.onedev.server.issue.fieldspec.FieldSpec;
 import io.onedev.server.model.Group;
 import io.onedev.server.model.GroupAuthorization;
 import io.onedev.server.model.Membership;
 import io.onedev.server.model.Project;
+import io.onedev.server.model.Role;
+import io.onedev.server.model.Setting;
 import io.onedev.server.model.User;
 import io.onedev.server.model.UserAuthorization;
 import io.onedev.server.model.support.administration.authenticator.Authenticated;
@@ -78,9 +83,11 @@ public class OneAuthorizingRealm extends AuthorizingRealm {
     
     private final TransactionManager transactionManager;
     
-    @SuppressWarnings("serial")
-	private final MetaDataKey<Map<Long, AuthorizationInfo>> authorizationInfosKey = 
-			new MetaDataKey<Map<Long, AuthorizationInfo>>() {};    
+    // Authorization infos of users, with user id 0 for anonymous user
+    private final Map<Long, AuthorizationInfo> authorizationInfos = new ConcurrentHashMap<>();
+    
+    // Increased whenever cached authorization infos are invalidated
+    private final AtomicLong authorizationVersion = new AtomicLong(0);
     
 	@Inject
     public OneAuthorizingRealm(UserManager userManager, SettingManager configManager, 
@@ -122,10 +129,10 @@ public class OneAuthorizingRealm extends AuthorizingRealm {
 	}
 	
 	private AuthorizationInfo newAuthorizationInfo(Long userId) {
-		Collection<Permission> permissions = sessionManager.call(new Callable<Collection<Permission>>() {
+		return sessionManager.call(new Callable<AuthorizationInfo>() {
 
 			@Override
-			public Collection<Permission> call() throws Exception {
+			public AuthorizationInfo call() throws Exception {
 				Collection<Permission> permissions = new ArrayList<>();
 
 				User user = null;
@@ -144,51 +151,77 @@ public class OneAuthorizingRealm extends AuthorizingRealm {
 	        	Group group = groupManager.findAnonymous();
 	        	if (group != null)
 	           		permissions.addAll(getGroupPermissions(group, user));
-				return permissions;
+	        	
+	        	// Expand roles while session is still open, so that result can be cached
+				return new PermissionSnapshot(permissions, user != null);
 			}
 			
 		});
-		
-		return new AuthorizationInfo() {
+	}
+	
+	@Override
+	protected AuthorizationInfo doGetAuthorizationInfo(PrincipalCollection principals) {
+		Long userId = (Long) principals.getPrimaryPrincipal();						
+		AuthorizationInfo authorizationInfo = authorizationInfos.get(userId);
+		if (authorizationInfo == null) {
+			long version = authorizationVersion.get();
+			authorizationInfo = newAuthorizationInfo(userId);
+			authorizationInfos.put(userId, authorizationInfo);
 			
-			private static final long serialVersionUID = 1L;
+			/*
+			 * Do not keep the result if it is invalidated while being calculated, as it 
+			 * might be calculated from outdated data
+			 */
+			if (authorizationVersion.get() != version)
+				authorizationInfos.remove(userId, authorizationInfo);
+		}
+		return authorizationInfo;
+	}
+	
+	private void invalidateAuthorizationInfos(@Nullable Long userId) {
+		authorizationVersion.incrementAndGet();
+		if (userId != null)
+			authorizationInfos.remove(userId);
+		else
+			authorizationInfos.clear();
+	}
+	
+	private void onAuthorizationChange(EntityEvent event) {
+		Long userId;
+		if (event.getEntity() instanceof Membership) 
+			userId = ((Membership) event.getEntity()).getUser().getId();
+		else if (event.getEntity() instanceof UserAuthorization) 
+			userId = ((UserAuthorization) event.getEntity()).getUser().getId();
+		else if (event.getEntity() instanceof User) 
+			userId = event.getEntity().getId();
+		else if (event.getEntity() instanceof GroupAuthorization || event.getEntity() instanceof Group
+				|| event.getEntity() instanceof Role || event.getEntity() instanceof Project
+				|| event.getEntity() instanceof Setting) 
+			userId = null;
+		else 
+			return;
+		
+		invalidateAuthorizationInfos(userId);
+		
+		// Invalidate again in case authorization infos are calculated before change is committed
+		transactionManager.runAfterCommit(new Runnable() {
 
 			@Override
-			public Collection<String> getStringPermissions() {
-				return new HashSet<>();
+			public void run() {
+				invalidateAuthorizationInfos(userId);
 			}
 			
-			@Override
-			public Collection<String> getRoles() {
-				return new HashSet<>();
-			}
-			
-			@Override
-			public Collection<Permission> getObjectPermissions() {
-				return permissions;
-			}
-		};		
+		});
 	}
 	
-	@Override
-	protected AuthorizationInfo doGetAuthorizationInfo(PrincipalCollection principals) {
-		Long userId = (Long) principals.getPrimaryPrincipal();						
-		RequestCycle requestCycle = RequestCycle.get();
-		if (requestCycle != null) {
-			Map<Long, AuthorizationInfo> authorizationInfos = requestCycle.getMetaData(authorizationInfosKey);
-			if (authorizationInfos == null) {
-				authorizationInfos = new HashMap<>();
-				requestCycle.setMetaData(authorizationInfosKey, authorizationInfos);
-			}
-			AuthorizationInfo authorizationInfo = authorizationInfos.get(userId);
-			if (authorizationInfo == null) {
-				authorizationInfo = newAuthorizationInfo(userId);
-				authorizationInfos.put(userId, authorizationInfo);
-			}
-			return authorizationInfo;
-		} else {
-			return newAuthorizationInfo(userId);
-		}
+	@Listen
+	public void on(EntityPersisted event) {
+		onAuthorizationChange(event);
+	}
+	
+	@Listen
+	public void on(EntityRemoved event) {
+		onAuthorizationChange(event);
 	}
 	
 	@Override
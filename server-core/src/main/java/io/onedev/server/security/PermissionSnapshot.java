@@ -0,0 +1,147 @@
+package io.onedev.server.security;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+
+import org.apache.shiro.authz.AuthorizationInfo;
+import org.apache.shiro.authz.Permission;
+
+import io.onedev.server.model.Role;
+import io.onedev.server.security.permission.AccessProject;
+import io.onedev.server.security.permission.ManageBuilds;
+import io.onedev.server.security.permission.ManageCodeComments;
+import io.onedev.server.security.permission.ManageIssues;
+import io.onedev.server.security.permission.ManageProject;
+import io.onedev.server.security.permission.ManagePullRequests;
+import io.onedev.server.security.permission.ProjectPermission;
+import io.onedev.server.security.permission.ReadCode;
+import io.onedev.server.security.permission.ScheduleIssues;
+import io.onedev.server.security.permission.WriteCode;
+
+/**
+ * Authorization info detached from persistence session, so that it can be cached across requests.
+ * Project permissions are indexed by project id, and commonly checked project privileges are
+ * precomputed as a bitset of each project
+ *
+ * @author robin
+ *
+ */
+class PermissionSnapshot implements AuthorizationInfo {
+
+	private static final long serialVersionUID = 1L;
+
+	private static final Permission[] INDEXED_PRIVILEGES = new Permission[] {
+			new AccessProject(), new ReadCode(), new WriteCode(), new ManageProject(),
+			new ManageIssues(), new ScheduleIssues(), new ManagePullRequests(),
+			new ManageCodeComments(), new ManageBuilds()};
+
+	private final Collection<Permission> permissions = new ArrayList<>();
+
+	private final Map<Long, ProjectPrivileges> projectPrivileges = new HashMap<>();
+
+	/**
+	 * Construct permission snapshot. This should be called inside a persistence session as
+	 * roles of project permissions will be expanded
+	 *
+	 * @param permissions
+	 * 			permissions to take snapshot of
+	 * @param authenticated
+	 * 			whether or not permissions are granted to an authenticated user
+	 */
+	public PermissionSnapshot(Collection<Permission> permissions, boolean authenticated) {
+		for (Permission permission: permissions) {
+			if (permission instanceof ProjectPermission) {
+				ProjectPermission projectPermission = (ProjectPermission) permission;
+				Long projectId = projectPermission.getProject().getId();
+				ProjectPrivileges privileges = projectPrivileges.get(projectId);
+				if (privileges == null) {
+					privileges = new ProjectPrivileges();
+					projectPrivileges.put(projectId, privileges);
+				}
+				Permission privilege = projectPermission.getPrivilege();
+				if (privilege instanceof Role)
+					privileges.addAll(((Role) privilege).getPermissions(authenticated));
+				else
+					privileges.add(privilege);
+			} else {
+				this.permissions.add(permission);
+			}
+		}
+		this.permissions.add(new Permission() {
+
+			@Override
+			public boolean implies(Permission p) {
+				if (p instanceof ProjectPermission) {
+					ProjectPermission projectPermission = (ProjectPermission) p;
+					Long projectId = projectPermission.getProject().getId();
+					ProjectPrivileges privileges = projectId!=null?projectPrivileges.get(projectId):null;
+					return privileges != null && privileges.implies(projectPermission.getPrivilege());
+				} else {
+					return false;
+				}
+			}
+
+		});
+	}
+
+	private static int getPrivilegeIndex(Permission privilege) {
+		for (int i=0; i<INDEXED_PRIVILEGES.length; i++) {
+			if (INDEXED_PRIVILEGES[i].getClass() == privilege.getClass())
+				return i;
+		}
+		return -1;
+	}
+
+	@Override
+	public Collection<String> getRoles() {
+		return new HashSet<>();
+	}
+
+	@Override
+	public Collection<String> getStringPermissions() {
+		return new HashSet<>();
+	}
+
+	@Override
+	public Collection<Permission> getObjectPermissions() {
+		return permissions;
+	}
+
+	private static class ProjectPrivileges {
+
+		private final Collection<Permission> privileges = new ArrayList<>();
+
+		private int indexedPrivileges;
+
+		void add(Permission privilege) {
+			privileges.add(privilege);
+			for (int i=0; i<INDEXED_PRIVILEGES.length; i++) {
+				if (privilege.implies(INDEXED_PRIVILEGES[i]))
+					indexedPrivileges |= 1<<i;
+			}
+		}
+
+		void addAll(Collection<Permission> privileges) {
+			for (Permission privilege: privileges)
+				add(privilege);
+		}
+
+		boolean implies(Permission privilege) {
+			int index = getPrivilegeIndex(privilege);
+			if (index != -1) {
+				return (indexedPrivileges & 1<<index) != 0;
+			} else {
+				for (Permission each: privileges) {
+					if (each.implies(privilege))
+						return true;
+				}
+				return false;
+			}
+		}
+
+	}
+
+}
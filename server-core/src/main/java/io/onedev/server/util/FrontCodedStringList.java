@@ -0,0 +1,154 @@
+package io.onedev.server.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.RandomAccess;
+
+/**
+ * An immutable list of strings stored with front coding. Strings are grouped into blocks, and
+ * except the first string of a block, each string only stores the suffix not shared with its
+ * previous string. This saves a lot of memory for lists with adjacent strings sharing long
+ * prefixes, for instance a sorted list of file paths.
+ *
+ * Strings are decoded on access, so iterate the list instead of calling {@link #get(int)}
+ * repeatedly if all strings need to be accessed.
+ */
+public class FrontCodedStringList extends AbstractList<String> implements RandomAccess, Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	private static final int BLOCK_SIZE = 16;
+
+	private final byte[] data;
+
+	private final int[] blockOffsets;
+
+	private final int size;
+
+	public FrontCodedStringList(List<String> strings) {
+		size = strings.size();
+		blockOffsets = new int[(size+BLOCK_SIZE-1)/BLOCK_SIZE];
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] prevBytes = new byte[0];
+		for (int i=0; i<size; i++) {
+			byte[] bytes = strings.get(i).getBytes(StandardCharsets.UTF_8);
+			int prefixLength;
+			if (i % BLOCK_SIZE == 0) {
+				blockOffsets[i/BLOCK_SIZE] = out.size();
+				prefixLength = 0;
+			} else {
+				prefixLength = 0;
+				int maxPrefixLength = Math.min(prevBytes.length, bytes.length);
+				while (prefixLength < maxPrefixLength && prevBytes[prefixLength] == bytes[prefixLength])
+					prefixLength++;
+				writeVInt(out, prefixLength);
+			}
+			writeVInt(out, bytes.length - prefixLength);
+			out.write(bytes, prefixLength, bytes.length - prefixLength);
+			prevBytes = bytes;
+		}
+		data = out.toByteArray();
+	}
+
+	private static void writeVInt(ByteArrayOutputStream out, int value) {
+		while ((value & ~0x7F) != 0) {
+			out.write((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		out.write(value);
+	}
+
+	@Override
+	public String get(int index) {
+		if (index < 0 || index >= size)
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+		Decoder decoder = new Decoder(index/BLOCK_SIZE*BLOCK_SIZE);
+		String string = decoder.next();
+		for (int i=0; i<index%BLOCK_SIZE; i++)
+			string = decoder.next();
+		return string;
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public Iterator<String> iterator() {
+		return new Iterator<String>() {
+
+			private final Decoder decoder = new Decoder(0);
+
+			@Override
+			public boolean hasNext() {
+				return decoder.index < size;
+			}
+
+			@Override
+			public String next() {
+				if (!hasNext())
+					throw new NoSuchElementException();
+				return decoder.next();
+			}
+
+		};
+	}
+
+	/**
+	 * @return
+	 * 			approximate memory consumed by this list in bytes
+	 */
+	public int getWeight() {
+		return data.length + blockOffsets.length*Integer.BYTES + 64;
+	}
+
+	private class Decoder {
+
+		private int index;
+
+		private int pos;
+
+		private byte[] buffer = new byte[64];
+
+		private int length;
+
+		Decoder(int index) {
+			this.index = index;
+			if (index < size)
+				pos = blockOffsets[index/BLOCK_SIZE];
+		}
+
+		private int readVInt() {
+			int value = 0;
+			int shift = 0;
+			byte b;
+			do {
+				b = data[pos++];
+				value |= (b & 0x7F) << shift;
+				shift += 7;
+			} while ((b & 0x80) != 0);
+			return value;
+		}
+
+		String next() {
+			int prefixLength = index % BLOCK_SIZE != 0? readVInt(): 0;
+			int suffixLength = readVInt();
+			length = prefixLength + suffixLength;
+			if (length > buffer.length)
+				buffer = Arrays.copyOf(buffer, Math.max(length, buffer.length*2));
+			System.arraycopy(data, pos, buffer, prefixLength, suffixLength);
+			pos += suffixLength;
+			index++;
+			return new String(buffer, 0, length, StandardCharsets.UTF_8);
+		}
+
+	}
+
+}
@@ -0,0 +1,114 @@
+package io.onedev.server.util.facade;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * In-memory index of build facades, grouped by project and then by commit hash, so that
+ * builds of a project or of some commits can be found without scanning builds of all
+ * projects. Build ids are kept as primitive arrays instead of facade objects to reduce
+ * memory footprint. Each project is guarded by its own lock so that updating builds of
+ * one project does not block queries of other projects
+ *
+ * @author robin
+ *
+ */
+public class BuildFacadeIndex {
+
+	private static final long[] NO_IDS = new long[0];
+
+	private final Map<Long, ProjectBuilds> projectBuilds = new ConcurrentHashMap<>();
+
+	public void add(BuildFacade build) {
+		ProjectBuilds builds = projectBuilds.computeIfAbsent(build.getProjectId(), key -> new ProjectBuilds());
+		builds.lock.writeLock().lock();
+		try {
+			long[] ids = builds.ids.getOrDefault(build.getCommitHash(), NO_IDS);
+			long id = build.getId();
+			for (long each: ids) {
+				if (each == id)
+					return;
+			}
+			long[] newIds = Arrays.copyOf(ids, ids.length+1);
+			newIds[ids.length] = id;
+			builds.ids.put(build.getCommitHash(), newIds);
+		} finally {
+			builds.lock.writeLock().unlock();
+		}
+	}
+
+	public void remove(BuildFacade build) {
+		ProjectBuilds builds = projectBuilds.get(build.getProjectId());
+		if (builds != null) {
+			builds.lock.writeLock().lock();
+			try {
+				long[] ids = builds.ids.get(build.getCommitHash());
+				if (ids != null) {
+					long[] newIds = Arrays.stream(ids).filter(it -> it != build.getId()).toArray();
+					if (newIds.length != 0)
+						builds.ids.put(build.getCommitHash(), newIds);
+					else
+						builds.ids.remove(build.getCommitHash());
+				}
+			} finally {
+				builds.lock.writeLock().unlock();
+			}
+		}
+	}
+
+	public void removeProject(Long projectId) {
+		projectBuilds.remove(projectId);
+	}
+
+	public Collection<Long> getIds(Long projectId) {
+		Collection<Long> buildIds = new HashSet<>();
+		ProjectBuilds builds = projectBuilds.get(projectId);
+		if (builds != null) {
+			builds.lock.readLock().lock();
+			try {
+				for (long[] ids: builds.ids.values()) {
+					for (long id: ids)
+						buildIds.add(id);
+				}
+			} finally {
+				builds.lock.readLock().unlock();
+			}
+		}
+		return buildIds;
+	}
+
+	public Collection<Long> getIds(Long projectId, Collection<String> commitHashes) {
+		Collection<Long> buildIds = new HashSet<>();
+		ProjectBuilds builds = projectBuilds.get(projectId);
+		if (builds != null) {
+			builds.lock.readLock().lock();
+			try {
+				for (String commitHash: commitHashes) {
+					long[] ids = builds.ids.get(commitHash);
+					if (ids != null) {
+						for (long id: ids)
+							buildIds.add(id);
+					}
+				}
+			} finally {
+				builds.lock.readLock().unlock();
+			}
+		}
+		return buildIds;
+	}
+
+	private static class ProjectBuilds {
+
+		final Map<String, long[]> ids = new HashMap<>();
+
+		final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+	}
+
+}
@@ -1,9 +1,17 @@
 package io.onedev.server.util.work;
 
+import java.util.Collection;
+
 import io.onedev.server.util.concurrent.Prioritized;
 
 public interface BatchWorkManager {
 
 	void submit(BatchWorker worker, Prioritized work);
 
+	/**
+	 * @return
+	 * 			statuses of batch workers having queued or running works
+	 */
+	Collection<BatchWorkStatus> getStatuses();
+
 }
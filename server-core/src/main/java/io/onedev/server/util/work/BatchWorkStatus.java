@@ -0,0 +1,92 @@
+package io.onedev.server.util.work;
+
+import java.io.Serializable;
+
+import javax.annotation.Nullable;
+
+public class BatchWorkStatus implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	private final String workerId;
+
+	private final String group;
+
+	private final int queuedWorks;
+
+	private final boolean running;
+
+	private final long longestWaitTime;
+
+	private final long dispatchedWorks;
+
+	private final long totalWaitTime;
+
+	public BatchWorkStatus(String workerId, @Nullable String group, int queuedWorks, boolean running,
+			long longestWaitTime, long dispatchedWorks, long totalWaitTime) {
+		this.workerId = workerId;
+		this.group = group;
+		this.queuedWorks = queuedWorks;
+		this.running = running;
+		this.longestWaitTime = longestWaitTime;
+		this.dispatchedWorks = dispatchedWorks;
+		this.totalWaitTime = totalWaitTime;
+	}
+
+	public String getWorkerId() {
+		return workerId;
+	}
+
+	@Nullable
+	public String getGroup() {
+		return group;
+	}
+
+	/**
+	 * @return
+	 * 			number of works waiting to be dispatched
+	 */
+	public int getQueuedWorks() {
+		return queuedWorks;
+	}
+
+	/**
+	 * @return
+	 * 			whether or not a batch of this worker is running or waiting for a work thread
+	 */
+	public boolean isRunning() {
+		return running;
+	}
+
+	/**
+	 * @return
+	 * 			milliseconds the oldest queued work has been waiting
+	 */
+	public long getLongestWaitTime() {
+		return longestWaitTime;
+	}
+
+	/**
+	 * @return
+	 * 			number of works dispatched since this worker has works
+	 */
+	public long getDispatchedWorks() {
+		return dispatchedWorks;
+	}
+
+	/**
+	 * @return
+	 * 			total milliseconds dispatched works have been waiting in queue
+	 */
+	public long getTotalWaitTime() {
+		return totalWaitTime;
+	}
+
+	public long getAverageWaitTime() {
+		if (dispatchedWorks != 0)
+			return totalWaitTime / dispatchedWorks;
+		else
+			return 0;
+	}
+
+}
@@ -2,6 +2,8 @@ package io.onedev.server.util.work;
 
 import java.util.Collection;
 
+import javax.annotation.Nullable;
+
 import org.apache.commons.lang3.builder.EqualsBuilder;
 import org.apache.commons.lang3.builder.HashCodeBuilder;
 
@@ -13,25 +15,57 @@ public abstract class BatchWorker {
 	
 	private final String id;
 	
+	private final String group;
+	
 	private final int maxBatchSize;
 	
-	public BatchWorker(String id, int maxBatchSize) {
+	/**
+	 * @param group
+	 * 			group of this worker. Work threads are shared fairly between groups, so that 
+	 * 			a busy group, for instance a busy project, can not starve others no matter 
+	 * 			how many workers it has. Use <tt>null</tt> to put this worker in a group of 
+	 * 			its own 
+	 */
+	public BatchWorker(String id, @Nullable String group, int maxBatchSize) {
 		this.id = id;
+		this.group = group;
 		Preconditions.checkArgument(maxBatchSize>=1);
 		this.maxBatchSize = maxBatchSize;
 	}
 	
+	public BatchWorker(String id, int maxBatchSize) {
+		this(id, null, maxBatchSize);
+	}
+	
+	public BatchWorker(String id, @Nullable String group) {
+		this(id, group, Integer.MAX_VALUE);
+	}
+	
 	public BatchWorker(String id) {
-		this(id, Integer.MAX_VALUE);
+		this(id, null, Integer.MAX_VALUE);
 	}
 	
 	public String getId() {
 		return id;
 	}
 	
+	@Nullable
+	public String getGroup() {
+		return group;
+	}
+	
 	public int getMaxBatchSize() {
 		return maxBatchSize;
 	}
+	
+	/**
+	 * Weight of group of this worker. When groups compete for work threads, each group gets 
+	 * batches dispatched in proportion to its weight. Workers of the same group should return 
+	 * the same weight
+	 */
+	public int getGroupWeight() {
+		return 1;
+	}
 
 	@Override
 	public boolean equals(Object other) {
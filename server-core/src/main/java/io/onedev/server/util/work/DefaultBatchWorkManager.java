@@ -2,11 +2,18 @@ package io.onedev.server.util.work;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Comparator;
 import java.util.HashMap;
-import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Queue;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Collectors;
 
 import javax.inject.Inject;
@@ -24,103 +31,298 @@ import io.onedev.server.util.SecurityUtils;
 import io.onedev.server.util.concurrent.Prioritized;
 import io.onedev.server.util.concurrent.PrioritizedRunnable;
 
+/**
+ * Works are queued per batch worker, and each worker has at most one batch running at a time.
+ * Instead of a dispatching thread scanning all workers, workers are dispatched to the work 
+ * executor directly by the thread submitting works, or by the thread finishing a batch.
+ * 
+ * Workers having works to do wait in their groups. At most {@link #MAX_RUNNING_BATCHES} 
+ * batches are handed to the work executor at a time, and the next batch is taken from the 
+ * group with lowest pass, in the manner of stride scheduling. The pass of a group advances 
+ * inversely proportional to its weight each time a batch of the group is dispatched, so that 
+ * groups share work threads according to their weights, and a busy group can not starve 
+ * others no matter how many workers it has or how many works they queue.
+ */
 @Singleton
-public class DefaultBatchWorkManager implements BatchWorkManager, Runnable {
+public class DefaultBatchWorkManager implements BatchWorkManager {
 
 	private static final Logger logger = LoggerFactory.getLogger(DefaultBatchWorkManager.class);
+
+	private static final int MAX_RUNNING_BATCHES = Runtime.getRuntime().availableProcessors();
 	
+	private static final long STRIDE = 1L<<20;
+
 	private final WorkExecutor workExecutor;
 	
-	private final Map<BatchWorker, Works> works = new HashMap<>();
+	private final int maxRunningBatches;
+
+	private final Map<BatchWorker, Works> works = new ConcurrentHashMap<>();
+
+	// Groups having running or waiting batches. Guarded by readyGroups
+	private final Map<String, Group> groups = new HashMap<>();
+	
+	// Groups having waiting batches ordered by pass. Guarded by itself
+	private final Queue<Group> readyGroups = new PriorityQueue<>(new Comparator<Group>() {
+
+		@Override
+		public int compare(Group o1, Group o2) {
+			if (o1.pass != o2.pass)
+				return o1.pass < o2.pass? -1: 1;
+			else 
+				return Long.compare(o1.sequence, o2.sequence);
+		}
+		
+	});
 	
-	private Thread thread;
+	// Guarded by readyGroups
+	private int runningBatches;
 	
+	// Pass of last dispatched group. Guarded by readyGroups
+	private long virtualTime;
+	
+	// Guarded by readyGroups
+	private long sequence;
+
+	private volatile boolean started;
+
 	@Inject
 	public DefaultBatchWorkManager(WorkExecutor workExecutor) {
-		this.workExecutor = workExecutor;
+		this(workExecutor, MAX_RUNNING_BATCHES);
 	}
 	
-	private Works getWorks(BatchWorker worker) {
-		Works worksOfWorker = works.get(worker);
-		if (worksOfWorker == null) {
-			worksOfWorker = new Works();
-			works.put(worker, worksOfWorker);
-		}
-		return worksOfWorker;
+	DefaultBatchWorkManager(WorkExecutor workExecutor, int maxRunningBatches) {
+		this.workExecutor = workExecutor;
+		this.maxRunningBatches = maxRunningBatches;
 	}
 
 	@Listen
 	public void on(SystemStarted event) {
-		thread = new Thread(this);
-		thread.start();
+		started = true;
+		for (Works worksOfWorker: works.values())
+			schedule(worksOfWorker);
+		dispatch();
 	}
 
 	@Listen
-	public synchronized void on(SystemStopping event) {
-		thread = null;
-		notify();
+	public void on(SystemStopping event) {
+		started = false;
 	}
 
 	@Override
-	public synchronized void run() {
-		while (thread != null) {
-			for (Iterator<Map.Entry<BatchWorker, Works>> it = works.entrySet().iterator(); it.hasNext();) {
-				Map.Entry<BatchWorker, Works> entry = it.next();
-				BatchWorker worker = entry.getKey();
-				Works works = entry.getValue();
-				if (works.working.isEmpty()) {
-					works.queued.drainTo(works.working, worker.getMaxBatchSize());
-					if (!works.working.isEmpty()) {
-						double priority = works.working.stream().collect(Collectors.averagingInt(Prioritized::getPriority));
-						workExecutor.execute(new PrioritizedRunnable((int)priority) {
-							
-							@Override
-							public void run() {
-								try {
-									worker.doWorks(works.working);
-								} catch (Exception e) {
-									logger.error("Error doing works", e);
-								} finally {
-									synchronized(DefaultBatchWorkManager.this) {
-										works.working.clear();
-										DefaultBatchWorkManager.this.notify();
-									}
-								}
-							}
-							
-						});
-					} else {
-						it.remove();
+	public void submit(BatchWorker worker, Prioritized work) {
+		QueuedWork queuedWork = new QueuedWork(work);
+		Works worksOfWorker;
+		while (true) {
+			worksOfWorker = works.computeIfAbsent(worker, key -> {
+				Subject subject = SecurityUtils.getSubject();
+				return new Works(new BatchWorker(worker.getId(), worker.getGroup(), worker.getMaxBatchSize()) {
+
+					@Override
+					public void doWorks(Collection<Prioritized> works) {
+						ThreadContext.bind(subject);
+						worker.doWorks(works);
 					}
+
+					@Override
+					public int getGroupWeight() {
+						return worker.getGroupWeight();
+					}
+
+				});
+			});
+			synchronized (worksOfWorker) {
+				if (!worksOfWorker.removed) {
+					worksOfWorker.queued.offer(queuedWork);
+					break;
 				}
 			}
-			try {
-				wait();
-			} catch (InterruptedException e) {
+		}
+		schedule(worksOfWorker);
+		dispatch();
+	}
+
+	/*
+	 * Put specified worker into its group to wait for dispatching if it has works to do and is 
+	 * not waiting or running yet
+	 */
+	private void schedule(Works worksOfWorker) {
+		if (started && !worksOfWorker.queued.isEmpty() && worksOfWorker.scheduled.compareAndSet(false, true)) {
+			synchronized (readyGroups) {
+				String groupName = worksOfWorker.getGroupName();
+				Group group = groups.get(groupName);
+				if (group == null) {
+					group = new Group(groupName, worksOfWorker.worker.getGroupWeight());
+					groups.put(groupName, group);
+				}
+				if (group.waiting.isEmpty()) {
+					// Group becoming ready can not use up credits while it was idle
+					group.pass = Math.max(group.pass, virtualTime);
+					group.sequence = sequence++;
+					readyGroups.add(group);
+				}
+				group.waiting.add(worksOfWorker);
+			}
+		}
+	}
+	
+	private void dispatch() {
+		while (true) {
+			Works next;
+			Group group;
+			synchronized (readyGroups) {
+				if (!started || runningBatches >= maxRunningBatches || readyGroups.isEmpty())
+					return;
+				group = readyGroups.poll();
+				next = group.waiting.poll();
+				virtualTime = group.pass;
+				group.pass += STRIDE / group.weight;
+				group.running++;
+				runningBatches++;
+				if (!group.waiting.isEmpty()) {
+					group.sequence = sequence++;
+					readyGroups.add(group);
+				}
 			}
+			execute(next, group);
 		}
 	}
 
-	@Override
-	public synchronized void submit(BatchWorker worker, Prioritized work) {
-		Subject subject = SecurityUtils.getSubject();
-		getWorks(new BatchWorker(worker.getId(), worker.getMaxBatchSize()) {
+	private void execute(Works worksOfWorker, Group group) {
+		List<QueuedWork> queuedWorks = new ArrayList<>();
+		worksOfWorker.queued.drainTo(queuedWorks, worksOfWorker.worker.getMaxBatchSize());
+
+		long now = System.currentTimeMillis();
+		List<Prioritized> batch = new ArrayList<>();
+		for (QueuedWork queuedWork: queuedWorks) {
+			worksOfWorker.totalWaitTime.addAndGet(now - queuedWork.queuedTime);
+			batch.add(queuedWork.work);
+		}
+		worksOfWorker.dispatchedWorks.addAndGet(batch.size());
+
+		double priority = batch.stream().collect(Collectors.averagingInt(Prioritized::getPriority));
+		workExecutor.execute(new PrioritizedRunnable((int)priority) {
 
 			@Override
-			public void doWorks(Collection<Prioritized> works) {
-				ThreadContext.bind(subject);
-				worker.doWorks(works);
+			public void run() {
+				try {
+					if (!batch.isEmpty())
+						worksOfWorker.worker.doWorks(batch);
+				} catch (Exception e) {
+					logger.error("Error doing works", e);
+				} finally {
+					finish(worksOfWorker, group);
+				}
 			}
-			
-		}).queued.offer(work);
+
+			@Override
+			public String toString() {
+				return "Batch works (worker: " + worksOfWorker.worker.getId() + ", works: " + batch.size() + ")";
+			}
+
+		});
+	}
+
+	private void finish(Works worksOfWorker, Group group) {
+		worksOfWorker.scheduled.set(false);
+		synchronized (worksOfWorker) {
+			if (worksOfWorker.queued.isEmpty() && !worksOfWorker.scheduled.get()) {
+				works.remove(worksOfWorker.worker, worksOfWorker);
+				worksOfWorker.removed = true;
+			}
+		}
+
+		// Works might be submitted after we set scheduled flag to false. Schedule before 
+		// releasing the group so that the group keeps its pass if it is still busy
+		schedule(worksOfWorker);
 		
-		notify();
+		synchronized (readyGroups) {
+			runningBatches--;
+			group.running--;
+			if (group.running == 0 && group.waiting.isEmpty())
+				groups.remove(group.name);
+		}
+		dispatch();
+	}
+
+	@Override
+	public Collection<BatchWorkStatus> getStatuses() {
+		long now = System.currentTimeMillis();
+		Collection<BatchWorkStatus> statuses = new ArrayList<>();
+		for (Works worksOfWorker: works.values()) {
+			long longestWaitTime = 0;
+			int queued = 0;
+			for (QueuedWork queuedWork: worksOfWorker.queued) {
+				longestWaitTime = Math.max(longestWaitTime, now - queuedWork.queuedTime);
+				queued++;
+			}
+			statuses.add(new BatchWorkStatus(worksOfWorker.worker.getId(), worksOfWorker.worker.getGroup(),
+					queued, worksOfWorker.scheduled.get(), longestWaitTime,
+					worksOfWorker.dispatchedWorks.get(), worksOfWorker.totalWaitTime.get()));
+		}
+		return statuses;
 	}
 
 	private static class Works {
-		BlockingQueue<Prioritized> queued = new PriorityBlockingQueue<>();
+
+		final BatchWorker worker;
+
+		final BlockingQueue<QueuedWork> queued = new PriorityBlockingQueue<>();
+
+		// Whether or not a batch of this worker is running or waiting in group
+		final AtomicBoolean scheduled = new AtomicBoolean(false);
+
+		final AtomicLong dispatchedWorks = new AtomicLong(0);
+
+		final AtomicLong totalWaitTime = new AtomicLong(0);
+
+		// Guarded by this object. Removed works should no longer accept works
+		boolean removed;
+
+		Works(BatchWorker worker) {
+			this.worker = worker;
+		}
+
+		String getGroupName() {
+			return worker.getGroup() != null? worker.getGroup(): worker.getId();
+		}
+
+	}
+
+	private static class Group {
+
+		final String name;
+		
+		final int weight;
+		
+		// All other fields are guarded by readyGroups
+
+		final Queue<Works> waiting = new LinkedList<>();
+		
+		int running;
+
+		long pass;
+		
+		// Used to dispatch groups with same pass in order of getting ready
+		long sequence;
 		
-		Collection<Prioritized> working = new ArrayList<>();
+		Group(String name, int weight) {
+			this.name = name;
+			this.weight = Math.max(1, weight);
+		}
+
+	}
+
+	private static class QueuedWork extends Prioritized {
+
+		final Prioritized work;
+
+		final long queuedTime = System.currentTimeMillis();
+
+		QueuedWork(Prioritized work) {
+			super(work.getPriority());
+			this.work = work;
+		}
+
 	}
 
 }
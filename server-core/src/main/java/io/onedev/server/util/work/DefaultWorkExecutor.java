@@ -1,16 +1,26 @@
 package io.onedev.server.util.work;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Comparator;
+import java.util.Date;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
 import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
 import java.util.concurrent.RunnableFuture;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 import javax.inject.Singleton;
 
@@ -20,14 +30,37 @@ import io.onedev.server.util.SecurityUtils;
 import io.onedev.server.util.concurrent.PrioritizedCallable;
 import io.onedev.server.util.concurrent.PrioritizedFutureTask;
 import io.onedev.server.util.concurrent.PrioritizedRunnable;
+import io.onedev.server.util.concurrent.PriorityAware;
 
 @Singleton
 public class DefaultWorkExecutor implements WorkExecutor {
 
-	private final ExecutorService delegator = new ThreadPoolExecutor(
+	// Tasks waiting in queue longer than this are counted as overdue
+	private static final long OVERDUE_THRESHOLD = 60000;
+	
+	private final AtomicLong rejectedTasks = new AtomicLong(0);
+	
+	private final AtomicLong overdueTasks = new AtomicLong(0);
+	
+	private final AtomicLongArray waitTimeHistogram = new AtomicLongArray(WorkExecutorStatus.HISTOGRAM_BUCKETS.length);
+	
+	private final AtomicLongArray runTimeHistogram = new AtomicLongArray(WorkExecutorStatus.HISTOGRAM_BUCKETS.length);
+	
+	private final Set<TaskTracker> activeTasks = ConcurrentHashMap.newKeySet();
+	
+	private final ThreadPoolExecutor delegator = new ThreadPoolExecutor(
 			Runtime.getRuntime().availableProcessors(), 
 			Runtime.getRuntime().availableProcessors(), 
-			0L, TimeUnit.MILLISECONDS, new PriorityBlockingQueue<Runnable>()) {
+			0L, TimeUnit.MILLISECONDS, new PriorityBlockingQueue<Runnable>(), 
+			new RejectedExecutionHandler() {
+
+				@Override
+				public void rejectedExecution(Runnable task, ThreadPoolExecutor executor) {
+					rejectedTasks.incrementAndGet();
+					throw new RejectedExecutionException("Task " + task + " rejected from " + executor);
+				}
+				
+			}) {
 		
 		@Override
 		protected <T> RunnableFuture<T> newTaskFor(Callable<T> callable) {
@@ -41,55 +74,165 @@ public class DefaultWorkExecutor implements WorkExecutor {
 		
 	};
 	
+	private PrioritizedRunnable track(PrioritizedRunnable task) {
+		PrioritizedRunnable subjectAwareTask = SecurityUtils.inheritSubject(task);
+		TaskTracker tracker = new TaskTracker(task.toString(), task.getPriority());
+		return new PrioritizedRunnable(task.getPriority()) {
+
+			@Override
+			public void run() {
+				tracker.start();
+				try {
+					subjectAwareTask.run();
+				} finally {
+					tracker.finish();
+				}
+			}
+
+			@Override
+			public String toString() {
+				return tracker.description;
+			}
+			
+		};
+	}
+	
+	private <T> PrioritizedCallable<T> track(PrioritizedCallable<T> task) {
+		PrioritizedCallable<T> subjectAwareTask = SecurityUtils.inheritSubject(task);
+		TaskTracker tracker = new TaskTracker(task.toString(), task.getPriority());
+		return new PrioritizedCallable<T>(task.getPriority()) {
+
+			@Override
+			public T call() throws Exception {
+				tracker.start();
+				try {
+					return subjectAwareTask.call();
+				} finally {
+					tracker.finish();
+				}
+			}
+			
+			@Override
+			public String toString() {
+				return tracker.description;
+			}
+			
+		};
+	}
+	
+	private <T> Collection<PrioritizedCallable<T>> track(Collection<? extends PrioritizedCallable<T>> tasks) {
+		Collection<PrioritizedCallable<T>> trackedTasks = new ArrayList<>();
+		for (PrioritizedCallable<T> task: tasks)
+			trackedTasks.add(track(task));
+		return trackedTasks;
+	}
+	
 	@Override
 	public void execute(PrioritizedRunnable command) {
-		delegator.execute(SecurityUtils.inheritSubject(command));
+		delegator.execute(track(command));
 	}
 
 	@Override
 	public <T> Future<T> submit(PrioritizedCallable<T> task) {
-		return delegator.submit(SecurityUtils.inheritSubject(task));
+		return delegator.submit(track(task));
 	}
 
 	@Override
 	public <T> Future<T> submit(PrioritizedRunnable task, T result) {
-		return delegator.submit(SecurityUtils.inheritSubject(task), result);
+		return delegator.submit(track(task), result);
 	}
 
 	@Override
 	public Future<?> submit(PrioritizedRunnable task) {
-		return delegator.submit(SecurityUtils.inheritSubject(task));
+		return delegator.submit(track(task));
 	}
 
 	@Override
 	public <T> List<Future<T>> invokeAll(Collection<? extends PrioritizedCallable<T>> tasks)
 			throws InterruptedException {
-		return delegator.invokeAll(SecurityUtils.inheritSubject(tasks));
+		return delegator.invokeAll(track(tasks));
 	}
 
 	@Override
 	public <T> List<Future<T>> invokeAll(
 			Collection<? extends PrioritizedCallable<T>> tasks, long timeout, TimeUnit unit)
 			throws InterruptedException {
-		return delegator.invokeAll(SecurityUtils.inheritSubject(tasks), timeout, unit);
+		return delegator.invokeAll(track(tasks), timeout, unit);
 	}
 
 	@Override
 	public <T> T invokeAny(Collection<? extends PrioritizedCallable<T>> tasks)
 			throws InterruptedException, ExecutionException {
-		return delegator.invokeAny(SecurityUtils.inheritSubject(tasks));
+		return delegator.invokeAny(track(tasks));
 	}
 
 	@Override
 	public <T> T invokeAny(Collection<? extends PrioritizedCallable<T>> tasks,
 			long timeout, TimeUnit unit) throws InterruptedException,
 			ExecutionException, TimeoutException {
-		return delegator.invokeAny(SecurityUtils.inheritSubject(tasks), timeout, unit);
+		return delegator.invokeAny(track(tasks), timeout, unit);
 	}
 
+	@Override
+	public WorkExecutorStatus getStatus() {
+		Map<Integer, Integer> queuedTasks = new TreeMap<>();
+		for (Runnable task: delegator.getQueue()) 
+			queuedTasks.merge(((PriorityAware)task).getPriority(), 1, Integer::sum);
+		
+		List<TaskTracker> trackers = new ArrayList<>(activeTasks);
+		trackers.sort(Comparator.comparing(it->it.startTime));
+		List<WorkExecutorStatus.ActiveTask> activeTasks = new ArrayList<>();
+		for (TaskTracker tracker: trackers) {
+			activeTasks.add(new WorkExecutorStatus.ActiveTask(tracker.description, tracker.priority, 
+					tracker.startTime - tracker.queuedTime, new Date(tracker.startTime)));
+		}
+		
+		return new WorkExecutorStatus(delegator.getPoolSize(), delegator.getActiveCount(), queuedTasks, 
+				delegator.getCompletedTaskCount(), rejectedTasks.get(), overdueTasks.get(), 
+				toArray(waitTimeHistogram), toArray(runTimeHistogram), activeTasks);
+	}
+	
+	private long[] toArray(AtomicLongArray histogram) {
+		long[] array = new long[histogram.length()];
+		for (int i=0; i<array.length; i++)
+			array[i] = histogram.get(i);
+		return array;
+	}
+	
 	@Listen
 	public void on(SystemStopping event) {
 		delegator.shutdown();
 	}
 
+	private class TaskTracker {
+		
+		final String description;
+		
+		final int priority;
+		
+		final long queuedTime = System.currentTimeMillis();
+		
+		volatile long startTime;
+		
+		TaskTracker(String description, int priority) {
+			this.description = description;
+			this.priority = priority;
+		}
+		
+		void start() {
+			startTime = System.currentTimeMillis();
+			long waitTime = startTime - queuedTime;
+			waitTimeHistogram.incrementAndGet(WorkExecutorStatus.getHistogramBucket(waitTime));
+			if (waitTime > OVERDUE_THRESHOLD)
+				overdueTasks.incrementAndGet();
+			activeTasks.add(this);
+		}
+		
+		void finish() {
+			activeTasks.remove(this);
+			runTimeHistogram.incrementAndGet(WorkExecutorStatus.getHistogramBucket(System.currentTimeMillis() - startTime));
+		}
+		
+	}
+	
 }
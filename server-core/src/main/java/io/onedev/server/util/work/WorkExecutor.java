@@ -39,4 +39,6 @@ public interface WorkExecutor {
 			long timeout, TimeUnit unit) throws InterruptedException,
 			ExecutionException, TimeoutException;
 	
+	WorkExecutorStatus getStatus();
+	
 }
@@ -0,0 +1,152 @@
+package io.onedev.server.util.work;
+
+import java.io.Serializable;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+public class WorkExecutorStatus implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * Upper bounds in milliseconds of histogram buckets. The last bucket of histograms holds
+	 * values exceeding all bounds
+	 */
+	public static final long[] HISTOGRAM_BOUNDS = new long[] {10, 100, 1000, 10000, 60000, 600000};
+
+	public static final String[] HISTOGRAM_BUCKETS = new String[] {
+			"< 10ms", "< 100ms", "< 1s", "< 10s", "< 1m", "< 10m", ">= 10m"};
+
+	private final int poolSize;
+
+	private final int activeCount;
+
+	private final Map<Integer, Integer> queuedTasks;
+
+	private final long completedTasks;
+
+	private final long rejectedTasks;
+
+	private final long overdueTasks;
+
+	private final long[] waitTimeHistogram;
+
+	private final long[] runTimeHistogram;
+
+	private final List<ActiveTask> activeTasks;
+
+	public WorkExecutorStatus(int poolSize, int activeCount, Map<Integer, Integer> queuedTasks,
+			long completedTasks, long rejectedTasks, long overdueTasks, long[] waitTimeHistogram,
+			long[] runTimeHistogram, List<ActiveTask> activeTasks) {
+		this.poolSize = poolSize;
+		this.activeCount = activeCount;
+		this.queuedTasks = queuedTasks;
+		this.completedTasks = completedTasks;
+		this.rejectedTasks = rejectedTasks;
+		this.overdueTasks = overdueTasks;
+		this.waitTimeHistogram = waitTimeHistogram;
+		this.runTimeHistogram = runTimeHistogram;
+		this.activeTasks = activeTasks;
+	}
+
+	public static int getHistogramBucket(long millis) {
+		for (int i=0; i<HISTOGRAM_BOUNDS.length; i++) {
+			if (millis < HISTOGRAM_BOUNDS[i])
+				return i;
+		}
+		return HISTOGRAM_BOUNDS.length;
+	}
+
+	public int getPoolSize() {
+		return poolSize;
+	}
+
+	public int getActiveCount() {
+		return activeCount;
+	}
+
+	/**
+	 * @return
+	 * 			map of priority to number of queued tasks with that priority, ordered by priority
+	 */
+	public Map<Integer, Integer> getQueuedTasks() {
+		return queuedTasks;
+	}
+
+	public long getCompletedTasks() {
+		return completedTasks;
+	}
+
+	public long getRejectedTasks() {
+		return rejectedTasks;
+	}
+
+	/**
+	 * @return
+	 * 			number of tasks waited in queue for longer than the overdue threshold
+	 */
+	public long getOverdueTasks() {
+		return overdueTasks;
+	}
+
+	/**
+	 * @return
+	 * 			number of tasks falling into each bucket of {@link #HISTOGRAM_BUCKETS} by time
+	 * 			waited in queue
+	 */
+	public long[] getWaitTimeHistogram() {
+		return waitTimeHistogram;
+	}
+
+	/**
+	 * @return
+	 * 			number of tasks falling into each bucket of {@link #HISTOGRAM_BUCKETS} by time
+	 * 			spent running
+	 */
+	public long[] getRunTimeHistogram() {
+		return runTimeHistogram;
+	}
+
+	public List<ActiveTask> getActiveTasks() {
+		return activeTasks;
+	}
+
+	public static class ActiveTask implements Serializable {
+
+		private static final long serialVersionUID = 1L;
+
+		private final String description;
+
+		private final int priority;
+
+		private final long waitTime;
+
+		private final Date startDate;
+
+		public ActiveTask(String description, int priority, long waitTime, Date startDate) {
+			this.description = description;
+			this.priority = priority;
+			this.waitTime = waitTime;
+			this.startDate = startDate;
+		}
+
+		public String getDescription() {
+			return description;
+		}
+
+		public int getPriority() {
+			return priority;
+		}
+
+		public long getWaitTime() {
+			return waitTime;
+		}
+
+		public Date getStartDate() {
+			return startDate;
+		}
+
+	}
+
+}
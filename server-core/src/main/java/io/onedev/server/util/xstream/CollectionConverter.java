@@ -1,6 +1,12 @@
 package io.onedev.server.util.xstream;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.SortedSet;
 
 import org.hibernate.collection.internal.PersistentBag;
 
@@ -30,10 +36,30 @@ public class CollectionConverter extends com.thoughtworks.xstream.converters.col
 	@SuppressWarnings({"rawtypes", "unchecked"})
 	@Override
 	public void marshal(Object source, HierarchicalStreamWriter writer, MarshallingContext context) {
-		if (source instanceof PersistentBag)
+		if (source instanceof PersistentBag) {
 			source = new ArrayList((PersistentBag)source);
+		} else if (source instanceof Set && !(source instanceof SortedSet) && !(source instanceof LinkedHashSet)) {
+			/*
+			 * Iteration order of hash based sets depends on their capacity and insertion history. 
+			 * Write their elements in natural order so that same data always produces same XML
+			 */
+			List items = new ArrayList((Set)source);
+			if (isSortable(items))
+				Collections.sort(items);
+			source = items;
+		}
 		super.marshal(source, writer, context);
 	}
+	
+	static boolean isSortable(Collection<?> items) {
+		Class<?> itemClass = null;
+		for (Object item: items) {
+			if (!(item instanceof Comparable) || itemClass != null && item.getClass() != itemClass)
+				return false;
+			itemClass = item.getClass();
+		}
+		return true;
+	}
 
 	@Override
 	protected void writeCompleteItem(Object item, MarshallingContext context, HierarchicalStreamWriter writer) {
@@ -1,5 +1,10 @@
 package io.onedev.server.util.xstream;
 
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
 import com.thoughtworks.xstream.converters.MarshallingContext;
 import com.thoughtworks.xstream.converters.UnmarshallingContext;
 import com.thoughtworks.xstream.io.HierarchicalStreamReader;
@@ -18,6 +23,17 @@ public class MapConverter extends com.thoughtworks.xstream.converters.collection
     	super(mapper, type);
     }
     
+	@SuppressWarnings({"rawtypes", "unchecked"})
+	@Override
+	public void marshal(Object source, HierarchicalStreamWriter writer, MarshallingContext context) {
+		if (source instanceof Map && !(source instanceof SortedMap) && !(source instanceof LinkedHashMap) 
+				&& CollectionConverter.isSortable(((Map)source).keySet())) {
+			// Write entries of hash based maps in natural order of keys so that same data always produces same XML
+			source = new TreeMap((Map)source);
+		}
+		super.marshal(source, writer, context);
+	}
+	
 	@Override
 	protected void writeCompleteItem(Object item, MarshallingContext context, HierarchicalStreamWriter writer) {
 		if (item instanceof VersionedDocument) 
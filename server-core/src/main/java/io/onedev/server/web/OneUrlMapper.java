@@ -44,6 +44,7 @@ import io.onedev.server.web.page.admin.user.membership.UserMembershipsPage;
 import io.onedev.server.web.page.admin.user.password.UserPasswordPage;
 import io.onedev.server.web.page.admin.user.profile.UserProfilePage;
 import io.onedev.server.web.page.admin.user.webhook.UserWebHooksPage;
+import io.onedev.server.web.page.admin.workexecutor.WorkExecutorStatusPage;
 import io.onedev.server.web.page.build.BuildListPage;
 import io.onedev.server.web.page.init.ServerInitPage;
 import io.onedev.server.web.page.issue.IssueListPage;
@@ -185,6 +186,7 @@ public class OneUrlMapper extends CompoundRequestMapper {
 		
 		add(new OnePageMapper("administration/server-log", ServerLogPage.class));
 		add(new OnePageMapper("administration/server-information", ServerInformationPage.class));
+		add(new OnePageMapper("administration/work-executor", WorkExecutorStatusPage.class));
 	}
 	
 	private void addProjectPages() {
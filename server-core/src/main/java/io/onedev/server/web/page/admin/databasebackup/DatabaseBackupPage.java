@@ -1,7 +1,7 @@
 package io.onedev.server.web.page.admin.databasebackup;
 
-import java.io.File;
 import java.io.IOException;
+import java.util.zip.ZipOutputStream;
 
 import org.apache.tika.mime.MimeTypes;
 import org.apache.wicket.markup.html.form.Form;
@@ -9,10 +9,9 @@ import org.apache.wicket.markup.html.link.ResourceLink;
 import org.apache.wicket.request.mapper.parameter.PageParameters;
 import org.apache.wicket.request.resource.AbstractResource;
 
-import io.onedev.commons.utils.FileUtils;
-import io.onedev.commons.utils.ZipUtils;
 import io.onedev.server.OneDev;
 import io.onedev.server.entitymanager.SettingManager;
+import io.onedev.server.maintenance.BackupManifest;
 import io.onedev.server.persistence.PersistManager;
 import io.onedev.server.web.editable.BeanContext;
 import io.onedev.server.web.page.admin.AdministrationPage;
@@ -55,14 +54,10 @@ public class DatabaseBackupPage extends AdministrationPage {
 
 					@Override
 					public void writeData(Attributes attributes) throws IOException {
-						File tempDir = FileUtils.createTempDir("backup");
-						try {
-							PersistManager persistManager = OneDev.getInstance(PersistManager.class);
-							persistManager.exportData(tempDir);
-							ZipUtils.zip(tempDir, attributes.getResponse().getOutputStream());
-						} finally {
-							FileUtils.deleteDir(tempDir);
-						}
+						PersistManager persistManager = OneDev.getInstance(PersistManager.class);
+						ZipOutputStream zip = new ZipOutputStream(attributes.getResponse().getOutputStream());
+						new BackupManifest(null, persistManager.exportData(zip, null)).writeTo(zip);
+						zip.finish();
 					}				
 				});
 
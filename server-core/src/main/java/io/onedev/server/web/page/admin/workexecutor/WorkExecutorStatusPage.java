@@ -0,0 +1,134 @@
+package io.onedev.server.web.page.admin.workexecutor;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+import org.apache.wicket.markup.html.basic.Label;
+import org.apache.wicket.markup.html.link.Link;
+import org.apache.wicket.markup.html.list.ListItem;
+import org.apache.wicket.markup.html.list.ListView;
+import org.apache.wicket.model.IModel;
+import org.apache.wicket.model.LoadableDetachableModel;
+import org.apache.wicket.request.mapper.parameter.PageParameters;
+
+import io.onedev.server.OneDev;
+import io.onedev.server.util.DateUtils;
+import io.onedev.server.util.work.BatchWorkManager;
+import io.onedev.server.util.work.BatchWorkStatus;
+import io.onedev.server.util.work.WorkExecutor;
+import io.onedev.server.util.work.WorkExecutorStatus;
+import io.onedev.server.web.page.admin.AdministrationPage;
+
+@SuppressWarnings("serial")
+public class WorkExecutorStatusPage extends AdministrationPage {
+
+	private final IModel<WorkExecutorStatus> statusModel = new LoadableDetachableModel<WorkExecutorStatus>() {
+
+		@Override
+		protected WorkExecutorStatus load() {
+			return OneDev.getInstance(WorkExecutor.class).getStatus();
+		}
+
+	};
+
+	private final IModel<List<BatchWorkStatus>> batchWorkStatusesModel = new LoadableDetachableModel<List<BatchWorkStatus>>() {
+
+		@Override
+		protected List<BatchWorkStatus> load() {
+			List<BatchWorkStatus> statuses = new ArrayList<>(OneDev.getInstance(BatchWorkManager.class).getStatuses());
+			statuses.sort(Comparator.comparing(BatchWorkStatus::getLongestWaitTime).reversed());
+			return statuses;
+		}
+
+	};
+
+	public WorkExecutorStatusPage(PageParameters params) {
+		super(params);
+	}
+
+	private WorkExecutorStatus getStatus() {
+		return statusModel.getObject();
+	}
+
+	@Override
+	protected void onInitialize() {
+		super.onInitialize();
+
+		add(new Link<Void>("refresh") {
+
+			@Override
+			public void onClick() {
+				setResponsePage(WorkExecutorStatusPage.class);
+			}
+
+		});
+
+		add(new Label("poolSize", getStatus().getPoolSize()));
+		add(new Label("activeCount", getStatus().getActiveCount()));
+		add(new Label("completedTasks", getStatus().getCompletedTasks()));
+		add(new Label("overdueTasks", getStatus().getOverdueTasks()));
+		add(new Label("rejectedTasks", getStatus().getRejectedTasks()));
+
+		add(new ListView<Integer>("queuedTasks", new ArrayList<>(getStatus().getQueuedTasks().keySet())) {
+
+			@Override
+			protected void populateItem(ListItem<Integer> item) {
+				int priority = item.getModelObject();
+				item.add(new Label("priority", priority));
+				item.add(new Label("count", getStatus().getQueuedTasks().getOrDefault(priority, 0)));
+			}
+
+		});
+
+		List<Integer> buckets = new ArrayList<>();
+		for (int i=0; i<WorkExecutorStatus.HISTOGRAM_BUCKETS.length; i++)
+			buckets.add(i);
+		add(new ListView<Integer>("histogram", buckets) {
+
+			@Override
+			protected void populateItem(ListItem<Integer> item) {
+				int bucket = item.getModelObject();
+				item.add(new Label("bucket", WorkExecutorStatus.HISTOGRAM_BUCKETS[bucket]));
+				item.add(new Label("waitTime", getStatus().getWaitTimeHistogram()[bucket]));
+				item.add(new Label("runTime", getStatus().getRunTimeHistogram()[bucket]));
+			}
+
+		});
+
+		add(new ListView<WorkExecutorStatus.ActiveTask>("activeTasks", getStatus().getActiveTasks()) {
+
+			@Override
+			protected void populateItem(ListItem<WorkExecutorStatus.ActiveTask> item) {
+				WorkExecutorStatus.ActiveTask task = item.getModelObject();
+				item.add(new Label("description", task.getDescription()));
+				item.add(new Label("priority", task.getPriority()));
+				item.add(new Label("waitTime", DateUtils.formatDuration(task.getWaitTime())));
+				item.add(new Label("startDate", DateUtils.formatDateTime(task.getStartDate())));
+			}
+
+		});
+
+		add(new ListView<BatchWorkStatus>("batchWorks", batchWorkStatusesModel) {
+
+			@Override
+			protected void populateItem(ListItem<BatchWorkStatus> item) {
+				BatchWorkStatus status = item.getModelObject();
+				item.add(new Label("worker", status.getWorkerId()));
+				item.add(new Label("queued", status.getQueuedWorks()));
+				item.add(new Label("running", status.isRunning()? "Yes": "No"));
+				item.add(new Label("longestWait", DateUtils.formatDuration(status.getLongestWaitTime())));
+				item.add(new Label("averageWait", DateUtils.formatDuration(status.getAverageWaitTime())));
+			}
+
+		});
+	}
+
+	@Override
+	protected void onDetach() {
+		statusModel.detach();
+		batchWorkStatusesModel.detach();
+		super.onDetach();
+	}
+
+}
@@ -43,6 +43,7 @@ import io.onedev.server.web.page.admin.systemsetting.SystemSettingPage;
 import io.onedev.server.web.page.admin.user.UserListPage;
 import io.onedev.server.web.page.admin.user.UserPage;
 import io.onedev.server.web.page.admin.user.create.NewUserPage;
+import io.onedev.server.web.page.admin.workexecutor.WorkExecutorStatusPage;
 import io.onedev.server.web.page.base.BasePage;
 import io.onedev.server.web.page.my.MyPage;
 import io.onedev.server.web.page.my.avatar.MyAvatarPage;
@@ -153,6 +154,11 @@ public abstract class LayoutPage extends BasePage {
 		if (getPage() instanceof ServerInformationPage)
 			item.add(AttributeAppender.append("class", "active"));
 		
+		administrationContainer.add(item = new WebMarkupContainer("workExecutor"));
+		item.add(new ViewStateAwarePageLink<Void>("link", WorkExecutorStatusPage.class));
+		if (getPage() instanceof WorkExecutorStatusPage)
+			item.add(AttributeAppender.append("class", "active"));
+		
 		if (getPage() instanceof AdministrationPage) 
 			administrationContainer.add(AttributeAppender.append("class", "active"));
 		administrationContainer.setVisible(SecurityUtils.isAdministrator());
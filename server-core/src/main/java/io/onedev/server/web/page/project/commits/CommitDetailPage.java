@@ -42,7 +42,6 @@ import org.slf4j.LoggerFactory;
 import com.google.common.base.Joiner;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.Lists;
-import com.google.common.collect.Sets;
 
 import io.onedev.server.OneDev;
 import io.onedev.server.buildspec.BuildSpec;
@@ -191,13 +190,16 @@ public class CommitDetailPage extends ProjectPage implements CommentSupport {
 
 					@Override
 					protected List<RefInfo> load() {
-						Collection<ObjectId> descendants = OneDev.getInstance(CommitInfoManager.class)
-								.getDescendants(getProject(), Sets.newHashSet(getCommit().getId()));
-						descendants.add(getCommit().getId());
-					
 						List<RefInfo> refs = new ArrayList<>();
 						refs.addAll(getProject().getBranchRefInfos());
 						refs.addAll(getProject().getTagRefInfos());
+						
+						Collection<ObjectId> refCommits = new ArrayList<>();
+						for (RefInfo ref: refs)
+							refCommits.add(ref.getPeeledObj());
+						Collection<ObjectId> descendants = OneDev.getInstance(CommitInfoManager.class)
+								.filterDescendants(getProject(), getCommit().getId(), refCommits);
+					
 						return refs.stream().filter(ref->descendants.contains(ref.getPeeledObj())).collect(Collectors.toList());
 					}
 					
@@ -1,9 +1,16 @@
 package io.onedev.server.web.websocket;
 
 import java.util.Collection;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 
 import javax.annotation.Nullable;
 import javax.inject.Inject;
@@ -35,6 +42,9 @@ public class DefaultWebSocketManager implements WebSocketManager, SchedulableTas
 
 	private static final Logger logger = LoggerFactory.getLogger(DefaultWebSocketManager.class);
 	
+	// Minimum interval in milliseconds between change notifications of the same observable
+	private static final long NOTIFICATION_INTERVAL = 500;
+	
 	private final Application application;
 	
 	private final TransactionManager transactionManager;
@@ -47,8 +57,24 @@ public class DefaultWebSocketManager implements WebSocketManager, SchedulableTas
 	
 	private final Map<String, Map<IKey, Collection<String>>> observables = new ConcurrentHashMap<>();
 	
+	// Reverse index of above map to find observing pages of an observable quickly
+	private final Map<String, Set<PageKey>> observers = new ConcurrentHashMap<>();
+	
+	/*
+	 * Observables notified within last notification interval, mapped to changes happened 
+	 * since then
+	 */
+	private final Map<String, ObservableChange> observableChanges = new ConcurrentHashMap<>();
+	
 	private final IWebSocketConnectionRegistry connectionRegistry = new SimpleWebSocketConnectionRegistry();
 	
+	private final ScheduledExecutorService notificationScheduler = 
+			Executors.newSingleThreadScheduledExecutor(runnable -> {
+				Thread thread = new Thread(runnable, "WebSocket Change Notifier");
+				thread.setDaemon(true);
+				return thread;
+			});
+	
 	private String taskId;
 
 	@Inject
@@ -70,13 +96,44 @@ public class DefaultWebSocketManager implements WebSocketManager, SchedulableTas
 				sessionPages = new ConcurrentHashMap<>();
 				observables.put(sessionId, sessionPages);
 			}
-			sessionPages.put(new PageIdKey(page.getPageId()), page.findWebSocketObservables());
+			IKey pageId = new PageIdKey(page.getPageId());
+			PageKey pageKey = new PageKey(sessionId, pageId);
+			Collection<String> pageObservables = page.findWebSocketObservables();
+			Collection<String> prevPageObservables = sessionPages.put(pageId, pageObservables);
+			if (prevPageObservables != null) {
+				Set<String> removedObservables = new HashSet<>(prevPageObservables);
+				removedObservables.removeAll(pageObservables);
+				for (String observable: removedObservables)
+					removeObserver(observable, pageKey);
+			}
+			for (String observable: pageObservables) {
+				observers.compute(observable, (key, value) -> {
+					if (value == null)
+						value = ConcurrentHashMap.newKeySet();
+					value.add(pageKey);
+					return value;
+				});
+			}
 		}
 	}
 	
+	private void removeObserver(String observable, PageKey pageKey) {
+		observers.computeIfPresent(observable, (key, value) -> {
+			value.remove(pageKey);
+			return value.isEmpty()? null: value;
+		});
+	}
+	
 	@Override
 	public void onDestroySession(String sessionId) {
-		observables.remove(sessionId);
+		Map<IKey, Collection<String>> sessionPages = observables.remove(sessionId);
+		if (sessionPages != null) {
+			for (Map.Entry<IKey, Collection<String>> entry: sessionPages.entrySet()) {
+				PageKey pageKey = new PageKey(sessionId, entry.getKey());
+				for (String observable: entry.getValue())
+					removeObserver(observable, pageKey);
+			}
+		}
 	}
 
 	@Sessional
@@ -86,35 +143,89 @@ public class DefaultWebSocketManager implements WebSocketManager, SchedulableTas
 
 			@Override
 			public void run() {
-				executorService.execute(new Runnable() {
-
-					@Override
-					public void run() {
-						for (IWebSocketConnection connection: connectionRegistry.getConnections(application)) {
-							PageKey pageKey = ((WebSocketConnection) connection).getPageKey();
-							if (connection.isOpen() && (sourcePageKey == null || !sourcePageKey.equals(pageKey))) {
-								Map<IKey, Collection<String>> sessionPages = observables.get(pageKey.getSessionId());
-								if (sessionPages != null) {
-									Collection<String> pageObservables = sessionPages.get(pageKey.getPageId());
-									if (pageObservables != null && pageObservables.contains(observable)) {
-										String message = OBSERVABLE_CHANGED + ":" + observable; 
-										try {
-											connection.sendMessage(message);
-										} catch (Exception e) {
-											logger.error("Error sending websocket message: " + message, e);
-										}
-									}
-								}
-							}
-						}
+				/*
+				 * First change of an observable is notified immediately. Subsequent changes 
+				 * within notification interval are coalesced and notified at end of the 
+				 * interval, so that a burst of changes results in at most one message per 
+				 * interval
+				 */
+				AtomicBoolean notifyNow = new AtomicBoolean(false);
+				observableChanges.compute(observable, (key, value) -> {
+					if (value == null) {
+						notifyNow.set(true);
+						return ObservableChange.NONE;
+					} else {
+						return value.merge(sourcePageKey);
 					}
-					
 				});
+				if (notifyNow.get()) 
+					notifyAndStartInterval(observable, sourcePageKey);
 			}
 			
 		});
 	}
 	
+	private void notifyAndStartInterval(String observable, @Nullable PageKey sourcePageKey) {
+		// Send messages in worker thread so that slow connections do not delay other notifications 
+		executorService.execute(new Runnable() {
+
+			@Override
+			public void run() {
+				sendObservableChange(observable, sourcePageKey);
+			}
+			
+		});
+		if (!notificationScheduler.isShutdown()) {
+			notificationScheduler.schedule(new Runnable() {
+
+				@Override
+				public void run() {
+					try {
+						endNotificationInterval(observable);
+					} catch (Exception e) {
+						logger.error("Error notifying observable changes", e);
+					}
+				}
+				
+			}, NOTIFICATION_INTERVAL, TimeUnit.MILLISECONDS);
+		}
+	}
+	
+	private void endNotificationInterval(String observable) {
+		AtomicReference<ObservableChange> changeRef = new AtomicReference<>();
+		observableChanges.compute(observable, (key, value) -> {
+			if (value == null || value == ObservableChange.NONE) {
+				return null;
+			} else {
+				changeRef.set(value);
+				return ObservableChange.NONE;
+			}
+		});
+		ObservableChange change = changeRef.get();
+		if (change != null)
+			notifyAndStartInterval(observable, change.sourcePageKey);
+	}
+	
+	private void sendObservableChange(String observable, @Nullable PageKey sourcePageKey) {
+		Set<PageKey> pageKeys = observers.get(observable);
+		if (pageKeys != null) {
+			String message = OBSERVABLE_CHANGED + ":" + observable; 
+			for (PageKey pageKey: pageKeys) {
+				if (!pageKey.equals(sourcePageKey)) {
+					IWebSocketConnection connection = connectionRegistry.getConnection(
+							application, pageKey.getSessionId(), pageKey.getPageId());
+					if (connection != null && connection.isOpen()) {
+						try {
+							connection.sendMessage(message);
+						} catch (Exception e) {
+							logger.error("Error sending websocket message: " + message, e);
+						}
+					}
+				}
+			}
+		}
+	}
+	
 	@Override
 	public void execute() {
 		for (IWebSocketConnection connection: new SimpleWebSocketConnectionRegistry().getConnections(application)) {
@@ -136,11 +247,35 @@ public class DefaultWebSocketManager implements WebSocketManager, SchedulableTas
 	@Listen
 	public void on(SystemStopping event) {
 		taskScheduler.unschedule(taskId);
+		notificationScheduler.shutdownNow();
 	}
 	
 	@Override
 	public ScheduleBuilder<?> getScheduleBuilder() {
 		return SimpleScheduleBuilder.repeatSecondlyForever((int)webSocketPolicy.getIdleTimeout()/2000);
 	}
+	
+	private static class ObservableChange {
+		
+		// No change since last notification
+		static final ObservableChange NONE = new ObservableChange(null);
+		
+		final PageKey sourcePageKey;
+		
+		ObservableChange(@Nullable PageKey sourcePageKey) {
+			this.sourcePageKey = sourcePageKey;
+		}
+		
+		ObservableChange merge(@Nullable PageKey sourcePageKey) {
+			if (this == NONE) 
+				return new ObservableChange(sourcePageKey);
+			// Only skip source page if all coalesced changes come from it 
+			else if (this.sourcePageKey != null && !this.sourcePageKey.equals(sourcePageKey)) 
+				return new ObservableChange(null);
+			else
+				return this;
+		}
+		
+	}
 
 }
@@ -0,0 +1,176 @@
+package io.onedev.server.buildspec.job;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import io.onedev.commons.utils.FileUtils;
+import io.onedev.k8shelper.CacheInstance;
+
+public class DefaultJobCacheManagerTest {
+
+	private static final long DAY = 24L * 3600L * 1000L;
+
+	private static final long MB = 1024L * 1024L;
+
+	private File tempDir;
+
+	@Before
+	public void before() {
+		tempDir = FileUtils.createTempDir();
+	}
+
+	@After
+	public void after() {
+		FileUtils.deleteDir(tempDir);
+	}
+
+	private DefaultJobCacheManager newManager() {
+		return new DefaultJobCacheManager(new File(tempDir, "index"));
+	}
+
+	private JobContext newJobContext(Integer maxCachesPerKey, String... cacheKeys) {
+		return newJobContext(maxCachesPerKey, null, cacheKeys);
+	}
+
+	private JobContext newJobContext(Integer maxCachesPerKey, Integer maxCacheSizePerKey, String... cacheKeys) {
+		List<CacheSpec> cacheSpecs = new ArrayList<>();
+		for (String cacheKey: cacheKeys) {
+			CacheSpec cacheSpec = new CacheSpec();
+			cacheSpec.setKey(cacheKey);
+			cacheSpec.setPath("/" + cacheKey);
+			cacheSpecs.add(cacheSpec);
+		}
+		return new JobContext(null, null, null, null, null, null, false, null, null, null, null, null,
+				cacheSpecs, null, 7, maxCachesPerKey, maxCacheSizePerKey, 0, null, null, null) {
+
+			@Override
+			public void notifyJobRunning() {
+			}
+
+		};
+	}
+
+	private Collection<String> getNames(Map<CacheInstance, String> allocations, boolean deleted) {
+		Collection<String> names = new HashSet<>();
+		for (Map.Entry<CacheInstance, String> entry: allocations.entrySet()) {
+			if ((entry.getValue() == null) == deleted)
+				names.add(entry.getKey().getName());
+		}
+		return names;
+	}
+
+	@Test
+	public void shouldAllocateMostRecentlyUsedCacheNotInUse() {
+		DefaultJobCacheManager manager = newManager();
+		Date now = new Date();
+		Map<CacheInstance, Date> instances = new HashMap<>();
+		instances.put(new CacheInstance("old", "maven"), new Date(now.getTime() - DAY));
+		instances.put(new CacheInstance("new", "maven"), now);
+
+		JobContext job1 = newJobContext(null, "maven");
+		assertEquals(new HashSet<>(Collections.singletonList("new")),
+				getNames(manager.allocate("job1", job1, now, instances), false));
+
+		JobContext job2 = newJobContext(null, "maven");
+		assertEquals(new HashSet<>(Collections.singletonList("old")),
+				getNames(manager.allocate("job2", job2, now, instances), false));
+
+		JobContext job3 = newJobContext(null, "maven");
+		Collection<String> allocated = getNames(manager.allocate("job3", job3, now, instances), false);
+		assertEquals(1, allocated.size());
+		assertTrue(!allocated.contains("new") && !allocated.contains("old"));
+
+		manager.release("job1", job1);
+		JobContext job4 = newJobContext(null, "maven");
+		assertEquals(new HashSet<>(Collections.singletonList("new")),
+				getNames(manager.allocate("job4", job4, now, instances), false));
+
+		JobCacheStatistics statistics = manager.getStatistics().get("maven");
+		assertEquals(3, statistics.getHits());
+		assertEquals(1, statistics.getMisses());
+	}
+
+	@Test
+	public void shouldEvictExpiredAndLeastRecentlyUsedCaches() {
+		DefaultJobCacheManager manager = newManager();
+		Date now = new Date();
+		Map<CacheInstance, Date> instances = new HashMap<>();
+		instances.put(new CacheInstance("expired", "npm"), new Date(now.getTime() - 8*DAY));
+		instances.put(new CacheInstance("npm1", "npm"), now);
+		instances.put(new CacheInstance("npm2", "npm"), new Date(now.getTime() - DAY));
+		instances.put(new CacheInstance("npm3", "npm"), new Date(now.getTime() - 2*DAY));
+		instances.put(new CacheInstance("maven1", "maven"), now);
+
+		Map<CacheInstance, String> allocations = manager.allocate("job1", newJobContext(2, "maven"), now, instances);
+		assertEquals(new HashSet<>(Collections.singletonList("maven1")), getNames(allocations, false));
+		assertEquals(new HashSet<>(Arrays.asList("expired", "npm3")), getNames(allocations, true));
+		assertEquals(2, manager.getStatistics().get("npm").getEvictions());
+		assertEquals(0, manager.getStatistics().get("npm").getHits());
+	}
+
+	@Test
+	public void shouldCountCachesAvailableForSubsequentJobs() {
+		DefaultJobCacheManager manager = newManager();
+		Date now = new Date();
+		Map<CacheInstance, Date> instances = new HashMap<>();
+		instances.put(new CacheInstance("gradle1", "gradle"), now);
+		instances.put(new CacheInstance("gradle2", "gradle"), now);
+
+		JobContext job1 = newJobContext(null, "gradle");
+		manager.allocate("job1", job1, now, instances);
+		assertEquals(1, job1.getCacheCounts().get("gradle").intValue());
+
+		job1.getCacheCounts().clear();
+		Map<CacheInstance, Long> reported = new HashMap<>();
+		for (CacheInstance instance: instances.keySet())
+			reported.put(instance, null);
+		manager.report("job1", job1, reported);
+		assertEquals(2, job1.getCacheCounts().get("gradle").intValue());
+	}
+
+	@Test
+	public void shouldEvictCachesExceedingSizeQuotaAcrossRestart() {
+		DefaultJobCacheManager manager = newManager();
+		Date now = new Date();
+		Map<CacheInstance, Date> instances = new HashMap<>();
+		CacheInstance yarn1 = new CacheInstance("yarn1", "yarn");
+		CacheInstance yarn2 = new CacheInstance("yarn2", "yarn");
+		CacheInstance yarn3 = new CacheInstance("yarn3", "yarn");
+		instances.put(yarn1, now);
+		instances.put(yarn2, new Date(now.getTime() - DAY));
+		instances.put(yarn3, new Date(now.getTime() - 2*DAY));
+
+		JobContext job1 = newJobContext(null, "maven");
+		manager.allocate("job1", job1, now, instances);
+		Map<CacheInstance, Long> sizes = new HashMap<>();
+		sizes.put(yarn1, 60*MB);
+		sizes.put(yarn2, 50*MB);
+		sizes.put(yarn3, 10*MB);
+		manager.report("job1", job1, sizes);
+		manager.release("job1", job1);
+
+		// Sizes should be loaded from index after restart
+		manager = newManager();
+		JobContext job2 = newJobContext(null, 100, "yarn");
+		Map<CacheInstance, String> allocations = manager.allocate("job2", job2, now, instances);
+		assertEquals(new HashSet<>(Collections.singletonList("yarn1")), getNames(allocations, false));
+		assertEquals(new HashSet<>(Collections.singletonList("yarn3")), getNames(allocations, true));
+		assertEquals(60*MB, manager.getStatistics().get("yarn").getBytesSaved());
+	}
+
+}
@@ -0,0 +1,177 @@
+package io.onedev.server.buildspec.job.log;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import io.onedev.commons.utils.FileUtils;
+
+public class LogFileTest {
+
+	private File buildDir;
+
+	@Before
+	public void before() {
+		buildDir = FileUtils.createTempDir();
+	}
+
+	@After
+	public void after() {
+		FileUtils.deleteDir(buildDir);
+	}
+
+	private List<JobLogEntry> newEntries(int from, int count) {
+		List<JobLogEntry> entries = new ArrayList<>();
+		for (int i=from; i<from+count; i++)
+			entries.add(new JobLogEntry(new Date(i*1000L), "message " + i + (i%3==0? " \u00e9t\u00e9": "")));
+		return entries;
+	}
+
+	private void assertEntries(int from, List<JobLogEntry> entries) {
+		for (int i=0; i<entries.size(); i++) {
+			JobLogEntry expected = newEntries(from+i, 1).get(0);
+			assertEquals(expected.getMessage(), entries.get(i).getMessage());
+			assertEquals(expected.getDate(), entries.get(i).getDate());
+		}
+	}
+
+	@Test
+	public void shouldReadEntriesAcrossIndexIntervals() {
+		LogFile logFile = new LogFile(buildDir);
+		assertFalse(logFile.exists());
+		assertEquals(0, logFile.count());
+		assertEquals(0, logFile.read(0, 0).size());
+
+		int total = 0;
+		for (int count: new int[] {1, LogFile.INDEX_INTERVAL-2, 1, 1, 3*LogFile.INDEX_INTERVAL+5, 7}) {
+			logFile.append(newEntries(total, count));
+			total += count;
+		}
+		assertEquals(total, logFile.count());
+
+		List<JobLogEntry> entries = logFile.read(0, 0);
+		assertEquals(total, entries.size());
+		assertEntries(0, entries);
+
+		for (int from: new int[] {LogFile.INDEX_INTERVAL-1, LogFile.INDEX_INTERVAL, 2*LogFile.INDEX_INTERVAL+1}) {
+			entries = logFile.read(from, 10);
+			assertEquals(10, entries.size());
+			assertEntries(from, entries);
+		}
+		assertEquals(0, logFile.read(total, 10).size());
+
+		LogSnippet snippet = logFile.readReversely(LogFile.INDEX_INTERVAL+3);
+		assertEquals(total-LogFile.INDEX_INTERVAL-3, snippet.offset);
+		assertEquals(LogFile.INDEX_INTERVAL+3, snippet.entries.size());
+		assertEntries(snippet.offset, new ArrayList<>(snippet.entries));
+
+		snippet = logFile.readReversely(total+10);
+		assertEquals(0, snippet.offset);
+		assertEquals(total, snippet.entries.size());
+	}
+
+	@Test
+	public void shouldMigrateLegacyLog() throws IOException {
+		File legacyFile = new File(buildDir, LogFile.LEGACY_FILE);
+		try (ObjectOutputStream oos = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(legacyFile)))) {
+			for (JobLogEntry entry: newEntries(0, 100))
+				oos.writeObject(entry);
+		}
+		// Legacy log appends objects to existing file without writing stream header again
+		try (ObjectOutputStream oos = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(legacyFile, true))) {
+
+			@Override
+			protected void writeStreamHeader() throws IOException {
+				reset();
+			}
+
+		}) {
+			for (JobLogEntry entry: newEntries(100, 200))
+				oos.writeObject(entry);
+		}
+
+		LogFile logFile = new LogFile(buildDir);
+		assertTrue(logFile.exists());
+		assertTrue(logFile.isLegacy());
+		logFile.migrate();
+		assertFalse(logFile.isLegacy());
+		assertFalse(legacyFile.exists());
+
+		assertEquals(300, logFile.count());
+		List<JobLogEntry> entries = logFile.read(0, 0);
+		assertEquals(300, entries.size());
+		assertEntries(0, entries);
+
+		logFile.append(newEntries(300, 1));
+		assertEntries(300, logFile.read(300, 0));
+	}
+
+	@Test
+	public void shouldMigrateEmptyLegacyLog() throws IOException {
+		File legacyFile = new File(buildDir, LogFile.LEGACY_FILE);
+		new ObjectOutputStream(new FileOutputStream(legacyFile)).close();
+
+		LogFile logFile = new LogFile(buildDir);
+		logFile.migrate();
+		assertTrue(logFile.exists());
+		assertFalse(logFile.isLegacy());
+		assertEquals(0, logFile.count());
+	}
+
+	@Test
+	public void shouldRecoverFromTruncatedFinalRecord() throws IOException {
+		LogFile logFile = new LogFile(buildDir);
+		int total = LogFile.INDEX_INTERVAL + 1;
+		logFile.append(newEntries(0, total));
+
+		// Cut final record in the middle, so that index entry of it points at a torn record
+		try (RandomAccessFile raf = new RandomAccessFile(logFile.getDataFile(), "rw")) {
+			raf.setLength(raf.length() - 3);
+		}
+		assertEquals(total-1, logFile.count());
+		assertEntries(0, logFile.read(0, 0));
+
+		logFile.append(newEntries(total-1, 10));
+		assertEquals(total+9, logFile.count());
+		List<JobLogEntry> entries = logFile.read(0, 0);
+		assertEquals(total+9, entries.size());
+		assertEntries(0, entries);
+		assertEntries(LogFile.INDEX_INTERVAL, logFile.read(LogFile.INDEX_INTERVAL, 5));
+	}
+
+	@Test
+	public void shouldDropIndexPointingPastEndOfData() throws IOException {
+		LogFile logFile = new LogFile(buildDir);
+		int total = LogFile.INDEX_INTERVAL + 1;
+		logFile.append(newEntries(0, total));
+
+		// Cut into the record before the last indexed one, so that last index entry points past end of data
+		long lastIndexed = logFile.getIndexedOffsets(1, Long.MAX_VALUE).get(0);
+		try (RandomAccessFile raf = new RandomAccessFile(logFile.getDataFile(), "rw")) {
+			raf.setLength(lastIndexed - 2);
+		}
+
+		logFile.append(newEntries(total-2, 3));
+		assertEquals(total+1, logFile.count());
+		List<JobLogEntry> entries = logFile.read(0, 0);
+		assertEquals(total+1, entries.size());
+		assertEntries(0, entries);
+		assertEntries(LogFile.INDEX_INTERVAL, logFile.read(LogFile.INDEX_INTERVAL, 0));
+		assertEquals(1, logFile.getIndexedOffsets(1, Long.MAX_VALUE).size());
+	}
+
+}
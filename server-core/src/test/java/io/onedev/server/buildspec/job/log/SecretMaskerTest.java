@@ -0,0 +1,25 @@
+package io.onedev.server.buildspec.job.log;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+
+public class SecretMaskerTest {
+
+	@Test
+	public void test() {
+		SecretMasker masker = new SecretMasker(Lists.newArrayList("secret", "cret123", "she", "he", "hers", ""));
+		assertEquals("no ***** *****re", masker.mask("no secret here"));
+		assertEquals("value: *****", masker.mask("value: secret123"));
+		assertEquals("u*****", masker.mask("ushers"));
+		assertEquals("a*****b*****c", masker.mask("asecretbhec"));
+		assertEquals("nothing to mask", masker.mask("nothing to mask"));
+		assertEquals("", masker.mask(""));
+		
+		masker = new SecretMasker(Lists.newArrayList());
+		assertEquals("secret", masker.mask("secret"));
+	}
+
+}
@@ -1,12 +1,25 @@
 package io.onedev.server.git.command;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
+import javax.annotation.Nullable;
+
+import org.eclipse.jgit.api.MergeCommand.FastForwardMode;
+import org.eclipse.jgit.lib.ObjectId;
 import org.junit.Test;
 
 import io.onedev.commons.utils.LinearRange;
+import io.onedev.commons.utils.command.Commandline;
+import io.onedev.commons.utils.command.ExecuteResult;
+import io.onedev.commons.utils.command.LineConsumer;
 import io.onedev.server.git.AbstractGitTest;
 import io.onedev.server.git.BlameBlock;
 
@@ -77,6 +90,193 @@ public class BlameCommandTest extends AbstractGitTest {
 		assertEquals(commitHash + ": 0-1", getBlock(blames, commitHash).toString());
 	}
 
+	@Test
+	public void testWithCache() throws Exception {
+		addFileAndCommit("readme", "readme", "add readme");
+		ObjectId readmeCommitId = git.getRepository().resolve("master");
+		
+		addFileAndCommit(
+				"file", 
+				"1st line\n"
+				+ "2nd line\n"
+				+ "3rd line\n", 
+				"add file");
+		ObjectId oldCommitId = git.getRepository().resolve("master");
+		
+		addFileAndCommit(
+				"file", 
+				"1st line\n"
+				+ "second line\n"
+				+ "3rd line\n", 
+				"modify file");
+		String commitHash = git.getRepository().resolve("master").name();
+		
+		Collection<BlameBlock> blames = new BlameCommand(git.getRepository())
+				.commitHash(commitHash)
+				.file("file")
+				.cache(new BlameCommand.Cache() {
+
+					@Override
+					public ObjectId[] getLineCommits(ObjectId commitId, String path) {
+						if (commitId.equals(oldCommitId) && path.equals("file"))
+							return new ObjectId[] {readmeCommitId, readmeCommitId, readmeCommitId};
+						else
+							return null;
+					}
+					
+				})
+				.call();
+		
+		assertEquals(2, blames.size());
+		assertEquals(commitHash + ": 1-1", getBlock(blames, commitHash).toString());
+		assertEquals(readmeCommitId.name() + ": 0-0, 2-2", getBlock(blames, readmeCommitId.name()).toString());
+	}
+	
+	@Test
+	public void shouldBlameLinesFromSecondParentOfMerge() throws Exception {
+		addFileAndCommit(
+				"file", 
+				"1st line\n"
+				+ "2nd line\n"
+				+ "3rd line\n"
+				+ "4th line\n"
+				+ "5th line\n"
+				+ "6th line\n", 
+				"initial commit");
+		git.checkout().setName("dev").setCreateBranch(true).call();
+		addFileAndCommit(
+				"file", 
+				"1st line\n"
+				+ "2nd line\n"
+				+ "3rd line\n"
+				+ "4th line\n"
+				+ "fifth line\n"
+				+ "6th line\n", 
+				"modify 5th line on dev");
+		String devCommitHash = git.getRepository().resolve("dev").name();
+		
+		git.checkout().setName("master").call();
+		addFileAndCommit(
+				"file", 
+				"first line\n"
+				+ "2nd line\n"
+				+ "3rd line\n"
+				+ "4th line\n"
+				+ "5th line\n"
+				+ "6th line\n", 
+				"modify 1st line on master");
+		git.merge().include(git.getRepository().resolve("dev"))
+				.setFastForward(FastForwardMode.NO_FF).setCommit(true).setMessage("merge dev").call();
+		
+		String commitHash = git.getRepository().resolve("master").name();
+		Map<Integer, String> lineCommits = getLineCommits(commitHash, "file", null);
+		assertEquals(devCommitHash, lineCommits.get(4));
+		assertEquals(blameWithGit(commitHash, "file", null), lineCommits);
+	}
+	
+	@Test
+	public void shouldFollowWholeFileRename() throws Exception {
+		addFileAndCommit(
+				"file", 
+				"1st line\n"
+				+ "2nd line\n"
+				+ "3rd line\n", 
+				"initial commit");
+		String initialCommitHash = git.getRepository().resolve("master").name();
+		
+		rm("file");
+		addFileAndCommit(
+				"renamed", 
+				"1st line\n"
+				+ "2nd line\n"
+				+ "3rd line\n", 
+				"rename file");
+		addFileAndCommit(
+				"renamed", 
+				"1st line\n"
+				+ "second line\n"
+				+ "3rd line\n", 
+				"modify renamed file");
+		
+		String commitHash = git.getRepository().resolve("master").name();
+		Map<Integer, String> lineCommits = getLineCommits(commitHash, "renamed", null);
+		assertEquals(initialCommitHash, lineCommits.get(0));
+		assertEquals(commitHash, lineCommits.get(1));
+		assertEquals(blameWithGit(commitHash, "renamed", null), lineCommits);
+	}
+	
+	@Test
+	public void shouldClampRangePastEndOfFile() throws Exception {
+		addFileAndCommit(
+				"file", 
+				"1st line\n"
+				+ "2nd line\n"
+				+ "3rd line\n", 
+				"initial commit");
+		addFileAndCommit(
+				"file", 
+				"1st line\n"
+				+ "2nd line\n"
+				+ "third line\n"
+				+ "4th line\n", 
+				"modify file");
+		
+		String commitHash = git.getRepository().resolve("master").name();
+		assertEquals(blameWithGit(commitHash, "file", new LinearRange(1, 3)), 
+				getLineCommits(commitHash, "file", new LinearRange(1, 100)));
+		assertTrue(getLineCommits(commitHash, "file", new LinearRange(10, 20)).isEmpty());
+		assertTrue(blameWithGit(commitHash, "file", new LinearRange(10, 20)).isEmpty());
+	}
+	
+	private Map<Integer, String> getLineCommits(String commitHash, String file, @Nullable LinearRange range) {
+		Map<Integer, String> lineCommits = new HashMap<>();
+		for (BlameBlock block: new BlameCommand(git.getRepository()).commitHash(commitHash).file(file).range(range).call()) {
+			for (LinearRange blockRange: block.getRanges()) {
+				for (int line=blockRange.getFrom(); line<=blockRange.getTo(); line++)
+					lineCommits.put(line, block.getCommit().getHash());
+			}
+		}
+		return lineCommits;
+	}
+	
+	/*
+	 * Blame with git executable the same way as BlameCommand did before it was calculated in process, 
+	 * that is, git is asked to blame to end of file if range exceeds it, and nothing is blamed if 
+	 * range starts after end of file 
+	 */
+	private Map<Integer, String> blameWithGit(String commitHash, String file, @Nullable LinearRange range) {
+		Pattern pattern = Pattern.compile("^([0-9a-f]{40}) \\d+ (\\d+)");
+		Map<Integer, String> lineCommits = new HashMap<>();
+		AtomicBoolean endOfFile = new AtomicBoolean(false);
+		
+		Commandline cmd = new Commandline("git").workingDir(git.getRepository().getDirectory());
+		cmd.addArgs("blame", "--porcelain");
+		if (range != null)
+			cmd.addArgs("-L" + (range.getFrom()+1) + "," + (range.getTo()+1));
+		cmd.addArgs(commitHash, "--", file);
+		ExecuteResult result = cmd.execute(new LineConsumer() {
+
+			@Override
+			public void consume(String line) {
+				Matcher matcher = pattern.matcher(line);
+				if (matcher.find())
+					lineCommits.put(Integer.parseInt(matcher.group(2))-1, matcher.group(1));
+			}
+			
+		}, new LineConsumer() {
+
+			@Override
+			public void consume(String line) {
+				if (line.startsWith("fatal: file ") && line.contains("has only "))
+					endOfFile.set(true);
+			}
+			
+		});
+		if (!endOfFile.get())
+			result.checkReturnCode();
+		return lineCommits;
+	}
+	
 	private BlameBlock getBlock(Collection<BlameBlock> blameBlocks, String commitHash) {
 		for (BlameBlock block: blameBlocks) {
 			if (block.getCommit().getHash().equals(commitHash))
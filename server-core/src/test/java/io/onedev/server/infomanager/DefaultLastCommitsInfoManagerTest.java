@@ -0,0 +1,59 @@
+package io.onedev.server.infomanager;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.revwalk.LastCommitsOfChildren.Value;
+import org.junit.Test;
+
+import io.onedev.server.infomanager.AbstractEnvironmentManager.ValueView;
+import jetbrains.exodus.ArrayByteIterable;
+
+public class DefaultLastCommitsInfoManagerTest {
+
+	private Map<String, Value> roundTrip(Map<String, Value> lastCommits) {
+		byte[] bytes = DefaultLastCommitsInfoManager.serializeLastCommits(lastCommits);
+		return DefaultLastCommitsInfoManager.deserializeLastCommits(new ValueView(new ArrayByteIterable(bytes)));
+	}
+
+	@Test
+	public void shouldRoundTripLastCommits() {
+		assertEquals(0, roundTrip(new HashMap<>()).size());
+
+		Value value1 = new Value(ObjectId.fromString("0123456789abcdef0123456789abcdef01234567"),
+				new PersonIdent("robin", "robin@example.com", 1500000000000L, 480),
+				new Date(1500000100000L), "Fix caf\u00e9 rendering");
+		Value value2 = new Value(ObjectId.fromString("fedcba9876543210fedcba9876543210fedcba98"),
+				new PersonIdent("\u4e2d\u6587", "", 1600000000000L, -300),
+				new Date(1600000100000L), "");
+
+		Map<String, Value> lastCommits = new HashMap<>();
+		lastCommits.put("src", value1);
+		lastCommits.put("README.md", value2);
+		lastCommits.put("\u6587\u6863", value1);
+
+		Map<String, Value> restored = roundTrip(lastCommits);
+		assertEquals(lastCommits.keySet(), restored.keySet());
+		for (Map.Entry<String, Value> entry: lastCommits.entrySet()) {
+			Value expected = entry.getValue();
+			Value actual = restored.get(entry.getKey());
+			assertEquals(expected.getId(), actual.getId());
+			assertEquals(expected.getAuthor().getName(), actual.getAuthor().getName());
+			assertEquals(expected.getAuthor().getEmailAddress(), actual.getAuthor().getEmailAddress());
+			assertEquals(expected.getAuthor().getWhen(), actual.getAuthor().getWhen());
+			assertEquals(expected.getAuthor().getTimeZoneOffset(), actual.getAuthor().getTimeZoneOffset());
+			assertEquals(expected.getCommitDate(), actual.getCommitDate());
+			assertEquals(expected.getSummary(), actual.getSummary());
+		}
+
+		// Children sharing the same last commit refer to the same decoded value
+		assertSame(restored.get("src"), restored.get("\u6587\u6863"));
+	}
+
+}
@@ -0,0 +1,104 @@
+package io.onedev.server.maintenance;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import io.onedev.commons.utils.FileUtils;
+
+public class BackupManifestTest {
+
+	private File tempDir;
+
+	@Before
+	public void before() {
+		tempDir = FileUtils.createTempDir();
+	}
+
+	@After
+	public void after() {
+		FileUtils.deleteDir(tempDir);
+	}
+
+	private void addEntry(ZipOutputStream zip, String name, String content) throws IOException {
+		zip.putNextEntry(new ZipEntry(name));
+		zip.write(content.getBytes(StandardCharsets.UTF_8));
+		zip.closeEntry();
+	}
+
+	private String read(File file) throws IOException {
+		return FileUtils.readFileToString(file, StandardCharsets.UTF_8);
+	}
+
+	@Test
+	public void shouldRestoreIncrementalBackupOverBaseBackup() throws IOException {
+		File backupDir = new File(tempDir, "backup");
+		FileUtils.createDir(backupDir);
+
+		Map<String, String> fullDigests = new HashMap<>();
+		fullDigests.put("Projects.xml", "projects");
+		fullDigests.put("Builds.xml", "builds");
+		fullDigests.put("Builds.xml.2", "builds2");
+		try (ZipOutputStream zip = new ZipOutputStream(new FileOutputStream(new File(backupDir, "full.zip")))) {
+			addEntry(zip, "Projects.xml", "projects");
+			addEntry(zip, "Builds.xml", "builds");
+			addEntry(zip, "Builds.xml.2", "builds2");
+			new BackupManifest(null, fullDigests).writeTo(zip);
+		}
+
+		// Builds.xml is changed, Builds.xml.2 is removed, and Issues.xml is added
+		Map<String, String> incrementalDigests = new HashMap<>();
+		incrementalDigests.put("Projects.xml", "projects");
+		incrementalDigests.put("Builds.xml", "builds-changed");
+		incrementalDigests.put("Issues.xml", "issues");
+		try (ZipOutputStream zip = new ZipOutputStream(new FileOutputStream(new File(backupDir, "incremental.zip")))) {
+			addEntry(zip, "Builds.xml", "builds-changed");
+			addEntry(zip, "Issues.xml", "issues");
+			new BackupManifest("full.zip", incrementalDigests).writeTo(zip);
+		}
+
+		BackupManifest manifest = BackupManifest.readFrom(new File(backupDir, "incremental.zip"));
+		assertTrue(manifest.isIncremental());
+		assertEquals("full.zip", manifest.getBase());
+		assertEquals(incrementalDigests, manifest.getDigests());
+
+		File dataDir = new File(tempDir, "data");
+		FileUtils.createDir(dataDir);
+		BackupManifest.extract(new File(backupDir, "incremental.zip"), dataDir);
+		assertEquals(new TreeSet<>(Arrays.asList("Projects.xml", "Builds.xml", "Issues.xml")),
+				new TreeSet<>(Arrays.asList(dataDir.list())));
+		assertEquals("projects", read(new File(dataDir, "Projects.xml")));
+		assertEquals("builds-changed", read(new File(dataDir, "Builds.xml")));
+		assertEquals("issues", read(new File(dataDir, "Issues.xml")));
+	}
+
+	@Test
+	public void shouldTreatBackupWithoutManifestAsFullBackup() throws IOException {
+		File backupFile = new File(tempDir, "legacy.zip");
+		try (ZipOutputStream zip = new ZipOutputStream(new FileOutputStream(backupFile))) {
+			addEntry(zip, "Projects.xml", "projects");
+		}
+		assertNull(BackupManifest.readFrom(backupFile));
+
+		File dataDir = new File(tempDir, "data");
+		FileUtils.createDir(dataDir);
+		BackupManifest.extract(backupFile, dataDir);
+		assertEquals(Arrays.asList("Projects.xml"), Arrays.asList(dataDir.list()));
+	}
+
+}
@@ -0,0 +1,158 @@
+package io.onedev.server.notification;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpServer;
+
+import io.onedev.commons.utils.FileUtils;
+
+public class WebHookDelivererTest {
+
+	private File storeDir;
+
+	private ExecutorService executor;
+
+	private HttpServer server;
+
+	private final List<String> received = Collections.synchronizedList(new ArrayList<>());
+
+	private final AtomicInteger failures = new AtomicInteger(0);
+
+	@Before
+	public void before() {
+		storeDir = FileUtils.createTempDir();
+		executor = Executors.newCachedThreadPool();
+	}
+
+	@After
+	public void after() {
+		if (server != null)
+			server.stop(0);
+		executor.shutdownNow();
+		FileUtils.deleteDir(storeDir);
+	}
+
+	private void startServer(int port) throws IOException {
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", port), 0);
+		server.createContext("/hook", exchange -> {
+			String payload = IOUtils.toString(exchange.getRequestBody(), StandardCharsets.UTF_8);
+			int statusCode;
+			if (failures.get() > 0) {
+				failures.decrementAndGet();
+				statusCode = 500;
+			} else {
+				received.add(payload);
+				statusCode = 200;
+			}
+			byte[] response = "ok".getBytes(StandardCharsets.UTF_8);
+			exchange.sendResponseHeaders(statusCode, response.length);
+			try (OutputStream os = exchange.getResponseBody()) {
+				os.write(response);
+			}
+		});
+		server.start();
+	}
+
+	private String getPostUrl() {
+		return "http://127.0.0.1:" + server.getAddress().getPort() + "/hook";
+	}
+
+	// Deliveries are persisted and queued asynchronously, so endpoint may not exist yet
+	private long getSucceededDeliveries(WebHookDeliverer deliverer) {
+		Iterator<WebHookDeliveryStatus> it = deliverer.getStatuses().iterator();
+		return it.hasNext()? it.next().getSucceededDeliveries(): 0;
+	}
+
+	private long getRetries(WebHookDeliverer deliverer) {
+		Iterator<WebHookDeliveryStatus> it = deliverer.getStatuses().iterator();
+		return it.hasNext()? it.next().getRetries(): 0;
+	}
+
+	private void waitFor(BooleanSupplier condition) throws InterruptedException {
+		long timeout = System.currentTimeMillis() + 10000;
+		while (!condition.getAsBoolean()) {
+			assertTrue("Timed out waiting for condition", System.currentTimeMillis() < timeout);
+			Thread.sleep(10);
+		}
+	}
+
+	@Test
+	public void shouldDeliverInOrderWithRetries() throws Exception {
+		startServer(0);
+		failures.set(2);
+
+		WebHookDeliverer deliverer = new WebHookDeliverer(storeDir, executor, 0);
+		deliverer.start();
+		try {
+			for (int i=0; i<5; i++)
+				deliverer.deliver(getPostUrl(), "secret", "payload" + i);
+
+			waitFor(() -> {
+				deliverer.retryDue();
+				return getSucceededDeliveries(deliverer) == 5;
+			});
+			assertEquals("[payload0, payload1, payload2, payload3, payload4]", received.toString());
+
+			WebHookDeliveryStatus status = deliverer.getStatuses().iterator().next();
+			assertEquals(2, status.getRetries());
+			assertEquals(0, status.getFailedDeliveries());
+			assertEquals(0, status.getQueuedDeliveries());
+			assertEquals(0, storeDir.list().length);
+		} finally {
+			deliverer.stop();
+		}
+	}
+
+	@Test
+	public void shouldDeliverPersistedPayloadsAfterRestart() throws Exception {
+		startServer(0);
+		int port = server.getAddress().getPort();
+		String postUrl = getPostUrl();
+		server.stop(0);
+
+		WebHookDeliverer deliverer = new WebHookDeliverer(storeDir, executor, 60000);
+		deliverer.start();
+		try {
+			deliverer.deliver(postUrl, null, "payload0");
+			deliverer.deliver(postUrl, null, "payload1");
+			waitFor(() -> getRetries(deliverer) == 1);
+		} finally {
+			deliverer.stop();
+		}
+		assertEquals(2, storeDir.list().length);
+
+		startServer(port);
+		WebHookDeliverer restartedDeliverer = new WebHookDeliverer(storeDir, executor, 60000);
+		// Deliveries accepted before start should be sent after persisted ones
+		restartedDeliverer.deliver(postUrl, null, "payload2");
+		restartedDeliverer.start();
+		try {
+			waitFor(() -> getSucceededDeliveries(restartedDeliverer) == 3);
+			assertEquals("[payload0, payload1, payload2]", received.toString());
+			assertEquals(0, storeDir.list().length);
+		} finally {
+			restartedDeliverer.stop();
+		}
+	}
+
+}
@@ -0,0 +1,91 @@
+package io.onedev.server.persistence;
+
+import static org.junit.Assert.assertEquals;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.dom4j.DocumentHelper;
+import org.dom4j.Element;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import com.google.common.hash.Hashing;
+import com.thoughtworks.xstream.XStream;
+
+import io.onedev.commons.launcher.loader.AppLoader;
+import io.onedev.commons.launcher.loader.AppLoaderMocker;
+import io.onedev.server.migration.VersionedDocument;
+import io.onedev.server.util.xstream.CollectionConverter;
+import io.onedev.server.util.xstream.MapConverter;
+
+public class DefaultPersistManagerTest extends AppLoaderMocker {
+
+	@Override
+	protected void setup() {
+		XStream xstream = new XStream();
+		XStream.setupDefaultSecurity(xstream);
+		xstream.allowTypesByWildcard(new String[] {"io.onedev.**"});
+		xstream.registerConverter(new CollectionConverter(xstream.getMapper()), XStream.PRIORITY_VERY_HIGH);
+		xstream.registerConverter(new MapConverter(xstream.getMapper()), XStream.PRIORITY_VERY_HIGH);
+		Mockito.when(AppLoader.getInstance(XStream.class)).thenReturn(xstream);
+	}
+
+	@Override
+	protected void teardown() {
+	}
+
+	private String getDigest(byte[] dataFile) {
+		return Hashing.sha256().hashBytes(dataFile).toString();
+	}
+
+	private List<Object> restore(byte[] dataFile) {
+		List<Object> entities = new ArrayList<>();
+		VersionedDocument dom = VersionedDocument.fromXML(new String(dataFile, StandardCharsets.UTF_8));
+		for (Element element: dom.getRootElement().elements()) {
+			element.detach();
+			entities.add(new VersionedDocument(DocumentHelper.createDocument(element)).toBean());
+		}
+		return entities;
+	}
+
+	@Test
+	public void shouldProduceSameDigestWhenExportingUnchangedData() {
+		List<Object> entities = new ArrayList<>();
+		for (long id=1; id<=3; id++) {
+			Entity entity = new Entity();
+			entity.id = id;
+			// Large capacity results in different iteration order from sets and maps created on restore
+			entity.tags = new HashSet<>(4096);
+			entity.properties = new HashMap<>(4096);
+			for (int i=0; i<100; i++) {
+				entity.tags.add("tag" + (i*7919%100));
+				entity.properties.put("property" + (i*7919%100), "value" + i);
+			}
+			entities.add(entity);
+		}
+
+		byte[] dataFile = DefaultPersistManager.toDataFile(entities);
+		assertEquals(getDigest(dataFile), getDigest(DefaultPersistManager.toDataFile(entities)));
+
+		List<Object> restored = restore(dataFile);
+		assertEquals(3, restored.size());
+		assertEquals(getDigest(dataFile), getDigest(DefaultPersistManager.toDataFile(restored)));
+	}
+
+	public static class Entity {
+
+		Long id;
+
+		Set<String> tags;
+
+		Map<String, String> properties;
+
+	}
+
+}
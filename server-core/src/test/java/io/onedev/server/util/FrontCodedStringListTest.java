@@ -0,0 +1,30 @@
+package io.onedev.server.util;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+
+public class FrontCodedStringListTest {
+
+	@Test
+	public void test() {
+		List<String> strings = new ArrayList<>();
+		assertEquals(strings, new FrontCodedStringList(strings));
+
+		strings = Lists.newArrayList("", "a", "a/b", "a/b/c.java", "a/b/d.java", "a/bc", "中文/文件", "中文/文档");
+		for (int i=0; i<100; i++)
+			strings.add("src/main/java/io/onedev/File" + i + ".java");
+
+		List<String> list = new FrontCodedStringList(strings);
+		assertEquals(strings.size(), list.size());
+		for (int i=0; i<strings.size(); i++)
+			assertEquals(strings.get(i), list.get(i));
+		assertEquals(strings, new ArrayList<>(list));
+	}
+
+}
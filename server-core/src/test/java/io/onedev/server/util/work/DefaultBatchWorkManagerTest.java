@@ -0,0 +1,105 @@
+package io.onedev.server.util.work;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.shiro.subject.Subject;
+import org.apache.shiro.util.ThreadContext;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import io.onedev.server.event.system.SystemStarted;
+import io.onedev.server.util.concurrent.Prioritized;
+import io.onedev.server.util.concurrent.PrioritizedRunnable;
+
+public class DefaultBatchWorkManagerTest {
+
+	private final List<PrioritizedRunnable> dispatchedBatches = new ArrayList<>();
+
+	private final List<String> finishedGroups = new ArrayList<>();
+
+	private DefaultBatchWorkManager manager;
+
+	@Before
+	public void before() {
+		ThreadContext.bind(Mockito.mock(Subject.class));
+
+		WorkExecutor workExecutor = Mockito.mock(WorkExecutor.class);
+		Mockito.doAnswer(invocation -> {
+			dispatchedBatches.add((PrioritizedRunnable) invocation.getArguments()[0]);
+			return null;
+		}).when(workExecutor).execute(Mockito.any(PrioritizedRunnable.class));
+
+		// Only one batch is handed to work executor at a time, so that batches are dispatched
+		// strictly in order decided by the manager
+		manager = new DefaultBatchWorkManager(workExecutor, 1);
+		manager.on(new SystemStarted());
+	}
+
+	@After
+	public void after() {
+		ThreadContext.unbindSubject();
+	}
+
+	private BatchWorker newWorker(String id, String group, int groupWeight) {
+		return new BatchWorker(id, group, 1) {
+
+			@Override
+			public void doWorks(Collection<Prioritized> works) {
+				finishedGroups.add(getGroup());
+			}
+
+			@Override
+			public int getGroupWeight() {
+				return groupWeight;
+			}
+
+		};
+	}
+
+	private void runDispatchedBatches(int count) {
+		for (int i=0; i<count; i++) {
+			assertEquals(1, dispatchedBatches.size());
+			dispatchedBatches.remove(0).run();
+		}
+	}
+
+	@Test
+	public void shouldNotStarveProjectBehindBusyProject() {
+		for (int i=0; i<4; i++) {
+			BatchWorker worker = newWorker("project-1-worker" + i, "project-1", 1);
+			for (int j=0; j<10; j++)
+				manager.submit(worker, new Prioritized(1));
+		}
+		manager.submit(newWorker("project-2-worker", "project-2", 1), new Prioritized(1));
+
+		runDispatchedBatches(2);
+		assertEquals("project-2", finishedGroups.get(1));
+
+		runDispatchedBatches(39);
+		assertEquals(41, finishedGroups.size());
+		assertEquals(0, dispatchedBatches.size());
+		assertEquals(0, manager.getStatuses().size());
+	}
+
+	@Test
+	public void shouldShareWorkThreadsByGroupWeight() {
+		BatchWorker heavyWorker = newWorker("heavy-worker", "heavy", 2);
+		BatchWorker lightWorker = newWorker("light-worker", "light", 1);
+		for (int i=0; i<30; i++) {
+			manager.submit(heavyWorker, new Prioritized(1));
+			manager.submit(lightWorker, new Prioritized(1));
+		}
+
+		runDispatchedBatches(30);
+		assertEquals(20, Collections.frequency(finishedGroups, "heavy"));
+		assertEquals(10, Collections.frequency(finishedGroups, "light"));
+	}
+
+}
@@ -7,8 +7,12 @@ import java.io.Serializable;
 import java.io.UnsupportedEncodingException;
 import java.net.URLEncoder;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
@@ -84,6 +88,10 @@ public class DockerExecutor extends JobExecutor implements Testable<TestData>, V
 	
 	private String dockerExecutable;
 	
+	private boolean poolWorkspaces;
+	
+	private static WorkspacePool workspacePool;
+	
 	private transient CapacityRunner capacityRunner;
 	
 	private transient volatile String outerInstallPath;
@@ -128,6 +136,21 @@ public class DockerExecutor extends JobExecutor implements Testable<TestData>, V
 		this.dockerExecutable = dockerExecutable;
 	}
 
+	@Editable(order=50200, group="More Settings", description="If enabled, workspaces of finished jobs will be "
+			+ "kept and reset to commit of subsequent jobs of the same project able to access the same job secrets, "
+			+ "instead of being rebuilt. Only work tree files are reused, and git dir of the workspace is recreated "
+			+ "for each job. Git objects of pooled workspaces are borrowed from project repository instead of being "
+			+ "copied, and objects of project repository will be mounted read-only into job container for this purpose. "
+			+ "This only applies to jobs retrieving source with Linux images when workspace is not cached, and at most "
+			+ "<i>capacity</i> number of idle workspaces will be kept for each project and trust level")
+	public boolean isPoolWorkspaces() {
+		return poolWorkspaces;
+	}
+
+	public void setPoolWorkspaces(boolean poolWorkspaces) {
+		this.poolWorkspaces = poolWorkspaces;
+	}
+
 	private Commandline newDocker() {
 		if (getDockerExecutable() != null)
 			return new Commandline(getDockerExecutable());
@@ -168,6 +191,122 @@ public class DockerExecutor extends JobExecutor implements Testable<TestData>, V
 	private File getCacheHome() {
 		return new File(Bootstrap.getSiteDir(), "cache"); 
 	}
+	
+	private static synchronized WorkspacePool getWorkspacePool() {
+		if (workspacePool == null)
+			workspacePool = new WorkspacePool(new File(Bootstrap.getSiteDir(), "workspace-pool"));
+		return workspacePool;
+	}
+	
+	/*
+	 * Workspaces are pooled by project and trust level of the job, so that a job can never leave files 
+	 * for jobs able to access more secrets. Project git dir is laid out as <projects dir>/<project id>/git, 
+	 * so name of its parent identifies the project
+	 */
+	private String getWorkspacePoolKey(JobContext jobContext) {
+		return jobContext.getProjectGitDir().getParentFile().getName() + "-" + jobContext.getTrustLevel();
+	}
+	
+	private boolean canMount(File hostDir) {
+		String hostInstallPath = Bootstrap.installDir.getAbsolutePath();
+		String hostPath = hostDir.getAbsolutePath();
+		return !Bootstrap.isInDocker() 
+				|| hostPath.startsWith(hostInstallPath + "/") || hostPath.startsWith(hostInstallPath + "\\");
+	}
+	
+	/*
+	 * Run git on host against pooled workspace. Hooks and fsmonitor are disabled explicitly as 
+	 * the workspace was writable by previous job
+	 */
+	private void runPooledWorkspaceGit(Commandline git, JobLogger jobLogger, boolean checkReturnCode, 
+			String... args) {
+		git.clearArgs();
+		git.addArgs("-c", "core.hooksPath=/dev/null", "-c", "core.fsmonitor=false");
+		git.addArgs(args);
+		ExecuteResult result = git.execute(new LineConsumer() {
+
+			@Override
+			public void consume(String line) {
+				jobLogger.log(line);
+			}
+			
+		}, new LineConsumer() {
+
+			@Override
+			public void consume(String line) {
+				jobLogger.log(line);
+			}
+			
+		});
+		if (checkReturnCode)
+			result.checkReturnCode();
+	}
+	
+	/*
+	 * Create an empty git dir in workspace, with git objects borrowed from project repository via 
+	 * alternates instead of being copied. Subsequent fetch of job commit will find all objects locally
+	 */
+	private void initPooledGitDir(Commandline git, File workspace, JobContext jobContext) {
+		runPooledWorkspaceGit(git, jobContext.getLogger(), true, "init", "--quiet", ".");
+		File alternatesFile = new File(workspace, ".git/objects/info/alternates");
+		FileUtils.createDir(alternatesFile.getParentFile());
+		FileUtils.writeFile(alternatesFile, 
+				new File(jobContext.getProjectGitDir(), "objects").getAbsolutePath() + "\n");
+	}
+	
+	/*
+	 * Git dir of pooled workspace was writable by previous job, and may contain config, hooks, 
+	 * alternates or objects planted by it. It is never reused: a new git dir is created for each 
+	 * job, and only work tree files matching job commit by content are kept 
+	 */
+	private boolean resetPooledWorkspace(Commandline git, File workspace, JobContext jobContext) {
+		JobLogger jobLogger = jobContext.getLogger();
+		try {
+			// Submodules keep their git dirs inside git dir of the workspace
+			if (new File(workspace, ".gitmodules").exists())
+				return false;
+			
+			Path gitDir = new File(workspace, ".git").toPath();
+			if (Files.isSymbolicLink(gitDir) || Files.isRegularFile(gitDir, LinkOption.NOFOLLOW_LINKS))
+				Files.delete(gitDir);
+			else if (Files.exists(gitDir, LinkOption.NOFOLLOW_LINKS))
+				FileUtils.deleteDir(gitDir.toFile());
+			initPooledGitDir(git, workspace, jobContext);
+			
+			String commitHash = jobContext.getCommitId().name();
+			runPooledWorkspaceGit(git, jobLogger, true, "read-tree", commitHash);
+			// Hash work tree files so that unchanged ones are kept even without stat info of previous index 
+			runPooledWorkspaceGit(git, jobLogger, false, "update-index", "-q", "--refresh");
+			runPooledWorkspaceGit(git, jobLogger, true, "reset", "--hard", "--quiet", commitHash);
+			runPooledWorkspaceGit(git, jobLogger, true, "clean", "-ffdx", "--quiet");
+			return true;
+		} catch (Exception e) {
+			// Workspace may contain files not deletable by current user, or objects borrowed 
+			// from project repository may have been pruned 
+			logger.debug("Error resetting pooled workspace", e);
+			return false;
+		}
+	}
+	
+	private void preparePooledWorkspace(Commandline git, File workspace, JobContext jobContext) {
+		JobLogger jobLogger = jobContext.getLogger();
+		if (workspace.list().length != 0) {
+			jobLogger.log("Resetting pooled workspace...");
+			if (resetPooledWorkspace(git, workspace, jobContext))
+				return;
+			jobLogger.log("Unable to reset pooled workspace, recreating...");
+			cleanDirAsRoot(workspace);
+			FileUtils.cleanDir(workspace);
+		}
+		initPooledGitDir(git, workspace, jobContext);
+	}
+	
+	private void releasePooledWorkspace(File workspace, JobContext jobContext) {
+		if (!getWorkspacePool().release(getWorkspacePoolKey(jobContext), workspace, getCapacity())) {
+			cleanDirAsRoot(workspace);
+			FileUtils.deleteDir(workspace);
+		}
+	}
 
 	private String createNetwork(JobContext jobContext, boolean isWindows, JobLogger jobLogger) {
 		String network = getName() + "-" + jobContext.getProjectName() + "-" 
@@ -500,6 +639,7 @@ public class DockerExecutor extends JobExecutor implements Testable<TestData>, V
 					
 					boolean isWindows = getImageOS(jobLogger, jobContext.getImage()).equalsIgnoreCase("windows");
 
+					File pooledWorkspace = null;
 					String network = createNetwork(jobContext, isWindows, jobLogger);
 					try {
 						for (JobService jobService: jobContext.getServices()) {
@@ -515,9 +655,17 @@ public class DockerExecutor extends JobExecutor implements Testable<TestData>, V
 							}
 						}
 						
+						File projectObjectsDir = new File(jobContext.getProjectGitDir(), "objects");
+						if (workspaceCache == null && isPoolWorkspaces() && jobContext.isRetrieveSource() 
+								&& !isWindows && !SystemUtils.IS_OS_WINDOWS && canMount(projectObjectsDir)) {
+							pooledWorkspace = getWorkspacePool().acquire(getWorkspacePoolKey(jobContext));
+						}
+						
 						File hostWorkspace;
 						if (workspaceCache != null) {
 							hostWorkspace = workspaceCache;
+						} else if (pooledWorkspace != null) {
+							hostWorkspace = pooledWorkspace;
 						} else { 
 							hostWorkspace = new File(hostBuildHome, "workspace");
 							FileUtils.createDir(hostWorkspace);
@@ -638,6 +786,9 @@ public class DockerExecutor extends JobExecutor implements Testable<TestData>, V
 									FileUtils.writeLines(new File(tempHome, ".git-credentials"), submoduleCredentials, "\n");
 								}
 								
+								if (pooledWorkspace != null)
+									preparePooledWorkspace(git, hostWorkspace, jobContext);
+								
 								if (!new File(hostWorkspace, ".git").exists()) {
 									git.clearArgs();
 									git.addArgs("init", ".");
@@ -790,8 +941,15 @@ public class DockerExecutor extends JobExecutor implements Testable<TestData>, V
 							docker.addArgs(StringUtils.parseQuoteTokens(getRunOptions()));
 						
 						docker.addArgs("-v", getOuterPath(hostBuildHome.getAbsolutePath()) + ":" + containerBuildHome);
-						if (workspaceCache != null)
-							docker.addArgs("-v", getOuterPath(workspaceCache.getAbsolutePath()) + ":" + containerWorkspace);
+						if (workspaceCache != null || pooledWorkspace != null)
+							docker.addArgs("-v", getOuterPath(hostWorkspace.getAbsolutePath()) + ":" + containerWorkspace);
+						if (pooledWorkspace != null) {
+							// Mount objects of project repository at the same path so that alternates 
+							// of pooled workspace can be resolved inside container 
+							String hostObjectsPath = projectObjectsDir.getAbsolutePath();
+							String outerObjectsPath = Bootstrap.isInDocker()? getOuterPath(hostObjectsPath): hostObjectsPath;
+							docker.addArgs("-v", outerObjectsPath + ":" + hostObjectsPath + ":ro");
+						}
 						for (Map.Entry<CacheInstance, String> entry: cacheAllocations.entrySet()) {
 							if (!PathUtils.isCurrent(entry.getValue())) {
 								String hostCachePath = entry.getKey().getDirectory(hostCacheHome).getAbsolutePath();
@@ -862,11 +1020,26 @@ public class DockerExecutor extends JobExecutor implements Testable<TestData>, V
 						}
 						jobLogger.log("Reporting job caches...");
 						
-						jobManager.reportJobCaches(jobToken, KubernetesHelper.getCacheInstances(hostCacheHome).keySet());
+						Map<CacheInstance, Long> cacheSizes = new HashMap<>();
+						for (CacheInstance cacheInstance: KubernetesHelper.getCacheInstances(hostCacheHome).keySet()) {
+							// Only caches used by this job may have changed in size
+							Long cacheSize = null;
+							if (cacheAllocations.get(cacheInstance) != null) {
+								try {
+									cacheSize = FileUtils.sizeOfDirectory(cacheInstance.getDirectory(hostCacheHome));
+								} catch (Exception e) {
+									logger.debug("Error calculating size of job cache", e);
+								}
+							}
+							cacheSizes.put(cacheInstance, cacheSize);
+						}
+						jobManager.reportJobCaches(jobToken, cacheSizes);
 						
 						return null;
 					} finally {
 						deleteNetwork(network, jobLogger);
+						if (pooledWorkspace != null)
+							releasePooledWorkspace(pooledWorkspace, jobContext);
 					}
 				}
 				
@@ -1107,7 +1280,7 @@ public class DockerExecutor extends JobExecutor implements Testable<TestData>, V
 			Commandline cmd = newDocker();
 			String containerPath = "/dir-to-clean";
 			cmd.addArgs("run", "-v", dir.getAbsolutePath() + ":" + containerPath, "--rm", 
-					"busybox", "sh", "-c", "rm -rf " + containerPath + "/*");			
+					"busybox", "sh", "-c", "rm -rf " + containerPath + "/* " + containerPath + "/.[!.]* " + containerPath + "/..?*");			
 			cmd.execute(new LineConsumer() {
 
 				@Override
@@ -0,0 +1,96 @@
+package io.onedev.server.plugin.docker;
+
+import java.io.File;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+import io.onedev.commons.utils.FileUtils;
+
+/**
+ * Pool of job workspaces kept on server disk. Workspace of a finished job is returned to the
+ * pool of its key, and will be reset to commit of next job with the same key instead of being
+ * rebuilt from scratch
+ *
+ * @author robin
+ *
+ */
+class WorkspacePool {
+
+	private final File home;
+
+	private final Map<String, Deque<File>> idleWorkspaces = new HashMap<>();
+
+	public WorkspacePool(File home) {
+		this.home = home;
+		FileUtils.createDir(home);
+
+		// Workspaces left by last run are all idle as no jobs are running at this time
+		for (File keyDir: home.listFiles()) {
+			if (keyDir.isDirectory()) {
+				Deque<File> workspaces = new ArrayDeque<>();
+				for (File workspace: keyDir.listFiles()) {
+					if (workspace.isDirectory())
+						workspaces.add(workspace);
+				}
+				idleWorkspaces.put(keyDir.getName(), workspaces);
+			}
+		}
+	}
+
+	/**
+	 * Acquire a workspace of specified pool key. The workspace will be taken from idle workspaces
+	 * of the key if there is any, otherwise an empty workspace will be created
+	 *
+	 * @param poolKey
+	 * 			pool key to acquire workspace for
+	 * @return
+	 * 			acquired workspace, which is either an empty directory or a workspace used by
+	 * 			previous job with the same pool key
+	 */
+	public File acquire(String poolKey) {
+		synchronized (idleWorkspaces) {
+			Deque<File> workspaces = idleWorkspaces.get(poolKey);
+			if (workspaces != null && !workspaces.isEmpty())
+				return workspaces.pop();
+		}
+		File workspace = new File(new File(home, poolKey), UUID.randomUUID().toString());
+		FileUtils.createDir(workspace);
+		return workspace;
+	}
+
+	/**
+	 * Release specified workspace back to the pool
+	 *
+	 * @param poolKey
+	 * 			pool key the workspace was acquired for
+	 * @param workspace
+	 * 			workspace to release
+	 * @param maxIdle
+	 * 			max number of idle workspaces to keep for the pool key
+	 * @return
+	 * 			<tt>true</tt> if workspace is kept in pool, or <tt>false</tt> if pool of
+	 * 			the key is full, in which case the caller is responsible for deleting the
+	 * 			workspace
+	 */
+	public boolean release(String poolKey, File workspace, int maxIdle) {
+		synchronized (idleWorkspaces) {
+			Deque<File> workspaces = idleWorkspaces.get(poolKey);
+			if (workspaces == null) {
+				workspaces = new ArrayDeque<>();
+				idleWorkspaces.put(poolKey, workspaces);
+			}
+			if (workspaces.size() < maxIdle) {
+				// Most recently used workspace is acquired first as it is likely to be closest
+				// to commit of next job
+				workspaces.push(workspace);
+				return true;
+			} else {
+				return false;
+			}
+		}
+	}
+
+}
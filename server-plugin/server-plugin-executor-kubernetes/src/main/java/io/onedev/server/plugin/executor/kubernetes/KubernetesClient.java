@@ -0,0 +1,463 @@
+package io.onedev.server.plugin.executor.kubernetes;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyStore;
+import java.security.cert.Certificate;
+import java.security.cert.CertificateFactory;
+import java.time.Instant;
+import java.time.format.DateTimeFormatter;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+
+import javax.annotation.Nullable;
+import javax.net.ssl.SSLContext;
+
+import org.apache.http.HttpHeaders;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.config.Registry;
+import org.apache.http.config.RegistryBuilder;
+import org.apache.http.conn.socket.ConnectionSocketFactory;
+import org.apache.http.conn.socket.PlainConnectionSocketFactory;
+import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.ssl.SSLContexts;
+import org.apache.http.util.EntityUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import io.onedev.commons.utils.ExceptionUtils;
+import io.onedev.commons.utils.StringUtils;
+import io.onedev.commons.utils.command.LineConsumer;
+import io.onedev.server.OneException;
+
+/**
+ * Accesses Kubernetes API server in process to watch pods and events, and to follow container
+ * logs. Http connections are pooled and kept alive per API server, and are shared by all jobs
+ * running in the same cluster, so that watching a job does not need to spawn any kubectl
+ * processes. Watches and log follows hold their connections for the life of a job, so they
+ * use a separate pool without connection limit to not starve each other and other requests
+ *
+ * @author robin
+ *
+ */
+public class KubernetesClient {
+
+	private static final Logger logger = LoggerFactory.getLogger(KubernetesClient.class);
+
+	// Watch streams are re-established after this many seconds to detect dead connections
+	private static final int WATCH_TIMEOUT = 300;
+
+	private static final int CONNECT_TIMEOUT = 30000;
+
+	private static final int MAX_CONNECTIONS_PER_CLUSTER = 100;
+
+	// Interval in milliseconds to check interruption of threads reading streams
+	private static final long INTERRUPTION_CHECK_INTERVAL = 1000;
+
+	private static final Map<String, ClusterClients> clusterClients = new ConcurrentHashMap<>();
+
+	private static final ObjectMapper mapper = new ObjectMapper();
+
+	/*
+	 * Blocking read of a stream can not be interrupted, so streams are aborted from this 
+	 * thread when their reading threads are interrupted, or their deadlines are reached
+	 */
+	private static final ScheduledExecutorService streamAborter = 
+			Executors.newSingleThreadScheduledExecutor(runnable -> {
+				Thread thread = new Thread(runnable, "Kubernetes Stream Aborter");
+				thread.setDaemon(true);
+				return thread;
+			});
+
+	// Requests being streamed, mapped to their reading threads
+	private static final Map<HttpGet, Thread> streamingRequests = new ConcurrentHashMap<>();
+
+	static {
+		streamAborter.scheduleWithFixedDelay(new Runnable() {
+
+			@Override
+			public void run() {
+				for (Map.Entry<HttpGet, Thread> entry: streamingRequests.entrySet()) {
+					if (entry.getValue().isInterrupted())
+						entry.getKey().abort();
+				}
+			}
+
+		}, INTERRUPTION_CHECK_INTERVAL, INTERRUPTION_CHECK_INTERVAL, TimeUnit.MILLISECONDS);
+	}
+
+	private final String apiServerUrl;
+
+	private final String accessToken;
+
+	private final ClusterClients clients;
+
+	/**
+	 * @param apiServerUrl
+	 * 			url of Kubernetes API server
+	 * @param accessToken
+	 * 			bearer token to access API server, or <tt>null</tt> to access anonymously
+	 * @param caCertificate
+	 * 			PEM encoded certificates to verify API server, or <tt>null</tt> to use
+	 * 			certificates trusted by JVM
+	 */
+	public KubernetesClient(String apiServerUrl, @Nullable String accessToken, @Nullable String caCertificate) {
+		this.apiServerUrl = StringUtils.stripEnd(apiServerUrl, "/");
+		this.accessToken = accessToken;
+		clients = clusterClients.computeIfAbsent(this.apiServerUrl + "\n" + StringUtils.trimToEmpty(caCertificate),
+				key -> new ClusterClients(newRegistry(caCertificate)));
+	}
+
+	private static Registry<ConnectionSocketFactory> newRegistry(@Nullable String caCertificate) {
+		RegistryBuilder<ConnectionSocketFactory> registryBuilder = RegistryBuilder.<ConnectionSocketFactory>create()
+				.register("http", PlainConnectionSocketFactory.getSocketFactory());
+		if (StringUtils.isNotBlank(caCertificate)) {
+			try {
+				KeyStore trustStore = KeyStore.getInstance(KeyStore.getDefaultType());
+				trustStore.load(null, null);
+				CertificateFactory certificateFactory = CertificateFactory.getInstance("X.509");
+				int index = 0;
+				for (Certificate certificate: certificateFactory.generateCertificates(
+						new ByteArrayInputStream(caCertificate.trim().getBytes(StandardCharsets.UTF_8)))) {
+					trustStore.setCertificateEntry("ca" + index++, certificate);
+				}
+				SSLContext sslContext = SSLContexts.custom().loadTrustMaterial(trustStore, null).build();
+				registryBuilder.register("https", new SSLConnectionSocketFactory(sslContext));
+			} catch (Exception e) {
+				throw new OneException("Error loading CA certificate of Kubernetes API server", e);
+			}
+		} else {
+			registryBuilder.register("https", SSLConnectionSocketFactory.getSocketFactory());
+		}
+		return registryBuilder.build();
+	}
+
+	private static CloseableHttpClient newHttpClient(Registry<ConnectionSocketFactory> registry, int maxConnections) {
+		PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager(registry);
+		connectionManager.setMaxTotal(maxConnections);
+		connectionManager.setDefaultMaxPerRoute(maxConnections);
+		return HttpClients.custom()
+				.setConnectionManager(connectionManager)
+				.evictIdleConnections(60, TimeUnit.SECONDS)
+				.build();
+	}
+
+	/**
+	 * Get current state of specified pod
+	 *
+	 * @return
+	 * 			json node of the pod
+	 */
+	public JsonNode getPod(String namespace, String podName) {
+		String path = "/api/v1/namespaces/" + encode(namespace) + "/pods/" + encode(podName);
+		return stream(clients.requestClient, path, WATCH_TIMEOUT, 0, new StreamProcessor<JsonNode>() {
+
+			@Override
+			public JsonNode process(BufferedReader reader) throws IOException {
+				return mapper.readTree(reader);
+			}
+
+		});
+	}
+
+	/**
+	 * Watch specified pod until watcher returns a non-null result. Current state of the pod will be
+	 * passed to watcher first if <tt>resourceVersion</tt> is not specified
+	 *
+	 * @param resourceVersion
+	 * 			only watch changes after this resource version, or <tt>null</tt> to watch from current state
+	 * @param watcher
+	 * 			watcher to receive json node of the pod
+	 * @param timeout
+	 * 			max time in milliseconds to watch, or 0 to watch until watcher returns a non-null result
+	 * @return
+	 * 			result of the watcher, or <tt>null</tt> if timed out
+	 */
+	@Nullable
+	public <T> T watchPod(String namespace, String podName, @Nullable String resourceVersion,
+			Function<JsonNode, T> watcher, long timeout) {
+		String path = "/api/v1/namespaces/" + encode(namespace) + "/pods";
+		return watch(path, "metadata.name=" + podName, resourceVersion, watcher, timeout);
+	}
+
+	/**
+	 * Watch events of specified pod until watcher returns a non-null result
+	 *
+	 * @param watcher
+	 * 			watcher to receive json node of the event
+	 * @return
+	 * 			result of the watcher
+	 */
+	public <T> T watchPodEvents(String namespace, String podName, Function<JsonNode, T> watcher) {
+		String path = "/api/v1/namespaces/" + encode(namespace) + "/events";
+		return watch(path, "involvedObject.kind=Pod,involvedObject.name=" + podName, null, watcher, 0);
+	}
+
+	/**
+	 * Follow log of specified container until the container stops or the log stream is broken.
+	 * Each log line is prefixed with its timestamp in RFC3339 format
+	 *
+	 * @param sinceTime
+	 * 			only return logs after this time, or <tt>null</tt> to return all logs
+	 * @param logConsumer
+	 * 			consumer to receive log lines
+	 * @throws IOException
+	 * 			if log stream is broken
+	 */
+	public void followLog(String namespace, String podName, String containerName,
+			@Nullable Instant sinceTime, LineConsumer logConsumer) throws IOException {
+		String path = "/api/v1/namespaces/" + encode(namespace) + "/pods/" + encode(podName)
+				+ "/log?container=" + encode(containerName) + "&follow=true&timestamps=true";
+		if (sinceTime != null)
+			path += "&sinceTime=" + encode(DateTimeFormatter.ISO_INSTANT.format(sinceTime));
+		try {
+			// Container may not print anything for a long time, so never time out log reading
+			stream(clients.streamClient, path, 0, 0, new StreamProcessor<Void>() {
+
+				@Override
+				public Void process(BufferedReader reader) throws IOException {
+					String line;
+					while ((line = reader.readLine()) != null)
+						logConsumer.consume(line);
+					return null;
+				}
+
+			});
+		} catch (RuntimeException e) {
+			IOException ioException = ExceptionUtils.find(e, IOException.class);
+			if (ioException != null)
+				throw ioException;
+			else
+				throw e;
+		}
+	}
+
+	@Nullable
+	private <T> T watch(String path, String fieldSelector, @Nullable String resourceVersion,
+			Function<JsonNode, T> watcher, long timeout) {
+		long deadline = timeout != 0? System.currentTimeMillis() + timeout: 0;
+		String[] resourceVersionHolder = new String[] {resourceVersion};
+		while (true) {
+			int timeoutSeconds = WATCH_TIMEOUT;
+			if (deadline != 0) {
+				long remaining = deadline - System.currentTimeMillis();
+				if (remaining <= 0)
+					return null;
+				timeoutSeconds = (int) Math.min(WATCH_TIMEOUT, (remaining+999)/1000);
+			}
+			String watchPath = path + "?watch=true&fieldSelector=" + encode(fieldSelector)
+					+ "&timeoutSeconds=" + timeoutSeconds;
+			if (resourceVersionHolder[0] != null)
+				watchPath += "&resourceVersion=" + encode(resourceVersionHolder[0]);
+
+			T result = stream(clients.streamClient, watchPath, timeoutSeconds + 60, deadline, new StreamProcessor<T>() {
+
+				@Override
+				public T process(BufferedReader reader) throws IOException {
+					String line;
+					while ((line = reader.readLine()) != null) {
+						if (line.trim().length() == 0)
+							continue;
+						logger.trace("Watch event: {}", line);
+						JsonNode eventNode = mapper.readTree(line);
+						String type = eventNode.get("type").asText();
+						JsonNode objectNode = eventNode.get("object");
+						if (type.equals("ERROR")) {
+							JsonNode codeNode = objectNode.get("code");
+							if (codeNode != null && codeNode.asInt() == 410) {
+								// Resource version is too old, watch again from current state
+								resourceVersionHolder[0] = null;
+								return null;
+							} else {
+								throw new OneException("Error watching Kubernetes resource: "
+										+ getMessage(objectNode));
+							}
+						}
+						JsonNode resourceVersionNode = objectNode.path("metadata").get("resourceVersion");
+						if (resourceVersionNode != null)
+							resourceVersionHolder[0] = resourceVersionNode.asText();
+						if (!type.equals("BOOKMARK")) {
+							T result = watcher.apply(objectNode);
+							if (result != null)
+								return result;
+						}
+					}
+					return null;
+				}
+
+			});
+			if (result != null)
+				return result;
+		}
+	}
+
+	/*
+	 * Read response stream of specified path in calling thread. The request is aborted if 
+	 * calling thread is interrupted, for instance when job is cancelled, or if deadline is 
+	 * reached. Null will be returned in the latter case
+	 */
+	@Nullable
+	private <T> T stream(CloseableHttpClient httpClient, String path, int timeoutSeconds, long deadline, 
+			StreamProcessor<T> processor) {
+		if (Thread.interrupted())
+			throw new RuntimeException(new InterruptedException());
+
+		HttpGet request = new HttpGet(apiServerUrl + path);
+		request.setConfig(RequestConfig.custom()
+				.setConnectTimeout(CONNECT_TIMEOUT)
+				.setConnectionRequestTimeout(CONNECT_TIMEOUT)
+				.setSocketTimeout(timeoutSeconds * 1000)
+				.build());
+		request.setHeader(HttpHeaders.ACCEPT, "application/json");
+		if (accessToken != null)
+			request.setHeader(HttpHeaders.AUTHORIZATION, "Bearer " + accessToken);
+
+		AtomicBoolean deadlineReached = new AtomicBoolean(false);
+		ScheduledFuture<?> deadlineFuture = null;
+		if (deadline != 0) {
+			long remaining = deadline - System.currentTimeMillis();
+			if (remaining <= 0)
+				return null;
+			deadlineFuture = streamAborter.schedule(new Runnable() {
+
+				@Override
+				public void run() {
+					deadlineReached.set(true);
+					request.abort();
+				}
+
+			}, remaining, TimeUnit.MILLISECONDS);
+		}
+
+		streamingRequests.put(request, Thread.currentThread());
+		try {
+			try (CloseableHttpResponse response = httpClient.execute(request)) {
+				int statusCode = response.getStatusLine().getStatusCode();
+				if (statusCode/100 != 2) {
+					String responseText = response.getEntity()!=null?EntityUtils.toString(response.getEntity()):"";
+					String message;
+					try {
+						message = getMessage(mapper.readTree(responseText));
+					} catch (IOException e) {
+						message = responseText;
+					}
+					throw new OneException("Error accessing Kubernetes API (status code: " + statusCode
+							+ ", message: " + message + ")");
+				}
+				EofAwareInputStream is = new EofAwareInputStream(response.getEntity().getContent());
+				BufferedReader reader = new BufferedReader(new InputStreamReader(is, StandardCharsets.UTF_8));
+				T result;
+				try {
+					result = processor.process(reader);
+				} catch (Exception e) {
+					request.abort();
+					throw e;
+				}
+				/*
+				 * Closing response consumes rest of the stream, which never ends for a watch.
+				 * So we abort the request unless the stream is fully read, in which case the 
+				 * connection can be reused
+				 */
+				if (!is.eof)
+					request.abort();
+				return result;
+			}
+		} catch (Exception e) {
+			if (deadlineReached.get())
+				return null;
+			else if (Thread.interrupted())
+				throw new RuntimeException(new InterruptedException());
+			else
+				throw ExceptionUtils.unchecked(e);
+		} finally {
+			streamingRequests.remove(request);
+			if (deadlineFuture != null)
+				deadlineFuture.cancel(false);
+		}
+	}
+
+	private static String getMessage(@Nullable JsonNode statusNode) {
+		JsonNode messageNode = statusNode!=null?statusNode.get("message"):null;
+		if (messageNode != null)
+			return messageNode.asText();
+		else
+			return String.valueOf(statusNode);
+	}
+
+	private static String encode(String value) {
+		try {
+			return URLEncoder.encode(value, StandardCharsets.UTF_8.name());
+		} catch (UnsupportedEncodingException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	private static class EofAwareInputStream extends FilterInputStream {
+
+		volatile boolean eof;
+
+		EofAwareInputStream(InputStream in) {
+			super(in);
+		}
+
+		@Override
+		public int read() throws IOException {
+			int result = super.read();
+			if (result == -1)
+				eof = true;
+			return result;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			int result = super.read(b, off, len);
+			if (result == -1)
+				eof = true;
+			return result;
+		}
+
+	}
+
+	private static class ClusterClients {
+
+		// Client for short requests
+		final CloseableHttpClient requestClient;
+
+		// Client for long-lived watches and log follows
+		final CloseableHttpClient streamClient;
+
+		ClusterClients(Registry<ConnectionSocketFactory> registry) {
+			requestClient = newHttpClient(registry, MAX_CONNECTIONS_PER_CLUSTER);
+			streamClient = newHttpClient(registry, Integer.MAX_VALUE);
+		}
+
+	}
+
+	private static interface StreamProcessor<T> {
+
+		T process(BufferedReader reader) throws IOException;
+
+	}
+
+}
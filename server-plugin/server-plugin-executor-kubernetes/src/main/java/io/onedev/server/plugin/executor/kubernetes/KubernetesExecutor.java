@@ -19,6 +19,7 @@ import java.util.Map;
 import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
 
 import javax.annotation.Nullable;
 
@@ -63,8 +64,10 @@ import io.onedev.server.util.ServerConfig;
 import io.onedev.server.util.inputspec.SecretInput;
 import io.onedev.server.web.editable.annotation.Editable;
 import io.onedev.server.web.editable.annotation.Horizontal;
+import io.onedev.server.web.editable.annotation.Multiline;
 import io.onedev.server.web.editable.annotation.NameOfEmptyValue;
 import io.onedev.server.web.editable.annotation.OmitName;
+import io.onedev.server.web.editable.annotation.Password;
 import io.onedev.server.web.util.Testable;
 
 @Editable(order=100, description="This executor runs build jobs as pods in a kubernetes cluster. "
@@ -85,6 +88,8 @@ public class KubernetesExecutor extends JobExecutor implements Testable<TestData
 	
 	private static final long NAMESPACE_DELETION_TIMEOUT = 120;
 	
+	private static final long SERVICE_READINESS_CHECK_INTERVAL = 10000;
+	
 	private List<NodeSelectorEntry> nodeSelector = new ArrayList<>();
 	
 	private String serviceAccount;
@@ -97,6 +102,12 @@ public class KubernetesExecutor extends JobExecutor implements Testable<TestData
 	
 	private String kubeCtlPath;
 	
+	private String apiServerUrl;
+	
+	private String apiAccessToken;
+	
+	private String apiCaCertificate;
+	
 	private boolean createCacheLabels = true;
 
 	@Editable(order=20, description="Optionally specify node selector of the job pods")
@@ -165,6 +176,46 @@ public class KubernetesExecutor extends JobExecutor implements Testable<TestData
 		this.kubeCtlPath = kubeCtlPath;
 	}
 
+	@Editable(name="API Server URL", order=28000, group="More Settings", description=
+			"Optionally specify url of Kubernetes API server, for instance: <i>https://10.0.0.1:6443</i>. "
+			+ "If specified, OneDev will watch job pods and collect their logs via Kubernetes API "
+			+ "directly instead of running kubectl for each of them. Kubectl is still used for "
+			+ "other operations, and should be configured to access the same cluster")
+	@NameOfEmptyValue("Use kubectl")
+	public String getApiServerUrl() {
+		return apiServerUrl;
+	}
+
+	public void setApiServerUrl(String apiServerUrl) {
+		this.apiServerUrl = apiServerUrl;
+	}
+
+	@Editable(name="API Access Token", order=28100, group="More Settings", description=
+			"Specify bearer token to access above API server, for instance token of a service "
+			+ "account. The token should be able to get and watch pods and events, and to get "
+			+ "pod logs in job namespaces")
+	@Password
+	public String getApiAccessToken() {
+		return apiAccessToken;
+	}
+
+	public void setApiAccessToken(String apiAccessToken) {
+		this.apiAccessToken = apiAccessToken;
+	}
+
+	@Editable(name="API CA Certificate", order=28200, group="More Settings", description=
+			"Optionally specify PEM encoded CA certificate to verify above API server. Leave "
+			+ "empty to use certificates trusted by JVM")
+	@Multiline
+	@NameOfEmptyValue("Use JVM trusted certificates")
+	public String getApiCaCertificate() {
+		return apiCaCertificate;
+	}
+
+	public void setApiCaCertificate(String apiCaCertificate) {
+		this.apiCaCertificate = apiCaCertificate;
+	}
+
 	@Editable(order=60000, group="More Settings", description="If enabled, OneDev will create labels "
 			+ "on nodes to record cache count for each cache key in job definition, and then "
 			+ "leverage Kubernetes node affinity feature to improve job cache hit rate. Note that "
@@ -187,6 +238,15 @@ public class KubernetesExecutor extends JobExecutor implements Testable<TestData
 		execute(testData.getDockerImage(), KubernetesResource.TEST_JOB_TOKEN, jobLogger, null);
 	}
 	
+	@Nullable
+	private KubernetesClient newClient() {
+		if (getApiServerUrl() != null) {
+			return new KubernetesClient(getApiServerUrl(), getApiAccessToken(), getApiCaCertificate());
+		} else {
+			return null;
+		}
+	}
+	
 	private Commandline newKubeCtl() {
 		String kubectl = getKubeCtlPath();
 		if (kubectl == null)
@@ -548,32 +608,39 @@ public class KubernetesExecutor extends JobExecutor implements Testable<TestData
 
 		OsInfo baselineOsInfo = getBaselineOsInfo(nodeSelector, jobLogger);
 		ObjectMapper mapper = OneDev.getInstance(ObjectMapper.class);
+		KubernetesClient client = newClient();
+		JsonNode podNode = null;
 		while (true) {
-			Commandline kubectl = newKubeCtl();
-			kubectl.addArgs("get", "pod", podName, "-n", namespace, "-o", "json");
-			ByteArrayOutputStream baos = new ByteArrayOutputStream();
-			kubectl.execute(baos, new LineConsumer() {
-
-				@Override
-				public void consume(String line) {
-					jobLogger.log("Kubernetes: " + line);
+			if (client != null) {
+				if (podNode == null)
+					podNode = client.getPod(namespace, podName);
+			} else {
+				Commandline kubectl = newKubeCtl();
+				kubectl.addArgs("get", "pod", podName, "-n", namespace, "-o", "json");
+				ByteArrayOutputStream baos = new ByteArrayOutputStream();
+				kubectl.execute(baos, new LineConsumer() {
+	
+					@Override
+					public void consume(String line) {
+						jobLogger.log("Kubernetes: " + line);
+					}
+					
+				}).checkReturnCode();
+	
+				try {
+					podNode = mapper.readTree(baos.toString());
+				} catch (IOException e) {
+					throw new RuntimeException(e);
 				}
-				
-			}).checkReturnCode();
-
-			JsonNode statusNode;
-			try {
-				statusNode = mapper.readTree(baos.toString()).get("status");
-			} catch (IOException e) {
-				throw new RuntimeException(e);
 			}
 			
+			JsonNode statusNode = podNode.get("status");
 			JsonNode containerStatusesNode = statusNode.get("containerStatuses");
 			if (containerStatusesNode != null) {
 				JsonNode containerStatusNode = containerStatusesNode.iterator().next();
 				JsonNode stateNode = containerStatusNode.get("state");
 				if (stateNode.get("running") != null) {
-					kubectl.clearArgs();
+					Commandline kubectl = newKubeCtl();
 					kubectl.addArgs("exec", podName, "-n", namespace, "--");
 					if (baselineOsInfo.isLinux())
 						kubectl.addArgs("bash", "-c");
@@ -623,10 +690,29 @@ public class KubernetesExecutor extends JobExecutor implements Testable<TestData
 				}
 			}
 			
-			try {
-				Thread.sleep(10000);
-			} catch (InterruptedException e) {
-				throw new RuntimeException(e);
+			if (client != null) {
+				/*
+				 * Wait for pod changes instead of sleeping, so that container start or termination
+				 * is noticed immediately. Readiness check is still retried periodically
+				 */
+				String resourceVersion = podNode.get("metadata").get("resourceVersion").asText();
+				JsonNode changedPodNode = client.watchPod(namespace, podName, resourceVersion, 
+						new Function<JsonNode, JsonNode>() {
+
+					@Override
+					public JsonNode apply(JsonNode changedPodNode) {
+						return changedPodNode;
+					}
+					
+				}, SERVICE_READINESS_CHECK_INTERVAL);
+				if (changedPodNode != null)
+					podNode = changedPodNode;
+			} else {
+				try {
+					Thread.sleep(SERVICE_READINESS_CHECK_INTERVAL);
+				} catch (InterruptedException e) {
+					throw new RuntimeException(e);
+				}
 			}
 		}
 	}
@@ -854,23 +940,30 @@ public class KubernetesExecutor extends JobExecutor implements Testable<TestData
 			
 			AtomicReference<String> nodeNameRef = new AtomicReference<>(null);
 			
-			kubectl.clearArgs();
-			kubectl.addArgs("get", "pod", podName, "-n", namespace, "-o", "jsonpath={.spec.nodeName}");
-			kubectl.execute(new LineConsumer() {
-
-				@Override
-				public void consume(String line) {
-					nodeNameRef.set(line);
-				}
-				
-			}, new LineConsumer() {
-
-				@Override
-				public void consume(String line) {
-					jobLogger.log("Kubernetes: " + line);
-				}
-				
-			}).checkReturnCode();
+			KubernetesClient client = newClient();
+			if (client != null) {
+				JsonNode nodeNameNode = client.getPod(namespace, podName).get("spec").get("nodeName");
+				if (nodeNameNode != null)
+					nodeNameRef.set(nodeNameNode.asText());
+			} else {
+				kubectl.clearArgs();
+				kubectl.addArgs("get", "pod", podName, "-n", namespace, "-o", "jsonpath={.spec.nodeName}");
+				kubectl.execute(new LineConsumer() {
+	
+					@Override
+					public void consume(String line) {
+						nodeNameRef.set(line);
+					}
+					
+				}, new LineConsumer() {
+	
+					@Override
+					public void consume(String line) {
+						jobLogger.log("Kubernetes: " + line);
+					}
+					
+				}).checkReturnCode();
+			}
 			
 			String nodeName = Preconditions.checkNotNull(nodeNameRef.get());
 			jobLogger.log("Running job pod on node " + nodeName + "...");
@@ -1097,7 +1190,73 @@ public class KubernetesExecutor extends JobExecutor implements Testable<TestData
 		}
 	}
 	
+	@Nullable
+	private StopWatch checkPod(JsonNode podNode, StatusChecker statusChecker, JobLogger jobLogger) {
+		String errorMessage = null;
+		JsonNode statusNode = podNode.get("status");
+		JsonNode conditionsNode = statusNode.get("conditions");
+		if (conditionsNode != null) {
+			for (JsonNode conditionNode: conditionsNode) {
+				if (conditionNode.get("type").asText().equals("PodScheduled") 
+						&& conditionNode.get("status").asText().equals("False")
+						&& conditionNode.get("reason").asText().equals("Unschedulable")) {
+					jobLogger.log("Kubernetes: " + conditionNode.get("message").asText());
+				}
+			}
+		}
+		
+		Collection<JsonNode> containerStatusNodes = new ArrayList<>();
+		JsonNode initContainerStatusesNode = statusNode.get("initContainerStatuses");
+		if (initContainerStatusesNode != null) {
+			for (JsonNode containerStatusNode: initContainerStatusesNode)
+				containerStatusNodes.add(containerStatusNode);
+		}
+		JsonNode containerStatusesNode = statusNode.get("containerStatuses");
+		if (containerStatusesNode != null) {
+			for (JsonNode containerStatusNode: containerStatusesNode)
+				containerStatusNodes.add(containerStatusNode);
+		}
+		
+		for (JsonNode containerStatusNode: containerStatusNodes) {
+			JsonNode stateNode = containerStatusNode.get("state");
+			JsonNode waitingNode = stateNode.get("waiting");
+			if (waitingNode != null) {
+				String reason = waitingNode.get("reason").asText();
+				if (reason.equals("ErrImagePull") || reason.equals("InvalidImageName") 
+						|| reason.equals("ImageInspectError") || reason.equals("ErrImageNeverPull")
+						|| reason.equals("RegistryUnavailable")) {
+					JsonNode messageNode = waitingNode.get("message");
+					if (messageNode != null)
+						errorMessage = messageNode.asText();
+					else
+						errorMessage = reason;
+					break;
+				}
+			} 
+		}
+		if (errorMessage != null) 
+			return new StopWatch(new OneException(errorMessage));
+		else 
+			return statusChecker.check(statusNode);
+	}
+	
 	private void watchPod(String namespace, String podName, StatusChecker statusChecker, JobLogger jobLogger) {
+		KubernetesClient client = newClient();
+		if (client != null) {
+			StopWatch stopWatch = client.watchPod(namespace, podName, null, new Function<JsonNode, StopWatch>() {
+
+				@Override
+				public StopWatch apply(JsonNode podNode) {
+					logger.trace("Pod watching output:\n" + podNode.toString());
+					return checkPod(podNode, statusChecker, jobLogger);
+				}
+				
+			}, 0);
+			if (stopWatch.getException() != null)
+				throw stopWatch.getException();
+			return;
+		}
+		
 		Commandline kubectl = newKubeCtl();
 		
 		ObjectMapper mapper = OneDev.getInstance(ObjectMapper.class);
@@ -1119,7 +1278,9 @@ public class KubernetesExecutor extends JobExecutor implements Testable<TestData
 						json.append("}");
 						logger.trace("Pod watching output:\n" + json.toString());
 						try {
-							process(mapper.readTree(json.toString()));
+							stopWatchRef.set(checkPod(mapper.readTree(json.toString()), statusChecker, jobLogger));
+							if (stopWatchRef.get() != null) 
+								thread.interrupt();
 						} catch (Exception e) {
 							logger.error("Error processing pod watching output", e);
 						}
@@ -1129,57 +1290,6 @@ public class KubernetesExecutor extends JobExecutor implements Testable<TestData
 					}
 				}
 
-				private void process(JsonNode podNode) {
-					String errorMessage = null;
-					JsonNode statusNode = podNode.get("status");
-					JsonNode conditionsNode = statusNode.get("conditions");
-					if (conditionsNode != null) {
-						for (JsonNode conditionNode: conditionsNode) {
-							if (conditionNode.get("type").asText().equals("PodScheduled") 
-									&& conditionNode.get("status").asText().equals("False")
-									&& conditionNode.get("reason").asText().equals("Unschedulable")) {
-								jobLogger.log("Kubernetes: " + conditionNode.get("message").asText());
-							}
-						}
-					}
-					
-					Collection<JsonNode> containerStatusNodes = new ArrayList<>();
-					JsonNode initContainerStatusesNode = statusNode.get("initContainerStatuses");
-					if (initContainerStatusesNode != null) {
-						for (JsonNode containerStatusNode: initContainerStatusesNode)
-							containerStatusNodes.add(containerStatusNode);
-					}
-					JsonNode containerStatusesNode = statusNode.get("containerStatuses");
-					if (containerStatusesNode != null) {
-						for (JsonNode containerStatusNode: containerStatusesNode)
-							containerStatusNodes.add(containerStatusNode);
-					}
-					
-					for (JsonNode containerStatusNode: containerStatusNodes) {
-						JsonNode stateNode = containerStatusNode.get("state");
-						JsonNode waitingNode = stateNode.get("waiting");
-						if (waitingNode != null) {
-							String reason = waitingNode.get("reason").asText();
-							if (reason.equals("ErrImagePull") || reason.equals("InvalidImageName") 
-									|| reason.equals("ImageInspectError") || reason.equals("ErrImageNeverPull")
-									|| reason.equals("RegistryUnavailable")) {
-								JsonNode messageNode = waitingNode.get("message");
-								if (messageNode != null)
-									errorMessage = messageNode.asText();
-								else
-									errorMessage = reason;
-								break;
-							}
-						} 
-					}
-					if (errorMessage != null) 
-						stopWatchRef.set(new StopWatch(new OneException(errorMessage)));
-					else 
-						stopWatchRef.set(statusChecker.check(statusNode));
-					if (stopWatchRef.get() != null) 
-						thread.interrupt();
-				}
-				
 			}, new LineConsumer() {
 	
 				@Override
@@ -1201,7 +1311,40 @@ public class KubernetesExecutor extends JobExecutor implements Testable<TestData
 		}		
 	}
 	
+	@Nullable
+	private StopWatch checkEvent(JsonNode eventNode, JobLogger jobLogger) {
+		String type = eventNode.get("type").asText();
+		String reason = eventNode.get("reason").asText();
+		JsonNode messageNode = eventNode.get("message");
+		String message = messageNode!=null? messageNode.asText(): reason;
+		if (type.equals("Warning")) {
+			if (reason.equals("FailedScheduling"))
+				jobLogger.log("Kubernetes: " + message);
+			else
+				return new StopWatch(new OneException(message));
+		} else if (type.equals("Normal") && reason.equals("Started")) {
+			return new StopWatch(null);
+		}
+		return null;
+	}
+	
 	private void checkEventError(String namespace, String podName, JobLogger jobLogger) {
+		KubernetesClient client = newClient();
+		if (client != null) {
+			StopWatch stopWatch = client.watchPodEvents(namespace, podName, new Function<JsonNode, StopWatch>() {
+
+				@Override
+				public StopWatch apply(JsonNode eventNode) {
+					logger.trace("Watching event:\n" + eventNode.toString());
+					return checkEvent(eventNode, jobLogger);
+				}
+				
+			});
+			if (stopWatch.getException() != null)
+				throw stopWatch.getException();
+			return;
+		}
+		
 		Commandline kubectl = newKubeCtl();
 		
 		ObjectMapper mapper = OneDev.getInstance(ObjectMapper.class);
@@ -1223,19 +1366,7 @@ public class KubernetesExecutor extends JobExecutor implements Testable<TestData
 						json.append("}");
 						logger.trace("Watching event:\n" + json.toString());
 						try {
-							JsonNode eventNode = mapper.readTree(json.toString()); 
-							String type = eventNode.get("type").asText();
-							String reason = eventNode.get("reason").asText();
-							JsonNode messageNode = eventNode.get("message");
-							String message = messageNode!=null? messageNode.asText(): reason;
-							if (type.equals("Warning")) {
-								if (reason.equals("FailedScheduling"))
-									jobLogger.log("Kubernetes: " + message);
-								else
-									stopWatchRef.set(new StopWatch(new OneException(message)));
-							} else if (type.equals("Normal") && reason.equals("Started")) {
-								stopWatchRef.set(new StopWatch(null));
-							}
+							stopWatchRef.set(checkEvent(mapper.readTree(json.toString()), jobLogger));
 							if (stopWatchRef.get() != null)
 								thread.interrupt();
 						} catch (Exception e) {
@@ -1274,13 +1405,9 @@ public class KubernetesExecutor extends JobExecutor implements Testable<TestData
 		AtomicReference<String> errorMessageRef = new AtomicReference<>(null);
 		AtomicReference<Instant> lastInstantRef = new AtomicReference<>(null);
 		AtomicBoolean endOfLogSeenRef = new AtomicBoolean(false);
+		KubernetesClient client = newClient();
 		
 		while (true) {
-			Commandline kubectl = newKubeCtl();
-			kubectl.addArgs("logs", podName, "-c", containerName, "-n", namespace, "--follow", "--timestamps=true");
-			if (lastInstantRef.get() != null)
-				kubectl.addArgs("--since-time=" + DateTimeFormatter.ISO_INSTANT.format(lastInstantRef.get()));
-			
 			LineConsumer logConsumer = new LineConsumer() {
 
 				@Override
@@ -1290,7 +1417,7 @@ public class KubernetesExecutor extends JobExecutor implements Testable<TestData
 						logger.debug(line);
 					} else if (logEndMessage != null && line.contains(logEndMessage)) {
 						endOfLogSeenRef.set(true);
-					} else if (line.contains("Error from server") && line.contains("containerLogs")
+					} else if (client == null && line.contains("Error from server") && line.contains("containerLogs")
 							&& (line.contains("EOF") || line.contains("Connection refused"))) {
 						errorMessageRef.set(line);
 						thread.interrupt();
@@ -1311,14 +1438,28 @@ public class KubernetesExecutor extends JobExecutor implements Testable<TestData
 				
 			};
 			
-			try {
-				kubectl.execute(logConsumer, logConsumer).checkReturnCode();
-			} catch (Exception e) {
-				if (errorMessageRef.get() != null) 
-					throw new OneException(errorMessageRef.get());
-				else
-					throw ExceptionUtils.unchecked(e);
-			}		
+			if (client != null) {
+				try {
+					client.followLog(namespace, podName, containerName, lastInstantRef.get(), logConsumer);
+				} catch (IOException e) {
+					// Log stream broken, continue from last seen log time
+					logger.debug("Error following container log (pod: " + namespace + "/" + podName 
+							+ ", container: " + containerName + ")", e);
+				}
+			} else {
+				Commandline kubectl = newKubeCtl();
+				kubectl.addArgs("logs", podName, "-c", containerName, "-n", namespace, "--follow", "--timestamps=true");
+				if (lastInstantRef.get() != null)
+					kubectl.addArgs("--since-time=" + DateTimeFormatter.ISO_INSTANT.format(lastInstantRef.get()));
+				try {
+					kubectl.execute(logConsumer, logConsumer).checkReturnCode();
+				} catch (Exception e) {
+					if (errorMessageRef.get() != null) 
+						throw new OneException(errorMessageRef.get());
+					else
+						throw ExceptionUtils.unchecked(e);
+				}		
+			}
 			
 			if (logEndMessage == null || endOfLogSeenRef.get()) {
 				break;
@@ -93,9 +93,21 @@ public class KubernetesResource {
 	@Consumes(MediaType.APPLICATION_OCTET_STREAM)
 	@POST
 	public void reportJobCaches(byte[] cacheInstanceBytes) {
-		@SuppressWarnings("unchecked")
-		Collection<CacheInstance> cacheInstances = (Collection<CacheInstance>) SerializationUtils
-				.deserialize(cacheInstanceBytes);
+		Object reported = SerializationUtils.deserialize(cacheInstanceBytes);
+		Map<CacheInstance, Long> cacheInstances;
+		if (reported instanceof Map) {
+			// Map of cache instance to size in bytes
+			@SuppressWarnings("unchecked")
+			Map<CacheInstance, Long> cacheSizes = (Map<CacheInstance, Long>) reported;
+			cacheInstances = cacheSizes;
+		} else {
+			// Helpers not reporting sizes send collection of cache instances 
+			cacheInstances = new HashMap<>();
+			@SuppressWarnings("unchecked")
+			Collection<CacheInstance> reportedInstances = (Collection<CacheInstance>) reported;
+			for (CacheInstance cacheInstance: reportedInstances)
+				cacheInstances.put(cacheInstance, null);
+		}
 		jobManager.reportJobCaches(getJobToken(), cacheInstances);
 	}
 	
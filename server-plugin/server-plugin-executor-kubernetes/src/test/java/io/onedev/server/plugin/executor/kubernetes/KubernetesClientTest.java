@@ -0,0 +1,236 @@
+package io.onedev.server.plugin.executor.kubernetes;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import io.onedev.commons.utils.command.LineConsumer;
+import io.onedev.server.OneException;
+
+public class KubernetesClientTest {
+
+	private static final String TOKEN = "test-token";
+
+	private HttpServer server;
+
+	private ExecutorService executor;
+
+	private final List<String> requests = Collections.synchronizedList(new ArrayList<>());
+
+	private volatile boolean stopped;
+
+	@Before
+	public void before() throws IOException {
+		executor = Executors.newCachedThreadPool();
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.setExecutor(Executors.newCachedThreadPool());
+		server.createContext("/api/v1/namespaces/ns/pods", exchange -> {
+			requests.add(exchange.getRequestURI().toString());
+			if (!("Bearer " + TOKEN).equals(exchange.getRequestHeaders().getFirst("Authorization"))) {
+				respond(exchange, 401, "{\"kind\":\"Status\",\"message\":\"Unauthorized\"}");
+				return;
+			}
+			String path = exchange.getRequestURI().getPath();
+			String query = exchange.getRequestURI().getQuery();
+			if (path.equals("/api/v1/namespaces/ns/pods/job/log")) {
+				respond(exchange, 200, "2020-01-01T00:00:00Z line1\n2020-01-01T00:00:01Z line2\n");
+			} else if (path.equals("/api/v1/namespaces/ns/pods/job")) {
+				respond(exchange, 200, pod("Running", "5"));
+			} else if (path.equals("/api/v1/namespaces/ns/pods/missing")) {
+				respond(exchange, 404, "{\"kind\":\"Status\",\"message\":\"pods \\\"missing\\\" not found\"}");
+			} else if (query.contains("metadata.name=expired") && query.contains("resourceVersion=1")) {
+				respond(exchange, 200, "{\"type\":\"ERROR\",\"object\":{\"kind\":\"Status\",\"code\":410}}\n");
+			} else if (query.contains("metadata.name=hanging")) {
+				exchange.sendResponseHeaders(200, 0);
+				OutputStream os = exchange.getResponseBody();
+				os.write(("{\"type\":\"ADDED\",\"object\":" + pod("Pending", "1") + "}\n").getBytes(StandardCharsets.UTF_8));
+				os.flush();
+				long time = System.currentTimeMillis();
+				while (!stopped && System.currentTimeMillis() - time < 10000) {
+					try {
+						Thread.sleep(10);
+					} catch (InterruptedException e) {
+						break;
+					}
+				}
+				exchange.close();
+			} else {
+				// Stream events with some delay to make sure they are processed as they arrive
+				exchange.sendResponseHeaders(200, 0);
+				try (OutputStream os = exchange.getResponseBody()) {
+					os.write(("{\"type\":\"ADDED\",\"object\":" + pod("Pending", "2") + "}\n").getBytes(StandardCharsets.UTF_8));
+					os.flush();
+					Thread.sleep(100);
+					os.write(("{\"type\":\"MODIFIED\",\"object\":" + pod("Running", "3") + "}\n").getBytes(StandardCharsets.UTF_8));
+					os.flush();
+				} catch (InterruptedException e) {
+					throw new RuntimeException(e);
+				}
+			}
+		});
+		server.start();
+	}
+
+	@After
+	public void after() {
+		stopped = true;
+		server.stop(0);
+		executor.shutdownNow();
+	}
+
+	private String pod(String phase, String resourceVersion) {
+		return "{\"kind\":\"Pod\",\"metadata\":{\"name\":\"job\",\"resourceVersion\":\"" + resourceVersion + "\"},"
+				+ "\"status\":{\"phase\":\"" + phase + "\"}}";
+	}
+
+	private void respond(HttpExchange exchange, int statusCode, String body) throws IOException {
+		byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+		exchange.sendResponseHeaders(statusCode, bytes.length);
+		try (OutputStream os = exchange.getResponseBody()) {
+			os.write(bytes);
+		}
+	}
+
+	private KubernetesClient newClient(String token) {
+		return new KubernetesClient("http://127.0.0.1:" + server.getAddress().getPort() + "/", token, null);
+	}
+
+	@Test
+	public void shouldWatchPodUntilWatcherReturns() {
+		List<String> phases = new ArrayList<>();
+		String resourceVersion = newClient(TOKEN).watchPod("ns", "job", null, podNode -> {
+			String phase = podNode.get("status").get("phase").asText();
+			phases.add(phase);
+			return phase.equals("Running")? podNode.get("metadata").get("resourceVersion").asText(): null;
+		}, 0);
+		assertEquals("3", resourceVersion);
+		assertEquals("[Pending, Running]", phases.toString());
+		assertTrue(requests.get(0).contains("fieldSelector=metadata.name%3Djob"));
+	}
+
+	@Test
+	public void shouldWatchFromCurrentStateIfResourceVersionExpired() {
+		String phase = newClient(TOKEN).watchPod("ns", "expired", "1", podNode -> {
+			return podNode.get("status").get("phase").asText();
+		}, 0);
+		assertEquals("Pending", phase);
+		assertEquals(2, requests.size());
+		assertTrue(requests.get(0).contains("resourceVersion=1"));
+		assertTrue(!requests.get(1).contains("resourceVersion="));
+	}
+
+	@Test
+	public void shouldReturnNullIfWatchTimedOut() {
+		long time = System.currentTimeMillis();
+		assertNull(newClient(TOKEN).watchPod("ns", "hanging", null, podNode -> null, 1000));
+		assertTrue(System.currentTimeMillis() - time < 5000);
+	}
+
+	@Test
+	public void shouldAbortWatchWhenInterrupted() throws InterruptedException {
+		Thread thread = Thread.currentThread();
+		Thread interrupter = new Thread(() -> {
+			try {
+				Thread.sleep(500);
+			} catch (InterruptedException e) {
+			}
+			thread.interrupt();
+		});
+		interrupter.start();
+		long time = System.currentTimeMillis();
+		try {
+			newClient(TOKEN).watchPod("ns", "hanging", null, podNode -> null, 0);
+			fail("Watch should be aborted");
+		} catch (RuntimeException e) {
+			assertTrue(e.getCause() instanceof InterruptedException);
+		}
+		assertTrue(System.currentTimeMillis() - time < 5000);
+		interrupter.join();
+	}
+
+	@Test
+	public void shouldNotStarveRequestsWithLongLivedWatches() throws Exception {
+		// More watches than max connections of short requests
+		List<Future<String>> futures = new ArrayList<>();
+		for (int i=0; i<120; i++)
+			futures.add(executor.submit(() -> newClient(TOKEN).watchPod("ns", "hanging", null, podNode -> null, 3000)));
+		long time = System.currentTimeMillis();
+		while (requests.size() < 120) {
+			assertTrue(System.currentTimeMillis() - time < 5000);
+			Thread.sleep(10);
+		}
+
+		time = System.currentTimeMillis();
+		assertEquals("Running", newClient(TOKEN).getPod("ns", "job").get("status").get("phase").asText());
+		assertEquals("3", newClient(TOKEN).watchPod("ns", "job", null, podNode -> {
+			String phase = podNode.get("status").get("phase").asText();
+			return phase.equals("Running")? podNode.get("metadata").get("resourceVersion").asText(): null;
+		}, 0));
+		assertTrue(System.currentTimeMillis() - time < 2000);
+
+		for (Future<String> future: futures)
+			assertNull(future.get());
+	}
+
+	@Test
+	public void shouldFollowLog() throws IOException {
+		List<String> lines = new ArrayList<>();
+		newClient(TOKEN).followLog("ns", "job", "main", Instant.parse("2020-01-01T00:00:00Z"), new LineConsumer() {
+
+			@Override
+			public void consume(String line) {
+				lines.add(line);
+			}
+
+		});
+		assertEquals("[2020-01-01T00:00:00Z line1, 2020-01-01T00:00:01Z line2]", lines.toString());
+		assertTrue(requests.get(0).contains("container=main"));
+		assertTrue(requests.get(0).contains("follow=true"));
+		assertTrue(requests.get(0).contains("sinceTime=2020-01-01T00%3A00%3A00Z"));
+	}
+
+	@Test
+	public void shouldGetPodAndReuseConnection() {
+		KubernetesClient client = newClient(TOKEN);
+		for (int i=0; i<3; i++)
+			assertEquals("Running", client.getPod("ns", "job").get("status").get("phase").asText());
+	}
+
+	@Test
+	public void shouldReportApiError() {
+		try {
+			newClient(TOKEN).getPod("ns", "missing");
+			fail("Error should be reported");
+		} catch (OneException e) {
+			assertTrue(e.getMessage().contains("404"));
+			assertTrue(e.getMessage().contains("pods \"missing\" not found"));
+		}
+		try {
+			newClient("invalid-token").getPod("ns", "job");
+			fail("Error should be reported");
+		} catch (OneException e) {
+			assertTrue(e.getMessage().contains("Unauthorized"));
+		}
+	}
+
+}